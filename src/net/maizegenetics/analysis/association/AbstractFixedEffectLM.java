@@ -3,11 +3,13 @@ package net.maizegenetics.analysis.association;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import net.maizegenetics.dna.snp.score.SiteScore;
 import net.maizegenetics.matrixalgebra.Matrix.DoubleMatrix;
@@ -22,13 +24,20 @@ import net.maizegenetics.stats.linearmodels.ModelEffect;
 import net.maizegenetics.stats.linearmodels.ModelEffectUtils;
 import net.maizegenetics.stats.linearmodels.SolveByOrthogonalizing;
 import net.maizegenetics.stats.linearmodels.SweepFastLinearModel;
+import net.maizegenetics.stats.linearmodels.SweepFastMultipleResponse;
 import net.maizegenetics.taxa.Taxon;
 import net.maizegenetics.util.BitSet;
 import net.maizegenetics.util.OpenBitSet;
 import net.maizegenetics.util.TableReport;
 import net.maizegenetics.util.TableReportBuilder;
 
-public abstract class AbstractFixedEffectLM implements FixedEffectLM {
+public abstract class AbstractFixedEffectLM implements FixedEffectLM, Cloneable {
+	
+	/**
+	 * The number of sites tested by each task when running with more than one thread
+	 */
+	public static final int SITES_PER_TASK = 1000;
+	
 	protected final Datum myDatum;
 	protected final GenotypePhenotype myGenoPheno;
 	protected final int numberOfObservations;
@@ -56,7 +65,7 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 	protected boolean permute = false;
 	protected int numberOfPermutations = 0;
 	protected double[] minP = null;
-	protected List<DoubleMatrix> permutedData;
+	protected double[][] permutedData;	//[observation][permutation], observations not missing for the trait
 	protected double[] baseErrorSSdf;
 	protected double[] totalcfmSSdf;
 	protected double[] markerSSdf;
@@ -72,6 +81,25 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 	protected int randomSeed;
 	protected boolean useRandomSeed = false;
 	protected Random rand = null;
+	
+	//fields used for multi-threaded site tests
+	protected int numberOfThreads = 1;
+	protected int numberOfTestsTotal;
+	protected AtomicInteger numberOfTestsCalculated;
+	protected int updateInterval;
+	
+	//base model, data, and X'X, X'y of base model for the missing pattern of the current trait.
+	//These are reused for sites with no additional missing observations.
+	protected ArrayList<ModelEffect> cachedBaseModel;
+	protected double[] cachedSiteData;
+	protected DoubleMatrix[][] cachedBaseXtX;
+	protected DoubleMatrix[] cachedBaseXty;
+	
+	//base model swept for all permutations, its X columns, and the rows of permutedData it was fit to.
+	//These are reused for following sites with the same observations.
+	protected SweepFastMultipleResponse permutationBaseSweep;
+	protected List<double[]> permutationBaseColumns;
+	protected int[] permutationBaseKeep;
 
 
     protected static final Map<SiteScore.SITE_SCORE_TYPE, String> typeNameMap;
@@ -121,9 +149,9 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 		//	loop through sites
 		initializeReportBuilders();
 		int numberOfAttributes = myDataAttributes.size();
-		int numberOfTestsTotal = numberOfAttributes * numberOfSites;
-		int numberOfTestsCalculated = 0;
-		int updateInterval = Math.max(1, numberOfTestsTotal / 100);
+		numberOfTestsTotal = numberOfAttributes * numberOfSites;
+		numberOfTestsCalculated = new AtomicInteger();
+		updateInterval = Math.max(1, numberOfTestsTotal / 100);
 		
 //		long start = System.currentTimeMillis();
 		for (PhenotypeAttribute dataAttribute:myDataAttributes) {
@@ -136,23 +164,9 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 				missingObsForSite = missingObs;
 				createPermutedData();
 			}
-			for (int s = 0; s < numberOfSites; s++) {
-				//updata missing obs for this site
-				myCurrentSite = s;
-				getGenotypeAndUpdateMissing(missingObs);
-				siteData = AssociationUtils.getNonMissingDoubles(allData, missingObsForSite);
-				myBaseModel = baseModel();
-				numberOfBaseEffects = myBaseModel.size();
-				analyzeSite();
-				if (permute) updateMinP(missingObs);
-				
-				numberOfTestsCalculated++;
-				if (numberOfTestsCalculated % updateInterval == 0) {
-				        double percentTested = 100.0 * ((double) numberOfTestsCalculated) / numberOfTestsTotal;
-				        percentTested = Math.min(percentTested, 100);
-					if (myParentPlugin != null) myParentPlugin.updateProgress((int) percentTested);
-				}
-			}
+			clearBaseModelCache();
+			if (numberOfThreads > 1) analyzeSitesInParallel(missingObs);
+			else analyzeSites(0, numberOfSites, missingObs);
 //			System.out.printf("Sites analyzed in %d ms\n", System.currentTimeMillis() - start);
 			if (permute) updateReportsWithPermutationP();
 		}
@@ -162,6 +176,166 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 		}
 	}
 	
+	/**
+	 * Tests sites from start (inclusive) to end (exclusive) for the current trait.
+	 * @param start	the first site
+	 * @param end	the site after the last site
+	 * @param missingObs	a BitSet with bits set for observations missing in model covariates and data
+	 */
+	protected void analyzeSites(int start, int end, BitSet missingObs) {
+		long numberMissing = missingObs.cardinality();
+		for (int s = start; s < end; s++) {
+			//updata missing obs for this site
+			myCurrentSite = s;
+			getGenotypeAndUpdateMissing(missingObs);
+			if (missingObsForSite.cardinality() == numberMissing) {
+				//no additional missing observations, so the base model is the same as the last such site
+				if (cachedBaseModel == null) cacheBaseModel();
+				siteData = cachedSiteData;
+				myBaseModel = cachedBaseModel;
+			} else {
+				siteData = AssociationUtils.getNonMissingDoubles(allData, missingObsForSite);
+				myBaseModel = baseModel();
+			}
+			numberOfBaseEffects = myBaseModel.size();
+			analyzeSite();
+			if (permute) updateMinP(missingObs);
+			
+			int numberCalculated = numberOfTestsCalculated.incrementAndGet();
+			if (numberCalculated % updateInterval == 0) {
+			        double percentTested = 100.0 * ((double) numberCalculated) / numberOfTestsTotal;
+			        percentTested = Math.min(percentTested, 100);
+				if (myParentPlugin != null) myParentPlugin.updateProgress((int) percentTested);
+			}
+		}
+	}
+	
+	/**
+	 * Tests all sites for the current trait using numberOfThreads threads. Sites are split into tasks of SITES_PER_TASK sites.
+	 * Each task is run by a copy of this object with its own report buffers, which are added to the reports in site order.
+	 * Tasks are run in batches, so only a few buffers are held at a time. Results are the same as a single thread.
+	 * @param missingObs	a BitSet with bits set for observations missing in model covariates and data
+	 */
+	protected void analyzeSitesInParallel(BitSet missingObs) {
+		int numberOfTasks = (numberOfSites + SITES_PER_TASK - 1) / SITES_PER_TASK;
+		int tasksPerBatch = numberOfThreads * 4;
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try {
+			for (int firstTask = 0; firstTask < numberOfTasks; firstTask += tasksPerBatch) {
+				int lastTask = Math.min(firstTask + tasksPerBatch, numberOfTasks);
+				AbstractFixedEffectLM[] workers = new AbstractFixedEffectLM[lastTask - firstTask];
+				for (int w = 0; w < workers.length; w++) workers[w] = worker();
+				int batchStart = firstTask;
+				pool.submit(() -> IntStream.range(0, workers.length).parallel().forEach(w -> {
+					int start = (batchStart + w) * SITES_PER_TASK;
+					workers[w].analyzeSites(start, Math.min(start + SITES_PER_TASK, numberOfSites), missingObs);
+				})).get();
+				for (AbstractFixedEffectLM worker : workers) merge(worker);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("AbstractFixedEffectLM: analyzeSitesInParallel: " + e.getMessage(), e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * @return	a copy of this object that buffers report rows in memory and keeps its own permutation minimum p values
+	 */
+	protected AbstractFixedEffectLM worker() {
+		AbstractFixedEffectLM worker;
+		try {
+			worker = (AbstractFixedEffectLM) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("AbstractFixedEffectLM: worker: " + e.getMessage());
+		}
+		worker.siteReportBuilder = TableReportBuilder.getInstance("sites", numberOfSiteReportColumns);
+		worker.alleleReportBuilder = TableReportBuilder.getInstance("alleles", numberOfAlleleReportColumns);
+		worker.siteTableReportRows = new ArrayList<>();
+		if (permute) {
+			worker.minP = new double[numberOfPermutations];
+			Arrays.fill(worker.minP, 1.0);
+		}
+		worker.clearBaseModelCache();
+		return worker;
+	}
+	
+	/**
+	 * Adds the report rows and permutation minimum p values of a worker to this object
+	 * @param worker	a worker created by worker()
+	 */
+	protected void merge(AbstractFixedEffectLM worker) {
+		siteReportBuilder.add(worker.siteReportBuilder);
+		alleleReportBuilder.add(worker.alleleReportBuilder);
+		siteTableReportRows.addAll(worker.siteTableReportRows);
+		if (permute) {
+			for (int p = 0; p < numberOfPermutations; p++) {
+				if (minP[p] > worker.minP[p]) minP[p] = worker.minP[p];
+			}
+		}
+	}
+	
+	protected void clearBaseModelCache() {
+		cachedBaseModel = null;
+		cachedSiteData = null;
+		cachedBaseXtX = null;
+		cachedBaseXty = null;
+		permutationBaseSweep = null;
+		permutationBaseColumns = null;
+		permutationBaseKeep = null;
+	}
+	
+	/**
+	 * Creates the base model, data, and base model X'X and X'y for the current missingObsForSite, which must have no missing observations other than those of the trait.
+	 */
+	protected void cacheBaseModel() {
+		cachedSiteData = AssociationUtils.getNonMissingDoubles(allData, missingObsForSite);
+		cachedBaseModel = baseModel();
+		int neffects = cachedBaseModel.size();
+		cachedBaseXtX = new DoubleMatrix[neffects][neffects];
+		cachedBaseXty = new DoubleMatrix[neffects];
+		for (int i = 0; i < neffects; i++) {
+			cachedBaseXty[i] = cachedBaseModel.get(i).getXty(cachedSiteData);
+			cachedBaseXtX[i][i] = cachedBaseModel.get(i).getXtX();
+			for (int j = i + 1; j < neffects; j++) {
+				cachedBaseXtX[i][j] = ModelEffectUtils.getXtY(cachedBaseModel.get(i), cachedBaseModel.get(j));
+			}
+		}
+	}
+	
+	/**
+	 * Fits a linear model. If the model starts with the cached base model and the data are the cached data,
+	 * the cached base model X'X and X'y are used and only the terms for the remaining effects are calculated.
+	 * The result is the same as new SweepFastLinearModel(model, y).
+	 * @param model	the model effects
+	 * @param y	the data
+	 * @return	the fitted model
+	 */
+	protected SweepFastLinearModel linearModel(ArrayList<ModelEffect> model, double[] y) {
+		int numberCached = cachedBaseModel == null ? 0 : cachedBaseModel.size();
+		if (y != cachedSiteData || model.size() < numberCached || numberCached == 0) return new SweepFastLinearModel(model, y);
+		for (int i = 0; i < numberCached; i++) {
+			if (model.get(i) != cachedBaseModel.get(i)) return new SweepFastLinearModel(model, y);
+		}
+		
+		int neffects = model.size();
+		DoubleMatrix[][] xtx = new DoubleMatrix[neffects][neffects];
+		DoubleMatrix[] xty = new DoubleMatrix[neffects];
+		for (int i = 0; i < neffects; i++) {
+			if (i < numberCached) {
+				xty[i] = cachedBaseXty[i];
+				for (int j = i; j < numberCached; j++) xtx[i][j] = cachedBaseXtX[i][j];
+			} else {
+				xty[i] = model.get(i).getXty(y);
+				xtx[i][i] = model.get(i).getXtX();
+			}
+			for (int j = Math.max(i + 1, numberCached); j < neffects; j++) {
+				xtx[i][j] = ModelEffectUtils.getXtY(model.get(i), model.get(j));
+			}
+		}
+		return new SweepFastLinearModel(model, xtx, xty, y);
+	}
+	
 	@Override
 	public TableReport siteReport() {
 		saveToFile = true;
@@ -241,7 +415,6 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 	}
 	
 	protected void createPermutedData() {
-		permutedData = new LinkedList<>();
 		double[] y = AssociationUtils.getNonMissingDoubles(allData, missingObsForSite);
 		SweepFastLinearModel sflm = new SweepFastLinearModel(baseModel(), y);
 		DoubleMatrix residuals = sflm.getResiduals();
@@ -257,10 +430,11 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 			else rand = new Random();
 		}
 		
+		permutedData = new double[y.length][numberOfPermutations];
 		for (int p = 0; p < numberOfPermutations; p++) {
 			LinearModelUtils.shuffle(residuals, rand);
 			DoubleMatrix permdm = predicted.plus(residuals);
-			permutedData.add(permdm);
+			for (int i = 0; i < y.length; i++) permutedData[i][p] = permdm.get(i, 0);
 		}
 		
 		minP = new double[numberOfPermutations];
@@ -296,46 +470,36 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 		else areTaxaReplicated = false;
 	}
 	
+	/**
+	 * Tests this site for all permutations at once and updates minP. The permutations are the columns of Y, so all permutations are swept together.
+	 * The base model is swept once for each pattern of missing observations and only the effects following it are swept for each site.
+	 * @param missingObsBeforeSite	a BitSet with bits set for observations missing in model covariates and data
+	 */
 	protected void updateMinP(BitSet missingObsBeforeSite) {
 		boolean useFastMethod = false;
+		
+		//rows of permutedData that are not missing for this site
 		int numberOfObsTotal = allData.length;
-		int numberOfMissingBeforeSite = (int) missingObsBeforeSite.cardinality();
-		int sizeOfPermutedData = permutedData.get(0).numberOfRows();
-		BitSet newMissing = new OpenBitSet(sizeOfPermutedData);
+		int[] keep = new int[permutedData.length];
+		int numberKept = 0;
 		int permutedDataIndex = -1;
 		for (int i = 0; i < numberOfObsTotal; i++) {
 			if (!missingObsBeforeSite.fastGet(i)) {
 				permutedDataIndex++;
-				if (missingObsForSite.fastGet(i)) newMissing.fastSet(permutedDataIndex);
+				if (!missingObsForSite.fastGet(i)) keep[numberKept++] = permutedDataIndex;
 			}
 		}
 		
-		if (areTaxaReplicated) {
-			//if taxa are replicated
-			int iter = 0;
-			for (DoubleMatrix pdata : permutedData) {
-				double[] y = AssociationUtils.getNonMissingDoubles(pdata.to1DArray(), newMissing);
-		        SweepFastLinearModel sflm = new SweepFastLinearModel(myModel, y);
-		        markerSSdf = sflm.getIncrementalSSdf(numberOfBaseEffects);
-		        errorSSdf = sflm.getIncrementalSSdf(taxaEffectNumber);
-		        double F = markerSSdf[0] / markerSSdf[1] / errorSSdf[0] * errorSSdf[1];
-		        double p;
-		        try {
-		        	p = LinearModelUtils.Ftest(F, markerSSdf[1], errorSSdf[1]);
-		        	if (minP[iter] > p) minP[iter] = p;
-		        } catch (Exception e) {
-		        	//do nothing
-		        }
-		        iter++;
-			}
-		} else if (useFastMethod) {
+		if (useFastMethod) {
 			int numberOfModelEffects = myModel.size();
 			List<ModelEffect> thisBaseModel = new ArrayList<>(myModel);
-			ModelEffect markerEffect = thisBaseModel.remove(myModel.size() - 1);
-			List<double[]> permutedArrays = permutedData.stream()
-					.map(dm -> dm.to1DArray())
-					.map(da -> AssociationUtils.getNonMissingDoubles(da, newMissing))
-					.collect(Collectors.toList());
+			ModelEffect markerEffect = thisBaseModel.remove(numberOfModelEffects - 1);
+			List<double[]> permutedArrays = new ArrayList<>();
+			for (int p = 0; p < numberOfPermutations; p++) {
+				double[] y = new double[numberKept];
+				for (int k = 0; k < numberKept; k++) y[k] = permutedData[keep[k]][p];
+				permutedArrays.add(y);
+			}
 			SolveByOrthogonalizing sbo = SolveByOrthogonalizing.getInstanceFromModel(thisBaseModel, permutedArrays);
 			DoubleMatrix X = markerEffect.getX();
 			SolveByOrthogonalizing.Marker markerRValues = null;
@@ -346,33 +510,124 @@ public abstract class AbstractFixedEffectLM implements FixedEffectLM {
 			}
 			
 			if (markerRValues != null) {
-				int n = X.numberOfRows();
 				for (int iter = 0; iter < numberOfPermutations; iter++) {
 					if (minP[iter] > markerRValues.vector2()[iter]) minP[iter] = markerRValues.vector2()[iter];
 				}
 			}
-			
+			return;
+		}
+		
+		boolean isSameBase = permutationBaseSweep != null && numberKept == permutationBaseKeep.length;
+		for (int k = 0; isSameBase && k < numberKept; k++) isSameBase = keep[k] == permutationBaseKeep[k];
+		if (!isSameBase) sweepPermutationBaseModel(Arrays.copyOf(keep, numberKept));
+		
+		//the columns of the effects following the base model
+		int numberOfModelEffects = myModel.size();
+		int[] effectSizes = new int[numberOfModelEffects - numberOfBaseEffects];
+		List<double[]> columns = new ArrayList<>();
+		for (int e = numberOfBaseEffects; e < numberOfModelEffects; e++) {
+			DoubleMatrix X = myModel.get(e).getX();
+			effectSizes[e - numberOfBaseEffects] = X.numberOfColumns();
+			for (int c = 0; c < X.numberOfColumns(); c++) columns.add(X.column(c).to1DArray());
+		}
+		int numberOfColumns = columns.size();
+		int numberOfBaseColumns = permutationBaseColumns.size();
+		
+		double[][] xtxBase = new double[numberOfColumns][numberOfBaseColumns];
+		double[][] xtx = new double[numberOfColumns][numberOfColumns];
+		for (int i = 0; i < numberOfColumns; i++) {
+			double[] xi = columns.get(i);
+			for (int j = 0; j < numberOfBaseColumns; j++) xtxBase[i][j] = innerProduct(xi, permutationBaseColumns.get(j), numberKept);
+			for (int j = i; j < numberOfColumns; j++) xtx[i][j] = xtx[j][i] = innerProduct(xi, columns.get(j), numberKept);
+		}
+		double[][] xty = permutationXty(columns, keep, numberKept);
+		
+		SweepFastMultipleResponse sweep = new SweepFastMultipleResponse(permutationBaseSweep, xtxBase, xtx, xty, effectSizes);
+		
+		//If taxa are replicated, the marker follows the base model and the taxa effect is the error term.
+		//Otherwise, the marker is the last effect and the residual is the error term.
+		int markerEffect = areTaxaReplicated ? numberOfBaseEffects : numberOfModelEffects - 1;
+		double[] markerSS = sweep.getIncrementalSS(markerEffect);
+		double markerdf = sweep.getIncrementalDf(markerEffect);
+		double errordf;
+		double[] errorSS;
+		if (areTaxaReplicated) {
+			errordf = sweep.getIncrementalDf(taxaEffectNumber);
+			errorSS = sweep.getIncrementalSS(taxaEffectNumber);
 		} else {
-			int iter = 0;
-			int numberOfModelEffects = myModel.size();
-			for (DoubleMatrix pdata : permutedData) {
-				double[] y = AssociationUtils.getNonMissingDoubles(pdata.to1DArray(), newMissing);
-		        SweepFastLinearModel sflm = new SweepFastLinearModel(myModel, y);
-		        markerSSdf = sflm.getIncrementalSSdf(numberOfModelEffects - 1);
-		        errorSSdf = sflm.getResidualSSdf();
-		        double F = markerSSdf[0] / markerSSdf[1] / errorSSdf[0] * errorSSdf[1];
-		        double p;
-		        try {
-		        	p = LinearModelUtils.Ftest(F, markerSSdf[1], errorSSdf[1]);
-		        	if (minP[iter] > p) minP[iter] = p;
-		        } catch (Exception e) {
-		        	//do nothing
-		        }
-				
-				iter++;
+			double modeldf = 0;
+			for (int e = 0; e < numberOfModelEffects; e++) modeldf += sweep.getIncrementalDf(e);
+			errordf = numberKept - modeldf;
+			errorSS = sweep.getResidualSS(numberOfModelEffects - 1);
+		}
+		
+		for (int p = 0; p < numberOfPermutations; p++) {
+			double F = markerSS[p] / markerdf / errorSS[p] * errordf;
+			try {
+				double pval = LinearModelUtils.Ftest(F, markerdf, errordf);
+				if (minP[p] > pval) minP[p] = pval;
+			} catch (Exception e) {
+				//do nothing
 			}
 		}
+	}
+	
+	/**
+	 * Sweeps the base model of the current site for all permutations. The result is used for following sites with the same observations.
+	 * @param keep	the rows of permutedData that are not missing for the current site
+	 */
+	protected void sweepPermutationBaseModel(int[] keep) {
+		int[] effectSizes = new int[numberOfBaseEffects];
+		List<double[]> columns = new ArrayList<>();
+		for (int e = 0; e < numberOfBaseEffects; e++) {
+			DoubleMatrix X = myBaseModel.get(e).getX();
+			effectSizes[e] = X.numberOfColumns();
+			for (int c = 0; c < X.numberOfColumns(); c++) columns.add(X.column(c).to1DArray());
+		}
+		int numberOfColumns = columns.size();
+		
+		double[][] xtx = new double[numberOfColumns][numberOfColumns];
+		for (int i = 0; i < numberOfColumns; i++) {
+			for (int j = i; j < numberOfColumns; j++) xtx[i][j] = xtx[j][i] = innerProduct(columns.get(i), columns.get(j), keep.length);
+		}
+		double[] yty = new double[numberOfPermutations];
+		for (int k : keep) {
+			double[] yk = permutedData[k];
+			for (int p = 0; p < numberOfPermutations; p++) yty[p] += yk[p] * yk[p];
+		}
 		
+		permutationBaseSweep = new SweepFastMultipleResponse(xtx, permutationXty(columns, keep, keep.length), yty, effectSizes);
+		permutationBaseColumns = columns;
+		permutationBaseKeep = keep;
+	}
+	
+	/**
+	 * @return	X'Y as a columns x permutations array, computed in a single pass through the kept rows of permutedData
+	 */
+	private double[][] permutationXty(List<double[]> columns, int[] keep, int numberKept) {
+		int numberOfColumns = columns.size();
+		double[][] xty = new double[numberOfColumns][numberOfPermutations];
+		for (int k = 0; k < numberKept; k++) {
+			double[] yk = permutedData[keep[k]];
+			for (int i = 0; i < numberOfColumns; i++) {
+				double x = columns.get(i)[k];
+				if (x == 0) continue;
+				double[] xtyi = xty[i];
+				for (int p = 0; p < numberOfPermutations; p++) xtyi[p] += x * yk[p];
+			}
+		}
+		return xty;
+	}
+	
+	private static double innerProduct(double[] x, double[] y, int n) {
+		double sum = 0;
+		for (int k = 0; k < n; k++) sum += x[k] * y[k];
+		return sum;
+	}
+	
+	@Override
+	public void numberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
 	}
 	
 	@Override
@@ -64,7 +64,7 @@ public class AlleleProbabilityFELM extends AbstractFixedEffectLM {
 		if (areTaxaReplicated) myModel.add(taxaEffect());
 
 		//solve the model
-		markerModel = new SweepFastLinearModel(modelPlusMarkers, siteData);
+		markerModel = linearModel(modelPlusMarkers, siteData);
 
         //calculate model
         double[] modelSSdf = markerModel.getModelcfmSSdf();
@@ -43,13 +43,17 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class CompressedMLMusingDoubleMatrix {
 
     private static final Logger myLogger = Logger.getLogger(CompressedMLMusingDoubleMatrix.class);
     private static final List<String> homGenotypes = Arrays.asList("A","C","G","T","Z");
     private static final List<String> hetGenotypes = Arrays.asList("R","W","K","Y","S","M","0");
+    private static final int MARKERS_PER_TASK = 100;
     private final boolean useCompression;
     private final boolean useP3D;
     private final double compression;
@@ -78,6 +82,7 @@ public class CompressedMLMusingDoubleMatrix {
     private boolean useGenotypeCalls = true;
     private boolean useReferenceProbability = false;
     private boolean useAlleleProbabilities = false;
+    private int numberOfThreads = 1;
     
     public CompressedMLMusingDoubleMatrix(MLMPlugin parentPlugin, Datum dataset, DistanceMatrix kinshipMatrix, boolean useCompression, boolean useP3D, double compression) {
         this.parentPlugin = parentPlugin;
@@ -213,6 +218,14 @@ public class CompressedMLMusingDoubleMatrix {
     public void useAlleleProbabilities(boolean use) {
     	useAlleleProbabilities = use;
     }
+
+    /**
+     * @param threads	the number of threads used to test markers when variance components are estimated by P3D.
+     * When variance components are estimated for each marker, markers are always tested by a single thread.
+     */
+    public void numberOfThreads(int threads) {
+    	numberOfThreads = Math.max(1, threads);
+    }
     
     public List<Datum> solve() {
     	List<Datum> results = new LinkedList<Datum>();
@@ -383,160 +396,303 @@ public class CompressedMLMusingDoubleMatrix {
             }
 
             //iterate markers
-            if (testMarkers) {
-                for (int m = 0; m < numberOfMarkers; m++) {
-                	OpenBitSet missingObsForSite = new OpenBitSet(missing);
-                	missingObsForSite.or(missingForSite(m));
-                	
-                    //only data for which missing=false are in the Z matrix
-                    //the block below finds the rows of Z that have no marker data.
-                    //Those rows/columns will need to be removed from ZKZ or from V, depending on the analysis method.
-                	OpenBitSet missingFromZ = new OpenBitSet(nonMissingObs);
-                	
-                    int nonMissingCount = 0;
-                    for (int i = 0; i < totalObs; i++) {
-                        if (!missing.fastGet(i)) {
-                            if (missingObsForSite.fastGet(i)) {
-                            	missingFromZ.fastSet(nonMissingCount);
-                            }
-                            nonMissingCount++;
-                        }
-                    }
+            if (testMarkers && numberOfMarkers > 0) {
+            	MarkerScan scan = new MarkerScan(attr.name(), missing, totalObs, nonMissingObs, y, fixed, zk, baseModeldf);
+            	if (useP3D && numberOfThreads > 1) {
+            		testMarkersInParallel(scan, numberOfMarkers, iterationsSofar, expectedIterations);
+            		iterationsSofar += numberOfMarkers;
+            	} else {
+            		for (int m = 0; m < numberOfMarkers; m++) {
+            			addMarkerResult(scan.test(m));
+            			iterationsSofar++;
+            			int progress = (int) ((double) iterationsSofar / (double) expectedIterations * 100);
+            			parentPlugin.updateProgress(progress);
+            		}
+            	}
+            }
 
-                    //adjust y for missing data
-                    DoubleMatrix ymarker = AssociationUtils.getNonMissingValues(y, missingFromZ);
+        }
 
-                    //adjust the fixed effects
-                    DoubleMatrix fixed2 = AssociationUtils.getNonMissingValues(fixed, missingFromZ);
+        parentPlugin.updateProgress(0);
 
-                    //add marker data to fixed effects
-                    ArrayList<Byte> markerIds = new ArrayList<>();
-                    int nAlleles = 0;
-                    int markerdf = 0;
-                    DoubleMatrix X;
-                    int[] alleleCounts = null;
-                    
-                    if (useGenotypeCalls) {
-//                    	String[] genotypes = AssociationUtils.getNonMissingValues(myGenoPheno.getStringGenotype(m), missingObsForSite);
-                    	byte[] genotypes = AssociationUtils.getNonMissingBytes(myGenoPheno.genotypeAllTaxa(m), missingObsForSite);
-                        FactorModelEffect markerEffect = new FactorModelEffect(ModelEffectUtils.getIntegerLevels(genotypes, markerIds), true);
-                        X = fixed2.concatenate(markerEffect.getX(), false);
-                        nAlleles = markerEffect.getNumberOfLevels();
-                        alleleCounts = markerEffect.getLevelCounts();
-                        markerdf = nAlleles - 1;
-                    } else if (useReferenceProbability) { 
-                        double[] genotypes = AssociationUtils.getNonMissingDoubles(myGenoPheno.referenceProb(m), missingObsForSite);
-                        int nrows = genotypes.length;
-                        X = fixed2.concatenate(DoubleMatrixFactory.DEFAULT.make(nrows, 1, genotypes), false);
-                        nAlleles = 1;
-                        alleleCounts = new int[]{nrows};
-                        markerdf = 1;
-                    } else {
-                    	X = null;
-                    }
-                    
-                    CompressedMLMResult result = new CompressedMLMResult();
-                    //need to add marker information to result once Alignment is stable
+        results.addAll(formatResults());
 
-                    if (useP3D) {
-                        testMarkerUsingP3D(result, ymarker, X, Vminus.getInverse(missingFromZ, nonMissingObs), markerdf, markerIds);
-                    } else {
-                    	DoubleMatrix Zsel = AssociationUtils.getNonMissingValues(zk[0], missingFromZ);
-                        testMarkerUsingEMMA(result, ymarker, X, zk[1], Zsel, nAlleles, markerIds);
-                        markerdf = result.modeldf - baseModeldf;
-                    }
+        return results;
+    }
 
-                    //if the results are to be filtered on pmax check for that condition
-                    boolean recordTheseResults = true;
-                    if (parentPlugin.isFilterOutput() && result.p > parentPlugin.getMaxp()) {
-                        recordTheseResults = false;
-                    }
+    /**
+     * Tests all markers for one trait using numberOfThreads threads. Markers are split into tasks of MARKERS_PER_TASK markers,
+     * which are run in batches. The results of a batch are added to the reports in marker order once the batch is finished,
+     * so the reports are the same as for a single thread and progress is reported from the calling thread.
+     * @param scan	the trait data and base model used to test each marker
+     * @param numberOfMarkers	the number of markers
+     * @param iterationsSofar	the number of markers tested for previous traits
+     * @param expectedIterations	the number of markers to be tested for all traits
+     */
+    private void testMarkersInParallel(MarkerScan scan, int numberOfMarkers, int iterationsSofar, int expectedIterations) {
+        int numberOfTasks = (numberOfMarkers + MARKERS_PER_TASK - 1) / MARKERS_PER_TASK;
+        int tasksPerBatch = numberOfThreads * 4;
+        ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+        try {
+            for (int firstTask = 0; firstTask < numberOfTasks; firstTask += tasksPerBatch) {
+                int batchFirstTask = firstTask;
+                int lastTask = Math.min(firstTask + tasksPerBatch, numberOfTasks);
+                int start = firstTask * MARKERS_PER_TASK;
+                int end = Math.min(lastTask * MARKERS_PER_TASK, numberOfMarkers);
+                CompressedMLMResult[] batch = new CompressedMLMResult[end - start];
+                pool.submit(() -> IntStream.range(batchFirstTask, lastTask).parallel().forEach(t -> {
+                    int first = t * MARKERS_PER_TASK;
+                    int last = Math.min(first + MARKERS_PER_TASK, end);
+                    for (int m = first; m < last; m++) batch[m - start] = scan.test(m);
+                })).get();
+                for (CompressedMLMResult result : batch) addMarkerResult(result);
+                int progress = (int) ((double) (iterationsSofar + end) / (double) expectedIterations * 100);
+                parentPlugin.updateProgress(progress);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("CompressedMLMusingDoubleMatrix: testMarkersInParallel: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-                    if (recordTheseResults) {
-                        //add result to main
-                        //{"Trait","Marker","Chr","Pos","Locus","Site","df","F","p","errordf","MarkerR2","Genetic Var","Residual Var", "-2LnLikelihood"};
-                    	//results with additive and dominance effects
-                    	//{"Trait","Marker","Chr","Pos","Locus","Site","df","F","p","add_effect","add_F","add_p","dom_effect","dom_F","dom_p","errordf","MarkerR2","Genetic Var","Residual Var", "-2LnLikelihood"}
-                    	
-                        String markername = myGenotype.siteName(m);
-                        String chr = "";
-                        String pos = "";
-                        String locus = myGenotype.chromosomeName(m);
-                        String site = Integer.toString(myGenotype.chromosomalPosition(m));
-                        double errordf = (double) (ymarker.numberOfRows() - result.modeldf);
-
-                        tableRow = new Object[]{attr.name(),
-                        		markername,
-                        		locus,
-                        		site,
-                        		new Integer(markerdf),
-                        		new Double(result.F),
-                        		new Double(result.p),
-                        		new Double(result.addEffect),
-                        		new Double(result.Fadd),
-                        		new Double(result.padd),
-                        		new Double(result.domEffect),
-                        		new Double(result.Fdom),
-                        		new Double(result.pdom),
-                        		new Double(errordf),
-                        		new Double(result.r2),
-                        		new Double(genvar),
-                        		new Double(resvar),
-                        		new Double(-2 * lnlk)};
-                        siteReportBuilder.add(tableRow);
-
-                        //add result to alleles
-                        //"Trait","Marker","Chr","Pos","Allele","Effect", obs
-                        int numberOfRowsKept = totalObs - (int) missingObsForSite.cardinality();
-                        if (useReferenceProbability) {
-                        	tableRow = new Object[]{attr.name(),
-                        			markername,
-                        			locus,
-                        			site,
-                        			"",
-                        			result.beta.get(result.beta.numberOfRows() - 1, 0),
-                        			numberOfRowsKept
-                        	};
-
-                            //record the results
-                        	alleleReportBuilder.add(tableRow);
-                        } else if (nAlleles > 1) {
-                            for (int a = 0; a < nAlleles; a++) {
-                                Double estimate;
-                                if (a < nAlleles - 1) {
-                                    estimate = result.beta.get(result.beta.numberOfRows() - nAlleles + 1 + a, 0);
-                                } else {
-                                    estimate = 0.0;
-                                }
-                                tableRow = new Object[]{attr.name(),
-                                		markername,
-                                		locus,
-                                		site,
-//                                		markerIds.get(a),
-                                		NucleotideAlignmentConstants.getNucleotideIUPAC(markerIds.get(a)),
-                                		estimate,
-                                		alleleCounts[a]
-                                };
-
-                                //record the results
-                            	alleleReportBuilder.add(tableRow);
-                            }
-                        }
+    private void addMarkerResult(CompressedMLMResult result) {
+        if (result.siteRow == null) return;
+        siteReportBuilder.add(result.siteRow);
+        for (Object[] row : result.alleleRows) alleleReportBuilder.add(row);
+    }
 
+    /**
+     * Tests markers for one trait. With P3D, the variance components are fixed, so the inverse of V and the parts of
+     * X'inverse(V)X and X'inverse(V)y that depend only on the other fixed effects are calculated once and then only read.
+     * A marker with no additional missing data then only needs inverse(V) times its own k columns (a rank k update of the base model).
+     * Markers with additional missing data use the inverse of V with those rows and columns removed.
+     * When variance components are estimated for each marker, test(m) updates genvar, resvar and lnlk, so markers must be tested in order by one thread.
+     */
+    class MarkerScan {
+        private final String traitName;
+        private final OpenBitSet missing;
+        private final long numberMissing;
+        private final int totalObs;
+        private final int nonMissingObs;
+        private final DoubleMatrix y;
+        private final DoubleMatrix fixed;
+        private final DoubleMatrix[] zk;
+        private final int baseModeldf;
+
+        //the base model for markers with no additional missing data, P3D only
+        private DoubleMatrix invV = null;
+        private DoubleMatrix invVF;
+        private DoubleMatrix FinvVF;
+        private DoubleMatrix FinvVy;
+        private DoubleMatrix betaReduced;
+        private double r2Denominator;
+
+        MarkerScan(String traitName, OpenBitSet missing, int totalObs, int nonMissingObs, DoubleMatrix y, DoubleMatrix fixed, DoubleMatrix[] zk, int baseModeldf) {
+            this.traitName = traitName;
+            this.missing = missing;
+            this.numberMissing = missing.cardinality();
+            this.totalObs = totalObs;
+            this.nonMissingObs = nonMissingObs;
+            this.y = y;
+            this.fixed = fixed;
+            this.zk = zk;
+            this.baseModeldf = baseModeldf;
+
+            if (useP3D) {
+                invV = Vminus.getInverse(new OpenBitSet(nonMissingObs), nonMissingObs);
+                invVF = invV.mult(fixed);
+                FinvVF = fixed.crossproduct(invVF);
+                FinvVy = invVF.crossproduct(y);
+                DoubleMatrix invFVF = FinvVF.copy();
+                invFVF.invert();
+                betaReduced = invFVF.mult(FinvVy);
+
+                double sum = 0;
+                for (int i = 0; i < nonMissingObs; i++) {
+                    sum += y.get(i, 0);
+                }
+                DoubleMatrix ydev = y.scalarAdd(-sum / nonMissingObs);
+                r2Denominator = ydev.crossproduct(invV.mult(ydev)).get(0, 0);
+            }
+        }
+
+        /**
+         * @param m	a marker
+         * @return	the test results for marker m, with its report rows. The site row is null if the results are filtered out.
+         */
+        CompressedMLMResult test(int m) {
+            OpenBitSet missingObsForSite = new OpenBitSet(missing);
+            missingObsForSite.or(missingForSite(m));
+
+            //only data for which missing=false are in the Z matrix
+            //the block below finds the rows of Z that have no marker data.
+            //Those rows/columns will need to be removed from ZKZ or from V, depending on the analysis method.
+            OpenBitSet missingFromZ = new OpenBitSet(nonMissingObs);
+
+            int nonMissingCount = 0;
+            for (int i = 0; i < totalObs; i++) {
+                if (!missing.fastGet(i)) {
+                    if (missingObsForSite.fastGet(i)) {
+                        missingFromZ.fastSet(nonMissingCount);
                     }
-                    iterationsSofar++;
-                    int progress = (int) ((double) iterationsSofar / (double) expectedIterations * 100);
-                    parentPlugin.updateProgress(progress);
+                    nonMissingCount++;
                 }
             }
+            boolean noAdditionalMissing = missingObsForSite.cardinality() == numberMissing;
+
+            //adjust y for missing data
+            DoubleMatrix ymarker = AssociationUtils.getNonMissingValues(y, missingFromZ);
+
+            //adjust the fixed effects
+            DoubleMatrix fixed2 = AssociationUtils.getNonMissingValues(fixed, missingFromZ);
+
+            //add marker data to fixed effects
+            ArrayList<Byte> markerIds = new ArrayList<>();
+            int nAlleles = 0;
+            int markerdf = 0;
+            DoubleMatrix markerX;
+            DoubleMatrix X;
+            int[] alleleCounts = null;
+
+            if (useGenotypeCalls) {
+                byte[] genotypes = AssociationUtils.getNonMissingBytes(myGenoPheno.genotypeAllTaxa(m), missingObsForSite);
+                FactorModelEffect markerEffect = new FactorModelEffect(ModelEffectUtils.getIntegerLevels(genotypes, markerIds), true);
+                markerX = markerEffect.getX();
+                X = fixed2.concatenate(markerX, false);
+                nAlleles = markerEffect.getNumberOfLevels();
+                alleleCounts = markerEffect.getLevelCounts();
+                markerdf = nAlleles - 1;
+            } else if (useReferenceProbability) {
+                double[] genotypes = AssociationUtils.getNonMissingDoubles(myGenoPheno.referenceProb(m), missingObsForSite);
+                int nrows = genotypes.length;
+                markerX = DoubleMatrixFactory.DEFAULT.make(nrows, 1, genotypes);
+                X = fixed2.concatenate(markerX, false);
+                nAlleles = 1;
+                alleleCounts = new int[]{nrows};
+                markerdf = 1;
+            } else {
+                markerX = null;
+                X = null;
+            }
 
-        }
+            CompressedMLMResult result = new CompressedMLMResult();
+            //need to add marker information to result once Alignment is stable
 
-        parentPlugin.updateProgress(0);
+            if (useP3D) {
+                if (noAdditionalMissing && markerdf > 0) {
+                    testMarkerUsingBaseModel(result, markerX, markerdf, markerIds);
+                } else {
+                    testMarkerUsingP3D(result, ymarker, X, Vminus.getInverse(missingFromZ, nonMissingObs), markerdf, markerIds);
+                }
+            } else {
+                DoubleMatrix Zsel = AssociationUtils.getNonMissingValues(zk[0], missingFromZ);
+                testMarkerUsingEMMA(result, ymarker, X, zk[1], Zsel, nAlleles, markerIds);
+                markerdf = result.modeldf - baseModeldf;
+            }
 
-        results.addAll(formatResults());
-        
-        return results;
+            //if the results are to be filtered on pmax check for that condition
+            if (parentPlugin.isFilterOutput() && result.p > parentPlugin.getMaxp()) {
+                return result;
+            }
+
+            //add result to main
+            //results with additive and dominance effects
+            //{"Trait","Marker","Chr","Pos","Locus","Site","df","F","p","add_effect","add_F","add_p","dom_effect","dom_F","dom_p","errordf","MarkerR2","Genetic Var","Residual Var", "-2LnLikelihood"}
+            String markername = myGenotype.siteName(m);
+            String locus = myGenotype.chromosomeName(m);
+            String site = Integer.toString(myGenotype.chromosomalPosition(m));
+            double errordf = (double) (ymarker.numberOfRows() - result.modeldf);
+
+            result.siteRow = new Object[]{traitName,
+                    markername,
+                    locus,
+                    site,
+                    new Integer(markerdf),
+                    new Double(result.F),
+                    new Double(result.p),
+                    new Double(result.addEffect),
+                    new Double(result.Fadd),
+                    new Double(result.padd),
+                    new Double(result.domEffect),
+                    new Double(result.Fdom),
+                    new Double(result.pdom),
+                    new Double(errordf),
+                    new Double(result.r2),
+                    new Double(genvar),
+                    new Double(resvar),
+                    new Double(-2 * lnlk)};
+
+            //add result to alleles
+            //"Trait","Marker","Chr","Pos","Allele","Effect", obs
+            int numberOfRowsKept = totalObs - (int) missingObsForSite.cardinality();
+            if (useReferenceProbability) {
+                result.alleleRows.add(new Object[]{traitName,
+                        markername,
+                        locus,
+                        site,
+                        "",
+                        result.beta.get(result.beta.numberOfRows() - 1, 0),
+                        numberOfRowsKept
+                });
+            } else if (nAlleles > 1) {
+                for (int a = 0; a < nAlleles; a++) {
+                    Double estimate;
+                    if (a < nAlleles - 1) {
+                        estimate = result.beta.get(result.beta.numberOfRows() - nAlleles + 1 + a, 0);
+                    } else {
+                        estimate = 0.0;
+                    }
+                    result.alleleRows.add(new Object[]{traitName,
+                            markername,
+                            locus,
+                            site,
+                            NucleotideAlignmentConstants.getNucleotideIUPAC(markerIds.get(a)),
+                            estimate,
+                            alleleCounts[a]
+                    });
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Tests a marker with no additional missing data. X'inverse(V)X is assembled from the base model blocks and
+         * the blocks for the marker columns, which are the only products that need inverse(V) times an n x k matrix.
+         * @param result	the result of the test
+         * @param markerX	the marker columns of X
+         * @param markerdf	the marker degrees of freedom, which must be greater than 0
+         * @param markerIds	the marker genotypes
+         */
+        private void testMarkerUsingBaseModel(CompressedMLMResult result, DoubleMatrix markerX, int markerdf, ArrayList<Byte> markerIds) {
+            DoubleMatrix invVM = invV.mult(markerX);
+            DoubleMatrix FinvVM = invVF.crossproduct(markerX);
+            DoubleMatrix invXVX = DoubleMatrixFactory.DEFAULT.compose(new DoubleMatrix[][]{
+                {FinvVF, FinvVM},
+                {FinvVM.transpose(), markerX.crossproduct(invVM)}});
+            invXVX.invert();
+            DoubleMatrix XinvVy = DoubleMatrixFactory.DEFAULT.compose(new DoubleMatrix[][]{{FinvVy}, {invVM.crossproduct(y)}});
+            result.beta = invXVX.mult(XinvVy);
+
+            testMarkerEffects(result, invXVX, nonMissingObs, markerdf, markerIds);
+
+            //R^2 as in calculateRsquare, where yhat(full model) - yhat(model without marker) = F*(betaF - betaReduced) + M*betaM
+            int nfixed = FinvVF.numberOfRows();
+            int nparm = result.beta.numberOfRows();
+            int[] fixedRows = new int[nfixed];
+            for (int i = 0; i < nfixed; i++) fixedRows[i] = i;
+            int[] markerRows = new int[nparm - nfixed];
+            for (int i = nfixed; i < nparm; i++) markerRows[i - nfixed] = i;
+            DoubleMatrix betaF = result.beta.getSelection(fixedRows, null);
+            betaF.minusEquals(betaReduced);
+            DoubleMatrix betaM = result.beta.getSelection(markerRows, null);
+
+            DoubleMatrix yhat = fixed.mult(betaF);
+            yhat.plusEquals(markerX.mult(betaM));
+            DoubleMatrix invVyhat = invVF.mult(betaF);
+            invVyhat.plusEquals(invVM.mult(betaM));
+            result.r2 = yhat.crossproduct(invVyhat).get(0, 0) / r2Denominator;
+        }
     }
 
 //    private BitSet missingForSiteX(int site) {
@@ -831,76 +987,87 @@ public class CompressedMLMusingDoubleMatrix {
             result.p = Double.NaN;
             result.r2 = 0.0;
         } else {  //full model
+            testMarkerEffects(result, invXVX, y.numberOfRows(), markerdf, markerIds);
+            calculateRsquare(X, y, invV, result, markerdf);
+        }
+
+    }
+
+    /**
+     * Calculates the F test of the marker and, for markers with two homozygous genotypes and one heterozygous genotype,
+     * the additive and dominance effects and tests. The marker effects must be the last markerdf elements of result.beta.
+     * @param result	the result, which already contains beta
+     * @param invXVX	the inverse of X'inverse(V)X
+     * @param nobs	the number of observations
+     * @param markerdf	the marker degrees of freedom, which must be greater than 0
+     * @param markerIds	the marker genotypes
+     */
+    private void testMarkerEffects(CompressedMLMResult result, DoubleMatrix invXVX, int nobs, int markerdf, ArrayList<Byte> markerIds) {
+        //calculate F test, p-value of F test
+        int nparm = result.beta.numberOfRows();
+        DoubleMatrix M = DoubleMatrixFactory.DEFAULT.make(markerdf, nparm, 0);
+        for (int i = 0; i < markerdf; i++) {
+            M.set(i, nparm - markerdf + i, 1);
+        }
+        DoubleMatrix Mb = M.mult(result.beta);
+        DoubleMatrix invMiM = M.mult(invXVX.tcrossproduct(M));
+        try {
+            invMiM.invert();
+            result.F = Mb.crossproduct(invMiM.mult(Mb)).get(0, 0) / markerdf;
+        } catch (Exception ex) {
+            result.F = Double.NaN;
+        }
+        try {
+            result.p = LinearModelUtils.Ftest(result.F, markerdf, nobs - nparm);
+        } catch (Exception e) {
+            result.p = Double.NaN;
+        }
+
+        boolean markerTest = markerIds.size() == 3;
+        if (markerTest) {
+        	markerTest = markerTest && !GenotypeTableUtils.isHeterozygous(markerIds.get(0));
+        	markerTest = markerTest && !GenotypeTableUtils.isHeterozygous(markerIds.get(1));
+        	markerTest = markerTest && GenotypeTableUtils.isHeterozygous(markerIds.get(2));
+        }
+        if (markerdf == 2 && markerTest) { //calculate additive and dominance tests and effects
         	
-            //calculate F test, p-value of F test
-            int nparm = result.beta.numberOfRows();
-            DoubleMatrix M = DoubleMatrixFactory.DEFAULT.make(markerdf, nparm, 0);
-            for (int i = 0; i < markerdf; i++) {
-                M.set(i, nparm - markerdf + i, 1);
-            }
-            DoubleMatrix Mb = M.mult(result.beta);
-            DoubleMatrix invMiM = M.mult(invXVX.tcrossproduct(M));
+        	//additive test 
+            M = DoubleMatrixFactory.DEFAULT.make(1, nparm, 0);
+            M.set(0, nparm - 2, 0.5);
+            M.set(0, nparm - 1, -0.5);
+                
+            Mb = M.mult(result.beta);
+            result.addEffect = Mb.get(0, 0);
             try {
-                invMiM.invert();
-                result.F = Mb.crossproduct(invMiM.mult(Mb)).get(0, 0) / markerdf;
+               result.Fadd = Mb.get(0, 0) * Mb.get(0,0) / (M.mult(invXVX.tcrossproduct(M))).get(0,0);
             } catch (Exception ex) {
-                result.F = Double.NaN;
+                result.Fadd = Double.NaN;
             }
             try {
-                result.p = LinearModelUtils.Ftest(result.F, markerdf, y.numberOfRows() - nparm);
+                result.padd = LinearModelUtils.Ftest(result.Fadd, 1, nobs - nparm);
             } catch (Exception e) {
-                result.p = Double.NaN;
+                result.padd = Double.NaN;
             }
 
-            calculateRsquare(X, y, invV, result, markerdf);
-            
-            boolean markerTest = markerIds.size() == 3;
-            if (markerTest) {
-            	markerTest = markerTest && !GenotypeTableUtils.isHeterozygous(markerIds.get(0));
-            	markerTest = markerTest && !GenotypeTableUtils.isHeterozygous(markerIds.get(1));
-            	markerTest = markerTest && GenotypeTableUtils.isHeterozygous(markerIds.get(2));
-            }
-            if (markerdf == 2 && markerTest) { //calculate additive and dominance tests and effects
-            	
-            	//additive test 
-                M = DoubleMatrixFactory.DEFAULT.make(1, nparm, 0);
-                M.set(0, nparm - 2, 0.5);
-                M.set(0, nparm - 1, -0.5);
-                    
-                Mb = M.mult(result.beta);
-                result.addEffect = Mb.get(0, 0);
-                try {
-                   result.Fadd = Mb.get(0, 0) * Mb.get(0,0) / (M.mult(invXVX.tcrossproduct(M))).get(0,0);
-                } catch (Exception ex) {
-                    result.Fadd = Double.NaN;
-                }
-                try {
-                    result.padd = LinearModelUtils.Ftest(result.Fadd, 1, y.numberOfRows() - nparm);
-                } catch (Exception e) {
-                    result.padd = Double.NaN;
-                }
-
-                //dominance test
-                M = DoubleMatrixFactory.DEFAULT.make(1, nparm, 0);
-                M.set(0, nparm - 2, -0.5);
-                M.set(0, nparm - 1, -0.5);
-                    
-                Mb = M.mult(result.beta);
-                result.domEffect = Mb.get(0, 0);
-                try {
-                    result.Fdom = Mb.get(0, 0) * Mb.get(0,0) / (M.mult(invXVX.tcrossproduct(M))).get(0,0);
-                } catch (Exception ex) {
-                    result.Fdom = Double.NaN;
-                }
-                try {
-                    result.pdom = LinearModelUtils.Ftest(result.Fdom, 1, y.numberOfRows() - nparm);
-                } catch (Exception e) {
-                    result.pdom = Double.NaN;
-                }
+            //dominance test
+            M = DoubleMatrixFactory.DEFAULT.make(1, nparm, 0);
+            M.set(0, nparm - 2, -0.5);
+            M.set(0, nparm - 1, -0.5);
                 
+            Mb = M.mult(result.beta);
+            result.domEffect = Mb.get(0, 0);
+            try {
+                result.Fdom = Mb.get(0, 0) * Mb.get(0,0) / (M.mult(invXVX.tcrossproduct(M))).get(0,0);
+            } catch (Exception ex) {
+                result.Fdom = Double.NaN;
+            }
+            try {
+                result.pdom = LinearModelUtils.Ftest(result.Fdom, 1, nobs - nparm);
+            } catch (Exception e) {
+                result.pdom = Double.NaN;
             }
+            
         }
-
     }
     
     private void calculateRsquare(DoubleMatrix X, DoubleMatrix y, DoubleMatrix invV, CompressedMLMResult result, int markerdf) {
@@ -1045,6 +1212,8 @@ public class CompressedMLMusingDoubleMatrix {
         int modeldf;
         int markerdf;
         int ngroups;
+        Object[] siteRow = null;
+        List<Object[]> alleleRows = new ArrayList<>();
     }
 
     public void setTestMarkers(boolean testMarkers) {
@@ -44,7 +44,7 @@ public class DiscreteSitesFELM extends AbstractFixedEffectLM {
         }
 
         //calculate model
-        SweepFastLinearModel sflm = new SweepFastLinearModel(myModel, siteData);
+        SweepFastLinearModel sflm = linearModel(myModel, siteData);
         double[] modelSSdf = sflm.getModelcfmSSdf();
         double[] residSSdf = sflm.getResidualSSdf();
         double[] totalSSdf = new double[2];
@@ -88,7 +88,7 @@ public class DiscreteSitesFELM extends AbstractFixedEffectLM {
 	        	myAdditiveModel.add(taxaEffect());
 	        }
 			
-			SweepFastLinearModel sflmAdd = new SweepFastLinearModel(myAdditiveModel, siteData);
+			SweepFastLinearModel sflmAdd = linearModel(myAdditiveModel, siteData);
 			double[] additiveErrorSSdf;
 	        if (areTaxaReplicated) additiveErrorSSdf = sflmAdd.getIncrementalSSdf(addModelTaxaEffectNumber);
 	        else additiveErrorSSdf = sflmAdd.getResidualSSdf();
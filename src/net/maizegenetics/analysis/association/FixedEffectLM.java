@@ -38,6 +38,11 @@ public interface FixedEffectLM {
 	 */
 	public void permutationTest(boolean permute, int nperm);
 	
+	/**
+	 * @param numberOfThreads	the number of threads used to test sites. Results are the same for any number of threads.
+	 */
+	public void numberOfThreads(int numberOfThreads);
+	
 	/**
 	 * @param maxP		test results with p > maxP will not be reported.
 	 */
@@ -70,6 +70,12 @@ public class FixedEffectLMPlugin extends AbstractPlugin {
     		.dependentOnParameter(permute)
     		.guiName("Number of Permutations")
     		.build();
+    private PluginParameter<Integer> maxThreads = new PluginParameter.Builder<>("maxThreads", 1, Integer.class)
+    		.description("The number of threads used to test sites. Results are the same for any number of threads.")
+    		.dependentOnParameter(phenotypeOnly, false)
+    		.range(Range.atLeast(1))
+    		.guiName("Maximum Threads")
+    		.build();
 	private PluginParameter<GenotypeTable.GENOTYPE_TABLE_COMPONENT> myGenotypeTable = new PluginParameter.Builder<>("genotypeComponent", GenotypeTable.GENOTYPE_TABLE_COMPONENT.Genotype, GenotypeTable.GENOTYPE_TABLE_COMPONENT.class)
 			.genotypeTable()
 	        .range(GENOTYPE_COMP)
@@ -142,6 +148,7 @@ public class FixedEffectLMPlugin extends AbstractPlugin {
         		myLM.alleleReportFilepath(alleleReportFilename.value());
         	}
         	myLM.maxP(maxPvalue.value());
+        	myLM.numberOfThreads(maxThreads.value());
         	myLM.solve();
         	if (saveAsFile.value()) return null;
         	else return new DataSet(myLM.datumList(), this);
@@ -378,8 +385,28 @@ public class FixedEffectLMPlugin extends AbstractPlugin {
         return this;
     }
 
+    /**
+     * The number of threads used to test sites. Results are
+     * the same for any number of threads.
+     *
+     * @return Maximum Threads
+     */
+    public Integer maxThreads() {
+        return maxThreads.value();
+    }
 
+    /**
+     * Set Maximum Threads. The number of threads used to
+     * test sites. Results are the same for any number of
+     * threads.
+     *
+     * @param value Maximum Threads
+     *
+     * @return this plugin
+     */
+    public FixedEffectLMPlugin maxThreads(Integer value) {
+        maxThreads = new PluginParameter<>(maxThreads, value);
+        return this;
+    }
 
 }
-
-
@@ -75,6 +75,7 @@ public class MLMPlugin extends AbstractPlugin {
     private boolean useGenotype = true;
     private boolean useRefProb = false;
     private boolean useAlleleProb = false;
+    private int maxThreads = 1;
 
     public enum CompressionType {
         Optimum, Custom, None
@@ -175,6 +176,7 @@ public class MLMPlugin extends AbstractPlugin {
             		theAnalysis.useGenotypeCalls(useGenotype);
             		theAnalysis.useReferenceProbability(useRefProb);
             		theAnalysis.useAlleleProbabilities(useAlleleProb);
+            		theAnalysis.numberOfThreads(maxThreads);
 
             	} else {
             		if (compressionType.equals(CompressionType.Optimum)) {
@@ -320,6 +322,20 @@ public class MLMPlugin extends AbstractPlugin {
     public void setCustomCompression(double value) {
         compression = value;
     }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @param maxThreads	the number of threads used to test markers. Only used when variance components are estimated by P3D.
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("MLMPlugin: setMaxThreads: number of threads must be at least 1: " + maxThreads);
+        }
+        this.maxThreads = maxThreads;
+    }
     
     public void useGenotypeCalls() {
         useGenotype = true;
@@ -29,7 +29,7 @@ public class ReferenceProbabilityFELM extends AbstractFixedEffectLM {
             myModel.add(taxaEffect());
 
         //solve the model
-        SweepFastLinearModel markerModel = new SweepFastLinearModel(myModel, siteData);
+        SweepFastLinearModel markerModel = linearModel(myModel, siteData);
 
         //calculate model
         double[] modelSSdf = markerModel.getModelcfmSSdf();
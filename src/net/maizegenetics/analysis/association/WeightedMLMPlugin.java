@@ -217,6 +217,7 @@ public class WeightedMLMPlugin extends MLMPlugin{
                         theAnalysis.useGenotypeCalls(useGenotype);
                         theAnalysis.useReferenceProbability(useRefProb);
                         theAnalysis.useAlleleProbabilities(useAlleleProb);
+                        theAnalysis.numberOfThreads(getMaxThreads());
 
                 } else {
                         if (compressionType.equals(CompressionType.Optimum)) {
@@ -90,17 +90,17 @@ public class QQDisplayPlugin extends AbstractDisplayPlugin {
         int numRows = (int) table.getRowCount();
         String previousTrait = "";
         for (int i = 0; i < numRows; i++) {
-            if (!previousTrait.equals((String) table.getValueAt(i, 0))) {
-                if (!((String) table.getValueAt(i, 1)).equals("None")) {
+            if (!previousTrait.equals(String.valueOf(table.getValueAt(i, 0)))) {
+                if (!String.valueOf(table.getValueAt(i, 1)).equals("None")) {
                     indexes.add(new Integer(i));
-                    previousTrait = (String) table.getValueAt(i, 0);
+                    previousTrait = String.valueOf(table.getValueAt(i, 0));
                     if (i > 1) {
                         indexes.add(new Integer(i));
                     }
                 } else if (i != 0) {
                     indexes.add(new Integer(i));
                     indexes.add(new Integer(i + 1));
-                    previousTrait = (String) table.getValueAt(i + 1, 0);
+                    previousTrait = String.valueOf(table.getValueAt(i + 1, 0));
                 }
             }
         }
@@ -113,8 +113,8 @@ public class QQDisplayPlugin extends AbstractDisplayPlugin {
         int numRows = (int) table.getRowCount();
         String previousTrait = "";
         for (int i = 0; i < numRows; i++) {
-            if (!previousTrait.equals((String) table.getValueAt(i, 0))) {
-                previousTrait = (String) table.getValueAt(i, 0);
+            if (!previousTrait.equals(String.valueOf(table.getValueAt(i, 0)))) {
+                previousTrait = String.valueOf(table.getValueAt(i, 0));
                 traitArray.add(previousTrait);
             }
         }
@@ -139,15 +139,15 @@ public class TableReportManhattanDataset extends DefaultTableXYDataset {
 
     private void setMarkers(TableReport myTableReport) {
         for (int i = 0; i < myMarkers.length; i++) {
-            myMarkers[i] = ((String) myTableReport.getValueAt(myStartIndex + i, myMarkerColumnIndex));
+            myMarkers[i] = String.valueOf(myTableReport.getValueAt(myStartIndex + i, myMarkerColumnIndex));
         }
     }
 
     private void setPValues(TableReport myTableReport) {
         Object temp = myTableReport.getValueAt(myStartIndex, myPValueColumnIndex);
-        if (temp instanceof Double) {
+        if (temp instanceof Number) {
             for (int i = 0; i < myPValues.length; i++) {
-                myPValues[i] = ((Double) myTableReport.getValueAt(myStartIndex + i, myPValueColumnIndex)).doubleValue();
+                myPValues[i] = ((Number) myTableReport.getValueAt(myStartIndex + i, myPValueColumnIndex)).doubleValue();
                 if (myPValues[i] == 0) {
                     myPValues[i] = Double.MIN_VALUE;
                 }
@@ -155,7 +155,7 @@ public class TableReportManhattanDataset extends DefaultTableXYDataset {
             }
         } else if (temp instanceof String) {
             for (int i = 0; i < myPValues.length; i++) {
-                myPValues[i] = Double.parseDouble((String) myTableReport.getValueAt(myStartIndex + i, myPValueColumnIndex));
+                myPValues[i] = Double.parseDouble(String.valueOf(myTableReport.getValueAt(myStartIndex + i, myPValueColumnIndex)));
                 if (myPValues[i] == 0) {
                     myPValues[i] = Double.MIN_VALUE;
                 }
@@ -177,7 +177,7 @@ public class TableReportManhattanDataset extends DefaultTableXYDataset {
 
             currentPosition = Integer.valueOf((myTableReport.getValueAt(myStartIndex + i, myPositionColumnIndex)).toString());
 
-            myChromNames[i] = ((String) myTableReport.getValueAt(myStartIndex + i, myChromColumnIndex));
+            myChromNames[i] = String.valueOf(myTableReport.getValueAt(myStartIndex + i, myChromColumnIndex));
             if (!currentChrom.equals(myChromNames[i])) {
                 numberYAxes++;
                 currentChrom = myChromNames[i];
@@ -192,7 +192,7 @@ public class TableReportManhattanDataset extends DefaultTableXYDataset {
     }
 
     private void setTrait(TableReport table) {
-        myTrait = (String) table.getValueAt(myStartIndex, myTraitColumnIndex);
+        myTrait = String.valueOf(table.getValueAt(myStartIndex, myTraitColumnIndex));
     }
 
     public String[] getMarkers() {
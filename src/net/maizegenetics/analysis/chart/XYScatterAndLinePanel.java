@@ -144,17 +144,17 @@ public class XYScatterAndLinePanel extends BasicChartPanel {
         int numRows = (int) table.getRowCount();
         String previousTrait = "";
         for (int i = 0; i < numRows; i++) {
-            if (!previousTrait.equals((String) table.getValueAt(i, 0))) {
-                if (!((String) table.getValueAt(i, 1)).equals("None")) {
+            if (!previousTrait.equals(String.valueOf(table.getValueAt(i, 0)))) {
+                if (!String.valueOf(table.getValueAt(i, 1)).equals("None")) {
                     indexes.add(i);
-                    previousTrait = (String) table.getValueAt(i, 0);
+                    previousTrait = String.valueOf(table.getValueAt(i, 0));
                     if (i > 1) {
                         indexes.add(i);
                     }
                 } else if (i != 0) {
                     indexes.add(i);
                     indexes.add(i + 1);
-                    previousTrait = (String) table.getValueAt(i + 1, 0);
+                    previousTrait = String.valueOf(table.getValueAt(i + 1, 0));
                 }
             }
         }
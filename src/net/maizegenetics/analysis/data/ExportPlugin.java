@@ -329,6 +329,8 @@ public class ExportPlugin extends AbstractPlugin {
             resultFile = ExportUtils.writeToHapmap(inputAlignment, isDiploid, mySaveFile, '\t', myIncludeTaxaAnnotations, this);
         } else if (myFileType == FileLoadPlugin.TasselFileType.Plink) {
             resultFile = ExportUtils.writeToPlink(inputAlignment, mySaveFile, '\t');
+        } else if (myFileType == FileLoadPlugin.TasselFileType.PlinkBed) {
+            resultFile = ExportUtils.writeToPlinkBed(inputAlignment, mySaveFile, Runtime.getRuntime().availableProcessors());
         } else if (myFileType == FileLoadPlugin.TasselFileType.Phylip_Seq) {
             PrintWriter out = null;
             try {
@@ -357,6 +359,8 @@ public class ExportPlugin extends AbstractPlugin {
             resultFile = ExportUtils.saveDelimitedAlignment(inputAlignment, "\t", mySaveFile);
         } else if (myFileType == FileLoadPlugin.TasselFileType.Serial) {
             resultFile = ExportUtils.writeAlignmentToSerialGZ(inputAlignment, mySaveFile);
+        } else if (myFileType == FileLoadPlugin.TasselFileType.BlockGenotype) {
+            resultFile = ExportUtils.writeToBlockGenotypeFile(inputAlignment, mySaveFile, this);
         } else if (myFileType == FileLoadPlugin.TasselFileType.HDF5) {
             resultFile = ExportUtils.writeGenotypeHDF5(inputAlignment, mySaveFile, myKeepDepth);
         } else if (myFileType == FileLoadPlugin.TasselFileType.VCF) {
@@ -9,12 +9,16 @@ package net.maizegenetics.analysis.data;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import net.maizegenetics.gui.DialogUtils;
+import net.maizegenetics.dna.snp.CoreGenotypeTable;
 import net.maizegenetics.dna.snp.ImportUtils;
 import net.maizegenetics.phenotype.Phenotype;
 import net.maizegenetics.phenotype.PhenotypeBuilder;
 import net.maizegenetics.dna.snp.ReadSequenceAlignmentUtils;
 import net.maizegenetics.dna.snp.io.ReadNumericMarkerUtils;
+import net.maizegenetics.dna.snp.io.BlockGenotypeFile;
 import net.maizegenetics.dna.snp.io.BuilderFromHapMapLIX;
+import net.maizegenetics.dna.snp.io.BuilderFromPLINKBed;
+import net.maizegenetics.dna.snp.io.BuilderFromVCFLIX;
 import net.maizegenetics.dna.snp.io.LineIndexBuilder;
 import net.maizegenetics.taxa.distance.ReadDistanceMatrix;
 import net.maizegenetics.util.*;
@@ -53,6 +57,7 @@ public class FileLoadPlugin extends AbstractPlugin {
     private static final Logger myLogger = Logger.getLogger(FileLoadPlugin.class);
     private String[] myOpenFiles = null;
     private TasselFileType myFileType = TasselFileType.Unknown;
+    private List<String> myVCFRegions = null;
     private PlinkLoadPlugin myPlinkLoadPlugin = null;
     private ProjectionLoadPlugin myProjectionLoadPlugin = null;
     private ProjectPcsAndRunModelSelectionPlugin myProjectPcsAndRunModelSelectionPlugin = null;
@@ -60,18 +65,22 @@ public class FileLoadPlugin extends AbstractPlugin {
 
     public enum TasselFileType {
 
-        SqrMatrix, Sequence, Unknown, Fasta, Hapmap, HapmapLIX,
-        Plink, Phenotype, ProjectionAlignment, ProjectPCsandRunModelSelection, Phylip_Seq, Phylip_Inter, Table,
-        Serial, HapmapDiploid, Text, VCF, HDF5, TOPM, HDF5Schema, Filter, NumericGenotype, TaxaList, PositionList, PositionListTSV, SqrMatrixRaw, SqrMatrixBin
+        SqrMatrix, Sequence, Unknown, Fasta, Hapmap, HapmapLIX, VCFLIX,
+        Plink, PlinkBed, Phenotype, ProjectionAlignment, ProjectPCsandRunModelSelection, Phylip_Seq, Phylip_Inter, Table,
+        Serial, BlockGenotype, HapmapDiploid, Text, VCF, HDF5, TOPM, HDF5Schema, Filter, NumericGenotype, TaxaList, PositionList, PositionListTSV, SqrMatrixRaw, SqrMatrixBin
     };
     public static final String FILE_EXT_HAPMAP = ".hmp.txt";
     public static final String FILE_EXT_HAPMAP_GZ = ".hmp.txt.gz";
     public static final String FILE_EXT_HAPMAP_GZ_LIX = FILE_EXT_HAPMAP_GZ + LineIndexBuilder.LINE_INDEX_FILE_EXTENSION;
     public static final String FILE_EXT_PLINK_MAP = ".plk.map";
     public static final String FILE_EXT_PLINK_PED = ".plk.ped";
+    public static final String FILE_EXT_PLINK_BED = BuilderFromPLINKBed.FILE_EXT_BED;
     public static final String FILE_EXT_SERIAL_GZ = ".serial.gz";
+    public static final String FILE_EXT_BLOCK_GENOTYPE = BlockGenotypeFile.FILE_EXTENSION;
     public static final String FILE_EXT_HDF5 = ".h5";
     public static final String FILE_EXT_VCF = ".vcf";
+    public static final String FILE_EXT_VCF_GZ = ".vcf.gz";
+    public static final String FILE_EXT_VCF_GZ_LIX = FILE_EXT_VCF_GZ + LineIndexBuilder.LINE_INDEX_FILE_EXTENSION;
     public static final String FILE_EXT_TOPM = ".topm";
     public static final String FILE_EXT_TOPM_H5 = ".topm.h5";
     public static final String FILE_EXT_FASTA = ".fasta";
@@ -204,14 +213,40 @@ public class FileLoadPlugin extends AbstractPlugin {
                             alreadyLoaded.add(thePedFile);
                             GenotypeTable plink = ImportUtils.readFromPLink(thePedFile, myOpenFiles[i], this);
                             tds = new DataSet(new Datum(Utils.getFilename(thePedFile, FileLoadPlugin.FILE_EXT_PLINK_PED), plink, null), this);
+                        } else if (myOpenFiles[i].endsWith(FILE_EXT_PLINK_BED)) {
+                            myLogger.info("guessAtUnknowns: type: " + TasselFileType.PlinkBed);
+                            alreadyLoaded.add(myOpenFiles[i]);
+                            tds = processDatum(myOpenFiles[i], TasselFileType.PlinkBed);
                         } else if (myOpenFiles[i].endsWith(FILE_EXT_SERIAL_GZ)) {
                             myLogger.info("guessAtUnknowns: type: " + TasselFileType.Serial);
                             alreadyLoaded.add(myOpenFiles[i]);
                             tds = processDatum(myOpenFiles[i], TasselFileType.Serial);
+                        } else if (myOpenFiles[i].endsWith(FILE_EXT_BLOCK_GENOTYPE)) {
+                            myLogger.info("guessAtUnknowns: type: " + TasselFileType.BlockGenotype);
+                            alreadyLoaded.add(myOpenFiles[i]);
+                            tds = processDatum(myOpenFiles[i], TasselFileType.BlockGenotype);
                         } else if (myOpenFiles[i].endsWith(FILE_EXT_HDF5)) {
                             myLogger.info("guessAtUnknowns: type: " + TasselFileType.HDF5);
                             alreadyLoaded.add(myOpenFiles[i]);
                             tds = processDatum(myOpenFiles[i], TasselFileType.HDF5);
+                        } else if (myOpenFiles[i].endsWith(FILE_EXT_VCF_GZ) && new File(myOpenFiles[i].replaceFirst(FILE_EXT_VCF_GZ, FILE_EXT_VCF_GZ_LIX)).isFile()) {
+                            String theIndex = myOpenFiles[i].replaceFirst(FILE_EXT_VCF_GZ, FILE_EXT_VCF_GZ_LIX);
+                            myLogger.info("guessAtUnknowns: type: " + TasselFileType.VCFLIX);
+                            alreadyLoaded.add(myOpenFiles[i]);
+                            alreadyLoaded.add(theIndex);
+                            GenotypeTable vcf = BuilderFromVCFLIX.build(myOpenFiles[i], theIndex, true);
+                            tds = new DataSet(new Datum(Utils.getFilename(myOpenFiles[i], FileLoadPlugin.FILE_EXT_VCF_GZ), vcf, null), this);
+                        } else if (myOpenFiles[i].endsWith(FILE_EXT_VCF_GZ_LIX)) {
+                            String theVCF = myOpenFiles[i].replaceFirst(FILE_EXT_VCF_GZ_LIX, FILE_EXT_VCF_GZ);
+                            if (new File(theVCF).isFile()) {
+                                myLogger.info("guessAtUnknowns: type: " + TasselFileType.VCFLIX);
+                                alreadyLoaded.add(myOpenFiles[i]);
+                                alreadyLoaded.add(theVCF);
+                                GenotypeTable vcf = BuilderFromVCFLIX.build(theVCF, myOpenFiles[i], true);
+                                tds = new DataSet(new Datum(Utils.getFilename(theVCF, FileLoadPlugin.FILE_EXT_VCF_GZ), vcf, null), this);
+                            } else {
+                                throw new IllegalStateException("FileLoadPlugin: Can't find file matching: " + myOpenFiles[i]);
+                            }
                         } else if (myOpenFiles[i].endsWith(FILE_EXT_VCF) || myOpenFiles[i].endsWith(FILE_EXT_VCF + ".gz")) {
                             myLogger.info("guessAtUnknowns: type: " + TasselFileType.VCF);
                             alreadyLoaded.add(myOpenFiles[i]);
@@ -380,7 +415,7 @@ public class FileLoadPlugin extends AbstractPlugin {
                     if (inFile.endsWith(".gz")) {
                         suffix = FILE_EXT_HAPMAP_GZ;
                     }
-                    result = ImportUtils.readFromHapmap(inFile, this);
+                    result = usePersistentBitStorage(ImportUtils.readFromHapmap(inFile, this), inFile);
                     break;
                 }
                 case HDF5: {
@@ -410,7 +445,7 @@ public class FileLoadPlugin extends AbstractPlugin {
                         inFile = newInfile;
                     }
                     suffix = FILE_EXT_HDF5;
-                    result = ImportUtils.readGuessFormat(inFile);
+                    result = usePersistentBitStorage(ImportUtils.readGuessFormat(inFile), inFile);
                     break;
                 }
                 case HDF5Schema: {
@@ -423,7 +458,21 @@ public class FileLoadPlugin extends AbstractPlugin {
                     if (inFile.endsWith(".gz")) {
                         suffix = FILE_EXT_VCF + ".gz";
                     }
-                    result = ImportUtils.readFromVCF(inFile, this);
+                    if (myVCFRegions == null) {
+                        result = ImportUtils.readFromVCF(inFile, this);
+                    } else {
+                        result = ImportUtils.readFromVCF(inFile, myVCFRegions, this);
+                    }
+                    break;
+                }
+                case BlockGenotype: {
+                    suffix = FILE_EXT_BLOCK_GENOTYPE;
+                    result = BlockGenotypeFile.read(inFile);
+                    break;
+                }
+                case PlinkBed: {
+                    suffix = FILE_EXT_PLINK_BED;
+                    result = ImportUtils.readFromPLinkBed(inFile, this);
                     break;
                 }
                 case Sequence: {
@@ -481,6 +530,17 @@ public class FileLoadPlugin extends AbstractPlugin {
         return null;
     }
 
+    /**
+     * Keeps allele presence bits of genotypes loaded from given file in a
+     * sidecar file (see BitStorageFile), so later runs don't rebuild them.
+     */
+    private static GenotypeTable usePersistentBitStorage(GenotypeTable genotypes, String filename) {
+        if (genotypes instanceof CoreGenotypeTable) {
+            ((CoreGenotypeTable) genotypes).usePersistentBitStorage(filename);
+        }
+        return genotypes;
+    }
+
     private void showError(Exception e, String filename) {
 
         myLogger.error(e.getMessage(), e);
@@ -549,6 +609,21 @@ public class FileLoadPlugin extends AbstractPlugin {
         myFileType = theFileType;
     }
 
+    public List<String> getVCFRegions() {
+        return myVCFRegions;
+    }
+
+    /**
+     * Load only the sites in the given regions of VCF files. The files must be
+     * bgzipped and tabix indexed.
+     *
+     * @param regions regions as chromosome, chromosome:start, or
+     * chromosome:start-end (1-based, inclusive). Null loads all sites.
+     */
+    public void setVCFRegions(List<String> regions) {
+        myVCFRegions = regions;
+    }
+
     /**
      * Icon for this plugin to be used in buttons, etc.
      *
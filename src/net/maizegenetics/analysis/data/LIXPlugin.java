@@ -20,7 +20,7 @@ public class LIXPlugin extends AbstractPlugin {
 
     private PluginParameter<String> myCreateIndex = new PluginParameter.Builder<String>("createIndex", null, String.class)
             .inFile()
-            .description("Create Index for given file.")
+            .description("Create Index for given bgzipped Hapmap (.hmp.txt.gz) or VCF (.vcf.gz) file.")
             .build();
 
     public LIXPlugin(Frame parentFrame, boolean isInteractive) {
@@ -32,7 +32,11 @@ public class LIXPlugin extends AbstractPlugin {
 
         String genotypeFilename = createIndex();
         if ((genotypeFilename != null) && (!genotypeFilename.isEmpty())) {
-            LineIndexBuilder.buildHapmapIndex(genotypeFilename);
+            if (genotypeFilename.endsWith(".vcf.gz")) {
+                LineIndexBuilder.buildVCFIndex(genotypeFilename);
+            } else {
+                LineIndexBuilder.buildHapmapIndex(genotypeFilename);
+            }
         }
 
         return null;
@@ -1,9 +1,6 @@
 package net.maizegenetics.analysis.data;
 
-import net.maizegenetics.dna.snp.ExportUtils;
-import net.maizegenetics.dna.snp.GenotypeTable;
-import net.maizegenetics.dna.snp.io.BuilderFromHapMap;
-import net.maizegenetics.dna.snp.io.BuilderFromVCF;
+import net.maizegenetics.dna.snp.io.GenotypeFileSorter;
 import net.maizegenetics.plugindef.AbstractPlugin;
 import net.maizegenetics.plugindef.DataSet;
 import net.maizegenetics.plugindef.GeneratePluginCode;
@@ -18,6 +15,7 @@ import java.net.URL;
  * Created by jgw87 on 6/5/14.
  * This plugin takes a Hapmap or VCF genotype file and sorts it according to TASSEL's conventions which rely on the
  * position, locus (chromosome), strand, and SNP name (to facilitate searching).
+ * The file is sorted with an external merge sort, so it doesn't need to fit in memory.
  */
 public class SortGenotypeFilePlugin extends AbstractPlugin {
 
@@ -53,12 +51,10 @@ public class SortGenotypeFilePlugin extends AbstractPlugin {
         try {
             switch (fileType()) {
                 case Hapmap:
-                    GenotypeTable myHapmap = BuilderFromHapMap.getBuilder(inputFile(), null).sortPositions().build();
-                    ExportUtils.writeToHapmap(myHapmap, outputFile());
+                    GenotypeFileSorter.getHapmapInstance(inputFile(), outputFile()).sort();
                     break;
                 case VCF:
-                    GenotypeTable myVCF = BuilderFromVCF.getBuilder(inputFile()).keepDepth().buildAndSortInMemory();
-                    ExportUtils.writeToVCF(myVCF, outputFile(), true);
+                    GenotypeFileSorter.getVCFInstance(inputFile(), outputFile()).sort();
                     break;
                 default:
                     throw new UnsupportedDataTypeException("SortGenotypeFilePlugin: Identified data type does not conform to known types (Hapmap, VCF)");
@@ -15,6 +15,7 @@ import java.util.stream.StreamSupport;
 import net.maizegenetics.dna.snp.GenotypeTable;
 import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
 import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
 import net.maizegenetics.util.ProgressListener;
 import net.maizegenetics.util.Tuple;
 import org.apache.log4j.Logger;
@@ -123,17 +124,17 @@ public class EndelmanDistanceMatrix {
         // the distance sums.
         //
         sumpk *= 2.0;
-        double[][] result = new double[numSeqs][numSeqs];
+        DistanceMatrixBuilder result = DistanceMatrixBuilder.getInstance(genotype.taxa());
         int index = 0;
         for (int t = 0; t < numSeqs; t++) {
             for (int i = 0, n = numSeqs - t; i < n; i++) {
-                result[t][t + i] = result[t + i][t] = distances[index] / sumpk;
+                result.set(t, t + i, distances[index] / sumpk);
                 index++;
             }
         }
 
         myLogger.info("EndelmanDistanceMatrix: computeEndelmanDistances time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
-        return new DistanceMatrix(result, genotype.taxa());
+        return result.build();
 
     }
 
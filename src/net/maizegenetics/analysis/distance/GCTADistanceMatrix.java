@@ -15,6 +15,7 @@ import java.util.stream.StreamSupport;
 import net.maizegenetics.dna.snp.GenotypeTable;
 import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
 import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
 import net.maizegenetics.util.ProgressListener;
 import net.maizegenetics.util.Tuple;
 import org.apache.log4j.Logger;
@@ -81,17 +82,17 @@ public class GCTADistanceMatrix {
         // This does the final division of the site counts into
         // the distance sums.
         //
-        double[][] result = new double[numSeqs][numSeqs];
+        DistanceMatrixBuilder result = DistanceMatrixBuilder.getInstance(genotype.taxa());
         int index = 0;
         for (int t = 0; t < numSeqs; t++) {
             for (int i = 0, n = numSeqs - t; i < n; i++) {
-                result[t][t + i] = result[t + i][t] = distances[index] / (double) counts[index];
+                result.set(t, t + i, distances[index] / (double) counts[index]);
                 index++;
             }
         }
 
         myLogger.info("GCTADistanceMatrix: computeGCTADistances time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
-        return new DistanceMatrix(result, genotype.taxa());
+        return result.build();
 
     }
 
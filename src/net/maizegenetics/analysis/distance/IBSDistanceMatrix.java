@@ -16,17 +16,15 @@ package net.maizegenetics.analysis.distance;
 
 import net.maizegenetics.dna.snp.GenotypeTable;
 import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
 import net.maizegenetics.util.BitSet;
 import net.maizegenetics.util.BitUtil;
 import net.maizegenetics.util.ProgressListener;
 
-import java.util.stream.IntStream;
-
 import static net.maizegenetics.dna.WHICH_ALLELE.Major;
 import static net.maizegenetics.dna.WHICH_ALLELE.Minor;
 import static net.maizegenetics.dna.WHICH_ALLELE.Minor2;
 import net.maizegenetics.taxa.TaxaList;
-import net.maizegenetics.util.Tuple;
 
 /**
  * This class calculates an identity by state matrix. It is scaled so only
@@ -60,6 +58,12 @@ public class IBSDistanceMatrix extends DistanceMatrix {
         myAvgTotalSites = avgTotalSites;
     }
 
+    public IBSDistanceMatrix(DistanceMatrixBuilder builder, boolean isTrueIBS, double avgTotalSites) {
+        super(builder);
+        myIsTrueIBS = isTrueIBS;
+        myAvgTotalSites = avgTotalSites;
+    }
+
     /**
      * Compute observed distances for all taxa. Missing sites are ignored.
      *
@@ -101,7 +105,11 @@ public class IBSDistanceMatrix extends DistanceMatrix {
      * @param useThirdState
      */
     public static IBSDistanceMatrix getInstance(GenotypeTable theAlignment, int minSiteComp, boolean trueIBS, ProgressListener listener, boolean useThirdState) {
-        if (useThirdState) {
+        if (DistanceMatrixBuilder.usePackedStorage(theAlignment.numberOfTaxa())) {
+            // The 2 and 3 allele engines accumulate counts for every pair of taxa on the heap.
+            // The tiled engine writes each finished tile straight into the packed storage.
+            return TiledIBSDistanceMatrix.getInstance(theAlignment, minSiteComp, trueIBS, listener, useThirdState);
+        } else if (useThirdState) {
             return IBSDistanceMatrix3Alleles.getInstance(theAlignment, minSiteComp, trueIBS, listener);
         } else {
             return IBSDistanceMatrix2Alleles.getInstance(theAlignment, minSiteComp, trueIBS, listener);
@@ -131,49 +139,6 @@ public class IBSDistanceMatrix extends DistanceMatrix {
         return new double[]{dist, sites};
     }
 
-    /**
-     * This is a cleanest, fastest and most accurate way to calculate distance.
-     */
-    private static Tuple<double[][], Double> computeHetBitDistances(boolean useThirdState, ProgressListener listener, GenotypeTable theTBA, boolean isTrueIBS, int minSitesComp) {
-        int numSeqs = theTBA.numberOfTaxa();
-        double avgTotalSites = 0;
-        //LongAdder count = new LongAdder();
-        //note this distance object is modified by a parallel stream, but each element is only touched once
-        double[][] distance = new double[numSeqs][numSeqs];
-        long numberOfTests = numSeqs * (numSeqs - 1) / 2;
-        long time = System.currentTimeMillis();
-        IntStream.range(0, numSeqs).parallel().forEach(i -> {
-            long[] iMj = theTBA.allelePresenceForAllSites(i, Major).getBits();
-            long[] iMn = theTBA.allelePresenceForAllSites(i, Minor).getBits();
-            long[] iMn2 = null;
-            if (useThirdState) {
-                iMn2 = theTBA.allelePresenceForAllSites(i, Minor2).getBits();
-            }
-            for (int j = i; j < numSeqs; j++) {
-                if (j == i && !isTrueIBS) {
-                    distance[i][i] = 0;
-                } else {
-                    long[] jMj = theTBA.allelePresenceForAllSites(j, Major).getBits();
-                    long[] jMn = theTBA.allelePresenceForAllSites(j, Minor).getBits();
-                    double[] result;
-                    if (useThirdState) {
-                        long[] jMn2 = theTBA.allelePresenceForAllSites(j, Minor2).getBits();
-                        result = computeHetBitDistancesThirdState(iMj, iMn, iMn2, jMj, jMn, jMn2, minSitesComp);
-                    } else {
-                        result = computeHetBitDistances(iMj, iMn, jMj, jMn, minSitesComp);
-                    }
-                    distance[i][j] = distance[j][i] = result[0];
-                    //avgTotalSites += result[1];  //this assumes not hets
-                    //count.increment();
-                }
-            }
-            fireProgress((int) ((double) (i + 1) / (double) numSeqs * 100.0), listener);
-        });
-        //avgTotalSites /= (double) count.longValue();
-        System.out.println("computeHetBitDistances time = " + (System.currentTimeMillis() - time) / 1000 + " seconds");
-        return new Tuple<>(distance, avgTotalSites);
-    }
-
     /**
      * Compute distance for a pair of taxa.
      *
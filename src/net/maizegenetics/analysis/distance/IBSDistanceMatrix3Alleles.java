@@ -12,6 +12,7 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import net.maizegenetics.dna.snp.GenotypeTable;
 import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
 import net.maizegenetics.util.ProgressListener;
 import net.maizegenetics.util.Tuple;
 import org.apache.log4j.Logger;
@@ -37,11 +38,11 @@ public class IBSDistanceMatrix3Alleles {
     }
 
     public static IBSDistanceMatrix getInstance(GenotypeTable genotype, int minSiteComp, boolean trueIBS, ProgressListener listener) {
-        Tuple<double[][], Double> distances = computeHetBitDistances(genotype, listener, trueIBS, minSiteComp);
-        return new IBSDistanceMatrix(distances.x, genotype.taxa(), trueIBS, distances.y);
+        Tuple<DistanceMatrixBuilder, Double> distances = computeHetBitDistances(genotype, listener, trueIBS, minSiteComp);
+        return new IBSDistanceMatrix(distances.x, trueIBS, distances.y);
     }
 
-    private static Tuple<double[][], Double> computeHetBitDistances(GenotypeTable genotype, ProgressListener listener, boolean isTrueIBS, int minSitesComp) {
+    private static Tuple<DistanceMatrixBuilder, Double> computeHetBitDistances(GenotypeTable genotype, ProgressListener listener, boolean isTrueIBS, int minSitesComp) {
 
         int numSeqs = genotype.numberOfTaxa();
         double avgTotalSites = 0.0;
@@ -54,13 +55,13 @@ public class IBSDistanceMatrix3Alleles {
 
         int[][] counters = temp.myCounters;
 
-        double[][] distance = new double[numSeqs][numSeqs];
+        DistanceMatrixBuilder distance = DistanceMatrixBuilder.getInstance(genotype.taxa());
         long count = 0;
         for (int i = 0; i < numSeqs; i++) {
             int index = 0;
             for (int j = i; j < numSeqs; j++) {
                 if (j == i && !isTrueIBS) {
-                    distance[i][i] = 0;
+                    distance.set(i, i, 0);
                     index += 3;
                 } else {
                     int sameCount = counters[i][index++];
@@ -73,7 +74,7 @@ public class IBSDistanceMatrix3Alleles {
                     if (sites < minSitesComp) {
                         dist = Double.NaN;
                     }
-                    distance[i][j] = distance[j][i] = dist;
+                    distance.set(i, j, dist);
                     avgTotalSites += sites;  //this assumes not hets
                     count++;
                 }
@@ -11,6 +11,7 @@ import net.maizegenetics.taxa.distance.DistanceMatrix;
 
 import javax.swing.*;
 
+import java.io.File;
 import java.net.URL;
 import java.awt.Frame;
 import java.util.ArrayList;
@@ -47,6 +48,30 @@ public class KinshipPlugin extends AbstractPlugin {
             .range(GENOTYPE_COMP)
             .description("If the genotype table contains more than one type of genotype data, choose the type to use for calculating kinship.")
             .build();
+    private PluginParameter<Integer> myMemoryBudget = new PluginParameter.Builder<>("memoryBudget", 0, Integer.class)
+            .guiName("Memory Budget")
+            .units("MB")
+            .range(Range.atLeast(0))
+            .description("If greater than zero, kinship is computed out-of-core by streaming chunks of sites. "
+                    + "This is the heap memory used to hold a chunk of sites. The pair-wise sums are memory mapped.")
+            .build();
+    private PluginParameter<String> myCheckpointFile = new PluginParameter.Builder<>("checkpointFile", null, String.class)
+            .required(false)
+            .outFile()
+            .description("If specified, kinship is computed out-of-core and partial sums are saved to this file. "
+                    + "Running again with the same file resumes from the last checkpoint.")
+            .build();
+    private PluginParameter<Integer> myCheckpointInterval = new PluginParameter.Builder<>("checkpointInterval", StreamingKinship.DEFAULT_CHECKPOINT_INTERVAL, Integer.class)
+            .range(Range.atLeast(1))
+            .description("Number of sites between checkpoints.")
+            .dependentOnParameter(myCheckpointFile)
+            .build();
+    private PluginParameter<String> myKinshipState = new PluginParameter.Builder<>("kinshipState", null, String.class)
+            .required(false)
+            .outFile()
+            .description("If specified and this file exists, the saved kinship state is updated with the new taxa and / or sites of the genotype table. "
+                    + "Otherwise, the state is created from the genotype table. The state is then saved to this file.")
+            .build();
 
     public KinshipPlugin(Frame parentFrame, boolean isInteractive) {
         super(parentFrame, isInteractive);
@@ -76,7 +101,24 @@ public class KinshipPlugin extends AbstractPlugin {
 
             if (current.getData() instanceof GenotypeTable) {
                 GenotypeTable myGenotype = (GenotypeTable) current.getData();
-                if (kinshipMethod() == KINSHIP_METHOD.Scaled_IBS) {
+                if (kinshipState() != null) {
+                    long budget = memoryBudget() > 0 ? memoryBudget() * 1024L * 1024L : StreamingKinship.DEFAULT_MEMORY_BUDGET;
+                    KinshipState state;
+                    if (new File(kinshipState()).exists()) {
+                        state = KinshipState.read(kinshipState());
+                        if (state.method() != kinshipMethod()) {
+                            throw new IllegalArgumentException("KinshipPlugin: kinship state: " + kinshipState() + " was created with method: " + state.method());
+                        }
+                        state.update(myGenotype, budget, this);
+                    } else {
+                        state = KinshipState.getInstance(myGenotype, kinshipMethod(), 6, budget, this);
+                    }
+                    state.write(kinshipState());
+                    kin = state.kinship();
+                } else if ((memoryBudget() > 0) || (checkpointFile() != null)) {
+                    long budget = memoryBudget() > 0 ? memoryBudget() * 1024L * 1024L : StreamingKinship.DEFAULT_MEMORY_BUDGET;
+                    kin = StreamingKinship.getInstance(myGenotype, kinshipMethod(), 6, budget, checkpointFile(), checkpointInterval(), this);
+                } else if (kinshipMethod() == KINSHIP_METHOD.Scaled_IBS) {
                     //kin = Kinship.createKinship(myGenotype, Kinship.KINSHIP_TYPE.Endelman, myDatatype.value());
                     kin = EndelmanDistanceMatrix.getInstance(myGenotype, 6, this);
                 } else if (kinshipMethod() == KINSHIP_METHOD.GCTA) {
@@ -187,4 +229,102 @@ public class KinshipPlugin extends AbstractPlugin {
         return this;
     }
 
+    /**
+     * If greater than zero, kinship is computed out-of-core by streaming
+     * chunks of sites. This is the heap memory used to hold a chunk of sites.
+     * The pair-wise sums are memory mapped.
+     *
+     * @return Memory Budget
+     */
+    public Integer memoryBudget() {
+        return myMemoryBudget.value();
+    }
+
+    /**
+     * Set Memory Budget. If greater than zero, kinship is computed out-of-core
+     * by streaming chunks of sites. This is the heap memory used to hold a
+     * chunk of sites. The pair-wise sums are memory mapped.
+     *
+     * @param value Memory Budget
+     *
+     * @return this plugin
+     */
+    public KinshipPlugin memoryBudget(Integer value) {
+        myMemoryBudget = new PluginParameter<>(myMemoryBudget, value);
+        return this;
+    }
+
+    /**
+     * If specified, kinship is computed out-of-core and partial sums are saved
+     * to this file. Running again with the same file resumes from the last
+     * checkpoint.
+     *
+     * @return Checkpoint File
+     */
+    public String checkpointFile() {
+        return myCheckpointFile.value();
+    }
+
+    /**
+     * Set Checkpoint File. If specified, kinship is computed out-of-core and
+     * partial sums are saved to this file. Running again with the same file
+     * resumes from the last checkpoint.
+     *
+     * @param value Checkpoint File
+     *
+     * @return this plugin
+     */
+    public KinshipPlugin checkpointFile(String value) {
+        myCheckpointFile = new PluginParameter<>(myCheckpointFile, value);
+        return this;
+    }
+
+    /**
+     * Number of sites between checkpoints.
+     *
+     * @return Checkpoint Interval
+     */
+    public Integer checkpointInterval() {
+        return myCheckpointInterval.value();
+    }
+
+    /**
+     * Set Checkpoint Interval. Number of sites between checkpoints.
+     *
+     * @param value Checkpoint Interval
+     *
+     * @return this plugin
+     */
+    public KinshipPlugin checkpointInterval(Integer value) {
+        myCheckpointInterval = new PluginParameter<>(myCheckpointInterval, value);
+        return this;
+    }
+
+    /**
+     * If specified and this file exists, the saved kinship state is updated
+     * with the new taxa and / or sites of the genotype table. Otherwise, the
+     * state is created from the genotype table. The state is then saved to
+     * this file.
+     *
+     * @return Kinship State
+     */
+    public String kinshipState() {
+        return myKinshipState.value();
+    }
+
+    /**
+     * Set Kinship State. If specified and this file exists, the saved kinship
+     * state is updated with the new taxa and / or sites of the genotype table.
+     * Otherwise, the state is created from the genotype table. The state is
+     * then saved to this file.
+     *
+     * @param value Kinship State
+     *
+     * @return this plugin
+     */
+    public KinshipPlugin kinshipState(String value) {
+        myKinshipState = new PluginParameter<>(myKinshipState, value);
+        return this;
+    }
+
 }
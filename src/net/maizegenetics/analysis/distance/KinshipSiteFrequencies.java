@@ -0,0 +1,153 @@
+/*
+ *  KinshipSiteFrequencies
+ */
+package net.maizegenetics.analysis.distance;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Alleles and frequencies used for each site of a KinshipState. A site may
+ * have zero alleles (i.e. monomorphic or skipped), so that it's still known
+ * when the state is updated. Frequencies of a site are fixed when the site is
+ * first added.
+ *
+ * @author agent
+ */
+class KinshipSiteFrequencies {
+
+    private final List<String> myChromosomes = new ArrayList<>();
+    private final TObjectIntHashMap<String> myChromosomeIndices = new TObjectIntHashMap<>(16, 0.5f, -1);
+
+    private int myNumSites = 0;
+    private int[] myChromosome = new int[1024];
+    private int[] myPosition = new int[1024];
+    private int[] myFirstAllele = new int[1025];
+
+    private int myNumAlleles = 0;
+    private byte[] myAlleles = new byte[1024];
+    private float[] myFrequencies = new float[1024];
+
+    private TLongIntHashMap myLookup = null;
+
+    KinshipSiteFrequencies() {
+    }
+
+    synchronized void add(String chromosome, int position, byte[] alleles, float[] frequencies, int numAlleles) {
+
+        int chr = myChromosomeIndices.get(chromosome);
+        if (chr == -1) {
+            chr = myChromosomes.size();
+            myChromosomes.add(chromosome);
+            myChromosomeIndices.put(chromosome, chr);
+        }
+
+        if (myNumSites == myChromosome.length) {
+            int size = myChromosome.length * 2;
+            myChromosome = Arrays.copyOf(myChromosome, size);
+            myPosition = Arrays.copyOf(myPosition, size);
+            myFirstAllele = Arrays.copyOf(myFirstAllele, size + 1);
+        }
+        while (myNumAlleles + numAlleles > myAlleles.length) {
+            myAlleles = Arrays.copyOf(myAlleles, myAlleles.length * 2);
+            myFrequencies = Arrays.copyOf(myFrequencies, myFrequencies.length * 2);
+        }
+
+        myChromosome[myNumSites] = chr;
+        myPosition[myNumSites] = position;
+        System.arraycopy(alleles, 0, myAlleles, myNumAlleles, numAlleles);
+        System.arraycopy(frequencies, 0, myFrequencies, myNumAlleles, numAlleles);
+        myNumAlleles += numAlleles;
+        myFirstAllele[myNumSites + 1] = myNumAlleles;
+        if (myLookup != null) {
+            myLookup.put(key(chr, position), myNumSites);
+        }
+        myNumSites++;
+
+    }
+
+    /**
+     * Returns index of site or -1 if not present.
+     */
+    synchronized int find(String chromosome, int position) {
+        int chr = myChromosomeIndices.get(chromosome);
+        if (chr == -1) {
+            return -1;
+        }
+        if (myLookup == null) {
+            myLookup = new TLongIntHashMap(Math.max(16, myNumSites * 2), 0.5f, Long.MIN_VALUE, -1);
+            for (int s = 0; s < myNumSites; s++) {
+                myLookup.put(key(myChromosome[s], myPosition[s]), s);
+            }
+        }
+        return myLookup.get(key(chr, position));
+    }
+
+    private static long key(int chromosome, int position) {
+        return ((long) chromosome << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    int numberOfSites() {
+        return myNumSites;
+    }
+
+    int numberOfAlleles(int site) {
+        return myFirstAllele[site + 1] - myFirstAllele[site];
+    }
+
+    byte allele(int site, int allele) {
+        return myAlleles[myFirstAllele[site] + allele];
+    }
+
+    float frequency(int site, int allele) {
+        return myFrequencies[myFirstAllele[site] + allele];
+    }
+
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(myChromosomes.size());
+        for (String current : myChromosomes) {
+            output.writeUTF(current);
+        }
+        output.writeInt(myNumSites);
+        for (int s = 0; s < myNumSites; s++) {
+            output.writeInt(myChromosome[s]);
+            output.writeInt(myPosition[s]);
+            int numAlleles = numberOfAlleles(s);
+            output.writeByte(numAlleles);
+            for (int a = 0; a < numAlleles; a++) {
+                output.writeByte(allele(s, a));
+                output.writeFloat(frequency(s, a));
+            }
+        }
+    }
+
+    static KinshipSiteFrequencies read(DataInputStream input) throws IOException {
+        KinshipSiteFrequencies result = new KinshipSiteFrequencies();
+        int numChromosomes = input.readInt();
+        String[] chromosomes = new String[numChromosomes];
+        for (int c = 0; c < numChromosomes; c++) {
+            chromosomes[c] = input.readUTF();
+        }
+        int numSites = input.readInt();
+        byte[] alleles = new byte[256];
+        float[] frequencies = new float[256];
+        for (int s = 0; s < numSites; s++) {
+            String chromosome = chromosomes[input.readInt()];
+            int position = input.readInt();
+            int numAlleles = input.readUnsignedByte();
+            for (int a = 0; a < numAlleles; a++) {
+                alleles[a] = input.readByte();
+                frequencies[a] = input.readFloat();
+            }
+            result.add(chromosome, position, alleles, frequencies, numAlleles);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,430 @@
+/*
+ *  KinshipState
+ */
+package net.maizegenetics.analysis.distance;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import net.maizegenetics.analysis.distance.KinshipPlugin.KINSHIP_METHOD;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.taxa.TaxaListBuilder;
+import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.TriangularDistanceStorage;
+import net.maizegenetics.util.ProgressListener;
+import net.maizegenetics.util.Utils;
+import org.apache.log4j.Logger;
+
+/**
+ * Persisted kinship (Endelman or GCTA) state. This holds the raw pair-wise
+ * cross product sums (and for GCTA the pair-wise site counts), the sum of
+ * p(1-p), and the alleles and frequencies used for each site. The kinship
+ * matrix is calculated from these at any time.
+ * <p></p>
+ * The state can be updated with a genotype table that has new taxa, new
+ * sites, or both. Only the new pairs (for sites already in the state) and
+ * the new site contributions (for all pairs) are calculated. Allele
+ * frequencies of a site are fixed when it's first added, so existing pairs
+ * don't change when taxa are added. Therefore, results after an update can
+ * differ slightly from calculating everything again, where frequencies would
+ * include the new taxa.
+ *
+ * @author agent
+ */
+public class KinshipState {
+
+    private static final Logger myLogger = Logger.getLogger(KinshipState.class);
+
+    private static final int STATE_VERSION = 1;
+
+    // properties naming the files of a state
+    private static final String[] PART_KEYS = {"taxa", "sites", "sums", "counts"};
+
+    private final KINSHIP_METHOD myMethod;
+    private final int myMaxAlleles;
+    private TaxaList myTaxa;
+    private final KinshipSiteFrequencies myFrequencies;
+    private TriangularDistanceStorage mySums;
+    private TriangularDistanceStorage myCounts;
+    private double mySumPi;
+
+    private KinshipState(KINSHIP_METHOD method, int maxAlleles, TaxaList taxa, KinshipSiteFrequencies frequencies, TriangularDistanceStorage sums, TriangularDistanceStorage counts, double sumPi) {
+        myMethod = method;
+        myMaxAlleles = maxAlleles;
+        myTaxa = taxa;
+        myFrequencies = frequencies;
+        mySums = sums;
+        myCounts = counts;
+        mySumPi = sumPi;
+    }
+
+    /**
+     * Creates state from all taxa and sites of genotype table.
+     *
+     * @param genotype genotype table
+     * @param method kinship method
+     * @param maxAlleles maximum alleles per site to evaluate (Endelman only)
+     * @param memoryBudget bytes of heap used for site chunks
+     * @param listener progress listener
+     *
+     * @return kinship state
+     */
+    public static KinshipState getInstance(GenotypeTable genotype, KINSHIP_METHOD method, int maxAlleles, long memoryBudget, ProgressListener listener) {
+
+        if ((method != KINSHIP_METHOD.Scaled_IBS) && (method != KINSHIP_METHOD.GCTA)) {
+            throw new IllegalArgumentException("KinshipState: getInstance: unsupported method: " + method);
+        }
+        if ((method == KINSHIP_METHOD.Scaled_IBS) && ((maxAlleles < 2) || (maxAlleles > 6))) {
+            throw new IllegalArgumentException("KinshipState: getInstance: max alleles must be between 2 and 6 inclusive.");
+        }
+
+        long time = System.currentTimeMillis();
+        int numTaxa = genotype.numberOfTaxa();
+        KinshipSiteFrequencies frequencies = new KinshipSiteFrequencies();
+        TriangularDistanceStorage sums = TriangularDistanceStorage.getInstance(numTaxa, false);
+        TriangularDistanceStorage counts = method == KINSHIP_METHOD.GCTA ? TriangularDistanceStorage.getInstance(numTaxa, false) : null;
+        StreamingKinship engine = new StreamingKinship(genotype, method, maxAlleles, memoryBudget, null, 0, null, null, frequencies, sums, counts, listener);
+        double sumPi = engine.accumulate();
+        myLogger.info("KinshipState: getInstance time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
+        return new KinshipState(method, method == KINSHIP_METHOD.GCTA ? 2 : maxAlleles, genotype.taxa(), frequencies, sums, counts, sumPi);
+
+    }
+
+    /**
+     * Adds taxa and / or sites of genotype table to this state. Taxa not in
+     * this state are appended in the order of the genotype table. If there
+     * are new taxa, all taxa of this state must be in the genotype table.
+     * Sites already in this state (same chromosome and position) are only
+     * evaluated for the new pairs of taxa, using the recorded frequencies.
+     * New sites are evaluated for all pairs.
+     *
+     * @param genotype genotype table
+     * @param memoryBudget bytes of heap used for site chunks
+     * @param listener progress listener
+     */
+    public void update(GenotypeTable genotype, long memoryBudget, ProgressListener listener) {
+
+        long time = System.currentTimeMillis();
+
+        TaxaList genotypeTaxa = genotype.taxa();
+        int numOldTaxa = myTaxa.numberOfTaxa();
+        TaxaListBuilder taxaBuilder = new TaxaListBuilder();
+        taxaBuilder.addAll(myTaxa);
+        List<Integer> taxaIndices = new ArrayList<>();
+        int numMissing = 0;
+        for (int t = 0; t < numOldTaxa; t++) {
+            int index = genotypeTaxa.indexOf(myTaxa.get(t));
+            if (index < 0) {
+                numMissing++;
+            }
+            taxaIndices.add(index);
+        }
+        for (int t = 0, n = genotypeTaxa.numberOfTaxa(); t < n; t++) {
+            Taxon current = genotypeTaxa.get(t);
+            if (myTaxa.indexOf(current) < 0) {
+                taxaBuilder.add(current);
+                taxaIndices.add(t);
+            }
+        }
+        int numTaxa = taxaIndices.size();
+        int numNewTaxa = numTaxa - numOldTaxa;
+        if ((numNewTaxa != 0) && (numMissing != 0)) {
+            throw new IllegalArgumentException("KinshipState: update: genotype table has new taxa but is missing: " + numMissing + " taxa of the kinship state.");
+        }
+        int[] taxa = new int[numTaxa];
+        for (int t = 0; t < numTaxa; t++) {
+            taxa[t] = taxaIndices.get(t);
+        }
+
+        List<Integer> knownSites = new ArrayList<>();
+        List<Integer> knownIndices = new ArrayList<>();
+        List<Integer> newSites = new ArrayList<>();
+        for (int s = 0, n = genotype.numberOfSites(); s < n; s++) {
+            int index = myFrequencies.find(genotype.chromosomeName(s), genotype.chromosomalPosition(s));
+            if (index < 0) {
+                newSites.add(s);
+            } else {
+                knownSites.add(s);
+                knownIndices.add(index);
+            }
+        }
+
+        myLogger.info("KinshipState: update: new taxa: " + numNewTaxa + " new sites: " + newSites.size());
+
+        if (numNewTaxa != 0) {
+
+            if (knownSites.size() != myFrequencies.numberOfSites()) {
+                myLogger.warn("KinshipState: update: genotype table is missing: " + (myFrequencies.numberOfSites() - knownSites.size()) + " sites of the kinship state. These sites won't contribute to pairs with new taxa.");
+            }
+
+            mySums = expand(mySums, numTaxa);
+            if (myCounts != null) {
+                myCounts = expand(myCounts, numTaxa);
+            }
+
+            if (!knownSites.isEmpty()) {
+                StreamingKinship engine = new StreamingKinship(genotype, myMethod, myMaxAlleles, memoryBudget, taxa, numOldTaxa, toArray(knownSites), toArray(knownIndices), myFrequencies, mySums, myCounts, listener);
+                engine.accumulate();
+            }
+
+            myTaxa = taxaBuilder.build();
+
+        }
+
+        if (!newSites.isEmpty()) {
+            StreamingKinship engine = new StreamingKinship(genotype, myMethod, myMaxAlleles, memoryBudget, taxa, 0, toArray(newSites), null, myFrequencies, mySums, myCounts, listener);
+            mySumPi += engine.accumulate();
+        }
+
+        myLogger.info("KinshipState: update time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
+
+    }
+
+    //
+    // Copies sums into new storage with more taxa. New pairs are zero.
+    //
+    private static TriangularDistanceStorage expand(TriangularDistanceStorage storage, int numTaxa) {
+        int numOldTaxa = storage.numberOfTaxa();
+        TriangularDistanceStorage result = TriangularDistanceStorage.getInstance(numTaxa, false);
+        for (int i = 0; i < numOldTaxa; i++) {
+            long from = storage.index(i, i);
+            long to = result.index(i, i);
+            for (int j = i; j < numOldTaxa; j++) {
+                result.set(to++, storage.get(from++));
+            }
+        }
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Kinship matrix from current state. State is not changed.
+     *
+     * @return kinship matrix
+     */
+    public DistanceMatrix kinship() {
+        return StreamingKinship.kinship(myTaxa, mySums, myCounts, mySumPi);
+    }
+
+    public TaxaList taxa() {
+        return myTaxa;
+    }
+
+    public KINSHIP_METHOD method() {
+        return myMethod;
+    }
+
+    public int numberOfSites() {
+        return myFrequencies.numberOfSites();
+    }
+
+    /**
+     * Writes state to given properties file. Taxa, sites, and sums are
+     * written to files named from it with a new generation number, so the
+     * files of the previous state aren't changed. Once these are synced to
+     * disk, the properties file naming them is atomically replaced, and the
+     * files of the previous generation are deleted. If writing is
+     * interrupted, the properties file still names the previous complete
+     * state.
+     *
+     * @param filename filename
+     */
+    public void write(String filename) {
+
+        File state = new File(filename).getAbsoluteFile();
+        File directory = state.getParentFile();
+
+        Properties previous = null;
+        int generation = 1;
+        if (state.exists()) {
+            previous = readProperties(state);
+            generation = Integer.parseInt(previous.getProperty("generation", "0")) + 1;
+        }
+        String name = state.getName() + ".g" + generation;
+
+        String taxaFile = name + ".taxa.txt";
+        try (BufferedWriter writer = Utils.getBufferedWriter(new File(directory, taxaFile))) {
+            for (int t = 0, n = myTaxa.numberOfTaxa(); t < n; t++) {
+                writer.write(myTaxa.taxaName(t));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: write: problem writing: " + taxaFile + ": " + e.getMessage());
+        }
+        sync(new File(directory, taxaFile));
+
+        String sitesFile = name + ".sites.bin";
+        try (DataOutputStream output = Utils.getDataOutputStream(new File(directory, sitesFile).getPath(), 1 << 16)) {
+            myFrequencies.write(output);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: write: problem writing: " + sitesFile + ": " + e.getMessage());
+        }
+        sync(new File(directory, sitesFile));
+
+        // copy() forces mapped data to disk
+        String sumsFile = name + ".sums" + TriangularDistanceStorage.FILE_EXTENSION;
+        mySums.copy(new File(directory, sumsFile).getPath());
+        String countsFile = null;
+        if (myCounts != null) {
+            countsFile = name + ".counts" + TriangularDistanceStorage.FILE_EXTENSION;
+            myCounts.copy(new File(directory, countsFile).getPath());
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(STATE_VERSION));
+        properties.setProperty("generation", String.valueOf(generation));
+        properties.setProperty("method", myMethod.name());
+        properties.setProperty("maxAlleles", String.valueOf(myMaxAlleles));
+        properties.setProperty("numTaxa", String.valueOf(myTaxa.numberOfTaxa()));
+        properties.setProperty("numSites", String.valueOf(myFrequencies.numberOfSites()));
+        properties.setProperty("sumPi", Double.toString(mySumPi));
+        properties.setProperty("taxa", taxaFile);
+        properties.setProperty("sites", sitesFile);
+        properties.setProperty("sums", sumsFile);
+        if (countsFile != null) {
+            properties.setProperty("counts", countsFile);
+        }
+
+        File temp = new File(state.getPath() + ".tmp");
+        try (BufferedWriter writer = Utils.getBufferedWriter(temp.getPath())) {
+            properties.store(writer, "KinshipState");
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: write: problem writing: " + temp.getPath() + ": " + e.getMessage());
+        }
+        sync(temp);
+        try {
+            Files.move(temp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: write: problem replacing: " + state.getPath() + ": " + e.getMessage());
+        }
+
+        if (previous != null) {
+            for (String key : PART_KEYS) {
+                String part = previous.getProperty(key);
+                if ((part != null) && !part.equals(properties.getProperty(key))) {
+                    try {
+                        Files.deleteIfExists(new File(directory, part).toPath());
+                    } catch (IOException e) {
+                        myLogger.warn("KinshipState: write: couldn't delete previous: " + part + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+    }
+
+    private static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: write: problem syncing: " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private static Properties readProperties(File state) {
+        Properties properties = new Properties();
+        try (BufferedReader reader = Utils.getBufferedReader(state.getPath())) {
+            properties.load(reader);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: read: problem reading: " + state.getPath() + ": " + e.getMessage());
+        }
+        return properties;
+    }
+
+    /**
+     * Reads state written by write(). Sums are copied into temporary storage,
+     * so the files aren't changed until written again.
+     *
+     * @param filename filename
+     *
+     * @return kinship state
+     */
+    public static KinshipState read(String filename) {
+
+        File state = new File(filename).getAbsoluteFile();
+        File directory = state.getParentFile();
+
+        Properties properties = readProperties(state);
+
+        if (!String.valueOf(STATE_VERSION).equals(properties.getProperty("version"))) {
+            throw new IllegalStateException("KinshipState: read: unsupported version: " + properties.getProperty("version"));
+        }
+        KINSHIP_METHOD method = KINSHIP_METHOD.valueOf(properties.getProperty("method"));
+        int maxAlleles = Integer.parseInt(properties.getProperty("maxAlleles"));
+        int numTaxa = Integer.parseInt(properties.getProperty("numTaxa"));
+        double sumPi = Double.parseDouble(properties.getProperty("sumPi"));
+
+        TaxaListBuilder taxaBuilder = new TaxaListBuilder();
+        String taxaFile = new File(directory, properties.getProperty("taxa")).getPath();
+        try (BufferedReader reader = Utils.getBufferedReader(taxaFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    taxaBuilder.add(new Taxon(line));
+                }
+            }
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: read: problem reading: " + taxaFile + ": " + e.getMessage());
+        }
+        TaxaList taxa = taxaBuilder.build();
+        if (taxa.numberOfTaxa() != numTaxa) {
+            throw new IllegalStateException("KinshipState: read: expected: " + numTaxa + " taxa in: " + taxaFile + " but found: " + taxa.numberOfTaxa());
+        }
+
+        KinshipSiteFrequencies frequencies;
+        String sitesFile = new File(directory, properties.getProperty("sites")).getPath();
+        try (DataInputStream input = new DataInputStream(Utils.getInputStream(sitesFile))) {
+            frequencies = KinshipSiteFrequencies.read(input);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("KinshipState: read: problem reading: " + sitesFile + ": " + e.getMessage());
+        }
+
+        TriangularDistanceStorage sums = readSums(directory, properties.getProperty("sums"), numTaxa);
+        TriangularDistanceStorage counts = null;
+        if (method == KINSHIP_METHOD.GCTA) {
+            counts = readSums(directory, properties.getProperty("counts"), numTaxa);
+        }
+
+        return new KinshipState(method, maxAlleles, taxa, frequencies, sums, counts, sumPi);
+
+    }
+
+    private static TriangularDistanceStorage readSums(File directory, String name, int numTaxa) {
+        if (name == null) {
+            throw new IllegalStateException("KinshipState: read: state doesn't name sums file.");
+        }
+        TriangularDistanceStorage stored = TriangularDistanceStorage.open(new File(directory, name).getPath());
+        if (stored.numberOfTaxa() != numTaxa) {
+            throw new IllegalStateException("KinshipState: read: expected: " + numTaxa + " taxa in: " + name + " but found: " + stored.numberOfTaxa());
+        }
+        return stored.copy();
+    }
+
+}
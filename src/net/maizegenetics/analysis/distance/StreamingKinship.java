@@ -0,0 +1,697 @@
+/*
+ *  StreamingKinship
+ */
+package net.maizegenetics.analysis.distance;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.IntStream;
+import net.maizegenetics.analysis.distance.KinshipPlugin.KINSHIP_METHOD;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
+import net.maizegenetics.taxa.distance.TriangularDistanceStorage;
+import net.maizegenetics.util.ProgressListener;
+import net.maizegenetics.util.Utils;
+import org.apache.log4j.Logger;
+
+/**
+ * Out-of-core kinship (Endelman or GCTA) computation. Sites are read in chunks
+ * from any GenotypeTable, and the centered allele counts of a chunk are held
+ * as one taxon major float[]. Each chunk is added to a single shared
+ * accumulator of pair-wise sums (memory mapped TriangularDistanceStorage). The
+ * accumulator is split into row stripes with about the same number of pairs,
+ * and each stripe is added by one thread, so no per-thread copies of the
+ * accumulator are needed. Heap use is bounded by the memory budget (which sets
+ * the chunk size) rather than the number of threads.
+ * <p></p>
+ * If a checkpoint file is given, partial sums are saved every checkpoint
+ * interval sites and when finished. Running again with the same checkpoint
+ * file resumes from the last saved site.
+ *
+ * @author agent
+ */
+public class StreamingKinship {
+
+    private static final Logger myLogger = Logger.getLogger(StreamingKinship.class);
+
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024L * 1024L;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000000;
+
+    private static final int DEFAULT_MAX_ALLELES = 2;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int MAX_CHUNK_SIZE = 8192;
+    private static final int NUM_STRIPES = Runtime.getRuntime().availableProcessors() * 4;
+
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private final GenotypeTable myGenotype;
+    private final KINSHIP_METHOD myMethod;
+    private final int myMaxAlleles;
+    private final int myNumTaxa;
+    private final int myNumSites;
+
+    //
+    // Index in genotype table of each taxon (-1 if not present).
+    // Only pairs with second taxon at least myFirstColumn are added.
+    //
+    private final int[] myTaxa;
+    private final int myFirstColumn;
+
+    //
+    // Genotype table sites to process (null for all). If
+    // myFixedSites is not null, alleles and frequencies
+    // come from those sites of myFrequencies. Otherwise, they are
+    // calculated and added to myFrequencies (if not null).
+    //
+    private final int[] mySites;
+    private final int[] myFixedSites;
+    private final KinshipSiteFrequencies myFrequencies;
+    private final byte[] mySiteAlleles;
+    private final float[] mySiteFrequencies;
+
+    private final int myChunkSize;
+    private final int myNumWords;
+    private final String myCheckpointFile;
+    private final int myCheckpointInterval;
+    private final ProgressListener myListener;
+    private final int[] myStripes;
+
+    //
+    // Centered (and for GCTA scaled) allele counts for current chunk.
+    // Taxon t, pseudo-site k is at t * myChunkSize + k. Unknown is 0.
+    //
+    private final float[] myValues;
+
+    //
+    // GCTA only. Bit set when taxon is not Unknown at
+    // pseudo-site. Taxon t, word w is at t * myNumWords + w.
+    //
+    private final long[] myPresence;
+
+    private final TriangularDistanceStorage mySums;
+    private final TriangularDistanceStorage myCounts;
+    private double mySumPi = 0.0;
+    private int mySite = 0;
+    private int myLastCheckpointSite = 0;
+    private String myLastCheckpointSums = null;
+    private String myLastCheckpointCounts = null;
+
+    private StreamingKinship(GenotypeTable genotype, KINSHIP_METHOD method, int maxAlleles, long memoryBudget, String checkpointFile, int checkpointInterval, ProgressListener listener) {
+        this(genotype, method, maxAlleles, memoryBudget, null, 0, null, null, null, null, null, checkpointFile, checkpointInterval, listener);
+    }
+
+    StreamingKinship(GenotypeTable genotype, KINSHIP_METHOD method, int maxAlleles, long memoryBudget, int[] taxa, int firstColumn, int[] sites, int[] fixedSites, KinshipSiteFrequencies frequencies, TriangularDistanceStorage sums, TriangularDistanceStorage counts, ProgressListener listener) {
+        this(genotype, method, maxAlleles, memoryBudget, taxa, firstColumn, sites, fixedSites, frequencies, sums, counts, null, DEFAULT_CHECKPOINT_INTERVAL, listener);
+    }
+
+    private StreamingKinship(GenotypeTable genotype, KINSHIP_METHOD method, int maxAlleles, long memoryBudget, int[] taxa, int firstColumn, int[] sites, int[] fixedSites, KinshipSiteFrequencies frequencies, TriangularDistanceStorage sums, TriangularDistanceStorage counts, String checkpointFile, int checkpointInterval, ProgressListener listener) {
+
+        myGenotype = genotype;
+        myMethod = method;
+        myMaxAlleles = method == KINSHIP_METHOD.GCTA ? DEFAULT_MAX_ALLELES : maxAlleles;
+        if (taxa == null) {
+            myTaxa = new int[genotype.numberOfTaxa()];
+            for (int t = 0; t < myTaxa.length; t++) {
+                myTaxa[t] = t;
+            }
+        } else {
+            myTaxa = taxa;
+        }
+        myNumTaxa = myTaxa.length;
+        myFirstColumn = firstColumn;
+        mySites = sites;
+        myFixedSites = fixedSites;
+        myFrequencies = frequencies;
+        mySiteAlleles = new byte[myMaxAlleles];
+        mySiteFrequencies = new float[myMaxAlleles];
+        myNumSites = sites == null ? genotype.numberOfSites() : sites.length;
+        myCheckpointFile = checkpointFile;
+        myCheckpointInterval = checkpointInterval;
+        myListener = listener;
+
+        double bytesPerSite = myNumTaxa * Float.BYTES + (method == KINSHIP_METHOD.GCTA ? myNumTaxa / 8.0 : 0.0);
+        int chunkSize = (int) Math.min(MAX_CHUNK_SIZE, memoryBudget / Math.max(1.0, bytesPerSite));
+        myChunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize & ~0x3F);
+        myNumWords = myChunkSize >>> 6;
+        myLogger.info("StreamingKinship: chunk size: " + myChunkSize + " sites");
+
+        myValues = new float[myNumTaxa * myChunkSize];
+        mySums = sums == null ? TriangularDistanceStorage.getInstance(myNumTaxa, false) : sums;
+        if (method == KINSHIP_METHOD.GCTA) {
+            myPresence = new long[myNumTaxa * myNumWords];
+            myCounts = counts == null ? TriangularDistanceStorage.getInstance(myNumTaxa, false) : counts;
+        } else {
+            myPresence = null;
+            myCounts = null;
+        }
+        myStripes = stripes(myNumTaxa, myFirstColumn, NUM_STRIPES);
+
+    }
+
+    public static DistanceMatrix getInstance(GenotypeTable genotype, KINSHIP_METHOD method, ProgressListener listener) {
+        return getInstance(genotype, method, DEFAULT_MAX_ALLELES, DEFAULT_MEMORY_BUDGET, null, DEFAULT_CHECKPOINT_INTERVAL, listener);
+    }
+
+    /**
+     * Computes kinship matrix.
+     *
+     * @param genotype genotype table
+     * @param method kinship method
+     * @param maxAlleles maximum alleles per site to evaluate (Endelman only)
+     * @param memoryBudget bytes of heap used for site chunks
+     * @param checkpointFile checkpoint file or null for none
+     * @param checkpointInterval number of sites between checkpoints
+     * @param listener progress listener
+     *
+     * @return kinship matrix
+     */
+    public static DistanceMatrix getInstance(GenotypeTable genotype, KINSHIP_METHOD method, int maxAlleles, long memoryBudget, String checkpointFile, int checkpointInterval, ProgressListener listener) {
+
+        if ((method == KINSHIP_METHOD.Scaled_IBS) && ((maxAlleles < 2) || (maxAlleles > 6))) {
+            throw new IllegalArgumentException("StreamingKinship: getInstance: max alleles must be between 2 and 6 inclusive.");
+        }
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("StreamingKinship: getInstance: checkpoint interval must be positive.");
+        }
+
+        long time = System.currentTimeMillis();
+        StreamingKinship kinship = new StreamingKinship(genotype, method, maxAlleles, memoryBudget, checkpointFile, checkpointInterval, listener);
+        if (checkpointFile != null) {
+            kinship.restore();
+        }
+        DistanceMatrix result = kinship.compute();
+        myLogger.info("StreamingKinship: getInstance time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
+        return result;
+
+    }
+
+    //
+    // Row boundaries of stripes, so that each stripe has about
+    // the same number of pairs.
+    //
+    private static int[] stripes(int numTaxa, int firstColumn, int numStripes) {
+        long numPairs = 0;
+        for (int i = 0; i < numTaxa; i++) {
+            numPairs += numTaxa - Math.max(i, firstColumn);
+        }
+        long perStripe = numPairs / Math.max(1, numStripes) + 1;
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        long count = 0;
+        for (int i = 0; i < numTaxa; i++) {
+            count += numTaxa - Math.max(i, firstColumn);
+            if (count >= perStripe) {
+                bounds.add(i + 1);
+                count = 0;
+            }
+        }
+        if (bounds.get(bounds.size() - 1) != numTaxa) {
+            bounds.add(numTaxa);
+        }
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private DistanceMatrix compute() {
+
+        accumulate();
+
+        if ((myCheckpointFile != null) && (myLastCheckpointSite != mySite || myLastCheckpointSums == null)) {
+            saveCheckpoint();
+        }
+
+        return result();
+
+    }
+
+    /**
+     * Adds all sites to the sums.
+     *
+     * @return sum of p(1-p) for sites with calculated frequencies (Endelman)
+     */
+    double accumulate() {
+
+        while (mySite < myNumSites) {
+
+            int length = fillChunk();
+            if (length != 0) {
+                IntStream.range(0, myStripes.length - 1).parallel().forEach(stripe -> {
+                    addChunk(myStripes[stripe], myStripes[stripe + 1], length);
+                });
+            }
+
+            if (myListener != null) {
+                myListener.progress((int) ((double) mySite / (double) myNumSites * 100.0), null);
+            }
+
+            if ((myCheckpointFile != null) && (mySite - myLastCheckpointSite >= myCheckpointInterval)) {
+                saveCheckpoint();
+            }
+
+        }
+
+        return mySumPi;
+
+    }
+
+    //
+    // Reads sites into the chunk until full. Returns number
+    // of pseudo-sites (one per allele evaluated) filled.
+    //
+    private int fillChunk() {
+
+        Arrays.fill(myValues, 0.0f);
+        if (myPresence != null) {
+            Arrays.fill(myPresence, 0L);
+        }
+
+        int numFilled = 0;
+        int maxPerSite = myMaxAlleles - 1;
+        while ((mySite < myNumSites) && (numFilled + maxPerSite <= myChunkSize)) {
+
+            int site = mySites == null ? mySite : mySites[mySite];
+            byte[] genotypes = myGenotype.genotypeAllTaxa(site);
+
+            int numAlleles;
+            if (myFixedSites != null) {
+                int fixed = myFixedSites[mySite];
+                numAlleles = myFrequencies.numberOfAlleles(fixed);
+                for (int a = 0; a < numAlleles; a++) {
+                    mySiteAlleles[a] = myFrequencies.allele(fixed, a);
+                    mySiteFrequencies[a] = myFrequencies.frequency(fixed, a);
+                }
+            } else {
+                int[][] alleles = AlleleFreqCache.allelesSortedByFrequencyNucleotide(genotypes);
+                if (myMethod == KINSHIP_METHOD.GCTA) {
+                    numAlleles = gctaFrequencies(alleles);
+                } else {
+                    numAlleles = endelmanFrequencies(alleles);
+                }
+                if (myFrequencies != null) {
+                    myFrequencies.add(myGenotype.chromosomeName(site), myGenotype.chromosomalPosition(site), mySiteAlleles, mySiteFrequencies, numAlleles);
+                }
+            }
+
+            for (int a = 0; a < numAlleles; a++) {
+                if (myMethod == KINSHIP_METHOD.GCTA) {
+                    addGCTASite(genotypes, mySiteAlleles[a], mySiteFrequencies[a], numFilled);
+                } else {
+                    addEndelmanSite(genotypes, mySiteAlleles[a], mySiteFrequencies[a], numFilled);
+                }
+                numFilled++;
+            }
+
+            mySite++;
+
+        }
+
+        return numFilled;
+
+    }
+
+    //
+    // Alleles (and frequencies) evaluated for site. Returns
+    // number of alleles. Sum of p(1-p) is added.
+    //
+    private int endelmanFrequencies(int[][] alleles) {
+
+        int numAlleles = Math.min(alleles[0].length - 1, myMaxAlleles - 1);
+        if (numAlleles <= 0) {
+            return 0;
+        }
+
+        int totalAlleleCount = 0;
+        for (int i = 0; i < alleles[1].length; i++) {
+            totalAlleleCount += alleles[1][i];
+        }
+
+        for (int a = 0; a < numAlleles; a++) {
+            float alleleFreq = (float) alleles[1][a] / (float) totalAlleleCount;
+            mySumPi += alleleFreq * (1.0 - alleleFreq);
+            mySiteAlleles[a] = (byte) alleles[0][a];
+            mySiteFrequencies[a] = alleleFreq;
+        }
+
+        return numAlleles;
+
+    }
+
+    private void addEndelmanSite(byte[] genotypes, byte allele, float alleleFreq, int first) {
+
+        if (allele == GenotypeTable.UNKNOWN_ALLELE) {
+            return;
+        }
+
+        float alleleFreqTimes2 = alleleFreq * 2.0f;
+        for (int t = 0; t < myNumTaxa; t++) {
+            int count = alleleCount(genotypes, t, allele);
+            if (count >= 0) {
+                myValues[t * myChunkSize + first] = count - alleleFreqTimes2;
+            }
+        }
+
+    }
+
+    private int gctaFrequencies(int[][] alleles) {
+
+        byte major = AlleleFreqCache.majorAllele(alleles);
+        float majorFreq = (float) AlleleFreqCache.majorAlleleFrequency(alleles);
+        float denominatorTerm = majorFreq * 2.0f * (1.0f - majorFreq);
+
+        //
+        // If major allele is Unknown or major allele frequency
+        // equals 1.0 (resulting in denominator 0.0), the entire
+        // site is skipped.
+        //
+        if ((major == GenotypeTable.UNKNOWN_ALLELE) || (denominatorTerm == 0.0)) {
+            return 0;
+        }
+
+        mySiteAlleles[0] = major;
+        mySiteFrequencies[0] = majorFreq;
+        return 1;
+
+    }
+
+    private void addGCTASite(byte[] genotypes, byte major, float majorFreq, int first) {
+
+        float majorFreqTimes2 = majorFreq * 2.0f;
+        float denominatorTerm = majorFreqTimes2 * (1.0f - majorFreq);
+        float scale = (float) (1.0 / Math.sqrt(denominatorTerm));
+        long mask = 1L << (first & 0x3F);
+        int word = first >>> 6;
+        for (int t = 0; t < myNumTaxa; t++) {
+            int count = alleleCount(genotypes, t, major);
+            if (count >= 0) {
+                myValues[t * myChunkSize + first] = (count - majorFreqTimes2) * scale;
+                myPresence[t * myNumWords + word] |= mask;
+            }
+        }
+
+    }
+
+    private int alleleCount(byte[] genotypes, int taxon, byte allele) {
+        int index = myTaxa[taxon];
+        if (index < 0) {
+            return -1;
+        }
+        return alleleCount(genotypes[index], allele);
+    }
+
+    //
+    // Number of given allele in diploid value. Returns -1
+    // if both alleles are Unknown.
+    //
+    private static int alleleCount(byte genotype, byte allele) {
+        int first = (genotype >>> 4) & 0x7;
+        int second = genotype & 0x7;
+        if ((first == 0x7) && (second == 0x7)) {
+            return -1;
+        }
+        int temp = allele & 0x7;
+        return (first == temp ? 1 : 0) + (second == temp ? 1 : 0);
+    }
+
+    //
+    // Adds chunk to pairs with first taxon in rows [firstRow, lastRow).
+    // Rows are done four at a time so each second taxon's values
+    // are read once for all four.
+    //
+    private void addChunk(int firstRow, int lastRow, int length) {
+
+        int numWords = (length + 63) >>> 6;
+        int row = firstRow;
+
+        //
+        // Rows before first column only pair with columns
+        // at or after it.
+        //
+        for (; (row + 3 < lastRow) && (row + 3 < myFirstColumn); row += 4) {
+            addRows(row, myFirstColumn, length, numWords);
+        }
+        for (; (row < lastRow) && (row < myFirstColumn); row++) {
+            for (int j = myFirstColumn; j < myNumTaxa; j++) {
+                addPair(row, j, dot(row, j, length), numWords);
+            }
+        }
+
+        for (; row + 3 < lastRow; row += 4) {
+
+            for (int r = row; r < row + 4; r++) {
+                for (int j = r; j < row + 4; j++) {
+                    addPair(r, j, dot(r, j, length), numWords);
+                }
+            }
+
+            addRows(row, row + 4, length, numWords);
+
+        }
+
+        for (; row < lastRow; row++) {
+            for (int j = row; j < myNumTaxa; j++) {
+                addPair(row, j, dot(row, j, length), numWords);
+            }
+        }
+
+    }
+
+    //
+    // Adds pairs of four rows starting at row with each column
+    // starting at firstColumn.
+    //
+    private void addRows(int row, int firstColumn, int length, int numWords) {
+        int offset0 = row * myChunkSize;
+        int offset1 = offset0 + myChunkSize;
+        int offset2 = offset1 + myChunkSize;
+        int offset3 = offset2 + myChunkSize;
+        for (int j = firstColumn; j < myNumTaxa; j++) {
+            int offsetJ = j * myChunkSize;
+            double sum0 = 0.0;
+            double sum1 = 0.0;
+            double sum2 = 0.0;
+            double sum3 = 0.0;
+            for (int k = 0; k < length; k++) {
+                double value = myValues[offsetJ + k];
+                sum0 += myValues[offset0 + k] * value;
+                sum1 += myValues[offset1 + k] * value;
+                sum2 += myValues[offset2 + k] * value;
+                sum3 += myValues[offset3 + k] * value;
+            }
+            addPair(row, j, sum0, numWords);
+            addPair(row + 1, j, sum1, numWords);
+            addPair(row + 2, j, sum2, numWords);
+            addPair(row + 3, j, sum3, numWords);
+        }
+    }
+
+    private double dot(int first, int second, int length) {
+        int offset1 = first * myChunkSize;
+        int offset2 = second * myChunkSize;
+        double result = 0.0;
+        for (int k = 0; k < length; k++) {
+            result += (double) myValues[offset1 + k] * myValues[offset2 + k];
+        }
+        return result;
+    }
+
+    private void addPair(int first, int second, double value, int numWords) {
+        long index = mySums.index(first, second);
+        mySums.set(index, mySums.get(index) + value);
+        if (myCounts != null) {
+            int offset1 = first * myNumWords;
+            int offset2 = second * myNumWords;
+            int count = 0;
+            for (int w = 0; w < numWords; w++) {
+                count += Long.bitCount(myPresence[offset1 + w] & myPresence[offset2 + w]);
+            }
+            myCounts.set(index, myCounts.get(index) + count);
+        }
+    }
+
+    private DistanceMatrix result() {
+
+        double denominator = 2.0 * mySumPi;
+        long numElements = TriangularDistanceStorage.numElements(myNumTaxa);
+
+        if (DistanceMatrixBuilder.usePackedStorage(myNumTaxa)) {
+            for (long index = 0; index < numElements; index++) {
+                mySums.set(index, kinship(index, denominator));
+            }
+            return new DistanceMatrix(mySums, myGenotype.taxa());
+        }
+
+        DistanceMatrixBuilder builder = DistanceMatrixBuilder.getInstance(myGenotype.taxa());
+        long index = 0;
+        for (int i = 0; i < myNumTaxa; i++) {
+            for (int j = i; j < myNumTaxa; j++) {
+                builder.set(i, j, kinship(index++, denominator));
+            }
+        }
+        return builder.build();
+
+    }
+
+    /**
+     * Kinship matrix from current sums without changing them.
+     *
+     * @param taxa taxa in order of sums
+     * @param sums pair-wise sums
+     * @param counts pair-wise counts (GCTA) or null
+     * @param sumPi sum of p(1-p) (Endelman)
+     *
+     * @return kinship matrix
+     */
+    static DistanceMatrix kinship(TaxaList taxa, TriangularDistanceStorage sums, TriangularDistanceStorage counts, double sumPi) {
+        double denominator = 2.0 * sumPi;
+        int numTaxa = taxa.numberOfTaxa();
+        DistanceMatrixBuilder builder = DistanceMatrixBuilder.getInstance(taxa);
+        long index = 0;
+        for (int i = 0; i < numTaxa; i++) {
+            for (int j = i; j < numTaxa; j++) {
+                if (counts != null) {
+                    builder.set(i, j, sums.get(index) / counts.get(index));
+                } else {
+                    builder.set(i, j, sums.get(index) / denominator);
+                }
+                index++;
+            }
+        }
+        return builder.build();
+    }
+
+    private double kinship(long index, double denominator) {
+        if (myCounts != null) {
+            return mySums.get(index) / myCounts.get(index);
+        } else {
+            return mySums.get(index) / denominator;
+        }
+    }
+
+    //
+    // Saves copy of sums to files named with the next site. The
+    // properties file is replaced last, so it always names
+    // complete sums.
+    //
+    private void saveCheckpoint() {
+
+        long time = System.currentTimeMillis();
+        File checkpoint = new File(myCheckpointFile).getAbsoluteFile();
+        String sumsFile = checkpoint.getName() + "." + mySite + ".sums" + TriangularDistanceStorage.FILE_EXTENSION;
+        mySums.copy(new File(checkpoint.getParentFile(), sumsFile).getPath());
+        String countsFile = null;
+        if (myCounts != null) {
+            countsFile = checkpoint.getName() + "." + mySite + ".counts" + TriangularDistanceStorage.FILE_EXTENSION;
+            myCounts.copy(new File(checkpoint.getParentFile(), countsFile).getPath());
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(CHECKPOINT_VERSION));
+        properties.setProperty("method", myMethod.name());
+        properties.setProperty("maxAlleles", String.valueOf(myMaxAlleles));
+        properties.setProperty("numTaxa", String.valueOf(myNumTaxa));
+        properties.setProperty("taxaHash", String.valueOf(taxaHash(myGenotype.taxa())));
+        properties.setProperty("numSites", String.valueOf(myNumSites));
+        properties.setProperty("nextSite", String.valueOf(mySite));
+        properties.setProperty("sumPi", Double.toString(mySumPi));
+        properties.setProperty("sums", sumsFile);
+        if (countsFile != null) {
+            properties.setProperty("counts", countsFile);
+        }
+
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        try (BufferedWriter writer = Utils.getBufferedWriter(temp.getPath())) {
+            properties.store(writer, "StreamingKinship checkpoint");
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("StreamingKinship: saveCheckpoint: problem writing: " + temp.getPath() + ": " + e.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("StreamingKinship: saveCheckpoint: problem replacing: " + checkpoint.getPath() + ": " + e.getMessage());
+        }
+
+        deleteCheckpointFile(checkpoint, myLastCheckpointSums, sumsFile);
+        deleteCheckpointFile(checkpoint, myLastCheckpointCounts, countsFile);
+        myLastCheckpointSums = sumsFile;
+        myLastCheckpointCounts = countsFile;
+        myLastCheckpointSite = mySite;
+        myLogger.info("StreamingKinship: saved checkpoint at site: " + mySite + " time: " + (System.currentTimeMillis() - time) + " msec");
+
+    }
+
+    private static void deleteCheckpointFile(File checkpoint, String previous, String current) {
+        if ((previous != null) && !previous.equals(current)) {
+            new File(checkpoint.getParentFile(), previous).delete();
+        }
+    }
+
+    private void restore() {
+
+        File checkpoint = new File(myCheckpointFile).getAbsoluteFile();
+        if (!checkpoint.exists()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (BufferedReader reader = Utils.getBufferedReader(checkpoint.getPath())) {
+            properties.load(reader);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("StreamingKinship: restore: problem reading: " + checkpoint.getPath() + ": " + e.getMessage());
+        }
+
+        checkProperty(properties, "version", String.valueOf(CHECKPOINT_VERSION));
+        checkProperty(properties, "method", myMethod.name());
+        checkProperty(properties, "maxAlleles", String.valueOf(myMaxAlleles));
+        checkProperty(properties, "numTaxa", String.valueOf(myNumTaxa));
+        checkProperty(properties, "taxaHash", String.valueOf(taxaHash(myGenotype.taxa())));
+        checkProperty(properties, "numSites", String.valueOf(myNumSites));
+
+        String sumsFile = properties.getProperty("sums");
+        TriangularDistanceStorage.open(new File(checkpoint.getParentFile(), sumsFile).getPath()).copyTo(mySums);
+        String countsFile = properties.getProperty("counts");
+        if (myCounts != null) {
+            TriangularDistanceStorage.open(new File(checkpoint.getParentFile(), countsFile).getPath()).copyTo(myCounts);
+        }
+
+        mySite = Integer.parseInt(properties.getProperty("nextSite"));
+        mySumPi = Double.parseDouble(properties.getProperty("sumPi"));
+        myLastCheckpointSite = mySite;
+        myLastCheckpointSums = sumsFile;
+        myLastCheckpointCounts = countsFile;
+        myLogger.info("StreamingKinship: resuming from checkpoint: " + checkpoint.getPath() + " at site: " + mySite);
+
+    }
+
+    private void checkProperty(Properties properties, String key, String expected) {
+        String value = properties.getProperty(key);
+        if (!expected.equals(value)) {
+            throw new IllegalStateException("StreamingKinship: restore: checkpoint: " + myCheckpointFile + " doesn't match this run. " + key + ": " + value + " expected: " + expected);
+        }
+    }
+
+    private static int taxaHash(TaxaList taxa) {
+        int result = 1;
+        for (int t = 0, n = taxa.numberOfTaxa(); t < n; t++) {
+            result = 31 * result + taxa.taxaName(t).hashCode();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ *  TiledIBSDistanceMatrix
+ */
+package net.maizegenetics.analysis.distance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
+import net.maizegenetics.taxa.distance.TriangularDistanceStorage;
+import net.maizegenetics.util.ProgressListener;
+import org.apache.log4j.Logger;
+
+/**
+ * IBS distance engine that works on cache sized tiles. Allele presence bit
+ * planes (major, minor, and optionally second minor) are first transposed into
+ * one contiguous taxon major long[] per block of taxa. Each pair of taxa blocks
+ * is then a tile, and the sites of a tile are processed in chunks of words
+ * that fit in cache along with both blocks. Counts are done with
+ * Long.bitCount(). Results are the same as IBSDistanceMatrix2Alleles and
+ * IBSDistanceMatrix3Alleles.
+ * <p></p>
+ * Finished tiles are written straight into the result storage. When given a
+ * filename, that storage is a TriangularDistanceStorage file, so the matrix is
+ * streamed to disk.
+ *
+ * @author agent
+ */
+public class TiledIBSDistanceMatrix {
+
+    private static final Logger myLogger = Logger.getLogger(TiledIBSDistanceMatrix.class);
+
+    /**
+     * Number of taxa per block (tile edge)
+     */
+    public static final int DEFAULT_TAXA_PER_BLOCK = 64;
+
+    /**
+     * Number of 64 site words processed per site chunk of a tile
+     */
+    public static final int DEFAULT_WORDS_PER_CHUNK = 256;
+
+    private final GenotypeTable myGenotype;
+    private final boolean myUseThirdState;
+    private final int myNumTaxa;
+    private final int myNumWords;
+    private final int myTaxaPerBlock;
+    private final int myWordsPerChunk;
+    private final int myNumBlocks;
+
+    //
+    // Bit planes: [plane][taxa block][taxon in block * numWords + word]
+    //
+    private final long[][][] myPlanes;
+
+    private TiledIBSDistanceMatrix(GenotypeTable genotype, boolean useThirdState, int taxaPerBlock, int wordsPerChunk) {
+        myGenotype = genotype;
+        myUseThirdState = useThirdState;
+        myNumTaxa = genotype.numberOfTaxa();
+        myNumWords = (genotype.numberOfSites() + 63) >>> 6;
+        myTaxaPerBlock = taxaPerBlock;
+        myWordsPerChunk = wordsPerChunk;
+        myNumBlocks = (myNumTaxa + myTaxaPerBlock - 1) / myTaxaPerBlock;
+        myPlanes = new long[useThirdState ? 3 : 2][myNumBlocks][];
+        for (long[][] plane : myPlanes) {
+            for (int b = 0; b < myNumBlocks; b++) {
+                plane[b] = new long[numTaxaInBlock(b) * myNumWords];
+            }
+        }
+    }
+
+    public static IBSDistanceMatrix getInstance(GenotypeTable genotype) {
+        return getInstance(genotype, 0, false, null, true);
+    }
+
+    public static IBSDistanceMatrix getInstance(GenotypeTable genotype, int minSiteComp, boolean trueIBS, ProgressListener listener, boolean useThirdState) {
+        return getInstance(genotype, minSiteComp, trueIBS, listener, useThirdState, null);
+    }
+
+    /**
+     * Compute IBS distances for all taxa.
+     *
+     * @param genotype genotype table
+     * @param minSiteComp minimum number of sites needed to estimate distance
+     * @param trueIBS estimate diagonal distance based IBS (default = false,
+     * i=i=0.0)
+     * @param listener progress listener
+     * @param useThirdState whether to use second minor allele
+     * @param filename if not null, distances are written to this
+     * TriangularDistanceStorage file as tiles finish
+     *
+     * @return IBS distance matrix
+     */
+    public static IBSDistanceMatrix getInstance(GenotypeTable genotype, int minSiteComp, boolean trueIBS, ProgressListener listener, boolean useThirdState, String filename) {
+        return getInstance(genotype, minSiteComp, trueIBS, listener, useThirdState, filename, DEFAULT_TAXA_PER_BLOCK, DEFAULT_WORDS_PER_CHUNK);
+    }
+
+    public static IBSDistanceMatrix getInstance(GenotypeTable genotype, int minSiteComp, boolean trueIBS, ProgressListener listener, boolean useThirdState, String filename, int taxaPerBlock, int wordsPerChunk) {
+
+        if (taxaPerBlock < 1 || wordsPerChunk < 1) {
+            throw new IllegalArgumentException("TiledIBSDistanceMatrix: getInstance: taxa per block and words per chunk must be positive.");
+        }
+
+        long time = System.currentTimeMillis();
+
+        DistanceMatrixBuilder builder;
+        if (filename == null) {
+            builder = DistanceMatrixBuilder.getInstance(genotype.taxa());
+        } else {
+            builder = DistanceMatrixBuilder.getInstance(genotype.taxa(), TriangularDistanceStorage.getInstance(genotype.numberOfTaxa(), false, filename));
+        }
+
+        TiledIBSDistanceMatrix engine = new TiledIBSDistanceMatrix(genotype, useThirdState, taxaPerBlock, wordsPerChunk);
+        engine.transpose();
+        myLogger.debug("TiledIBSDistanceMatrix: transpose time: " + (System.currentTimeMillis() - time) + " msec");
+        double avgTotalSites = engine.computeTiles(builder, minSiteComp, trueIBS, listener);
+
+        myLogger.info("TiledIBSDistanceMatrix: getInstance time: " + (System.currentTimeMillis() - time) / 1000 + " seconds");
+        return new IBSDistanceMatrix(builder, trueIBS, avgTotalSites);
+
+    }
+
+    private int numTaxaInBlock(int block) {
+        return Math.min(myTaxaPerBlock, myNumTaxa - block * myTaxaPerBlock);
+    }
+
+    //
+    // Sets bits in the planes. Each task owns one word of sites,
+    // so no two threads write the same element.
+    //
+    private void transpose() {
+
+        int numSites = myGenotype.numberOfSites();
+        IntStream.range(0, myNumWords).parallel().forEach(word -> {
+
+            int startSite = word << 6;
+            int endSite = Math.min(startSite + 64, numSites);
+            for (int site = startSite; site < endSite; site++) {
+
+                byte[] genotype = myGenotype.genotypeAllTaxa(site);
+                int[][] alleles = AlleleFreqCache.allelesSortedByFrequencyNucleotide(genotype);
+                int numAlleles = Math.min(alleles[0].length, myPlanes.length);
+                if (numAlleles == 0) {
+                    continue;
+                }
+
+                long mask = 1L << (site & 63);
+                for (int t = 0; t < myNumTaxa; t++) {
+                    byte first = (byte) (genotype[t] & 0xf);
+                    byte second = (byte) (genotype[t] >>> 4 & 0xf);
+                    int block = t / myTaxaPerBlock;
+                    int offset = (t % myTaxaPerBlock) * myNumWords + word;
+                    for (int a = 0; a < numAlleles; a++) {
+                        if ((alleles[0][a] == first) || (alleles[0][a] == second)) {
+                            myPlanes[a][block][offset] |= mask;
+                        }
+                    }
+                }
+
+            }
+
+        });
+
+    }
+
+    //
+    // Processes every tile (pair of taxa blocks) in parallel.
+    // Returns average number of sites compared.
+    //
+    private double computeTiles(DistanceMatrixBuilder builder, int minSiteComp, boolean trueIBS, ProgressListener listener) {
+
+        List<int[]> tiles = new ArrayList<>();
+        for (int i = 0; i < myNumBlocks; i++) {
+            for (int j = i; j < myNumBlocks; j++) {
+                tiles.add(new int[]{i, j});
+            }
+        }
+
+        LongAdder totalSites = new LongAdder();
+        LongAdder numCompared = new LongAdder();
+        AtomicInteger numTilesDone = new AtomicInteger();
+        int numTiles = tiles.size();
+
+        tiles.parallelStream().forEach(tile -> {
+            computeTile(tile[0], tile[1], builder, minSiteComp, trueIBS, totalSites, numCompared);
+            int done = numTilesDone.incrementAndGet();
+            if (listener != null) {
+                listener.progress((int) ((double) done / (double) numTiles * 100.0), null);
+            }
+        });
+
+        return (double) totalSites.sum() / (double) numCompared.sum();
+
+    }
+
+    private void computeTile(int blockA, int blockB, DistanceMatrixBuilder builder, int minSiteComp, boolean trueIBS, LongAdder totalSites, LongAdder numCompared) {
+
+        int numA = numTaxaInBlock(blockA);
+        int numB = numTaxaInBlock(blockB);
+        int[] same = new int[numA * numB];
+        int[] diff = new int[numA * numB];
+        int[] het = new int[numA * numB];
+
+        for (int startWord = 0; startWord < myNumWords; startWord += myWordsPerChunk) {
+            int endWord = Math.min(startWord + myWordsPerChunk, myNumWords);
+            if (myUseThirdState) {
+                countChunkThirdState(blockA, blockB, numA, numB, startWord, endWord, same, diff, het);
+            } else {
+                countChunk(blockA, blockB, numA, numB, startWord, endWord, same, diff, het);
+            }
+        }
+
+        long sitesSum = 0;
+        long compared = 0;
+        int firstTaxonA = blockA * myTaxaPerBlock;
+        int firstTaxonB = blockB * myTaxaPerBlock;
+        for (int a = 0; a < numA; a++) {
+            int taxonA = firstTaxonA + a;
+            for (int b = blockA == blockB ? a : 0; b < numB; b++) {
+                int taxonB = firstTaxonB + b;
+                if (taxonA == taxonB && !trueIBS) {
+                    builder.set(taxonA, taxonA, 0);
+                    continue;
+                }
+                int index = a * numB + b;
+                long sites = same[index] + diff[index] - het[index];
+                double identity = ((double) (same[index]) - 0.5 * het[index]) / (double) (sites);
+                double dist = 1 - identity;
+                if (sites < minSiteComp) {
+                    dist = Double.NaN;
+                }
+                builder.set(taxonA, taxonB, dist);
+                sitesSum += sites;
+                compared++;
+            }
+        }
+        totalSites.add(sitesSum);
+        numCompared.add(compared);
+
+    }
+
+    private void countChunk(int blockA, int blockB, int numA, int numB, int startWord, int endWord, int[] same, int[] diff, int[] het) {
+
+        long[] majorA = myPlanes[0][blockA];
+        long[] minorA = myPlanes[1][blockA];
+        long[] majorB = myPlanes[0][blockB];
+        long[] minorB = myPlanes[1][blockB];
+
+        for (int a = 0; a < numA; a++) {
+            int offsetA = a * myNumWords;
+            for (int b = blockA == blockB ? a : 0; b < numB; b++) {
+                int offsetB = b * myNumWords;
+                int sameCount = 0;
+                int diffCount = 0;
+                int hetCount = 0;
+                for (int w = startWord; w < endWord; w++) {
+                    long iMj = majorA[offsetA + w];
+                    long iMn = minorA[offsetA + w];
+                    long jMj = majorB[offsetB + w];
+                    long jMn = minorB[offsetB + w];
+                    long s = (iMj & jMj) | (iMn & jMn);
+                    long d = (iMj & jMn) | (iMn & jMj);
+                    sameCount += Long.bitCount(s);
+                    diffCount += Long.bitCount(d);
+                    hetCount += Long.bitCount(s & d);
+                }
+                int index = a * numB + b;
+                same[index] += sameCount;
+                diff[index] += diffCount;
+                het[index] += hetCount;
+            }
+        }
+
+    }
+
+    private void countChunkThirdState(int blockA, int blockB, int numA, int numB, int startWord, int endWord, int[] same, int[] diff, int[] het) {
+
+        long[] majorA = myPlanes[0][blockA];
+        long[] minorA = myPlanes[1][blockA];
+        long[] minor2A = myPlanes[2][blockA];
+        long[] majorB = myPlanes[0][blockB];
+        long[] minorB = myPlanes[1][blockB];
+        long[] minor2B = myPlanes[2][blockB];
+
+        for (int a = 0; a < numA; a++) {
+            int offsetA = a * myNumWords;
+            for (int b = blockA == blockB ? a : 0; b < numB; b++) {
+                int offsetB = b * myNumWords;
+                int sameCount = 0;
+                int diffCount = 0;
+                int hetCount = 0;
+                for (int w = startWord; w < endWord; w++) {
+                    long iMj = majorA[offsetA + w];
+                    long iMn = minorA[offsetA + w];
+                    long iMn2 = minor2A[offsetA + w];
+                    long jMj = majorB[offsetB + w];
+                    long jMn = minorB[offsetB + w];
+                    long jMn2 = minor2B[offsetB + w];
+                    long s = (iMj & jMj) | (iMn & jMn) | (iMn2 & jMn2);
+                    long d = (iMj & (jMn | jMn2)) | (iMn & (jMj | jMn2)) | (iMn2 & (jMj | jMn));
+                    sameCount += Long.bitCount(s);
+                    diffCount += Long.bitCount(d);
+                    hetCount += Long.bitCount(s & d);
+                }
+                int index = a * numB + b;
+                same[index] += sameCount;
+                diff[index] += diffCount;
+                het[index] += hetCount;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ *  BarcodeDecoder
+ */
+package net.maizegenetics.analysis.gbs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the barcode of a read from its first bases. Up to 32 bases are packed 2
+ * bits per base into a long, and the first few packed bases index a table
+ * listing the barcodes (with overhang) that start with them, longest first.
+ * Generally, a read is resolved with one table lookup and one comparison of
+ * the masked packed prefix instead of a walk base by base. The barcode with
+ * the longest barcode plus overhang that is a prefix of the read is returned,
+ * the same as BarcodeTrie.longestPrefix(). A base other than A, C, G or T
+ * (either case) ends the prefix, and the barcode plus overhang must be shorter
+ * than the read.
+ *
+ * Optionally, a read that matches no barcode exactly is matched to the barcode
+ * plus overhang that differs from it by one substitution, using a second table
+ * of all single base variants built up front. Longer barcodes are preferred,
+ * and variants shared by different barcodes of the same length are ambiguous
+ * and match nothing.
+ *
+ * Thread safe once created.
+ *
+ * @author agent
+ */
+public class BarcodeDecoder {
+
+    private static final int MAX_LENGTH = 32;
+    // maximum number of bases used to index table (4^8 entries)
+    private static final int MAX_INDEX_BASES = 8;
+    private static final int AMBIGUOUS = -1;
+
+    private static final byte[] BASE_TO_2BIT = new byte[256];
+
+    static {
+        Arrays.fill(BASE_TO_2BIT, (byte) -1);
+        BASE_TO_2BIT['A'] = 0;
+        BASE_TO_2BIT['C'] = 1;
+        BASE_TO_2BIT['G'] = 2;
+        BASE_TO_2BIT['T'] = 3;
+        BASE_TO_2BIT['a'] = 0;
+        BASE_TO_2BIT['c'] = 1;
+        BASE_TO_2BIT['g'] = 2;
+        BASE_TO_2BIT['t'] = 3;
+    }
+
+    private final Barcode[] myBarcodes;
+    private final int myMaxLength;
+    private final int myIndexBases;
+    private final PrefixTable myExact;
+    // null unless one mismatch is allowed
+    private final PrefixTable myOneMismatch;
+
+    /**
+     * Creates decoder for barcodes. Each barcode with overhang (i.e.
+     * Barcode.getBarWOverHang()) is matched. Words with characters other than
+     * A, C, G and T are skipped, as BarcodeTrie can't find those either. If a
+     * word is given for more than one barcode, the last is kept.
+     *
+     * @param barcodes barcodes
+     * @param allowOneMismatch whether to match reads that differ by one base
+     * from a barcode plus overhang
+     */
+    public BarcodeDecoder(Collection<Barcode> barcodes, boolean allowOneMismatch) {
+
+        myBarcodes = barcodes.toArray(new Barcode[barcodes.size()]);
+
+        // barcode index by word for each length
+        Map<Integer, Map<Long, Integer>> words = new HashMap<>();
+        int maxLength = 0;
+        int minLength = MAX_INDEX_BASES;
+        for (int i = 0; i < myBarcodes.length; i++) {
+            for (String word : myBarcodes[i].getBarWOverHang()) {
+                if (word.length() > MAX_LENGTH) {
+                    throw new IllegalArgumentException("BarcodeDecoder: init: barcode with overhang longer than " + MAX_LENGTH + " bases: " + word);
+                }
+                if (isUpperCaseACGT(word)) {
+                    words.computeIfAbsent(word.length(), k -> new HashMap<>()).put(pack(word), i);
+                    maxLength = Math.max(maxLength, word.length());
+                    minLength = Math.min(minLength, word.length());
+                }
+            }
+        }
+        myMaxLength = maxLength;
+        myIndexBases = minLength;
+        myExact = new PrefixTable(words, myIndexBases);
+
+        if (allowOneMismatch) {
+            Map<Integer, Map<Long, Integer>> variants = new HashMap<>();
+            for (Map.Entry<Integer, Map<Long, Integer>> current : words.entrySet()) {
+                int length = current.getKey();
+                Map<Long, Integer> exact = current.getValue();
+                Map<Long, Integer> variantsOfLength = new HashMap<>();
+                variants.put(length, variantsOfLength);
+                for (Map.Entry<Long, Integer> word : exact.entrySet()) {
+                    for (int pos = 0; pos < length; pos++) {
+                        int shift = 2 * (length - 1 - pos);
+                        for (long change = 1; change < 4; change++) {
+                            long variant = word.getKey() ^ (change << shift);
+                            if (!exact.containsKey(variant)) {
+                                variantsOfLength.merge(variant, word.getValue(), (a, b) -> a.equals(b) ? a : AMBIGUOUS);
+                            }
+                        }
+                    }
+                }
+            }
+            myOneMismatch = new PrefixTable(variants, myIndexBases);
+        } else {
+            myOneMismatch = null;
+        }
+
+    }
+
+    /**
+     * Returns barcode of read held in a byte array (i.e. a fastq buffer).
+     *
+     * @param seq bytes holding the read
+     * @param start index of first base
+     * @param end index after last base of the read
+     *
+     * @return barcode or null if none matches
+     */
+    public Barcode decode(byte[] seq, int start, int end) {
+        int limit = Math.min(myMaxLength, end - start - 1);
+        long packed = 0;
+        int numBases = 0;
+        while (numBases < limit) {
+            int code = BASE_TO_2BIT[seq[start + numBases] & 0xFF];
+            if (code < 0) {
+                break;
+            }
+            packed = (packed << 2) | code;
+            numBases++;
+        }
+        return lookup(packed, numBases);
+    }
+
+    /**
+     * Returns barcode of read.
+     *
+     * @param seq read
+     *
+     * @return barcode or null if none matches
+     */
+    public Barcode decode(CharSequence seq) {
+        int limit = Math.min(myMaxLength, seq.length() - 1);
+        long packed = 0;
+        int numBases = 0;
+        while (numBases < limit) {
+            char ch = seq.charAt(numBases);
+            int code = ch < 256 ? BASE_TO_2BIT[ch] : -1;
+            if (code < 0) {
+                break;
+            }
+            packed = (packed << 2) | code;
+            numBases++;
+        }
+        return lookup(packed, numBases);
+    }
+
+    /**
+     * Whether reads that differ by one base from a barcode plus overhang are
+     * matched.
+     *
+     * @return true if one mismatch allowed
+     */
+    public boolean allowsOneMismatch() {
+        return myOneMismatch != null;
+    }
+
+    /**
+     * Number of barcodes given to this decoder.
+     *
+     * @return number of barcodes
+     */
+    public int numBarcodes() {
+        return myBarcodes.length;
+    }
+
+    private Barcode lookup(long packed, int numBases) {
+        if (numBases < myIndexBases) {
+            return null;
+        }
+        int index = myExact.find(packed, numBases);
+        if (index == PrefixTable.NOT_FOUND && myOneMismatch != null) {
+            index = myOneMismatch.find(packed, numBases);
+        }
+        return index < 0 ? null : myBarcodes[index];
+    }
+
+    private static boolean isUpperCaseACGT(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char ch = word.charAt(i);
+            if (ch != 'A' && ch != 'C' && ch != 'G' && ch != 'T') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs word of A, C, G and T 2 bits per base, first base in the highest
+     * used bits.
+     */
+    private static long pack(String word) {
+        long result = 0;
+        for (int i = 0; i < word.length(); i++) {
+            result = (result << 2) | BASE_TO_2BIT[word.charAt(i)];
+        }
+        return result;
+    }
+
+    /**
+     * Packed words grouped by their first indexBases bases. Each group is
+     * ordered longest word first.
+     */
+    private static final class PrefixTable {
+
+        static final int NOT_FOUND = -2;
+
+        private final int myIndexBases;
+        // words starting with packed prefix p are myStarts[p] to myStarts[p + 1] - 1
+        private final int[] myStarts;
+        private final long[] myWords;
+        private final int[] myLengths;
+        private final int[] myValues;
+
+        PrefixTable(Map<Integer, Map<Long, Integer>> words, int indexBases) {
+
+            myIndexBases = indexBases;
+            int numPrefixes = 1 << (2 * indexBases);
+            int total = 0;
+            for (Map<Long, Integer> current : words.values()) {
+                total += current.size();
+            }
+            List<Integer> lengths = new ArrayList<>(words.keySet());
+            lengths.sort(Collections.reverseOrder());
+
+            int[] counts = new int[numPrefixes + 1];
+            for (int length : lengths) {
+                for (long word : words.get(length).keySet()) {
+                    counts[prefix(word, length) + 1]++;
+                }
+            }
+            for (int p = 0; p < numPrefixes; p++) {
+                counts[p + 1] += counts[p];
+            }
+            myStarts = counts.clone();
+
+            myWords = new long[total];
+            myLengths = new int[total];
+            myValues = new int[total];
+            for (int length : lengths) {
+                for (Map.Entry<Long, Integer> current : words.get(length).entrySet()) {
+                    int next = counts[prefix(current.getKey(), length)]++;
+                    myWords[next] = current.getKey();
+                    myLengths[next] = length;
+                    myValues[next] = current.getValue();
+                }
+            }
+
+        }
+
+        /**
+         * Returns value of longest word that is a prefix of the numBases packed
+         * bases, or NOT_FOUND.
+         */
+        int find(long packed, int numBases) {
+            int prefix = (int) (packed >>> (2 * (numBases - myIndexBases)));
+            for (int i = myStarts[prefix], end = myStarts[prefix + 1]; i < end; i++) {
+                int unused = numBases - myLengths[i];
+                if (unused >= 0 && (packed >>> (2 * unused)) == myWords[i]) {
+                    return myValues[i];
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        private int prefix(long word, int length) {
+            return (int) (word >>> (2 * (length - myIndexBases)));
+        }
+
+    }
+
+}
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 
 import net.maizegenetics.dna.BaseEncoder;
 
@@ -29,8 +28,8 @@ public class ParseBarcodeRead {
     protected static String theEnzyme = null;
     static int maxBarcodeLength = 10;
     private Barcode[] theBarcodes;
-    private long[] quickBarcodeList;
-    private HashMap<Long, Integer> quickMap;
+    private BarcodeDecoder barcodeDecoder;
+    private BarcodeDecoder oneMismatchBarcodeDecoder = null;
 
     /**
      * Create the barcode parsing object
@@ -458,8 +457,8 @@ public class ParseBarcodeRead {
 
     /**
      * Reads in an Illumina key file, creates a linear array of {@link Barcode} objects
-     * representing the barcodes in the key file, then creates a hash map containing
-     * indices from the linear array indexed by sequence.  The names of barcode objects
+     * representing the barcodes in the key file, then creates a {@link BarcodeDecoder}
+     * that finds the barcode of a sequence.  The names of barcode objects
      * follow the pattern samplename:flowcell:lane:LibraryPrepID, since sample names alone are not unique.
      *
      * @param keyFile Illumina key file.
@@ -488,16 +487,7 @@ public class ParseBarcodeRead {
             theBarcodes = new Barcode[theBarcodesArrayList.size()];
             theBarcodesArrayList.toArray(theBarcodes);
             Arrays.sort(theBarcodes);
-            int nBL = theBarcodes[0].barOverLong.length;
-            quickBarcodeList = new long[theBarcodes.length * nBL];
-            quickMap = new HashMap();
-            for (int i = 0; i < theBarcodes.length; i++) {
-                for (int j = 0; j < nBL; j++) {
-                    quickBarcodeList[i * nBL + j] = theBarcodes[i].barOverLong[j];
-                    quickMap.put(theBarcodes[i].barOverLong[j], i);
-                }
-            }
-            Arrays.sort(quickBarcodeList);
+            barcodeDecoder = new BarcodeDecoder(Arrays.asList(theBarcodes), false);
         } catch (Exception e) {
             System.out.println("Error with setupBarcodeFiles: " + e);
         }
@@ -505,54 +495,22 @@ public class ParseBarcodeRead {
     }
 
     /**
-     * Returns the best barcode match for a given sequence.  
+     * Returns the best barcode match for a given sequence.  The longest barcode
+     * with overhang that is a prefix of the sequence is returned.  If none is and
+     * divergence is permitted, the barcode with overhang that differs by one base is
+     * returned (divergence above one is treated as one).
      * @param queryS query sequence to be tested against all barcodes
      * @param maxDivergence maximum divergence to permit
      * @return best barcode match (null if no good match)
      */
     Barcode findBestBarcode(String queryS, int maxDivergence) {
-        long query = BaseEncoder.getLongFromSeq(queryS.substring(0, chunkSize));
-        //note because the barcodes are polyA after the sequence, they should always
-        //sort ahead of the hit, this is the reason for the -(closestHit+2)
-        int closestHit = Arrays.binarySearch(quickBarcodeList, query);
-
-        /*      THIS IS THE NEW PIPELINE APPROACH THAT DOES NOT WORK
-         if(closestHit>-2) return null; //hit or perfect
-         if((query&quickBarcodeList[-(closestHit+2)])!=quickBarcodeList[-(closestHit+2)]) return null;
-         int index =quickMap.get(quickBarcodeList[-(closestHit+2)]);
-         //      System.out.println(theBarcodes[index].barcodeS);
-         return theBarcodes[index];
-         //note to see if it is a perfect match you can just bit AND
-         */
-
-        //  Below is the old pipeline approach, which works (at least for maxDivergence of 0)
-        if (closestHit < -1) {  // should always be true, as the barcode+overhang is padded to 32 bases with polyA
-            int index = quickMap.get(quickBarcodeList[-(closestHit + 2)]);
-            if (theBarcodes[index].compareSequence(query, 1) == 0) {
-                return theBarcodes[index];
-            } else if (maxDivergence == 0) {
-                return null;  // return null if not a perfect match
-            }
-        } else {
-            return null;  // should never go to this line
+        if (maxDivergence == 0) {
+            return barcodeDecoder.decode(queryS);
         }
-        int maxLength = 0, minDiv = maxDivergence + 1, countBest = 0;
-        Barcode bestBC = null;
-        for (Barcode bc : theBarcodes) {
-            int div = bc.compareSequence(query, maxDivergence + 1);
-            if (div <= minDiv) {
-                if ((div < minDiv) || (bc.barOverLength > maxLength)) {
-                    minDiv = div;
-                    maxLength = bc.barOverLength;
-                    bestBC = bc;
-                    countBest = 1;
-                } else {  //it is a tie, so return that not resolvable
-                    bestBC = null;
-                    countBest++;
-                }
-            }
+        if (oneMismatchBarcodeDecoder == null) {
+            oneMismatchBarcodeDecoder = new BarcodeDecoder(Arrays.asList(theBarcodes), true);
         }
-        return bestBC;
+        return oneMismatchBarcodeDecoder.decode(queryS);
     }
 
     /**
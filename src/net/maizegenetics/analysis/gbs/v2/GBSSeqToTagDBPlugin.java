@@ -1,7 +1,6 @@
 package net.maizegenetics.analysis.gbs.v2;
 
 import java.awt.Frame;
-import java.io.BufferedReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -11,19 +10,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.stream.IntStream;
 
 import javax.swing.ImageIcon;
 
 import net.maizegenetics.analysis.gbs.Barcode;
+import net.maizegenetics.analysis.gbs.BarcodeDecoder;
 import net.maizegenetics.dna.BaseEncoder;
 import net.maizegenetics.dna.tag.Tag;
 import net.maizegenetics.dna.tag.TagBuilder;
 import net.maizegenetics.dna.tag.TagDataSQLite;
 import net.maizegenetics.dna.tag.TagDataWriter;
-import net.maizegenetics.dna.tag.TaxaDistBuilder;
+import net.maizegenetics.dna.tag.TagTaxaDepthTable;
 import net.maizegenetics.dna.tag.TaxaDistribution;
 import net.maizegenetics.plugindef.AbstractPlugin;
 import net.maizegenetics.plugindef.DataSet;
@@ -32,8 +38,8 @@ import net.maizegenetics.plugindef.PluginParameter;
 import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.TaxaListIOUtils;
 import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.util.ByteLineReader;
 import net.maizegenetics.util.DirectoryCrawler;
-import net.maizegenetics.util.Utils;
 
 import org.ahocorasick.trie.Emit;
 import org.ahocorasick.trie.Trie;
@@ -55,6 +61,8 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
 
     private static final Logger myLogger = Logger.getLogger(GBSSeqToTagDBPlugin.class);
 
+    private static final int READS_PER_CHUNK = 1 << 14;
+
     private PluginParameter<String> myInputDir = new PluginParameter.Builder<>("i", null, String.class).guiName("Input Directory").required(true).inDir()
             .description("Input directory containing FASTQ files in text or gzipped text.\n"
                     + "     NOTE: Directory will be searched recursively and should\n"
@@ -76,16 +84,15 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
     private PluginParameter<Integer> myMaxKmerNumber = new PluginParameter.Builder<>("mxKmerNum", 50000000, Integer.class).guiName("Maximum Kmer Number").required(false)
             .description("Maximum number of kmers").build();
     private PluginParameter<Integer> myBatchSize = new PluginParameter.Builder<>("batchSize", 8, Integer.class).guiName("Batch size of fastq files").required(false)
-            .description("Number of flow cells being processed simultaneously").build();
+            .description("Number of flow cells processed between removals of kmers without replication").build();
     private PluginParameter<Boolean> myDeleteOldData = new PluginParameter.Builder<Boolean>("deleteOldData",false,Boolean.class).guiName("Delete Old Data")
             .description("Delete existing SNP quality data from db tables").build();
     LongAdder roughTagCnt = new LongAdder();
 
-    private TagDistributionMap tagCntMap;
+    private TagTaxaDepthTable tagCntMap;
     private boolean taglenException;
     protected static int readEndCutSiteRemnantLength;
     private Trie ahoCorasickTrie; // import from ahocorasick-0.2.1.jar
-    private String[] likelyReadEndStrings;
    
     public GBSSeqToTagDBPlugin() {
         super(null, false);
@@ -128,18 +135,10 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
         return np;
     }
     
-    private long[] calcTagMapStats(TagDistributionMap tagCntMap) {
-        long totalDepth=0, memory=0;
-        int cnt=0;
-        for (Map.Entry<Tag, TaxaDistribution> entry : tagCntMap.entrySet()) {       	
-            memory+=entry.getValue().memorySize();
-            memory+=25;
-            totalDepth+=entry.getValue().totalDepth();
-            cnt++;
-        }
-        int currentSize = tagCntMap.size();
-        memory+=tagCntMap.size()*2*16;  //estimate for the map size
-        long[] stats={currentSize,memory, totalDepth,totalDepth/cnt};
+    private long[] calcTagMapStats(TagTaxaDepthTable tagCntMap) {
+        long currentSize = tagCntMap.size();
+        long totalDepth = tagCntMap.totalDepth();
+        long[] stats={currentSize,tagCntMap.memorySize(), totalDepth,totalDepth/currentSize};
         System.out.printf("Map Tags:%,d  Memory:%,d  TotalDepth:%,d  AvgDepthPerTag:%d%n",stats[0],stats[1],stats[2],stats[3]);
         return stats;
     }
@@ -149,7 +148,6 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
         if (!myEnzyme.isEmpty()) {
             // Add likelyReadEnds to the ahoCorasick trie
             GBSEnzyme enzyme = new GBSEnzyme(enzyme()); 
-            likelyReadEndStrings = enzyme.likelyReadEnd(); // for removeSecondCutSiteIndexOf()
             readEndCutSiteRemnantLength = enzyme.readEndCutSiteRemnantLength();
 //            String[] likelyReadEnd = enzyme.likelyReadEnd();
 //            // the junit test runs about a second faster average 15.5 vs 16.5) without Trie().removeOverlaps();
@@ -174,8 +172,7 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
     @Override
     public DataSet processData(DataSet input) {
         int batchSize = myBatchSize.value();
-        float loadFactor = 0.95f;
-        tagCntMap = new TagDistributionMap (myMaxKmerNumber.value(),loadFactor, 128, this.minKmerCount());        
+        Map<Tag, TaxaDistribution> tagTaxaMap = null;
         try {
             //Get the list of fastq files
             Path keyPath= Paths.get(keyFile()).toAbsolutePath();
@@ -192,6 +189,7 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
             int batchNum = inputSeqFiles.size()/batchSize;
             if (inputSeqFiles.size()%batchSize != 0) batchNum++;
             TaxaList masterTaxaList= TaxaListIOUtils.readTaxaAnnotationFile(keyFile(), GBSUtils.sampleNameField, new HashMap<>(), true);
+            int maxTagLength = kmerLength();
             
             // Check if user wants to clear existing db. 
             TagDataWriter tdw = null;
@@ -225,10 +223,16 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
                     }
                     // Grab existing data from db, append to empty tagCntMap
                     Map<Tag, TaxaDistribution> existingTDM = tdw.getAllTagsTaxaMap(); 
-                    tagCntMap.putAll(existingTDM);
+                    for (Tag tag : existingTDM.keySet()) {
+                        maxTagLength = Math.max(maxTagLength, tag.seqLength());
+                    }
+                    // existing tags can have taxa indices beyond the key file taxa
+                    tagCntMap = new TagTaxaDepthTable(Math.max(masterTaxaList.size(), oldTaxaList.size()), maxTagLength);
+                    existingTDM.forEach(tagCntMap::add);
                     tdw.clearTagTaxaDistributionData(); // clear old data - it will be re-added at the end.
                 }
             } 
+            if (tagCntMap == null) tagCntMap = new TagTaxaDepthTable(masterTaxaList.size(), maxTagLength);
             if (tdw == null) tdw=new TagDataSQLite(myOutputDB.value());
             taglenException = false;
             for (int i = 0; i < inputSeqFiles.size(); i+=batchSize) {
@@ -237,8 +241,8 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
                 ArrayList<Path> sub = new ArrayList();
                 for (int j = i; j < end; j++) sub.add(inputSeqFiles.get(j));
                 System.out.println("\nStart processing batch " + String.valueOf(i/batchSize+1));
-                sub.parallelStream()
-                .forEach(inputSeqFile -> {
+                // files are processed one at a time, since processFastQ already uses every processor for one file
+                for (Path inputSeqFile : sub) {
                     try {
                         processFastQFile(masterTaxaList,keyPath, inputSeqFile, enzyme(),
                                 minimumQualityScore(), tagCntMap, kmerLength());
@@ -246,13 +250,13 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
                         oobe.printStackTrace();
                         myLogger.error(oobe.getMessage());
                         setTagLenException();
-                        return;
+                        break;
                     }
-                });
+                }
                 if (taglenException == true) return null; // Tag length failure from processFastQ - halt processing
 
                 System.out.println("\nKmers are added from batch "+String.valueOf(i/batchSize+1) + ". Total batch number: " + batchNum);
-                int currentSize = tagCntMap.size();
+                long currentSize = tagCntMap.size();
                 System.out.println("Current number: " + String.valueOf(currentSize) + ". Max kmer number: " + String.valueOf(myMaxKmerNumber.value()));
                 System.out.println(String.valueOf((float)currentSize/(float)myMaxKmerNumber.value()) + " of max tag number");
 
@@ -280,135 +284,257 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
                 System.out.println("\n");
             }
             System.out.println("\nAll the batch are processed");
-            tagCntMap.removeTagByCount(myMinKmerCount.value());
+            tagCntMap.removeTagsBelowCount(myMinKmerCount.value());
             System.out.println("By removing kmers with minCount of " + myMinKmerCount.value() + "Kmer number is reduced to " + tagCntMap.size()+"\n");
             
             // now done in processFastQ
             //removeSecondCutSitesFromMap(new GBSEnzyme(enzyme()));
 
+            tagTaxaMap = tagCntMap.toTagTaxaDistributionMap();
             tdw.putTaxaList(masterTaxaList);
-            tdw.putAllTag(tagCntMap.keySet());
-            tdw.putTaxaDistribution(tagCntMap);
+            tdw.putAllTag(tagTaxaMap.keySet());
+            tdw.putTaxaDistribution(tagTaxaMap);
             ((TagDataSQLite)tdw).close();  //todo autocloseable should do this but it is not working.
         } catch(Exception e) {
             e.printStackTrace();
         }
-        return new DataSet(new Datum("TagMap",tagCntMap,""),this);
+        return new DataSet(new Datum("TagMap",tagTaxaMap,""),this);
     }
     
     private void processFastQFile(TaxaList masterTaxaList, Path keyPath, Path fastQPath, String enzymeName,
-                     int minQuality, TagDistributionMap masterTagTaxaMap, int preferredTagLength) throws StringIndexOutOfBoundsException {
+                     int minQuality, TagTaxaDepthTable masterTagTaxaMap, int preferredTagLength) throws StringIndexOutOfBoundsException {
     	ArrayList<Taxon> tl=GBSUtils.getLaneAnnotatedTaxaList(keyPath, fastQPath);
     	if (tl.size() == 0) return; 
-        BarcodeTrie barcodeTrie=GBSUtils.initializeBarcodeTrie(tl, masterTaxaList, new GBSEnzyme(enzymeName));
+        BarcodeDecoder barcodeDecoder=GBSUtils.initializeBarcodeDecoder(tl, masterTaxaList, new GBSEnzyme(enzymeName), false);
         try {
-        	processFastQ(fastQPath,barcodeTrie,masterTaxaList,masterTagTaxaMap,preferredTagLength,minQuality);
+        	processFastQ(fastQPath,barcodeDecoder,masterTaxaList,masterTagTaxaMap,preferredTagLength,minQuality);
         } catch (StringIndexOutOfBoundsException oobe) {
         	throw oobe; // Let processData() handle it - we want to stop processing on this error
         }        
     }
 
-    private void processFastQ(Path fastqFile, BarcodeTrie barcodeTrie, TaxaList masterTaxaList,
-                              TagDistributionMap masterTagTaxaMap, int preferredTagLength, int minQual) throws StringIndexOutOfBoundsException{
-        int allReads=0, goodBarcodedReads = 0, lowQualityReads = 0;
-        int maxTaxaNumber=masterTaxaList.size();
-        int checkSize = 10000000;
-        myLogger.info("processing file " + fastqFile.toString());
-        try {
+    /**
+     * Processes one FASTQ file as a pipeline. The calling thread reads (and
+     * decompresses) chunks of reads, worker threads decode each chunk
+     * (barcode, quality, 2-bit encoded kmer) straight from the read bytes, and
+     * a merge thread adds the decoded kmers to the tag depth table. Chunks are passed through
+     * bounded queues, so reading waits when decoding or merging falls behind.
+     */
+    private void processFastQ(Path fastqFile, BarcodeDecoder barcodeDecoder, TaxaList masterTaxaList,
+                              TagTaxaDepthTable masterTagTaxaMap, int preferredTagLength, int minQual) throws StringIndexOutOfBoundsException{
+        int numWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        myLogger.info("processing file " + fastqFile.toString() + " with " + numWorkers + " decoding threads");
+        BlockingQueue<ReadChunk> readQueue = new ArrayBlockingQueue<>(2 * numWorkers);
+        BlockingQueue<DecodedChunk> mergeQueue = new ArrayBlockingQueue<>(2 * numWorkers);
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers + 1);
+        List<Future<?>> stages = new ArrayList<>();
+        long[] counts = new long[3]; // all reads, good barcoded reads, low quality reads
+        long time=System.nanoTime();
+        try (ByteLineReader reader = ByteLineReader.getInstance(fastqFile.toString())) {
             int qualityScoreBase=GBSUtils.determineQualityScoreBase(fastqFile);
-            BufferedReader br = Utils.getBufferedReader(fastqFile.toString(), 1 << 22);
-            long time=System.nanoTime();
-            String[] seqAndQual;
- 
-            while ((seqAndQual=GBSUtils.readFastQBlock(br,allReads)) != null) {
-                allReads++;
-                //After quality score is read, decode barcode using the current sequence & quality  score
-                Barcode barcode=barcodeTrie.longestPrefix(seqAndQual[0]);
-                if(barcode==null) continue;
-                if(minQual>0) {
-                    //todo move getFirstLowQualityPos into this class?
-                    if(BaseEncoder.getFirstLowQualityPos(seqAndQual[1],minQual, qualityScoreBase)<(barcode.getBarLength()+preferredTagLength)){
-                    	lowQualityReads++;
-                    	continue;
+            boolean apeKI = enzyme().equalsIgnoreCase("ApeKI");
+
+            for (int w = 0; w < numWorkers; w++) {
+                stages.add(pool.submit(() -> {
+                    ReadChunk chunk;
+                    while ((chunk = readQueue.take()) != ReadChunk.END) {
+                        mergeQueue.put(decodeChunk(chunk, fastqFile, barcodeDecoder, apeKI, preferredTagLength, minQual, qualityScoreBase));
                     }
-                }
+                    mergeQueue.put(DecodedChunk.END);
+                    return null;
+                }));
+            }
+            stages.add(pool.submit(() -> {
+                mergeChunks(mergeQueue, numWorkers, masterTagTaxaMap, counts, time);
+                return null;
+            }));
 
-                int barcodeLen = barcode.getBarLength();               
-                if (seqAndQual[0].length() - barcodeLen < preferredTagLength) {
-                	String errMsg = "\n\nERROR processing " + fastqFile.toString() + "\n" +
-                			"Reading entry number " + allReads + " fails the length test.\n" +
-                			"Sequence length " + seqAndQual[0].length() + " minus barcode length "+ barcodeLen +
-                			" is less then maxKmerLength " + preferredTagLength + ".\n" +
-                			"Re-run your files with either a shorter mxKmerL value or a higher minimum quality score.\n";
-                	throw new StringIndexOutOfBoundsException(errMsg);
+            long numReads = 0;
+            ByteLineReader.LineBlock lines;
+            while ((lines = reader.readBlock(4 * READS_PER_CHUNK)) != null) {
+                if (lines.numberOfLines() % 4 != 0) {
+                    myLogger.warn("processFastQ: " + fastqFile.toString() + " ends with an incomplete read after read: " + (numReads + lines.numberOfLines() / 4));
                 }
-                // This one has best performance
-                Tag tag = removeSecondCutSiteIndexOf(seqAndQual[0].substring(barcodeLen),preferredTagLength);
-                
-                // call ahocorasick
-                //Tag tag = removeSecondCutSiteAhoC(seqAndQual[0].substring(barcodeLen),preferredTagLength);
-                //Tag tag=TagBuilder.instance(seqAndQual[0].substring(barcodeLen, barcodeLen + preferredTagLength)).build();
-                if(tag==null) continue;   //null occurs when any base was not A, C, G, T
-                goodBarcodedReads++;
-                TaxaDistribution taxaDistribution=masterTagTaxaMap.get(tag);
-                if(taxaDistribution==null) {
-                    masterTagTaxaMap.put(tag,TaxaDistBuilder.create(maxTaxaNumber,barcode.getTaxaIndex()));
-                    this.roughTagCnt.increment();
-                } else {
-                    taxaDistribution.increment(barcode.getTaxaIndex());
-                }
-                if (allReads % checkSize == 0) {
-                    myLogger.info("Total Reads:" + allReads + " Reads with barcode and cut site overhang:" + goodBarcodedReads
-                            + " rate:" + (System.nanoTime()-time)/allReads +" ns/read. Current tag count:" + this.roughTagCnt);
+                putChunk(readQueue, new ReadChunk(lines, numReads), stages);
+                numReads += lines.numberOfLines() / 4;
+            }
+            for (int w = 0; w < numWorkers; w++) {
+                putChunk(readQueue, ReadChunk.END, stages);
+            }
+            for (Future<?> stage : stages) {
+                while (true) {
+                    try {
+                        stage.get(1, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        checkStages(stages, false);
+                    }
                 }
             }
+
             myLogger.info("Summary for "+fastqFile.toString()+"\n"+
-                    "Total number of reads in lane=" + allReads +"\n"+
-                    "Total number of good barcoded reads=" + goodBarcodedReads+"\n"+
-                    "Total number of low quality reads=" + lowQualityReads+"\n"+
+                    "Total number of reads in lane=" + counts[0] +"\n"+
+                    "Total number of good barcoded reads=" + counts[1]+"\n"+
+                    "Total number of low quality reads=" + counts[2]+"\n"+
                     "Timing process (sorting, collapsing, and writing TagCount to file)."+"\n"+
                     "Process took " + (System.nanoTime() - time)/1e6 + " milliseconds.");
             System.out.println("tagCntMap size: "+masterTagTaxaMap.size());
-            br.close();
-        } catch (StringIndexOutOfBoundsException oobe) {
-        	throw oobe; // pass it up to print error and stop processing
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StringIndexOutOfBoundsException) {
+                throw (StringIndexOutOfBoundsException) e.getCause(); // pass it up to print error and stop processing
+            }
+            myLogger.error("Good Barcodes Read: " + counts[1]);
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            myLogger.error("processFastQ: interrupted processing: " + fastqFile.toString());
         } catch (Exception e) {
-            myLogger.error("Good Barcodes Read: " + goodBarcodedReads);
-            
+            myLogger.error("Good Barcodes Read: " + counts[1]);
             e.printStackTrace();
+        } finally {
+            pool.shutdownNow();
         }
     }
 
-    // This should be moved to GBSUtils as it is used in Production as well
-    private Tag removeSecondCutSiteIndexOf(String seq, int preferredLength) {
-        Tag tag = null;
-        
-        // handle overlapping cutsite for ApeKI enzyme
-        if (enzyme().equalsIgnoreCase("ApeKI")) {
-            if (seq.startsWith("CAGCTGC") || seq.startsWith("CTGCAGC")) {
-                seq = seq.substring(3,seq.length());
-            }             
+    /**
+     * Waits for space in the read queue, stopping if a decoding or merge
+     * stage has failed.
+     */
+    private static void putChunk(BlockingQueue<ReadChunk> readQueue, ReadChunk chunk, List<Future<?>> stages) throws InterruptedException, ExecutionException {
+        while (!readQueue.offer(chunk, 1, TimeUnit.SECONDS)) {
+            checkStages(stages, true);
         }
-        int indexOfReadEnd = -1;
-        String shortSeq = seq.substring(20);
-        for (String readEnd: likelyReadEndStrings){
-            int indx = shortSeq.indexOf(readEnd);
-            if (indx > 0 && indx < indexOfReadEnd)
-                indexOfReadEnd = indx;
+    }
+
+    /**
+     * Throws exception of any failed stage. Otherwise a stage blocked on a
+     * queue waits forever for a failed one.
+     */
+    private static void checkStages(List<Future<?>> stages, boolean reading) throws InterruptedException, ExecutionException {
+        for (Future<?> stage : stages) {
+            if (stage.isDone()) {
+                stage.get();
+                if (reading) {
+                    throw new IllegalStateException("GBSSeqToTagDBPlugin: processFastQ: processing stage ended early");
+                }
+            }
         }
+    }
 
-        if (indexOfReadEnd > 0 &&
-                (indexOfReadEnd + 20 + readEndCutSiteRemnantLength < preferredLength)) {
-            // trim tag to sequence up to & including the cut site
-            tag = TagBuilder.instance(seq.substring(0, indexOfReadEnd + 20 + readEndCutSiteRemnantLength)).build();
- 
-        } else {
-            int seqEnd = (byte) Math.min(seq.length(), preferredLength);
-            return TagBuilder.instance(seq.substring(0,seqEnd)).build();
+    private static DecodedChunk decodeChunk(ReadChunk chunk, Path fastqFile, BarcodeDecoder barcodeDecoder, boolean apeKI, int preferredTagLength,
+                                     int minQual, int qualityScoreBase) throws StringIndexOutOfBoundsException {
+        ByteLineReader.LineBlock lines = chunk.myLines;
+        byte[] data = lines.data();
+        int numReads = lines.numberOfLines() / 4;
+        DecodedChunk result = new DecodedChunk(numReads, preferredTagLength);
+        for (int r = 0; r < numReads; r++) {
+            int seqStart = lines.start(4 * r + 1);
+            int seqEnd = lines.end(4 * r + 1);
+            //After quality score is read, decode barcode using the current sequence & quality  score
+            Barcode barcode=barcodeDecoder.decode(data, seqStart, seqEnd);
+            if(barcode==null) continue;
+            if(minQual>0) {
+                if(BaseEncoder.getFirstLowQualityPos(data, lines.start(4 * r + 3), lines.end(4 * r + 3), minQual, qualityScoreBase)<(barcode.getBarLength()+preferredTagLength)){
+                    result.myLowQualityReads++;
+                    continue;
+                }
+            }
+
+            int barcodeLen = barcode.getBarLength();
+            if (seqEnd - seqStart - barcodeLen < preferredTagLength) {
+                String errMsg = "\n\nERROR processing " + fastqFile.toString() + "\n" +
+                        "Reading entry number " + (chunk.myFirstRead + r + 1) + " fails the length test.\n" +
+                        "Sequence length " + (seqEnd - seqStart) + " minus barcode length "+ barcodeLen +
+                        " is less then maxKmerLength " + preferredTagLength + ".\n" +
+                        "Re-run your files with either a shorter mxKmerL value or a higher minimum quality score.\n";
+                throw new StringIndexOutOfBoundsException(errMsg);
+            }
+            int length = GBSUtils.encodeKmer(data, seqStart + barcodeLen, seqEnd, apeKI, preferredTagLength,
+                    result.myWords, result.myNumTags * result.myWordsPerTag);
+            if(length<0) continue;   //occurs when any base was not A, C, G, T
+            result.add((short) length, barcode.getTaxaIndex());
         }
-        return tag;
+        return result;
     }
-    
+
+    /**
+     * Adds decoded chunks of one file to the tag depth table until each
+     * worker has finished.
+     */
+    private void mergeChunks(BlockingQueue<DecodedChunk> mergeQueue, int numWorkers, TagTaxaDepthTable masterTagTaxaMap,
+                             long[] counts, long time) throws InterruptedException {
+        long checkSize = 10000000;
+        long nextCheck = checkSize;
+        int workersFinished = 0;
+        while (workersFinished < numWorkers) {
+            DecodedChunk chunk = mergeQueue.take();
+            if (chunk == DecodedChunk.END) {
+                workersFinished++;
+                continue;
+            }
+            for (int i = 0; i < chunk.myNumTags; i++) {
+                if (masterTagTaxaMap.increment(chunk.myWords, i * chunk.myWordsPerTag, chunk.myLengths[i], chunk.myTaxa[i])) {
+                    this.roughTagCnt.increment();
+                }
+            }
+            counts[0] += chunk.myNumReads;
+            counts[1] += chunk.myNumTags;
+            counts[2] += chunk.myLowQualityReads;
+            if (counts[0] >= nextCheck) {
+                nextCheck += checkSize;
+                myLogger.info("Total Reads:" + counts[0] + " Reads with barcode and cut site overhang:" + counts[1]
+                        + " rate:" + (System.nanoTime()-time)/counts[0] +" ns/read. Current tag count:" + this.roughTagCnt);
+            }
+        }
+    }
+
+    /**
+     * Lines of consecutive FASTQ reads (four lines each).
+     */
+    private static class ReadChunk {
+
+        private static final ReadChunk END = new ReadChunk(null, -1);
+
+        private final ByteLineReader.LineBlock myLines;
+        private final long myFirstRead;
+
+        private ReadChunk(ByteLineReader.LineBlock lines, long firstRead) {
+            myLines = lines;
+            myFirstRead = firstRead;
+        }
+    }
+
+    /**
+     * Kmer and taxon of each good read in a chunk. Kmers are held as 2-bit
+     * encoded longs (myWordsPerTag per read) in one array.
+     */
+    private static class DecodedChunk {
+
+        private static final DecodedChunk END = new DecodedChunk(0, 0);
+
+        private final int myNumReads;
+        private final int myWordsPerTag;
+        private final long[] myWords;
+        private final short[] myLengths;
+        private final int[] myTaxa;
+        private int myNumTags = 0;
+        private int myLowQualityReads = 0;
+
+        private DecodedChunk(int numReads, int preferredTagLength) {
+            myNumReads = numReads;
+            myWordsPerTag = (preferredTagLength + BaseEncoder.chunkSize - 1) / BaseEncoder.chunkSize;
+            myWords = new long[numReads * myWordsPerTag];
+            myLengths = new short[numReads];
+            myTaxa = new int[numReads];
+        }
+
+        private void add(short length, int taxon) {
+            myLengths[myNumTags] = length;
+            myTaxa[myNumTags] = taxon;
+            myNumTags++;
+        }
+    }
+
     private Tag removeSecondCutSiteAhoC(String seq, int preferredLength) {
         // Removes the second cut site BEFORE we trim the tag.
         // this preserves the cut site incase it shows up in the middle       
@@ -465,74 +591,17 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
         return tag;       
     }
     
-    // THis method now obsolete, replaced with removeSecondCutSiteAhoC
-    private void removeSecondCutSitesFromMap(GBSEnzyme enzyme) {
-        //this is a little tricky as you cannot add entries at the same time as removing entries to a map
-        System.out.println("GBSSeqToTagDBPlugin.removeSecondCutSitesFromMap started Initial Size:"+tagCntMap.size());
-        String[] likelyReadEnd=enzyme.likelyReadEnd();
-        long time=System.nanoTime();
-
-        Map<Tag,TaxaDistribution> shortTags=new HashMap<>(tagCntMap.size()/5);
-        int belowMinSize=0, shortExisting=0;
-        for (Tag origTag : tagCntMap.keySet()) {
-            int minCutSite=Integer.MAX_VALUE;
-            String origTagSequence = origTag.sequence();
-            for (String potentialCutSite : likelyReadEnd) {
-            	int p = origTagSequence.indexOf(potentialCutSite, 1);
-                if(p>0) minCutSite=Math.min(minCutSite,p);
-            }
-            if (minCutSite!=Integer.MAX_VALUE && minCutSite > 1) {
-                if(minCutSite<minimumKmerLength()) {
-                    tagCntMap.remove(origTag);
-                    belowMinSize++;
-                    continue;
-                }
-                TaxaDistribution currentTaxaDist=tagCntMap.remove(origTag);
-                Tag t = TagBuilder.instance(origTagSequence.substring(0, minCutSite + enzyme.readEndCutSiteRemnantLength())).build();
-                TaxaDistribution existingTD=shortTags.get(t);
-                if(existingTD!=null) {
-                    if(currentTaxaDist==null || existingTD==null) {
-                        System.out.println("We have a problem");
-                    }
-                    currentTaxaDist=TaxaDistBuilder.combine(currentTaxaDist,existingTD);
-                    shortExisting++; //System.out.println("existingTD="+t);
-                }
-                shortTags.put(t, currentTaxaDist);
-                //if(ttemp!=null) shortExisting++;
-               // System.out.println(origTag+" -> "+t);
-            }
-        }
-        System.out.println("After removal tagCntMap.size() = " + tagCntMap.size());
-        System.out.println("After removal shortTags.size() = " + shortTags.size());
-        System.out.println("belowMinSize = " + belowMinSize);
-        System.out.println("shortExisting = " + shortExisting);
-        System.out.println("removeSecondCutSite: Process took " + (System.nanoTime() - time)/1e6 + " milliseconds.");
-        tagCntMap.putAll(shortTags);
-        System.out.println("After combining again tagCntMap.size() = " + tagCntMap.size());
-    }
-    
     /**
      * This method removes all tags are are never repeated in a single sample (taxa).  The concept is that
      * all biologically real tag should show up twice somewhere.  This could be called at the end of every
      * flowcell to test all the novel tags.
      */
-    private static void removeTagsWithoutReplication (TagDistributionMap masterTagTaxaMap) {
-        int currentSize = masterTagTaxaMap.size();
+    private static void removeTagsWithoutReplication (TagTaxaDepthTable masterTagTaxaMap) {
+        long currentSize = masterTagTaxaMap.size();
         int minTaxa=2;
         System.out.println("Starting removeTagsWithoutReplication. Current tag number: " + currentSize);
-        LongAdder tagsRemoved=new LongAdder();
-        masterTagTaxaMap.entrySet().parallelStream().forEach(t -> {
-            TaxaDistribution td = t.getValue();
-            if(td.totalDepth()<2*minTaxa) {
-                masterTagTaxaMap.remove(t.getKey());
-                tagsRemoved.increment();
-            } 
-            else if(IntStream.of(td.depths()).filter(depth -> depth>1).count()<minTaxa) {
-                masterTagTaxaMap.remove(t.getKey());
-                tagsRemoved.increment();
-            }
-        });
-        System.out.println("Finished removeTagsWithoutReplication.  tagsRemoved = " + tagsRemoved + ". Current tag number: " + String.valueOf(currentSize-tagsRemoved.intValue()));
+        long tagsRemoved = masterTagTaxaMap.removeTagsWithoutReplication(minTaxa, 2);
+        System.out.println("Finished removeTagsWithoutReplication.  tagsRemoved = " + tagsRemoved + ". Current tag number: " + String.valueOf(currentSize-tagsRemoved));
     }
     
     public void setTagLenException() {
@@ -789,59 +858,4 @@ public class GBSSeqToTagDBPlugin extends AbstractPlugin {
     public String getToolTipText() {
         return "Discovery Tags By Taxa";
     }
-
-    /**
-     * This ConcurrentHashMap constrain the size of the map, and purges low distribution count tags when the size needs
-     * to be reduced.
-     */
-    static class TagDistributionMap extends ConcurrentHashMap<Tag,TaxaDistribution> {
-        private final int maxTagNum;
-        private int minDepthToRetainInMap=2;
-        private final int minCount;
-        
-        TagDistributionMap (int maxTagNumber, float loadFactor, int concurrencyLevel, int minCount) {
-            super((maxTagNumber*2), loadFactor, concurrencyLevel);
-            maxTagNum = maxTagNumber;
-            this.minCount = minCount;
-        }
-        
-        @Override
-        public TaxaDistribution put(Tag key, TaxaDistribution value) {
-            return super.put(key, value);
-        }
-
-        public synchronized void removeTagByCount(int minCnt) {
-            entrySet().parallelStream()
-                    .filter(e -> e.getValue().totalDepth()<minCnt)
-                    .forEach(e -> remove(e.getKey()));
-        }
-        
-            
-        public long estimateMapMemorySize() {
-            long size=0;
-            int cnt=0;
-            for (Map.Entry<Tag, TaxaDistribution> entry : entrySet()) {
-                size+=8+16+1; //Tag size
-                size+=16; //Map references
-                size+=entry.getValue().memorySize();
-                cnt++;
-                if(cnt>10000) break;
-        }
-            long estSize=(size()/cnt)*size;
-            return estSize;
-        }
-
-        public long[] depthDistribution() {
-            long[] base2bins=new long[34];
-            int cnt=0;
-            for (Map.Entry<Tag, TaxaDistribution> entry : entrySet()) {
-                base2bins[31-Integer.numberOfLeadingZeros(entry.getValue().totalDepth())]++;
-                cnt++;
-               // if(cnt>100000) break;
-            }
-            return base2bins;
-        }
-    }
 }
-
-
@@ -5,11 +5,14 @@ package net.maizegenetics.analysis.gbs.v2;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 import net.maizegenetics.analysis.gbs.Barcode;
+import net.maizegenetics.analysis.gbs.BarcodeDecoder;
+import net.maizegenetics.dna.BaseEncoder;
 import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.TaxaListIOUtils;
 import net.maizegenetics.taxa.Taxon;
@@ -110,22 +113,71 @@ public class GBSUtils {
     }
     
     /**
-     * Produces a trie for sorting the read
+     * Produces a decoder for sorting the read.  It finds the same barcodes as a
+     * BarcodeTrie with a table lookup of the packed read prefix.
      * @param taxaList the taxaList of the current flowcell lanes that is annotated with barcode information
      * @param masterTaxaList  the mastertaxaList provides the taxaIndex
      * @param myEnzyme
-     * @return Barcode trie for examining the prefixes
+     * @param allowOneMismatch whether reads that differ by one base from a barcode plus overhang are sorted
+     * @return Barcode decoder for examining the prefixes
      */
-    public static BarcodeTrie initializeBarcodeTrie(ArrayList<Taxon> taxaList, TaxaList masterTaxaList, GBSEnzyme myEnzyme){
-        BarcodeTrie aTrie=new BarcodeTrie();
+    public static BarcodeDecoder initializeBarcodeDecoder(ArrayList<Taxon> taxaList, TaxaList masterTaxaList, GBSEnzyme myEnzyme,
+            boolean allowOneMismatch){
+        return new BarcodeDecoder(createBarcodes(taxaList, masterTaxaList, myEnzyme), allowOneMismatch);
+    }
+
+    private static List<Barcode> createBarcodes(ArrayList<Taxon> taxaList, TaxaList masterTaxaList, GBSEnzyme myEnzyme){
+        List<Barcode> result=new ArrayList<>(taxaList.size());
         for (Taxon taxon : taxaList) {
             int masterIndex=masterTaxaList.indexOf(taxon.getName());
             GeneralAnnotation annotation = taxon.getAnnotation();
             Barcode theBC = new Barcode(annotation.getTextAnnotation(barcodeField)[0], myEnzyme.initialCutSiteRemnant(), taxon.getName(),
                     masterIndex,annotation.getTextAnnotation(flowcellField)[0],annotation.getTextAnnotation("Lane")[0]);
-            aTrie.addBarcode(theBC);
+            result.add(theBC);
+        }
+        return result;
+    }
+
+    /**
+     * Encodes the kmer of a read held in a byte array (i.e. the bases after the barcode
+     * in a fastq buffer) into 2-bit longs, without creating Strings or a Tag.  With the
+     * ApeKI enzyme, reads starting with an overlapping cut site (CAGCTGC or CTGCAGC) skip
+     * the first 3 bases.  The kmer is the first preferredLength bases, or fewer if the
+     * read is shorter.  This is the kmer the discovery and production pipelines have
+     * always recorded, so encoded reads match kmers already in the database.
+     * @param seq bytes holding the read
+     * @param start index of first base after the barcode
+     * @param end index after last base of the read
+     * @param apeKI whether the enzyme is ApeKI
+     * @param preferredLength maximum kmer length
+     * @param dest destination for the (length + 31) / 32 encoded longs
+     * @param destOffset index in dest of first long
+     * @return kmer length, or -1 if the kmer has a base other than A, C, G, T
+     */
+    public static int encodeKmer(byte[] seq, int start, int end, boolean apeKI, int preferredLength, long[] dest, int destOffset) {
+        if (apeKI && (startsWith(seq, start, end, APEKI_OVERLAP_1) || startsWith(seq, start, end, APEKI_OVERLAP_2))) {
+            start += 3;
+        }
+        int length = Math.min(end - start, preferredLength);
+        if (length <= 0 || !BaseEncoder.getLongArrayFromSeq(seq, start, length, dest, destOffset)) {
+            return -1;
+        }
+        return length;
+    }
+
+    private static final byte[] APEKI_OVERLAP_1 = "CAGCTGC".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] APEKI_OVERLAP_2 = "CTGCAGC".getBytes(StandardCharsets.US_ASCII);
+
+    private static boolean startsWith(byte[] seq, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (seq[start + i] != prefix[i]) {
+                return false;
+            }
         }
-        return aTrie;
+        return true;
     }
     
     /**
@@ -4,7 +4,6 @@
 package net.maizegenetics.analysis.gbs.v2;
 
 import java.awt.Frame;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -13,6 +12,7 @@ import java.io.OutputStreamWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -21,11 +21,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.ImageIcon;
 
 import net.maizegenetics.analysis.gbs.Barcode;
+import net.maizegenetics.analysis.gbs.BarcodeDecoder;
 import net.maizegenetics.dna.BaseEncoder;
 import net.maizegenetics.dna.map.PositionList;
 import net.maizegenetics.dna.snp.Allele;
@@ -33,10 +39,10 @@ import net.maizegenetics.dna.snp.ExportUtils;
 import net.maizegenetics.dna.snp.GenotypeTable;
 import net.maizegenetics.dna.snp.GenotypeTableBuilder;
 import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
-import net.maizegenetics.dna.snp.SimpleAllele;
 import net.maizegenetics.dna.snp.depth.AlleleDepthUtil;
 import net.maizegenetics.dna.snp.genotypecall.BasicGenotypeMergeRule;
 import net.maizegenetics.dna.snp.genotypecall.GenotypeMergeRule;
+import net.maizegenetics.dna.tag.PackedTagIndex;
 import net.maizegenetics.dna.tag.Tag;
 import net.maizegenetics.dna.tag.TagBuilder;
 import net.maizegenetics.dna.tag.TagData;
@@ -47,16 +53,16 @@ import net.maizegenetics.plugindef.PluginParameter;
 import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.TaxaListIOUtils;
 import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.util.ByteLineReader;
 import net.maizegenetics.util.DirectoryCrawler;
-import net.maizegenetics.util.Utils;
 
 import org.ahocorasick.trie.Emit;
 import org.ahocorasick.trie.Trie;
 import org.apache.log4j.Logger;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+
+import gnu.trove.map.hash.TIntIntHashMap;
 
 /**
  * This plugin converts all of the fastq (and/or qseq) files in the input folder
@@ -76,6 +82,11 @@ import com.google.common.collect.Multimaps;
  * the output GenotypeTableBuilder will be mutable, using closeUnfinished()
  * rather than build().
  *
+ * Within a run, the depths of a taxon from all of its fastq files are combined,
+ * and the taxon is called (in parallel with other taxa and with reading) as
+ * soon as the last of those files is processed.  Only the tag depths of taxa
+ * with files still to be processed are held in memory.
+ *
  * If the target output is HDF5, and that GenotypeTable file doesn't exist, it will be
  * created.  
  *
@@ -96,6 +107,8 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
 
     private static final Logger myLogger = Logger.getLogger(ProductionSNPCallerPluginV2.class);
 
+    private static final int READS_PER_CHUNK = 1 << 14;
+
     private PluginParameter<String> myInputDir = new PluginParameter.Builder<>("i", null, String.class).guiName("Input Directory").required(true).inDir()
             .description("Input directory containing fastq AND/OR qseq files.").build();
     private PluginParameter<String> myKeyFile = new PluginParameter.Builder<>("k", null, String.class).guiName("Key File").required(true).inFile()
@@ -129,12 +142,18 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
     private String myOutputDir = null;
     private static boolean isHDF5 = false; // default is VCF
     private TagData tagDataReader = null;
-    Multimap<Taxon,Tag> tagCntMap=Multimaps.synchronizedMultimap(ArrayListMultimap.create(384, 500_000));
+    // depth of each tag (by canonical tag index) for each taxon (by master taxa index) from files processed so far
+    private TIntIntHashMap[] tagDepthsByTaxon = null;
+    // number of input files not processed yet for each taxon
+    private int[] filesRemainingByTaxon = null;
+    private Taxon[] taxaByIndex = null;
+    private final Map<Path, int[]> taxaIndicesByFile = new HashMap<>();
+    private final Map<Path, TIntIntHashMap[]> tagDepthsByFile = new ConcurrentHashMap<>();
+    private final List<Future<?>> genotypeCalls = new ArrayList<>();
     private Set<String> seqFilesInKeyAndDir = new TreeSet<>(); // fastq (or qseq) file names present in input directory that have a "Flowcell_Lane" in the key file
  
     protected static int readEndCutSiteRemnantLength;
     private Trie ahoCorasickTrie; // import from ahocorasick-0.2.1.jar
-    private String[] likelyReadEndStrings;
 
     //Documentation of read depth per sample (one recorded per replicate)
     // Treemap is synchronized as multiple threads may increment values.
@@ -172,7 +191,6 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
             // Add likelyReadEnds to the ahoCorasick trie
             GBSEnzyme enzyme = new GBSEnzyme(enzyme());
  
-            likelyReadEndStrings = enzyme.likelyReadEnd(); // for removeSecondCutSiteIndexOf()
             readEndCutSiteRemnantLength = enzyme.readEndCutSiteRemnantLength();
 //            // the junit test runs about a second faster average 15.5 vs 16.5) without Trie().removeOverlaps();
 //            String[] likelyReadEnd = enzyme.likelyReadEnd();
@@ -210,8 +228,7 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
         TaxaList masterTaxaList= TaxaListIOUtils.readTaxaAnnotationFile(keyFile(), GBSUtils.sampleNameField, new HashMap<>(), true);
         writeInitialTaxaReadCounts(masterTaxaList); // initialize synchronized maps
         //todo perhaps subset the masterTaxaList based on the files in there, but it seems like it will all be figure out.
-        Map<Tag,Tag> canonicalTag=new HashMap<>();  //canonicalize them OR eventually we will use a Trie
-        tagDataReader.getTags().stream().forEach(t -> canonicalTag.put(t,t));
+        PackedTagIndex canonicalTag=new PackedTagIndex(tagDataReader.getTags());  //canonicalize them, looked up by 2-bit encoded reads
         int batchNum = inputSeqFiles.size()/batchSize;
        
         if (inputSeqFiles.size() % batchSize !=0) batchNum++;
@@ -227,46 +244,39 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
         }
                
         GenotypeTableBuilder gtb=setUpGenotypeTableBuilder(outputGenotypesFile(), positionList, genoMergeRule);
-        final Multimap<Tag,AlleleWithPosIndex> tagsToIndex=ArrayListMultimap.create();
-        tagDataReader.getAlleleMap().entries().stream()
-                .forEach(e -> {
-                	// indexOf returns -1 if the list doesn't contain the element, which it won't
-                	// if there are snpposition entries with a quality score less than minimumQualityScore 
-                    int posIndex=positionList.indexOf(e.getValue().position());
-                    if (posIndex >= 0) {
-                    	tagsToIndex.put(e.getKey(),new AlleleWithPosIndex(e.getValue(),posIndex));
-                    }                   
-                });
-        
+        final TagAlleles tagsToIndex=new TagAlleles(tagDataReader.getAlleleMap(), canonicalTag, positionList);
+
+        // Each taxon is called as soon as the last file with its reads is processed
+        initTaxaDepths(masterTaxaList, keyPath, inputSeqFiles);
+        ExecutorService genotypeCallers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         taglenException = false;
-        for (int idx = 0; idx < inputSeqFiles.size(); idx+=batchSize) {
-        	tagCntMap.clear(); // start fresh with each new batch
-            int end = idx+batchSize;
-            if (end > inputSeqFiles.size()) end = inputSeqFiles.size();
-            ArrayList<Path> sub = new ArrayList<Path>();
-            for (int jdx = idx; jdx < end; jdx++) sub.add(inputSeqFiles.get(jdx));
-            System.out.println("\nStart processing batch " + String.valueOf(idx/batchSize+1));
-            sub.parallelStream()
-            .forEach(inputSeqFile -> {
-                try {
-                    processFastQFile(masterTaxaList,keyPath, inputSeqFile, enzyme(),canonicalTag,kmerLength(), minimumQualityScore());
-                } catch (StringIndexOutOfBoundsException oobe) {
-                    oobe.printStackTrace();
-                    myLogger.error(oobe.getMessage());
-                    setTagLenException();
-                    return;
-                }              
-            });
-            if (taglenException == true) return null; // Tag length failure from processFastQ - halt processing
-         
-            tagCntMap.asMap().entrySet().stream()
-            .forEach(e -> {
-                callGenotypes(e.getKey(), e.getValue(), tagsToIndex, positionList, genoMergeRule,gtb,depthToOutput());
-                //System.out.println(e.x.getName()+ Arrays.toString(Arrays.copyOfRange(e.y,0,10)))); 
-            });
-            System.out.println("\nFinished processing batch " + String.valueOf(idx/batchSize+1));
+        try {
+            for (int idx = 0; idx < inputSeqFiles.size(); idx+=batchSize) {
+                int end = idx+batchSize;
+                if (end > inputSeqFiles.size()) end = inputSeqFiles.size();
+                ArrayList<Path> sub = new ArrayList<Path>();
+                for (int jdx = idx; jdx < end; jdx++) sub.add(inputSeqFiles.get(jdx));
+                System.out.println("\nStart processing batch " + String.valueOf(idx/batchSize+1));
+                sub.parallelStream()
+                .forEach(inputSeqFile -> {
+                    try {
+                        processFastQFile(masterTaxaList,keyPath, inputSeqFile, enzyme(),canonicalTag,kmerLength(), minimumQualityScore());
+                    } catch (StringIndexOutOfBoundsException oobe) {
+                        oobe.printStackTrace();
+                        myLogger.error(oobe.getMessage());
+                        setTagLenException();
+                        return;
+                    }
+                    fileProcessed(inputSeqFile, tagsToIndex, positionList.numberOfSites(), gtb, genotypeCallers);
+                });
+                if (taglenException == true) return null; // Tag length failure from processFastQ - halt processing
+                System.out.println("\nFinished processing batch " + String.valueOf(idx/batchSize+1));
+            }
+            waitForGenotypeCalls();
+        } finally {
+            genotypeCallers.shutdownNow();
         }
- 
+
         if (isHDF5) { // build hdf5 output
             if (keepGenotypesOpen()) {
                 gtb.closeUnfinished();
@@ -284,30 +294,186 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
         return null;
     }
 
-    private static void callGenotypes(Taxon taxon, Collection<Tag> tags, Multimap<Tag,AlleleWithPosIndex> tagsToIndex,
-                   PositionList positionList, GenotypeMergeRule genoMergeRule, GenotypeTableBuilder gtb, boolean outputDepths) {
-        int[][] alleleDepths = new int[NucleotideAlignmentConstants.NUMBER_NUCLEOTIDE_ALLELES][positionList.numberOfSites()];
-        tags.stream().map(t -> tagsToIndex.get(t)).flatMap(c -> c.stream())
-                .forEach(a -> alleleDepths[a.allele()][a.positionIndex()]++);
-        if (outputDepths) {
-            byte[][] byteDepths = AlleleDepthUtil.depthIntToByte(alleleDepths);
-            gtb.addTaxon(taxon, resolveGenosForTaxon(alleleDepths, genoMergeRule),byteDepths);
+    /**
+     * Sets up the tag depths for each taxon, and counts the input files with
+     * reads for each taxon.
+     */
+    private void initTaxaDepths(TaxaList masterTaxaList, Path keyPath, List<Path> inputSeqFiles) {
+        int numTaxa = masterTaxaList.numberOfTaxa();
+        tagDepthsByTaxon = new TIntIntHashMap[numTaxa];
+        filesRemainingByTaxon = new int[numTaxa];
+        taxaByIndex = new Taxon[numTaxa];
+        for (int t = 0; t < numTaxa; t++) {
+            taxaByIndex[t] = masterTaxaList.get(t);
+        }
+        taxaIndicesByFile.clear();
+        for (Path inputSeqFile : inputSeqFiles) {
+            int[] taxaIndices = GBSUtils.getLaneAnnotatedTaxaList(keyPath, inputSeqFile).stream()
+                    .mapToInt(taxon -> masterTaxaList.indexOf(taxon.getName()))
+                    .filter(index -> index >= 0)
+                    .distinct()
+                    .toArray();
+            taxaIndicesByFile.put(inputSeqFile, taxaIndices);
+            for (int index : taxaIndices) {
+                filesRemainingByTaxon[index]++;
+            }
+        }
+        genotypeCalls.clear();
+    }
+
+    /**
+     * Adds the tag depths of a processed file to its taxa. Taxa with no files
+     * remaining are called (in parallel) and their tag depths freed.
+     * Taxa without reads aren't added to the genotype table.
+     */
+    private synchronized void fileProcessed(Path inputSeqFile, TagAlleles tagsToIndex, int numSites,
+            GenotypeTableBuilder gtb, ExecutorService genotypeCallers) {
+        TIntIntHashMap[] fileDepths = tagDepthsByFile.remove(inputSeqFile);
+        for (int index : taxaIndicesByFile.get(inputSeqFile)) {
+            TIntIntHashMap depths = (fileDepths == null) ? null : fileDepths[index];
+            if (depths != null) {
+                if (tagDepthsByTaxon[index] == null) {
+                    tagDepthsByTaxon[index] = depths;
+                } else {
+                    TIntIntHashMap taxonDepths = tagDepthsByTaxon[index];
+                    depths.forEachEntry((tag, depth) -> {
+                        taxonDepths.adjustOrPutValue(tag, depth, depth);
+                        return true;
+                    });
+                }
+            }
+            filesRemainingByTaxon[index]--;
+            if (filesRemainingByTaxon[index] == 0) {
+                TIntIntHashMap taxonDepths = tagDepthsByTaxon[index];
+                tagDepthsByTaxon[index] = null;
+                if (taxonDepths != null) {
+                    boolean outputDepths = depthToOutput();
+                    genotypeCalls.add(genotypeCallers.submit(() ->
+                            taxonCalled(index, callGenotypes(taxonDepths, tagsToIndex, numSites, genoMergeRule, outputDepths), gtb)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the genotypes called for a taxon to the genotype table, so they
+     * aren't held once the taxon is called. Taxa are added in the order
+     * they finish, and the VCF output is sorted by taxon when built.
+     */
+    private synchronized void taxonCalled(int index, CalledTaxon called, GenotypeTableBuilder gtb) {
+        if (called.myDepths == null) {
+            gtb.addTaxon(taxaByIndex[index], called.myGenotypes);
         } else {
-        	gtb.addTaxon(taxon, resolveGenosForTaxon(alleleDepths, genoMergeRule));
+            gtb.addTaxon(taxaByIndex[index], called.myGenotypes, called.myDepths);
         }
     }
 
-    private class AlleleWithPosIndex extends SimpleAllele {
-        private int positionIndex;
+    private void waitForGenotypeCalls() {
+        try {
+            for (Future<?> call : genotypeCalls) {
+                call.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ProductionSNPCallerPluginV2: waitForGenotypeCalls: interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("ProductionSNPCallerPluginV2: waitForGenotypeCalls: problem calling genotypes: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            genotypeCalls.clear();
+        }
+        for (int t = 0; t < filesRemainingByTaxon.length; t++) {
+            if (filesRemainingByTaxon[t] != 0) {
+                throw new IllegalStateException("ProductionSNPCallerPluginV2: waitForGenotypeCalls: taxon: " + taxaByIndex[t].getName() + " was never called.");
+            }
+        }
+    }
+
+    private static CalledTaxon callGenotypes(TIntIntHashMap tagDepths, TagAlleles tagsToIndex,
+                   int numSites, GenotypeMergeRule genoMergeRule, boolean outputDepths) {
+        int[][] alleleDepths = new int[NucleotideAlignmentConstants.NUMBER_NUCLEOTIDE_ALLELES][numSites];
+        tagDepths.forEachEntry((tag, depth) -> {
+            tagsToIndex.addDepths(tag, depth, alleleDepths);
+            return true;
+        });
+        byte[] genos = resolveGenosForTaxon(alleleDepths, genoMergeRule);
+        return new CalledTaxon(genos, outputDepths ? AlleleDepthUtil.depthIntToByte(alleleDepths) : null);
+    }
 
-        private AlleleWithPosIndex(Allele myAllele, int positionIndex) {
-            super(myAllele.allele(), myAllele.position());
-            this.positionIndex=positionIndex;
+    /**
+     * Genotypes (and optionally depths) called for a taxon.
+     */
+    private static class CalledTaxon {
+
+        private final byte[] myGenotypes;
+        private final byte[][] myDepths;
+
+        private CalledTaxon(byte[] genotypes, byte[][] depths) {
+            myGenotypes = genotypes;
+            myDepths = depths;
         }
+    }
 
-        public int positionIndex() {
-            return positionIndex;
+    /**
+     * Alleles (and the index of their position) of each canonical tag, held in
+     * primitive arrays by tag index.
+     */
+    private static class TagAlleles {
+
+        // alleles of tag t are myStarts[t] to myStarts[t + 1] - 1
+        private final int[] myStarts;
+        private final byte[] myAlleles;
+        private final int[] myPositionIndices;
+
+        private TagAlleles(Multimap<Tag, Allele> alleleMap, PackedTagIndex canonicalTags, PositionList positionList) {
+            int numEntries = alleleMap.size();
+            int[] tagIndices = new int[numEntries];
+            int[] posIndices = new int[numEntries];
+            byte[] alleles = new byte[numEntries];
+            myStarts = new int[canonicalTags.size() + 1];
+            int total = 0;
+            for (Map.Entry<Tag, Allele> entry : alleleMap.entries()) {
+                // indexOf returns -1 if the list doesn't contain the element, which it won't
+                // if there are snpposition entries with a quality score less than minimumQualityScore
+                int posIndex = positionList.indexOf(entry.getValue().position());
+                Tag tag = entry.getKey();
+                int tagIndex = canonicalTags.indexOf(tag.seq2Bit(), 0, tag.seqLength());
+                if (posIndex >= 0 && tagIndex >= 0) {
+                    tagIndices[total] = tagIndex;
+                    posIndices[total] = posIndex;
+                    alleles[total] = entry.getValue().allele();
+                    myStarts[tagIndex + 1]++;
+                    total++;
+                }
+            }
+            for (int t = 0; t < canonicalTags.size(); t++) {
+                myStarts[t + 1] += myStarts[t];
+            }
+            int[] next = Arrays.copyOf(myStarts, canonicalTags.size());
+            myAlleles = new byte[total];
+            myPositionIndices = new int[total];
+            for (int i = 0; i < total; i++) {
+                int slot = next[tagIndices[i]]++;
+                myAlleles[slot] = alleles[i];
+                myPositionIndices[slot] = posIndices[i];
+            }
+        }
+
+        /**
+         * Adds depth of tag to each of its alleles.
+         */
+        private void addDepths(int tagIndex, int depth, int[][] alleleDepths) {
+            for (int i = myStarts[tagIndex], end = myStarts[tagIndex + 1]; i < end; i++) {
+                alleleDepths[myAlleles[i]][myPositionIndices[i]] += depth;
+            }
         }
+
+        /**
+         * Number of tag alleles at the positions called.
+         */
+        private int size() {
+            return myAlleles.length;
+        }
+
     }
 
     private class CountOfReadQuality {
@@ -320,61 +486,75 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
     }
 
     private void processFastQFile(TaxaList masterTaxaList, Path keyPath, Path fastQPath, String enzymeName,
-            Map<Tag,Tag> canonicalTags, int preferredTagLength, int minQual) throws StringIndexOutOfBoundsException{
+            PackedTagIndex canonicalTags, int preferredTagLength, int minQual) throws StringIndexOutOfBoundsException{
         ArrayList<Taxon> tl=GBSUtils.getLaneAnnotatedTaxaList(keyPath, fastQPath);
-        BarcodeTrie barcodeTrie=GBSUtils.initializeBarcodeTrie(tl, masterTaxaList, new GBSEnzyme(enzymeName));
+        BarcodeDecoder barcodeDecoder=GBSUtils.initializeBarcodeDecoder(tl, masterTaxaList, new GBSEnzyme(enzymeName), false);
         try {
-            processFastQ(fastQPath,barcodeTrie,canonicalTags,preferredTagLength, minQual);
+            processFastQ(fastQPath,barcodeDecoder,canonicalTags,preferredTagLength, minQual);
         } catch (StringIndexOutOfBoundsException oobe) {
             throw oobe; // let processData() handle it
         }
 
     }
 
-    private void processFastQ(Path fastqFile, BarcodeTrie barcodeTrie, Map<Tag,Tag> canonicalTags, 
+    /**
+     * Matches the reads of a fastq file to the kmers in the database. Reads are
+     * decoded straight from the bytes read (barcode, quality, 2-bit encoded kmer), so
+     * a Tag is only used for kmers found in the database.
+     */
+    private void processFastQ(Path fastqFile, BarcodeDecoder barcodeDecoder, PackedTagIndex canonicalTags,
             int preferredTagLength, int minQual) throws StringIndexOutOfBoundsException {
         int allReads=0, goodBarcodedReads = 0, lowQualityReads = 0;
-        try {
+        boolean apeKI = enzyme().equalsIgnoreCase("ApeKI");
+        long[] words = new long[(preferredTagLength + BaseEncoder.chunkSize - 1) / BaseEncoder.chunkSize];
+        // tag depths for each taxon in this file, added to the taxa by fileProcessed()
+        TIntIntHashMap[] fileDepths = new TIntIntHashMap[taxaByIndex.length];
+        tagDepthsByFile.put(fastqFile, fileDepths);
+        try (ByteLineReader reader = ByteLineReader.getInstance(fastqFile.toString())) {
             int qualityScoreBase=GBSUtils.determineQualityScoreBase(fastqFile);
-            BufferedReader br = Utils.getBufferedReader(fastqFile.toString(), 1 << 22);
             long time=System.nanoTime();
-            String[] seqAndQual;
-            while ((seqAndQual=GBSUtils.readFastQBlock(br, allReads)) != null) {
-                allReads++;
-                // Decode barcode using the current sequence & quality  score
-                Barcode barcode=barcodeTrie.longestPrefix(seqAndQual[0]);               
-                if(barcode==null) continue;
-                if(minQual>0) {
-                    //todo move getFirstLowQualityPos into this class?
-                    if(BaseEncoder.getFirstLowQualityPos(seqAndQual[1],minQual, qualityScoreBase)<(barcode.getBarLength()+preferredTagLength)){
-                        lowQualityReads++;
-                        continue;
+            ByteLineReader.LineBlock lines;
+            while ((lines = reader.readBlock(4 * READS_PER_CHUNK)) != null) {
+                byte[] data = lines.data();
+                int numReads = lines.numberOfLines() / 4;
+                for (int r = 0; r < numReads; r++) {
+                    allReads++;
+                    int seqStart = lines.start(4 * r + 1);
+                    int seqEnd = lines.end(4 * r + 1);
+                    // Decode barcode using the current sequence & quality  score
+                    Barcode barcode=barcodeDecoder.decode(data, seqStart, seqEnd);
+                    if(barcode==null) continue;
+                    if(minQual>0) {
+                        if(BaseEncoder.getFirstLowQualityPos(data, lines.start(4 * r + 3), lines.end(4 * r + 3), minQual, qualityScoreBase)<(barcode.getBarLength()+preferredTagLength)){
+                            lowQualityReads++;
+                            continue;
+                        }
+                    }
+                    rawReadCountsForFullSampleName.put(barcode.getTaxaName(), rawReadCountsForFullSampleName.get(barcode.getTaxaName()) + 1);
+                    int barcodeLen = barcode.getBarLength();
+                    if (seqEnd - seqStart - barcodeLen < preferredTagLength) {
+                        String errMsg = "\n\nERROR processing " + fastqFile.toString() + "\n" +
+                                "Reading entry number " + allReads + " fails the length test.\n" +
+                                "Sequence length " + (seqEnd - seqStart) + " minus barcode length "+ barcodeLen +
+                                " is less then maxKmerLength " + preferredTagLength + ".\n" +
+                                "Re-run your files with either a shorter mxKmerL value or a higher minimum quality score.\n";
+                        throw new StringIndexOutOfBoundsException(errMsg);
+                    }
+
+                    int length = GBSUtils.encodeKmer(data, seqStart + barcodeLen, seqEnd, apeKI, preferredTagLength, words, 0);
+                    if(length<0) continue;   //occurs when any base was not A, C, G, T
+                    goodBarcodedReads++;
+                    int tagIndex=canonicalTags.indexOf(words, 0, (short) length);
+                    if(tagIndex>=0) {
+                        int taxonIndex=barcode.getTaxaIndex();
+                        if(fileDepths[taxonIndex]==null) fileDepths[taxonIndex]=new TIntIntHashMap();
+                        fileDepths[taxonIndex].adjustOrPutValue(tagIndex, 1, 1);
+                        matchedReadCountsForFullSampleName.put(barcode.getTaxaName(), matchedReadCountsForFullSampleName.get(barcode.getTaxaName()) + 1);
+                    }
+                    if (allReads % 1000000 == 0) {
+                        myLogger.info("Total Reads:" + allReads + " Reads with barcode and cut site overhang:" + goodBarcodedReads
+                                + " rate:" + (System.nanoTime()-time)/allReads +" ns/read");
                     }
-                }
-                rawReadCountsForFullSampleName.put(barcode.getTaxaName(), rawReadCountsForFullSampleName.get(barcode.getTaxaName()) + 1);
-                int barcodeLen = barcode.getBarLength();
-                if (seqAndQual[0].length() - barcodeLen < preferredTagLength) {
-                    String errMsg = "\n\nERROR processing " + fastqFile.toString() + "\n" +
-                            "Reading entry number " + allReads + " fails the length test.\n" +
-                            "Sequence length " + seqAndQual[0].length() + " minus barcode length "+ barcodeLen +
-                            " is less then maxKmerLength " + preferredTagLength + ".\n" +
-                            "Re-run your files with either a shorter mxKmerL value or a higher minimum quality score.\n";
-                    throw new StringIndexOutOfBoundsException(errMsg);
-                }
- 
-                Tag tag = removeSecondCutSiteIndexOf(seqAndQual[0].substring(barcodeLen),preferredTagLength);
-                //Tag tag = removeSecondCutSiteAhoC(seqAndQual[0].substring(barcodeLen),preferredTagLength);
-                //Tag tag= TagBuilder.instance(seqAndQual[0].substring(barcode.getBarLength(), barcode.getBarLength() + preferredTagLength)).build();
-                if(tag==null) continue;   //null occurs when any base was not A, C, G, T
-                goodBarcodedReads++;
-                Tag canonicalTag=canonicalTags.get(tag);
-                if(canonicalTag!=null) {
-                    tagCntMap.put(barcode.getTaxon(),canonicalTag);
-                    matchedReadCountsForFullSampleName.put(barcode.getTaxaName(), matchedReadCountsForFullSampleName.get(barcode.getTaxaName()) + 1);
-                }
-                if (allReads % 1000000 == 0) {
-                    myLogger.info("Total Reads:" + allReads + " Reads with barcode and cut site overhang:" + goodBarcodedReads
-                            + " rate:" + (System.nanoTime()-time)/allReads +" ns/read");
                 }
             }
             myLogger.info("Total number of reads in lane=" + allReads);
@@ -382,7 +562,6 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
             myLogger.info("Total number of low quality reads=" + lowQualityReads);
             myLogger.info("Timing process (sorting, collapsing, and writing TagCount to file).");
             myLogger.info("Process took " + (System.nanoTime() - time)/1e6 + " milliseconds for file " + fastqFile.toString());
-            br.close();
         } catch (Exception e) {
             myLogger.error("Good Barcodes Read: " + goodBarcodedReads);
             e.printStackTrace();
@@ -390,37 +569,6 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
     }
 
 
-    // Using indexOf() is much faster than using Aho-C trie to find
-    // the second cut site.  (junits ran on average of 15.81281 seconds
-    // for aho-c after 5 runs, vs 13.53204 for 5 runs using indexOf method)
-    private Tag removeSecondCutSiteIndexOf(String seq, int preferredLength) {
-        Tag tag = null;
-        
-        // handle overlapping cutsite for ApeKI enzyme
-        if (enzyme().equalsIgnoreCase("ApeKI")) {
-            if (seq.startsWith("CAGCTGC") || seq.startsWith("CTGCAGC")) {
-                seq = seq.substring(3,seq.length());
-            }             
-        }
-        int indexOfReadEnd = -1;
-        String shortSeq = seq.substring(20);
-        for (String readEnd: likelyReadEndStrings){
-            int indx = shortSeq.indexOf(readEnd);
-            if (indx > 0 && indx < indexOfReadEnd)
-                indexOfReadEnd = indx;
-        }
-
-        if (indexOfReadEnd > 0 &&
-                (indexOfReadEnd + 20 + readEndCutSiteRemnantLength < preferredLength)) {
-            // trim tag to sequence up to & including the cut site
-            tag = TagBuilder.instance(seq.substring(0, indexOfReadEnd + 20 + readEndCutSiteRemnantLength)).build();
- 
-        } else {
-            int seqEnd = (byte) Math.min(seq.length(), preferredLength);
-            return TagBuilder.instance(seq.substring(0,seqEnd)).build();
-        }
-        return tag;
-    }
     private Tag removeSecondCutSiteAhoC(String seq, int preferredLength) {
         // Removes the second cut site BEFORE we trim the tag.
         // this preserves the cut site incase it shows up in the middle       
@@ -497,7 +645,8 @@ public class ProductionSNPCallerPluginV2 extends AbstractPlugin {
                 return GenotypeTableBuilder.getTaxaIncrementalWithMerging(anOutputFile, positionList, mergeRule);
             }
         } else { // create genotype table for VCF
-            GenotypeTableBuilder gtb = GenotypeTableBuilder.getTaxaIncremental(positionList, mergeRule);
+            // taxa are added as they are called, so sort them for the same output every run
+            GenotypeTableBuilder gtb = GenotypeTableBuilder.getTaxaIncremental(positionList, mergeRule).sortTaxa();
             myLogger.info("\nOutput VCF file: \n" + anOutputFile +
                     " \ncreated for genotypes from this run.");
             return gtb;
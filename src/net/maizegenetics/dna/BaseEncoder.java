@@ -1,5 +1,7 @@
 package net.maizegenetics.dna;
 
+import java.util.Arrays;
+
 
 /**
  * Utility class for encoding tags into longs.
@@ -25,6 +27,52 @@ public class BaseEncoder {
     private BaseEncoder() {
     }
 
+    // 2-bit code of each byte value, -1 for anything other than A, C, G, T (either case)
+    private static final byte[] BYTE_TO_2BIT = new byte[256];
+
+    static {
+        Arrays.fill(BYTE_TO_2BIT, (byte) -1);
+        BYTE_TO_2BIT['A'] = BYTE_TO_2BIT['a'] = 0;
+        BYTE_TO_2BIT['C'] = BYTE_TO_2BIT['c'] = 1;
+        BYTE_TO_2BIT['G'] = BYTE_TO_2BIT['g'] = 2;
+        BYTE_TO_2BIT['T'] = BYTE_TO_2BIT['t'] = 3;
+    }
+
+    /**
+     * Encodes a sequence held in a byte array (i.e. straight from a fastq
+     * buffer) into 2-bit longs without creating a String.  Gives the same longs
+     * as getLongFromSeq(String) on each 32bp chunk, including the last chunk
+     * padded with poly-A.
+     * @param seq bytes holding the sequence
+     * @param start index of first base
+     * @param length number of bases
+     * @param dest destination for the (length + 31) / 32 encoded longs
+     * @param destOffset index in dest of first long
+     * @return false if an invalid sequence state is found (e.g. N).  As with
+     * getLongFromSeq(String), a chunk of 32 T's (-1) is also invalid.
+     */
+    public static boolean getLongArrayFromSeq(byte[] seq, int start, int length, long[] dest, int destOffset) {
+        int end = start + length;
+        for (int chunkStart = start; chunkStart < end; chunkStart += chunkSize) {
+            int chunkEnd = Math.min(chunkStart + chunkSize, end);
+            long v = 0;
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                int code = BYTE_TO_2BIT[seq[i] & 0xFF];
+                if (code < 0) {
+                    return false;
+                }
+                v = (v << 2) | code;
+            }
+            if (chunkEnd - chunkStart < chunkSize) {
+                v = v << (2 * (chunkSize - (chunkEnd - chunkStart)));
+            } else if (v == -1) {
+                return false;
+            }
+            dest[destOffset++] = v;
+        }
+        return true;
+    }
+
     /**
      * Returns a long for a sequence in a String
      * @param seq
@@ -388,6 +436,28 @@ public class BaseEncoder {
         return quality.length();
     }
 
+    /**
+     * Returns the position (relative to start) of the first low quality
+     * position in a fastq quality line held in a byte array. Same as
+     * getFirstLowQualityPos(String, int, int).
+     * @param quality bytes holding the quality line
+     * @param start index of first quality score
+     * @param end index after last quality score
+     * @param minQual minimum quality threshold
+     * @param qualBase quality score base (33 or 64)
+     * @return position of first low quality position (end - start if no low
+     * quality base is found)
+     */
+    public static int getFirstLowQualityPos(byte[] quality, int start, int end, int minQual, int qualBase) {
+        int minByte = minQual + qualBase;
+        for (int i = start; i < end; i++) {
+            if ((quality[i] & 0xFF) < minByte) {
+                return i - start;
+            }
+        }
+        return end - start;
+    }
+
 
     /**
      * Return a string representation of the 2-bit encoded long.
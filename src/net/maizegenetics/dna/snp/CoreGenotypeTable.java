@@ -7,6 +7,7 @@ import net.maizegenetics.dna.WHICH_ALLELE;
 import net.maizegenetics.dna.map.Chromosome;
 import net.maizegenetics.dna.map.PositionList;
 import net.maizegenetics.dna.snp.bit.BitStorage;
+import net.maizegenetics.dna.snp.bit.BitStorageFile;
 import net.maizegenetics.dna.snp.bit.DynamicBitStorage;
 import net.maizegenetics.dna.snp.depth.AlleleDepth;
 import net.maizegenetics.dna.snp.genotypecall.GenotypeCallTable;
@@ -40,6 +41,7 @@ public class CoreGenotypeTable implements GenotypeTable {
     private static final Logger myLogger = Logger.getLogger(CoreGenotypeTable.class);
     private final GenotypeCallTable myGenotype;
     private final Map<WHICH_ALLELE, BitStorage> myBitStorage = new HashMap<>();
+    private volatile String myBitStorageSource = null;
     private final PositionList myPositionList;
     private final TaxaList myTaxaList;
     private final AlleleProbability myAlleleProbability;
@@ -513,6 +515,13 @@ public class CoreGenotypeTable implements GenotypeTable {
             return result;
         }
 
+        if (myBitStorageSource != null) {
+            result = persistentBitStorage(allele);
+            if (result != null) {
+                return result;
+            }
+        }
+
         switch (allele) {
             case Major:
                 result = new DynamicBitStorage(myGenotype, allele, myGenotype.majorAlleleForAllSites());
@@ -535,6 +544,35 @@ public class CoreGenotypeTable implements GenotypeTable {
         return result;
     }
 
+    /**
+     * Uses persistent bit storage (see BitStorageFile) for Major, Minor,
+     * Minor2, and Unknown alleles. The first time bits are needed, they are
+     * loaded from a sidecar file next to the source file, or built and saved
+     * if the sidecar doesn't exist or is out of date.
+     *
+     * @param sourceFilename file this genotype table was loaded from
+     */
+    public void usePersistentBitStorage(String sourceFilename) {
+        myBitStorageSource = sourceFilename;
+    }
+
+    private synchronized BitStorage persistentBitStorage(WHICH_ALLELE allele) {
+        BitStorage result = myBitStorage.get(allele);
+        if ((result != null) || (myBitStorageSource == null)) {
+            return result;
+        }
+        try {
+            BitStorageFile storage = BitStorageFile.getInstance(myGenotype, myBitStorageSource);
+            for (WHICH_ALLELE current : BitStorageFile.PLANES) {
+                myBitStorage.put(current, storage.bitStorage(current));
+            }
+        } catch (Exception e) {
+            myLogger.warn("persistentBitStorage: can't use bit storage file for: " + myBitStorageSource + ": " + e.getMessage());
+        }
+        myBitStorageSource = null;
+        return myBitStorage.get(allele);
+    }
+
     @Override
     public AlleleProbability alleleProbability() {
         return myAlleleProbability;
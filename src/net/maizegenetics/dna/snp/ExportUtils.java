@@ -9,6 +9,9 @@ import com.google.common.primitives.Ints;
 
 import net.maizegenetics.dna.WHICH_ALLELE;
 import net.maizegenetics.dna.map.Position;
+import net.maizegenetics.dna.snp.io.BlockGenotypeFile;
+import net.maizegenetics.dna.snp.io.LineIndexBuilder;
+import net.maizegenetics.dna.snp.io.TabixLineIndexer;
 import net.maizegenetics.dna.snp.score.AlleleDepthUtil;
 import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.Taxon;
@@ -17,9 +20,14 @@ import net.maizegenetics.util.*;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
@@ -109,86 +117,18 @@ public class ExportUtils {
             throw new IllegalArgumentException("Delimiter charater must be either a blank space or a tab.");
         }
 
+        if (filename.endsWith(".hmp.txt.gz") && (delimChar == '\t')) {
+            return writeToHapmapBGZF(alignment, diploid, filename, includeTaxaAnnotations, Runtime.getRuntime().availableProcessors(), listener);
+        }
+
         BufferedWriter bw = null;
         try {
             String fullFileName = Utils.addSuffixIfNeeded(filename, ".hmp.txt", new String[]{".hmp.txt", ".hmp.txt.gz"});
             bw = Utils.getBufferedWriter(fullFileName);
-            if (includeTaxaAnnotations) {
-                for (Taxon taxon : alignment.taxa()) {
-                    GeneralAnnotation annotation = taxon.getAnnotation();
-                    if ((annotation == null) || (annotation.numAnnotations() == 0)) {
-                        continue;
-                    }
-                    bw.write("##SAMPLE=" + taxon.toStringWithVCFAnnotation() + "\n");
-                }
-            }
-            bw.write(Joiner.on(delimChar).join("rs#", "alleles", "chrom", "pos", "strand", "assembly#", "center", "protLSID",
-                    "assayLSID", "panelLSID", "QCcode"));
-            bw.write(delimChar);
-            int numTaxa = alignment.numberOfTaxa();
-            for (int taxa = 0; taxa < numTaxa; taxa++) {
-                String sequenceID = alignment.taxaName(taxa).trim();
-                bw.write(sequenceID);
-                if (taxa != numTaxa - 1) {
-                    bw.write(delimChar);
-                }
-            }
-            bw.write("\n");
+            writeHapmapHeader(alignment, delimChar, includeTaxaAnnotations, bw);
             int numSites = alignment.numberOfSites();
             for (int site = 0; site < numSites; site++) {
-                bw.write(alignment.siteName(site));
-                bw.write(delimChar);
-                int[][] sortedAlleles = alignment.allelesSortedByFrequency(site); // which alleles are actually present among the genotypes
-                int numAlleles = sortedAlleles[0].length;
-                if (numAlleles == 0) {
-                    bw.write("NA"); //if data does not exist
-                } else if (numAlleles == 1) {
-                    bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][0]));
-                } else {
-                    bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][0]));
-                    for (int allele = 1; allele < sortedAlleles[0].length; allele++) {
-                        if (sortedAlleles[0][allele] != GenotypeTable.UNKNOWN_ALLELE) {
-                            bw.write('/');
-                            bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][allele]));  // will write out a third allele if it exists
-                        }
-                    }
-                }
-                bw.write(delimChar);
-                bw.write(Joiner.on(delimChar).join(alignment.chromosomeName(site), String.valueOf(alignment.chromosomalPosition(site)),
-                        "+", "NA", "NA", "NA", "NA", "NA", "NA"));
-                bw.write(delimChar);
-                for (int taxa = 0; taxa < numTaxa; taxa++) {
-                    if (diploid == false) {
-                        String baseIUPAC = null;
-                        try {
-                            baseIUPAC = alignment.genotypeAsString(taxa, site);
-                        } catch (Exception e) {
-                            String[] b = alignment.genotypeAsStringArray(taxa, site);
-                            bw.close();
-                            myLogger.debug(e.getMessage(), e);
-                            throw new IllegalArgumentException("There is no String representation for diploid values: " + b[0] + ":" + b[1] + " getBase(): 0x" + Integer.toHexString(alignment.genotype(taxa, site)) + "\nTry Exporting as Diploid Values.");
-                        }
-                        if ((baseIUPAC == null) || baseIUPAC.equals("?")) {
-                            String[] b = alignment.genotypeAsStringArray(taxa, site);
-                            bw.close();
-                            throw new IllegalArgumentException("There is no String representation for diploid values: " + b[0] + ":" + b[1] + " getBase(): 0x" + Integer.toHexString(alignment.genotype(taxa, site)) + "\nTry Exporting as Diploid Values.");
-                        }
-                        bw.write(baseIUPAC);
-                    } else {
-                        String[] b = alignment.genotypeAsStringArray(taxa, site);
-                        if (b.length == 1) {
-                            bw.write(b[0]);
-                            bw.write(b[0]);
-                        } else {
-                            bw.write(b[0]);
-                            bw.write(b[1]);
-                        }
-                    }
-                    if (taxa != (numTaxa - 1)) {
-                        bw.write(delimChar);
-                    }
-                }
-                bw.write("\n");
+                writeHapmapSite(alignment, site, diploid, delimChar, bw);
 
                 if (listener != null) {
                     listener.progress((int) (((double) (site + 1) / (double) numSites) * 100.0), null);
@@ -207,6 +147,151 @@ public class ExportUtils {
         }
     }
 
+    /**
+     * Writes a GenotypeTable to a bgzipped HapMap file (.hmp.txt.gz) and
+     * creates its line index (.lix) in the same pass. Blocks of sites are
+     * formatted and compressed on multiple threads and written in order.
+     *
+     * @param alignment genotype table
+     * @param diploid true uses phased two letter encoding, false one letter
+     * unphased
+     * @param filename outfile name (will add ".hmp.txt.gz" if needed)
+     * @param includeTaxaAnnotations whether to write ##SAMPLE lines
+     * @param numThreads number of threads
+     * @param listener progress listener, (null if unneeded)
+     * @return name of the outfile with the appropriate suffix
+     */
+    public static String writeToHapmapBGZF(GenotypeTable alignment, boolean diploid, String filename, boolean includeTaxaAnnotations, int numThreads, ProgressListener listener) {
+        final char delimChar = '\t';
+        String fullFileName = Utils.addSuffixIfNeeded(filename, ".hmp.txt.gz");
+        LineIndexBuilder lix = new LineIndexBuilder(fullFileName)
+                .commentChar('#')
+                .numHeaderLinesToSkip(1)
+                .numColumnsPerRowToKeepInIndex(11);
+        try (ParallelBGZFWriter writer = ParallelBGZFWriter.getInstance(fullFileName, numThreads, lix.lineIndexer())) {
+            writer.write(() -> {
+                StringWriter text = new StringWriter();
+                try (BufferedWriter bw = new BufferedWriter(text)) {
+                    writeHapmapHeader(alignment, delimChar, includeTaxaAnnotations, bw);
+                }
+                return text.toString();
+            });
+            int numSites = alignment.numberOfSites();
+            int sitesPerBlock = sitesPerBlock(alignment.numberOfTaxa(), diploid ? 3 : 2);
+            for (int start = 0; start < numSites; start += sitesPerBlock) {
+                final int first = start;
+                final int last = Math.min(start + sitesPerBlock, numSites);
+                writer.write(() -> {
+                    StringWriter text = new StringWriter();
+                    try (BufferedWriter bw = new BufferedWriter(text)) {
+                        for (int site = first; site < last; site++) {
+                            writeHapmapSite(alignment, site, diploid, delimChar, bw);
+                        }
+                    }
+                    return text.toString();
+                });
+                if (listener != null) {
+                    listener.progress((int) (((double) last / (double) numSites) * 100.0), null);
+                }
+            }
+            return fullFileName;
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalArgumentException("Error writing Hapmap file: " + filename + ": " + ExceptionUtils.getExceptionCauses(e));
+        }
+    }
+
+    private static void writeHapmapHeader(GenotypeTable alignment, char delimChar, boolean includeTaxaAnnotations, BufferedWriter bw) throws IOException {
+        if (includeTaxaAnnotations) {
+            for (Taxon taxon : alignment.taxa()) {
+                GeneralAnnotation annotation = taxon.getAnnotation();
+                if ((annotation == null) || (annotation.numAnnotations() == 0)) {
+                    continue;
+                }
+                bw.write("##SAMPLE=" + taxon.toStringWithVCFAnnotation() + "\n");
+            }
+        }
+        bw.write(Joiner.on(delimChar).join("rs#", "alleles", "chrom", "pos", "strand", "assembly#", "center", "protLSID",
+                "assayLSID", "panelLSID", "QCcode"));
+        bw.write(delimChar);
+        int numTaxa = alignment.numberOfTaxa();
+        for (int taxa = 0; taxa < numTaxa; taxa++) {
+            String sequenceID = alignment.taxaName(taxa).trim();
+            bw.write(sequenceID);
+            if (taxa != numTaxa - 1) {
+                bw.write(delimChar);
+            }
+        }
+        bw.write("\n");
+    }
+
+    private static void writeHapmapSite(GenotypeTable alignment, int site, boolean diploid, char delimChar, BufferedWriter bw) throws IOException {
+        int numTaxa = alignment.numberOfTaxa();
+        bw.write(alignment.siteName(site));
+        bw.write(delimChar);
+        int[][] sortedAlleles = alignment.allelesSortedByFrequency(site); // which alleles are actually present among the genotypes
+        int numAlleles = sortedAlleles[0].length;
+        if (numAlleles == 0) {
+            bw.write("NA"); //if data does not exist
+        } else if (numAlleles == 1) {
+            bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][0]));
+        } else {
+            bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][0]));
+            for (int allele = 1; allele < sortedAlleles[0].length; allele++) {
+                if (sortedAlleles[0][allele] != GenotypeTable.UNKNOWN_ALLELE) {
+                    bw.write('/');
+                    bw.write(alignment.genotypeAsString(site, (byte) sortedAlleles[0][allele]));  // will write out a third allele if it exists
+                }
+            }
+        }
+        bw.write(delimChar);
+        bw.write(Joiner.on(delimChar).join(alignment.chromosomeName(site), String.valueOf(alignment.chromosomalPosition(site)),
+                "+", "NA", "NA", "NA", "NA", "NA", "NA"));
+        bw.write(delimChar);
+        for (int taxa = 0; taxa < numTaxa; taxa++) {
+            if (diploid == false) {
+                String baseIUPAC = null;
+                try {
+                    baseIUPAC = alignment.genotypeAsString(taxa, site);
+                } catch (Exception e) {
+                    String[] b = alignment.genotypeAsStringArray(taxa, site);
+                    myLogger.debug(e.getMessage(), e);
+                    throw new IllegalArgumentException("There is no String representation for diploid values: " + b[0] + ":" + b[1] + " getBase(): 0x" + Integer.toHexString(alignment.genotype(taxa, site)) + "\nTry Exporting as Diploid Values.");
+                }
+                if ((baseIUPAC == null) || baseIUPAC.equals("?")) {
+                    String[] b = alignment.genotypeAsStringArray(taxa, site);
+                    throw new IllegalArgumentException("There is no String representation for diploid values: " + b[0] + ":" + b[1] + " getBase(): 0x" + Integer.toHexString(alignment.genotype(taxa, site)) + "\nTry Exporting as Diploid Values.");
+                }
+                bw.write(baseIUPAC);
+            } else {
+                String[] b = alignment.genotypeAsStringArray(taxa, site);
+                if (b.length == 1) {
+                    bw.write(b[0]);
+                    bw.write(b[0]);
+                } else {
+                    bw.write(b[0]);
+                    bw.write(b[1]);
+                }
+            }
+            if (taxa != (numTaxa - 1)) {
+                bw.write(delimChar);
+            }
+        }
+        bw.write("\n");
+    }
+
+    /**
+     * Returns number of sites formatted by each task of the parallel writers,
+     * aiming for blocks of a few megabytes.
+     *
+     * @param numTaxa number of taxa
+     * @param bytesPerTaxon approximate bytes written per taxon and site
+     * @return number of sites
+     */
+    private static int sitesPerBlock(int numTaxa, int bytesPerTaxon) {
+        return Math.max(1, Math.min(10000, (1 << 22) / (numTaxa * bytesPerTaxon + 128)));
+    }
+
     /**
      * Writes given alignment to a VCF file
      *
@@ -215,338 +300,414 @@ public class ExportUtils {
      * @return
      */
     public static String writeToVCF(GenotypeTable gt, String filename, boolean keepDepth) {
-        final char delimChar = '\t';
+
+        if (filename.endsWith(".vcf.gz")) {
+            return writeToVCFBGZF(gt, filename, keepDepth, Runtime.getRuntime().availableProcessors(), null);
+        }
+
         boolean hasDepth = gt.hasDepth() && keepDepth;
         try {
 
             filename = Utils.addSuffixIfNeeded(filename, ".vcf", new String[]{".vcf", ".vcf.gz"});
             BufferedWriter bw = Utils.getBufferedWriter(filename);
-            bw.write("##fileformat=VCFv4.0");
-            bw.newLine();
-            if (!gt.hasReference()) {
-                bw.write("##Tassel=<ID=GenotypeTable,Version=5,Description=\"Reference allele is not known. The major allele was used as reference allele\">");
-                bw.newLine();
-            }
-            bw.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
-            bw.newLine();
-            bw.write("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths for the reference and alternate alleles in the order listed\">");
-            bw.newLine();
-            bw.write("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read Depth (only filtered reads used for calling)\">");
-            bw.newLine();
-            bw.write("##FORMAT=<ID=GQ,Number=1,Type=Float,Description=\"Genotype Quality\">");
-            bw.newLine();
-            bw.write("##FORMAT=<ID=PL,Number=3,Type=Float,Description=\"Normalized, Phred-scaled likelihoods for AA,AB,BB genotypes where A=ref and B=alt; not applicable if site is not biallelic\">");
-            bw.newLine();
-            bw.write("##INFO=<ID=NS,Number=1,Type=Integer,Description=\"Number of Samples With Data\">");
-            bw.newLine();
-            bw.write("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">");
-            bw.newLine();
-            bw.write("##INFO=<ID=AF,Number=.,Type=Float,Description=\"Allele Frequency\">");
-            bw.newLine();
-            writeVCFSampleAnnotationToWriter(gt, bw);
-            bw.write("#CHROM" + delimChar + "POS" + delimChar + "ID" + delimChar + "REF" + delimChar + "ALT" + delimChar + "QUAL" + delimChar + "FILTER" + delimChar + "INFO" + delimChar + "FORMAT");
-            for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
-                String taxonName = gt.taxaName(taxa).trim();
-                bw.write(delimChar + taxonName);
-            }
-            bw.newLine();
+            writeVCFHeader(gt, bw);
 
             int noAlleles = 0;
             for (int site = 0; site < gt.numberOfSites(); site++) {
-                Position p = gt.positions().get(site);
-                String[] knownVariants = p.getKnownVariants();
-                byte refAllele = p.getAllele(WHICH_ALLELE.Reference);
-                int[] sortedAlleles = gt.allelesSortedByFrequency(site)[0]; // which alleles are actually present among the genotypes
-                
-                if(knownVariants.length>0) {
-                    //ReOrder based on variant alleles
-                    //check to see if indel
-                    if(knownVariants[0].length()>1) {
-                        //alt deletion
-                        for(int i = 0; i < knownVariants.length; i++) {
-                            //Pull off the first character if it exists
-                            if(knownVariants[i].length()>1) {
-                                String parsedVariant = knownVariants[i].substring(1);
-                                if(parsedVariant.length()==0) {
-                                    sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
-                                }
-                                else {
-                                    sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariant.charAt(0));
-                                }                                
-                            }
-                            else {
-                                //Mark as deletion
-                                sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
+                if (!writeVCFSite(gt, site, hasDepth, bw)) {
+                    noAlleles++;
+                }
+            }
+            if (noAlleles > 0) {
+                myLogger.warn("Warning: " + noAlleles + " sites have no alleles.");
+            }
+            bw.flush();
+            bw.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Error writing VCF file: " + filename + ": " + ExceptionUtils.getExceptionCauses(e));
+        }
+        return filename;
+    }
+
+    /**
+     * Writes given alignment to a bgzipped VCF file (.vcf.gz) and creates its
+     * tabix (.tbi) and line (.lix) indices in the same pass. Blocks of sites
+     * are formatted and compressed on multiple threads and written in order.
+     *
+     * @param gt genotype table
+     * @param filename outfile name (will add ".vcf.gz" if needed)
+     * @param keepDepth whether to write depths
+     * @param numThreads number of threads
+     * @param listener progress listener, (null if unneeded)
+     * @return name of the outfile with the appropriate suffix
+     */
+    public static String writeToVCFBGZF(GenotypeTable gt, String filename, boolean keepDepth, int numThreads, ProgressListener listener) {
+        boolean hasDepth = gt.hasDepth() && keepDepth;
+        String fullFileName = Utils.addSuffixIfNeeded(filename, ".vcf.gz");
+        LongAdder noAlleles = new LongAdder();
+        try (ParallelBGZFWriter writer = ParallelBGZFWriter.getInstance(fullFileName, numThreads,
+                TabixLineIndexer.getVCFInstance(fullFileName), new LineIndexBuilder(fullFileName).commentChar('#').numHeaderLinesToSkip(0).numColumnsPerRowToKeepInIndex(8).lineIndexer())) {
+            writer.write(() -> {
+                StringWriter text = new StringWriter();
+                try (BufferedWriter bw = new BufferedWriter(text)) {
+                    writeVCFHeader(gt, bw);
+                }
+                return text.toString();
+            });
+            int numSites = gt.numberOfSites();
+            int sitesPerBlock = sitesPerBlock(gt.numberOfTaxa(), hasDepth ? 24 : 4);
+            for (int start = 0; start < numSites; start += sitesPerBlock) {
+                final int first = start;
+                final int last = Math.min(start + sitesPerBlock, numSites);
+                writer.write(() -> {
+                    StringWriter text = new StringWriter();
+                    try (BufferedWriter bw = new BufferedWriter(text)) {
+                        for (int site = first; site < last; site++) {
+                            if (!writeVCFSite(gt, site, hasDepth, bw)) {
+                                noAlleles.increment();
                             }
                         }
                     }
+                    return text.toString();
+                });
+                if (listener != null) {
+                    listener.progress((int) (((double) last / (double) numSites) * 100.0), null);
+                }
+            }
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalArgumentException("Error writing VCF file: " + filename + ": " + ExceptionUtils.getExceptionCauses(e));
+        }
+        if (noAlleles.sum() > 0) {
+            myLogger.warn("Warning: " + noAlleles.sum() + " sites have no alleles.");
+        }
+        return fullFileName;
+    }
+
+    private static void writeVCFHeader(GenotypeTable gt, BufferedWriter bw) throws IOException {
+        final char delimChar = '\t';
+        bw.write("##fileformat=VCFv4.0");
+        bw.newLine();
+        if (!gt.hasReference()) {
+            bw.write("##Tassel=<ID=GenotypeTable,Version=5,Description=\"Reference allele is not known. The major allele was used as reference allele\">");
+            bw.newLine();
+        }
+        bw.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        bw.newLine();
+        bw.write("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths for the reference and alternate alleles in the order listed\">");
+        bw.newLine();
+        bw.write("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read Depth (only filtered reads used for calling)\">");
+        bw.newLine();
+        bw.write("##FORMAT=<ID=GQ,Number=1,Type=Float,Description=\"Genotype Quality\">");
+        bw.newLine();
+        bw.write("##FORMAT=<ID=PL,Number=3,Type=Float,Description=\"Normalized, Phred-scaled likelihoods for AA,AB,BB genotypes where A=ref and B=alt; not applicable if site is not biallelic\">");
+        bw.newLine();
+        bw.write("##INFO=<ID=NS,Number=1,Type=Integer,Description=\"Number of Samples With Data\">");
+        bw.newLine();
+        bw.write("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">");
+        bw.newLine();
+        bw.write("##INFO=<ID=AF,Number=.,Type=Float,Description=\"Allele Frequency\">");
+        bw.newLine();
+        writeVCFSampleAnnotationToWriter(gt, bw);
+        bw.write("#CHROM" + delimChar + "POS" + delimChar + "ID" + delimChar + "REF" + delimChar + "ALT" + delimChar + "QUAL" + delimChar + "FILTER" + delimChar + "INFO" + delimChar + "FORMAT");
+        for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
+            String taxonName = gt.taxaName(taxa).trim();
+            bw.write(delimChar + taxonName);
+        }
+        bw.newLine();
+    }
+
+    /**
+     * Writes one site of a VCF file.
+     *
+     * @return false if the site has no alleles
+     */
+    private static boolean writeVCFSite(GenotypeTable gt, int site, boolean hasDepth, BufferedWriter bw) throws IOException {
+        final char delimChar = '\t';
+        Position p = gt.positions().get(site);
+        String[] knownVariants = p.getKnownVariants();
+        byte refAllele = p.getAllele(WHICH_ALLELE.Reference);
+        int[] sortedAlleles = gt.allelesSortedByFrequency(site)[0]; // which alleles are actually present among the genotypes
+        
+        if(knownVariants.length>0) {
+            //ReOrder based on variant alleles
+            //check to see if indel
+            if(knownVariants[0].length()>1) {
+                //alt deletion
+                for(int i = 0; i < knownVariants.length; i++) {
+                    //Pull off the first character if it exists
+                    if(knownVariants[i].length()>1) {
+                        String parsedVariant = knownVariants[i].substring(1);
+                        if(parsedVariant.length()==0) {
+                            sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
+                        }
+                        else {
+                            sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariant.charAt(0));
+                        }                                
+                    }
                     else {
-                        //Check for reference deletion(insertion)
-                        //Loop through all variants to see if one alt is longer than the ref
-                        boolean isIndel = false;
-                        for(int i = 1; i < knownVariants.length; i++) {
-                            if(knownVariants[i].length() > knownVariants[0].length()) {
-                                isIndel = true;
-                                break;
+                        //Mark as deletion
+                        sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
+                    }
+                }
+            }
+            else {
+                //Check for reference deletion(insertion)
+                //Loop through all variants to see if one alt is longer than the ref
+                boolean isIndel = false;
+                for(int i = 1; i < knownVariants.length; i++) {
+                    if(knownVariants[i].length() > knownVariants[0].length()) {
+                        isIndel = true;
+                        break;
+                    }
+                }
+                if(isIndel) {
+                    //ref+alt deletion
+                    for(int i = 0; i < knownVariants.length; i++) {
+                        //Pull off the first character if it exists
+                        if(knownVariants[i].length()>1) {
+                            String parsedVariant = knownVariants[i].substring(1);
+                            if(parsedVariant.length()==0) {
+                                sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
                             }
-                        }
-                        if(isIndel) {
-                            //ref+alt deletion
-                            for(int i = 0; i < knownVariants.length; i++) {
-                                //Pull off the first character if it exists
-                                if(knownVariants[i].length()>1) {
-                                    String parsedVariant = knownVariants[i].substring(1);
-                                    if(parsedVariant.length()==0) {
-                                        sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
-                                    }
-                                    else {
-                                        sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariant.charAt(0));
-                                    }
-                                }
-                                else {
-                                    //Mark as deletion
-                                    sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
-                                    
-                                }
+                            else {
+                                sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariant.charAt(0));
                             }
                         }
                         else {
-                            //if not just put it in the allele array
-                            if(sortedAlleles.length<knownVariants.length){
-                                sortedAlleles = new int[knownVariants.length];
-                            }
-                            for(int i = 0; i<knownVariants.length; i++) {
-                                sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(knownVariants[i].charAt(0));
-                            }
+                            //Mark as deletion
+                            sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
+                            
                         }
                     }
                 }
-                
-                int indexOfRefAllele = Ints.indexOf(sortedAlleles, refAllele);
-                
-                if (indexOfRefAllele < 0) {
-                    indexOfRefAllele = 0;
-                    if(refAllele != GenotypeTable.UNKNOWN_ALLELE) {
-                        int[] sortedAllelesExpanded = new int[sortedAlleles.length+1];
-                        sortedAllelesExpanded[0] = refAllele;
-                        for(int i = 0; i<sortedAlleles.length; i++) {
-                            sortedAllelesExpanded[i+1] = sortedAlleles[i];
-                        }
-                        sortedAlleles = sortedAllelesExpanded;
+                else {
+                    //if not just put it in the allele array
+                    if(sortedAlleles.length<knownVariants.length){
+                        sortedAlleles = new int[knownVariants.length];
+                    }
+                    for(int i = 0; i<knownVariants.length; i++) {
+                        sortedAlleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(knownVariants[i].charAt(0));
                     }
                 }
-                //Resort sorted Alleles if ref is not first in array
-                if (indexOfRefAllele != 0) {
-                    int t = sortedAlleles[0];
-                    sortedAlleles[0] = sortedAlleles[indexOfRefAllele];
-                    sortedAlleles[indexOfRefAllele] = t;
+            }
+        }
+        
+        int indexOfRefAllele = Ints.indexOf(sortedAlleles, refAllele);
+        
+        if (indexOfRefAllele < 0) {
+            indexOfRefAllele = 0;
+            if(refAllele != GenotypeTable.UNKNOWN_ALLELE) {
+                int[] sortedAllelesExpanded = new int[sortedAlleles.length+1];
+                sortedAllelesExpanded[0] = refAllele;
+                for(int i = 0; i<sortedAlleles.length; i++) {
+                    sortedAllelesExpanded[i+1] = sortedAlleles[i];
                 }
+                sortedAlleles = sortedAllelesExpanded;
+            }
+        }
+        //Resort sorted Alleles if ref is not first in array
+        if (indexOfRefAllele != 0) {
+            int t = sortedAlleles[0];
+            sortedAlleles[0] = sortedAlleles[indexOfRefAllele];
+            sortedAlleles[indexOfRefAllele] = t;
+        }
 
-                int nAlleles = sortedAlleles.length;
-                HashMap<String,Integer> alleleRedirectMap = new HashMap<String,Integer>();
-                String[] alleleRedirect = new String[16];
-                Arrays.fill(alleleRedirect, ".");
-                for (int i = 0; i < sortedAlleles.length; i++) {
-                    alleleRedirect[sortedAlleles[i]] = "" + i;
-                    alleleRedirectMap.put(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[i]), i);
-                }
+        int nAlleles = sortedAlleles.length;
+        HashMap<String,Integer> alleleRedirectMap = new HashMap<String,Integer>();
+        String[] alleleRedirect = new String[16];
+        Arrays.fill(alleleRedirect, ".");
+        for (int i = 0; i < sortedAlleles.length; i++) {
+            alleleRedirect[sortedAlleles[i]] = "" + i;
+            alleleRedirectMap.put(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[i]), i);
+        }
 
-                bw.write(gt.chromosomeName(site)); // chromosome
-                bw.write(delimChar);
-                bw.write(gt.chromosomalPosition(site) + ""); // position
-                bw.write(delimChar);
-                bw.write(gt.siteName(site)); // site name
-                bw.write(delimChar);
-                if (nAlleles == 0) {                                                  //used to be ==0
-                    //System.out.println("A0:"+gt.chromosomeName(site)+":"+gt.chromosomalPosition(site));
-                    noAlleles++;
-                    bw.write(".\t.\t.\tPASS\t.\tGT");
-                    for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
-                        bw.write("\t./.");
-                    }
-                    bw.newLine();
-                    continue;
-                }
-                //bw.write(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[0])); // ref allele
-                //Fix for indels 8_27
-                if(knownVariants.length==0) {
-                    bw.write(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[0])); // ref allele
+        bw.write(gt.chromosomeName(site)); // chromosome
+        bw.write(delimChar);
+        bw.write(gt.chromosomalPosition(site) + ""); // position
+        bw.write(delimChar);
+        bw.write(gt.siteName(site)); // site name
+        bw.write(delimChar);
+        if (nAlleles == 0) {                                                  //used to be ==0
+            //System.out.println("A0:"+gt.chromosomeName(site)+":"+gt.chromosomalPosition(site));
+            bw.write(".\t.\t.\tPASS\t.\tGT");
+            for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
+                bw.write("\t./.");
+            }
+            bw.newLine();
+            return false;
+        }
+        //bw.write(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[0])); // ref allele
+        //Fix for indels 8_27
+        if(knownVariants.length==0) {
+            bw.write(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[0])); // ref allele
+        }
+        else {
+            bw.write(knownVariants[0]);
+        }
+        bw.write(delimChar);
+
+        StringBuilder altAllelesBuilder = new StringBuilder("");
+        
+        //ZRM 8_27
+        String altString = "";
+        int indelIndex = -1;
+        if(knownVariants.length==0) {
+            
+            ArrayList<String> altAlleles = new ArrayList<String>();
+            for(int aa = 1; aa<sortedAlleles.length; aa++) {
+                if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[aa]) != "-") {
+                    altAlleles.add(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[aa]));
                 }
                 else {
-                    bw.write(knownVariants[0]);
+                    indelIndex = aa;
                 }
-                bw.write(delimChar);
+            }
+            altString = altAlleles.stream().collect(Collectors.joining(","));
+        }
+        else {
+            altString = Arrays.stream(knownVariants, 1, knownVariants.length).collect(Collectors.joining(","));
+        }
+        
+        if(altString.length()==0) {
+            altString = ".";
+        }
+        
+        ////bw.write(altAllelesBuilder.toString()); // alt alleles
+        bw.write(altString);
+        bw.write(delimChar);
 
-                StringBuilder altAllelesBuilder = new StringBuilder("");
-                
-                //ZRM 8_27
-                String altString = "";
-                int indelIndex = -1;
-                if(knownVariants.length==0) {
+        bw.write("."); // qual score
+        bw.write(delimChar);
+
+        bw.write("PASS"); // filter
+        bw.write(delimChar);
+        
+        //INFO
+        GeneralAnnotation ga = p.getAnnotation();
+        String annotationHolder=ga.getAnnotationKeys().stream().sorted()
+                .filter(k->!k.equals("VARIANT"))
+                .map(key->{
+                    String[] annos=ga.getTextAnnotation(key);
+                    if(annos[0].equals("TRUE")) return key;
+                    return key+Arrays.stream(annos).collect(Collectors.joining(",","=",""));
+                })
+                .collect(Collectors.joining(";"));
+        if (hasDepth) {
+            //bw.write("DP=" + gt.depth().depthForSite(site)); // DP
+            //To Fix bug where ";DP=100" string would occur
+            if(annotationHolder.equals("")) {
+                annotationHolder += "DP=" + gt.depth().depthForSite(site);
+            }
+            else {
+                annotationHolder += ";DP=" + gt.depth().depthForSite(site);
+            }
+        }
+        if(!annotationHolder.equals("")) {
+            bw.write(annotationHolder);
+        }
+        else {
+            bw.write("."); // DP
+        }
+        bw.write(delimChar);
+
+        if (hasDepth) {
+            bw.write("GT:AD:DP:GQ:PL");
+        } else {
+            bw.write("GT");
+        }
+        for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
+            bw.write(delimChar);
+            // GT = genotype
+            byte[] values = gt.genotypeArray(taxa, site);
+            if(knownVariants.length>0) {
+                bw.write(alleleRedirect[values[0]]+"/"+alleleRedirect[values[1]]);
+            }
+            else {
+                //handle if no Known Variants(from a different file type)
+                if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte)values[0]).equals("-")) {
                     
-                    ArrayList<String> altAlleles = new ArrayList<String>();
-                    for(int aa = 1; aa<sortedAlleles.length; aa++) {
-                        if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[aa]) != "-") {
-                            altAlleles.add(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte) sortedAlleles[aa]));
-                        }
-                        else {
-                            indelIndex = aa;
-                        }
-                    }
-                    altString = altAlleles.stream().collect(Collectors.joining(","));
+                    bw.write(".");
                 }
                 else {
-                    altString = Arrays.stream(knownVariants, 1, knownVariants.length).collect(Collectors.joining(","));
-                }
-                
-                if(altString.length()==0) {
-                    altString = ".";
-                }
-                
-                ////bw.write(altAllelesBuilder.toString()); // alt alleles
-                bw.write(altString);
-                bw.write(delimChar);
-
-                bw.write("."); // qual score
-                bw.write(delimChar);
-
-                bw.write("PASS"); // filter
-                bw.write(delimChar);
-                
-                //INFO
-                GeneralAnnotation ga = p.getAnnotation();
-                String annotationHolder=ga.getAnnotationKeys().stream().sorted()
-                        .filter(k->!k.equals("VARIANT"))
-                        .map(key->{
-                            String[] annos=ga.getTextAnnotation(key);
-                            if(annos[0].equals("TRUE")) return key;
-                            return key+Arrays.stream(annos).collect(Collectors.joining(",","=",""));
-                        })
-                        .collect(Collectors.joining(";"));
-                if (hasDepth) {
-                    //bw.write("DP=" + gt.depth().depthForSite(site)); // DP
-                    //To Fix bug where ";DP=100" string would occur
-                    if(annotationHolder.equals("")) {
-                        annotationHolder += "DP=" + gt.depth().depthForSite(site);
+                    if(alleleRedirect[values[0]].equals(".")) {
+                        bw.write(alleleRedirect[values[0]]);
                     }
                     else {
-                        annotationHolder += ";DP=" + gt.depth().depthForSite(site);
+                        if(indelIndex != -1 && Integer.parseInt(alleleRedirect[values[0]]) > indelIndex) {
+                            bw.write(""+(Integer.parseInt(alleleRedirect[values[0]]) -1 ));
+                        }
+                        else {
+                            bw.write(alleleRedirect[values[0]]);
+                        }
                     }
                 }
-                if(!annotationHolder.equals("")) {
-                    bw.write(annotationHolder);
+                bw.write("/");
+                
+                if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte)values[1]).equals("-")) {   
+                    bw.write(".");
                 }
                 else {
-                    bw.write("."); // DP
-                }
-                bw.write(delimChar);
-
-                if (hasDepth) {
-                    bw.write("GT:AD:DP:GQ:PL");
-                } else {
-                    bw.write("GT");
-                }
-                for (int taxa = 0; taxa < gt.numberOfTaxa(); taxa++) {
-                    bw.write(delimChar);
-                    // GT = genotype
-                    byte[] values = gt.genotypeArray(taxa, site);
-                    if(knownVariants.length>0) {
-                        bw.write(alleleRedirect[values[0]]+"/"+alleleRedirect[values[1]]);
+                    if(alleleRedirect[values[1]].equals(".")) {
+                        bw.write(alleleRedirect[values[1]]);
                     }
                     else {
-                        //handle if no Known Variants(from a different file type)
-                        if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte)values[0]).equals("-")) {
-                            
-                            bw.write(".");
-                        }
-                        else {
-                            if(alleleRedirect[values[0]].equals(".")) {
-                                bw.write(alleleRedirect[values[0]]);
-                            }
-                            else {
-                                if(indelIndex != -1 && Integer.parseInt(alleleRedirect[values[0]]) > indelIndex) {
-                                    bw.write(""+(Integer.parseInt(alleleRedirect[values[0]]) -1 ));
-                                }
-                                else {
-                                    bw.write(alleleRedirect[values[0]]);
-                                }
-                            }
-                        }
-                        bw.write("/");
-                        
-                        if(NucleotideAlignmentConstants.getHaplotypeNucleotide((byte)values[1]).equals("-")) {   
-                            bw.write(".");
+                        if(indelIndex != -1 && Integer.parseInt(alleleRedirect[values[1]]) > indelIndex) {
+                            bw.write(""+(Integer.parseInt(alleleRedirect[values[1]]) -1));
                         }
                         else {
-                            if(alleleRedirect[values[1]].equals(".")) {
-                                bw.write(alleleRedirect[values[1]]);
-                            }
-                            else {
-                                if(indelIndex != -1 && Integer.parseInt(alleleRedirect[values[1]]) > indelIndex) {
-                                    bw.write(""+(Integer.parseInt(alleleRedirect[values[1]]) -1));
-                                }
-                                else {
-                                    bw.write(alleleRedirect[values[1]]);
-                                }
-                            }
+                            bw.write(alleleRedirect[values[1]]);
                         }
                     }
-                    if (!(hasDepth)) {
-                        continue;
-                    }
-                    bw.write(":");
+                }
+            }
+            if (!(hasDepth)) {
+                continue;
+            }
+            bw.write(":");
 
-                    // AD
-                    int[] siteAlleleDepths = gt.depthForAlleles(taxa, site);
-                    int siteTotalDepth = 0;
-                    for (int ss = 0; ss < sortedAlleles.length; ss++) {
-                        //bw.write("" + AlleleDepthUtil.decode(siteAlleleDepths[sortedAlleles[ss]]));
-                        if(ss!=indelIndex) {
-                            bw.write("" + siteAlleleDepths[sortedAlleles[ss]]);
-                            if (ss < sortedAlleles.length - 1 && ss+1!=indelIndex) {
-                                bw.write(',');
-                            }
-                            siteTotalDepth += siteAlleleDepths[sortedAlleles[ss]];
-                        }
-                       
+            // AD
+            int[] siteAlleleDepths = gt.depthForAlleles(taxa, site);
+            int siteTotalDepth = 0;
+            for (int ss = 0; ss < sortedAlleles.length; ss++) {
+                //bw.write("" + AlleleDepthUtil.decode(siteAlleleDepths[sortedAlleles[ss]]));
+                if(ss!=indelIndex) {
+                    bw.write("" + siteAlleleDepths[sortedAlleles[ss]]);
+                    if (ss < sortedAlleles.length - 1 && ss+1!=indelIndex) {
+                        bw.write(',');
                     }
-                    bw.write(":");
-                    // DP
-                    bw.write(siteTotalDepth + "");
-                    
-                    int[] scores = new int[]{-1, -1, -1, -1};
-                    if (values[0] != GenotypeTable.UNKNOWN_ALLELE) {
-                        int altDepth = (sortedAlleles.length < 2) ? 0 : siteAlleleDepths[sortedAlleles[1]];
-                        altDepth = (altDepth<0) ? 0 : altDepth;
-                        //int refDepth = (siteAlleleDepths[sortedAlleles[0]]==-1) ? 0 : siteAlleleDepths[sortedAlleles[0]];
-                     
-                        //Check to see if either the major or alt allele has depth
-                        if(siteAlleleDepths[sortedAlleles[0]] >= 0 && altDepth >= 0) {
-                            scores = VCFUtil.getScore(siteAlleleDepths[sortedAlleles[0]], altDepth);
-                            bw.write(":");
-                            // GQ
-                            bw.write(scores[3] + "");
-                            bw.write(":");
-                            // PL
-                            bw.write(scores[0] + "," + scores[1] + "," + scores[2]);
-                        }
-                       
-                    }  
-                    
- 
+                    siteTotalDepth += siteAlleleDepths[sortedAlleles[ss]];
                 }
-                bw.newLine();
-            }
-            if (noAlleles > 0) {
-                myLogger.warn("Warning: " + noAlleles + " sites have no alleles.");
+               
             }
-            bw.flush();
-            bw.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException("Error writing VCF file: " + filename + ": " + ExceptionUtils.getExceptionCauses(e));
+            bw.write(":");
+            // DP
+            bw.write(siteTotalDepth + "");
+            
+            int[] scores = new int[]{-1, -1, -1, -1};
+            if (values[0] != GenotypeTable.UNKNOWN_ALLELE) {
+                int altDepth = (sortedAlleles.length < 2) ? 0 : siteAlleleDepths[sortedAlleles[1]];
+                altDepth = (altDepth<0) ? 0 : altDepth;
+                //int refDepth = (siteAlleleDepths[sortedAlleles[0]]==-1) ? 0 : siteAlleleDepths[sortedAlleles[0]];
+             
+                //Check to see if either the major or alt allele has depth
+                if(siteAlleleDepths[sortedAlleles[0]] >= 0 && altDepth >= 0) {
+                    scores = VCFUtil.getScore(siteAlleleDepths[sortedAlleles[0]], altDepth);
+                    bw.write(":");
+                    // GQ
+                    bw.write(scores[3] + "");
+                    bw.write(":");
+                    // PL
+                    bw.write(scores[0] + "," + scores[1] + "," + scores[2]);
+                }
+               
+            }  
+            
+ 
         }
-        return filename;
+        bw.newLine();
+        return true;
     }
 
     private static void writeVCFSampleAnnotationToWriter(GenotypeTable gt, BufferedWriter bw) throws IOException {
@@ -645,6 +806,132 @@ public class ExportUtils {
         }
     }
 
+    /**
+     * Writes given genotype table to PLINK binary files (.bed, .bim, and
+     * .fam). The .bed file is SNP-major. The minor allele of each site is
+     * written as allele 1 and the major allele as allele 2. Genotypes with any
+     * other allele are written as missing. Blocks of sites are encoded on
+     * multiple threads and written in order.
+     *
+     * @param alignment genotype table
+     * @param filename base name of output files (.bed, .bim, and .fam are
+     * added)
+     * @param numThreads number of threads
+     * @return names of the outfiles
+     */
+    public static String writeToPlinkBed(GenotypeTable alignment, String filename, int numThreads) {
+        String base = filename;
+        for (String ext : new String[]{".bed", ".bim", ".fam"}) {
+            if (base.endsWith(ext)) {
+                base = base.substring(0, base.length() - ext.length());
+            }
+        }
+        String bedFileName = base + ".bed";
+        String bimFileName = base + ".bim";
+        String famFileName = base + ".fam";
+        numThreads = Math.max(1, numThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try (BufferedOutputStream bed = new BufferedOutputStream(new FileOutputStream(bedFileName), 1 << 20);
+                BufferedWriter bim = Utils.getBufferedWriter(bimFileName);
+                BufferedWriter fam = Utils.getBufferedWriter(famFileName)) {
+
+            Pattern splitter = Pattern.compile(":");
+            int numTaxa = alignment.numberOfTaxa();
+            for (int taxa = 0; taxa < numTaxa; taxa++) {
+                String[] name = splitter.split(alignment.taxaName(taxa).trim());
+                fam.write(name.length != 1 ? name[1] : "-9"); // namelvl 1 if is available
+                fam.write('\t');
+                fam.write(alignment.taxaName(taxa).trim()); // namelvl 0
+                fam.write("\t0\t0\t0\t-9\n"); // parents, sex, and phenotype unavailable
+            }
+
+            bed.write(new byte[]{0x6C, 0x1B, 0x01});
+            int numSites = alignment.numberOfSites();
+            int sitesPerBlock = sitesPerBlock(numTaxa, 1);
+            ArrayDeque<Future<Tuple<byte[], String>>> pending = new ArrayDeque<>();
+            for (int start = 0; start < numSites; start += sitesPerBlock) {
+                final int first = start;
+                final int last = Math.min(start + sitesPerBlock, numSites);
+                pending.add(pool.submit(() -> encodePlinkBedBlock(alignment, first, last)));
+                while (pending.size() > numThreads * 2) {
+                    Tuple<byte[], String> block = pending.poll().get();
+                    bed.write(block.x);
+                    bim.write(block.y);
+                }
+            }
+            while (!pending.isEmpty()) {
+                Tuple<byte[], String> block = pending.poll().get();
+                bed.write(block.x);
+                bim.write(block.y);
+            }
+            return bedFileName + ", " + bimFileName + ", and " + famFileName;
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalArgumentException("Error writing Plink files: " + bedFileName + ", " + bimFileName + ", and " + famFileName + ": " + ExceptionUtils.getExceptionCauses(e));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Encodes sites for a PLINK .bed file. Returns the packed genotypes and
+     * the matching .bim lines.
+     */
+    private static Tuple<byte[], String> encodePlinkBedBlock(GenotypeTable alignment, int first, int last) {
+        int numTaxa = alignment.numberOfTaxa();
+        int bytesPerSite = (numTaxa + 3) / 4;
+        byte[] result = new byte[bytesPerSite * (last - first)];
+        StringBuilder bim = new StringBuilder();
+        for (int site = first; site < last; site++) {
+
+            byte major = alignment.majorAllele(site);
+            byte minor = alignment.minorAllele(site);
+            bim.append(alignment.chromosomeName(site)).append('\t')
+                    .append(alignment.siteName(site)).append("\t0\t")
+                    .append(alignment.chromosomalPosition(site)).append('\t')
+                    .append(getPlinkAllele(minor)).append('\t')
+                    .append(getPlinkAllele(major)).append('\n');
+
+            // 00 homozygous allele 1, 01 missing, 10 heterozygous, 11 homozygous allele 2
+            int offset = (site - first) * bytesPerSite;
+            if (major == GenotypeTable.UNKNOWN_ALLELE) {
+                Arrays.fill(result, offset, offset + bytesPerSite, (byte) 0x55);
+                continue;
+            }
+            byte homMajor = GenotypeTableUtils.getDiploidValue(major, major);
+            boolean hasMinor = minor != GenotypeTable.UNKNOWN_ALLELE;
+            byte homMinor = GenotypeTableUtils.getDiploidValue(minor, minor);
+            byte het = GenotypeTableUtils.getDiploidValue(major, minor);
+            byte hetReverse = GenotypeTableUtils.getDiploidValue(minor, major);
+            byte[] genotypes = alignment.genotypeAllTaxa(site);
+            for (int taxon = 0; taxon < numTaxa; taxon++) {
+                byte genotype = genotypes[taxon];
+                int code;
+                if (genotype == homMajor) {
+                    code = 3;
+                } else if (!hasMinor) {
+                    code = 1;
+                } else if (genotype == homMinor) {
+                    code = 0;
+                } else if ((genotype == het) || (genotype == hetReverse)) {
+                    code = 2;
+                } else {
+                    code = 1;
+                }
+                result[offset + (taxon >> 2)] |= code << ((taxon & 3) << 1);
+            }
+
+        }
+        return new Tuple<>(result, bim.toString());
+    }
+
+    private static String getPlinkAllele(byte allele) {
+        if (allele == GenotypeTable.UNKNOWN_ALLELE) {
+            return "0";
+        }
+        return NucleotideAlignmentConstants.getHaplotypeNucleotide(allele);
+    }
+
     private static String[] getSNPValueForPlink(String[] base) {
         for (int i = 0; i < base.length; i++) {
             if (base[i].equals("N")) {
@@ -788,6 +1075,19 @@ public class ExportUtils {
         }
     }
 
+    /**
+     * Writes genotype table to a TASSEL block genotype file (.t5b). See
+     * BlockGenotypeFile.
+     *
+     * @param genotypes genotype table
+     * @param filename outfile name (will add ".t5b" if needed)
+     * @param listener progress listener, (null if unneeded)
+     * @return name of the outfile with the appropriate suffix
+     */
+    public static String writeToBlockGenotypeFile(GenotypeTable genotypes, String filename, ProgressListener listener) {
+        return BlockGenotypeFile.write(genotypes, filename, Runtime.getRuntime().availableProcessors(), listener);
+    }
+
     public static String writeAlignmentToSerialGZ(GenotypeTable sba, String outFile) {
 
         long time = System.currentTimeMillis();
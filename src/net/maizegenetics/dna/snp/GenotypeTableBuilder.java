@@ -7,6 +7,8 @@ import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 import ch.systemsx.cisd.hdf5.IHDF5WriterConfigurator;
+import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.dna.map.GeneralPosition;
 import net.maizegenetics.dna.map.Position;
 import net.maizegenetics.dna.map.PositionList;
 import net.maizegenetics.dna.map.PositionListBuilder;
@@ -102,6 +104,7 @@ public class GenotypeTableBuilder {
     private boolean isTaxaMerge = false; //if in taxa merge mode, this only works with TAXA_INC build type;//, GENO_EDIT}; //GENO_EDIT is not
     private GenotypeMergeRule mergeRule = null;
     private boolean isHDF5 = false;
+    private boolean isSiteCountUnknown = false; //site incremental HDF5 datasets grow as blocks are added
     private IHDF5Writer writer = null;
     private BuildType myBuildType;
     private final GeneralAnnotationStorage.Builder myAnnotationBuilder = GeneralAnnotationStorage.getBuilder();
@@ -167,6 +170,31 @@ public class GenotypeTableBuilder {
         this.taxaList = null;
     }
 
+    /**
+     * Builder for HDF5 site incremental when the number of sites is not known.
+     * Genotype datasets are extendable and grow as site blocks are added.
+     *
+     * @param hdf5File
+     * @param taxaList
+     */
+    private GenotypeTableBuilder(String hdf5File, TaxaList taxaList) {
+        writer = HDF5Factory.configure(hdf5File).writer();
+        if (HDF5Utils.doesGenotypeModuleExist(writer) && HDF5Utils.isHDF5GenotypeLocked(writer)) {
+            writer.close();
+            throw new UnsupportedOperationException("This file is locked for genotypic additions");
+        }
+        this.taxaList = taxaList;
+        setupGenotypeTaxaInHDF5(writer);
+        posListBuilder = new PositionListBuilder();
+        for (Taxon taxon : taxaList) {
+            HDF5Utils.addTaxon(writer, taxon);
+            HDF5Utils.createHDF5GenotypesCalls(writer, taxon.getName());
+        }
+        this.myBuildType = BuildType.SITE_INC;
+        isHDF5 = true;
+        isSiteCountUnknown = true;
+    }
+
     /**
      * Creates a new HDF5 file if positionList is not null. Opens an existing
      * HDF5 File if positionList is null. Merging is allowed depending on
@@ -330,6 +358,21 @@ public class GenotypeTableBuilder {
         return new GenotypeTableBuilder(newHDF5File, taxaList, numberOfPositions);
     }
 
+    /**
+     * Build an GenotypeTable by site block (1<<16 sites) when the number of
+     * positions (sites) is not known in advance. Genotype datasets grow as
+     * blocks are added and are trimmed to the number of sites by build().
+     * Positions and genotypes must be added by block
+     *
+     * @param taxaList
+     * @param newHDF5File
+     *
+     * @return builder to add site blocks to
+     */
+    public static GenotypeTableBuilder getSiteIncremental(TaxaList taxaList, String newHDF5File) {
+        return new GenotypeTableBuilder(newHDF5File, taxaList);
+    }
+
     public static GenotypeTable getInstance(GenotypeTable original, GenotypeCallTable newGenotypes) {
         return getInstance(newGenotypes, original.positions(), original.taxa(), original.depth(), original.alleleProbability(), original.referenceProbability(), original.dosage(), original.annotations());
     }
@@ -549,6 +592,12 @@ public class GenotypeTableBuilder {
         }
         int s = startSite;
         System.out.println("startSite = [" + startSite + "], blkPositionList = [" + blkPositionList.size() + "], blockGenotypes = [" + blockGenotypes.length + "], blockDepths = [" + blockDepths + "]");
+        if (isSiteCountUnknown) {
+            //blocks can arrive out of order, so hold places for sites of earlier blocks
+            for (int i = posListBuilder.size(); i < startSite + blkPositionList.size(); i++) {
+                posListBuilder.add(new GeneralPosition.Builder(Chromosome.UNKNOWN, i).build());
+            }
+        }
         for (Position position : blkPositionList) {
             posListBuilder.set(s++, position);
         }
@@ -647,6 +696,12 @@ public class GenotypeTableBuilder {
                     break;
                 }
                 case SITE_INC: {
+                    if (isSiteCountUnknown) {
+                        //trim genotype datasets to the number of sites added
+                        for (Taxon taxon : taxaList) {
+                            HDF5Utils.setHDF5GenotypesCallsSize(writer, taxon.getName(), posListBuilder.size());
+                        }
+                    }
                     //copy the in memory position list to the HDF5 file
                     this.positionList = new PositionListBuilder(writer, posListBuilder.build()).build();
                     break;
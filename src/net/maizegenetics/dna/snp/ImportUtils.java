@@ -3,6 +3,7 @@
  */
 package net.maizegenetics.dna.snp;
 
+import net.maizegenetics.dna.snp.io.BlockGenotypeFile;
 import net.maizegenetics.dna.snp.io.BuilderFromVCF;
 import net.maizegenetics.util.ProgressListener;
 import net.maizegenetics.util.Utils;
@@ -21,6 +22,7 @@ import net.maizegenetics.dna.snp.genotypecall.GenotypeCallTable;
 import net.maizegenetics.dna.snp.genotypecall.GenotypeCallTableBuilder;
 import net.maizegenetics.dna.snp.io.BuilderFromHapMap;
 import net.maizegenetics.dna.snp.io.BuilderFromPLINK;
+import net.maizegenetics.dna.snp.io.BuilderFromPLINKBed;
 import net.maizegenetics.plugindef.DataSet;
 import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.TaxaListBuilder;
@@ -100,6 +102,8 @@ public class ImportUtils {
             return readFromHapmap(fileName, null);
         } else if (fileName.endsWith(".vcf") || fileName.endsWith(".vcf.gz")) {
             return readFromVCF(fileName, null);
+        } else if (fileName.endsWith(BlockGenotypeFile.FILE_EXTENSION)) {
+            return BlockGenotypeFile.read(fileName);
         }
         return null;
 
@@ -107,15 +111,29 @@ public class ImportUtils {
 
     public static GenotypeTable readFromVCF(final String filename, ProgressListener listener, boolean ignoreDepth) {
         if (ignoreDepth) {
-            return BuilderFromVCF.getBuilder(filename).keepDepth().build();
+            return BuilderFromVCF.getBuilder(filename, listener).keepDepth().build();
         }
-        return BuilderFromVCF.getBuilder(filename).build();
+        return BuilderFromVCF.getBuilder(filename, listener).build();
     }
 
     public static GenotypeTable readFromVCF(final String filename, ProgressListener listener) {
         return readFromVCF(filename, listener, true);
     }
 
+    /**
+     * Read only the sites in the given regions of a bgzipped and tabix indexed
+     * (filename.tbi) VCF file.
+     *
+     * @param filename input VCF file name
+     * @param regions regions as chromosome, chromosome:start, or
+     * chromosome:start-end (1-based, inclusive)
+     * @param listener progress listener
+     * @return a genotype table
+     */
+    public static GenotypeTable readFromVCF(final String filename, List<String> regions, ProgressListener listener) {
+        return BuilderFromVCF.getBuilder(filename, listener).keepDepth().regions(regions).build();
+    }
+
     /**
      * Read GenotypeTable from HapMap file
      *
@@ -141,6 +159,18 @@ public class ImportUtils {
         return BuilderFromPLINK.getBuilder(pedFilename, mapFilename, listener).build();
     }
 
+    /**
+     * Read GenotypeTable from PLINK binary files. The .bim and .fam files
+     * must have the same base name as the .bed file.
+     *
+     * @param bedFilename input PLINK .bed file name
+     * @param listener progress listener to track reading rate
+     * @return a genotype table
+     */
+    public static GenotypeTable readFromPLinkBed(final String bedFilename, ProgressListener listener) {
+        return BuilderFromPLINKBed.getBuilder(bedFilename, listener).build();
+    }
+
     public static GenotypeTable readFasta(String filename) throws FileNotFoundException, IOException {
 
         BufferedReader reader = Utils.getBufferedReader(filename);
@@ -0,0 +1,366 @@
+/*
+ *  BitStorageFile
+ */
+package net.maizegenetics.dna.snp.bit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import net.maizegenetics.dna.WHICH_ALLELE;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.genotypecall.GenotypeCallTable;
+import net.maizegenetics.util.BitUtil;
+import net.maizegenetics.util.CheckSum;
+import net.maizegenetics.util.MemoryMappedRegion;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent bit planes for a genotype source file (i.e. .h5 or .hmp.txt).
+ * Major, Minor, Minor2, and Unknown allele presence are materialized in both
+ * taxon major and site major orientation in one parallel pass, and saved to a
+ * memory mapped sidecar file next to the source. Later runs reopen the
+ * sidecar instead of rebuilding the bits.
+ * <p></p>
+ * The sidecar records the source file's MD5 checksum (see CheckSum), length,
+ * and modification time. If length and modification time match, the sidecar
+ * is used directly. Otherwise, the checksum is recalculated, and the sidecar
+ * is regenerated when it differs.
+ *
+ * @author agent
+ */
+public class BitStorageFile {
+
+    private static final Logger myLogger = Logger.getLogger(BitStorageFile.class);
+
+    public static final String FILE_EXTENSION = ".tbit";
+
+    /**
+     * Planes stored in the sidecar file, in file order.
+     */
+    public static final WHICH_ALLELE[] PLANES = new WHICH_ALLELE[]{WHICH_ALLELE.Major, WHICH_ALLELE.Minor, WHICH_ALLELE.Minor2, WHICH_ALLELE.Unknown};
+
+    private static final long MAGIC_NUMBER = 0x54415353454C4254L; // TASSELBT
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+    private static final int CHECKSUM_LENGTH = 32;
+    private static final int CHECKSUM_POSITION = 40;
+    private static final int SOURCE_INFO_POSITION = 24;
+
+    private final String myFilename;
+    private final int myNumTaxa;
+    private final int myNumSites;
+    private final Map<WHICH_ALLELE, BitStorage> myStorage = new EnumMap<>(WHICH_ALLELE.class);
+
+    private BitStorageFile(String filename, int numTaxa, int numSites, MemoryMappedRegion[] taxaRegions, MemoryMappedRegion[] siteRegions) {
+        myFilename = filename;
+        myNumTaxa = numTaxa;
+        myNumSites = numSites;
+        for (int p = 0; p < PLANES.length; p++) {
+            myStorage.put(PLANES[p], new MemoryMappedBitStorage(numTaxa, numSites, taxaRegions[p], siteRegions[p]));
+        }
+    }
+
+    /**
+     * Gets bit storage for given genotype. If a valid sidecar file exists
+     * for the source, it's opened. Otherwise, it's built from the genotype and
+     * saved.
+     *
+     * @param genotype genotype calls loaded from source file
+     * @param sourceFilename source file
+     *
+     * @return bit storage file
+     */
+    public static BitStorageFile getInstance(GenotypeCallTable genotype, String sourceFilename) {
+
+        String filename = sidecarFilename(sourceFilename);
+        File source = new File(sourceFilename);
+        if (!source.isFile()) {
+            throw new IllegalArgumentException("BitStorageFile: getInstance: source file doesn't exist: " + sourceFilename);
+        }
+
+        if (new File(filename).isFile()) {
+            Header header = readHeader(filename);
+            if ((header != null) && (header.myNumTaxa == genotype.numberOfTaxa()) && (header.myNumSites == genotype.numberOfSites())) {
+                if ((header.mySourceLength == source.length()) && (header.mySourceLastModified == source.lastModified())) {
+                    return open(filename);
+                }
+                String checksum = CheckSum.getMD5Checksum(sourceFilename);
+                if ((checksum != null) && checksum.equals(header.myChecksum)) {
+                    updateSourceInfo(filename, source);
+                    return open(filename);
+                }
+            }
+            myLogger.info("getInstance: bit storage file: " + filename + " is out of date with: " + sourceFilename + ". Regenerating.");
+        }
+
+        build(genotype, sourceFilename, filename);
+        return open(filename);
+
+    }
+
+    public static String sidecarFilename(String sourceFilename) {
+        return sourceFilename + FILE_EXTENSION;
+    }
+
+    /**
+     * Bit storage for given plane.
+     *
+     * @param allele plane (Major, Minor, Minor2, or Unknown)
+     *
+     * @return bit storage or null if plane isn't stored
+     */
+    public BitStorage bitStorage(WHICH_ALLELE allele) {
+        return myStorage.get(allele);
+    }
+
+    public String filename() {
+        return myFilename;
+    }
+
+    public int numberOfTaxa() {
+        return myNumTaxa;
+    }
+
+    public int numberOfSites() {
+        return myNumSites;
+    }
+
+    private static class Header {
+
+        private final int myNumTaxa;
+        private final int myNumSites;
+        private final long mySourceLength;
+        private final long mySourceLastModified;
+        private final String myChecksum;
+
+        private Header(int numTaxa, int numSites, long sourceLength, long sourceLastModified, String checksum) {
+            myNumTaxa = numTaxa;
+            myNumSites = numSites;
+            mySourceLength = sourceLength;
+            mySourceLastModified = sourceLastModified;
+            myChecksum = checksum;
+        }
+    }
+
+    private static Header readHeader(String filename) {
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            if (file.length() < HEADER_SIZE) {
+                return null;
+            }
+            byte[] temp = new byte[HEADER_SIZE];
+            file.readFully(temp);
+            ByteBuffer header = ByteBuffer.wrap(temp);
+            if (header.getLong() != MAGIC_NUMBER) {
+                return null;
+            }
+            if (header.getInt() != VERSION) {
+                return null;
+            }
+            int numTaxa = header.getInt();
+            int numSites = header.getInt();
+            header.position(SOURCE_INFO_POSITION);
+            long sourceLength = header.getLong();
+            long sourceLastModified = header.getLong();
+            String checksum = new String(temp, CHECKSUM_POSITION, CHECKSUM_LENGTH, StandardCharsets.US_ASCII);
+            if (file.length() < fileSize(numTaxa, numSites)) {
+                return null;
+            }
+            return new Header(numTaxa, numSites, sourceLength, sourceLastModified, checksum);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            return null;
+        }
+
+    }
+
+    private static void updateSourceInfo(String filename, File source) {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.seek(SOURCE_INFO_POSITION);
+            file.writeLong(source.length());
+            file.writeLong(source.lastModified());
+        } catch (IOException e) {
+            // sidecar still valid, checksum will be recalculated next time
+            myLogger.debug(e.getMessage(), e);
+        }
+    }
+
+    private static int numSiteWords(int numSites) {
+        return Math.max(1, BitUtil.bits2words(numSites));
+    }
+
+    private static int numTaxaWords(int numTaxa) {
+        return Math.max(1, BitUtil.bits2words(numTaxa));
+    }
+
+    private static long planeSize(int numTaxa, int numSites) {
+        return MemoryMappedRegion.regionSize(numTaxa, numSiteWords(numSites) * Long.BYTES)
+                + MemoryMappedRegion.regionSize(numSites, numTaxaWords(numTaxa) * Long.BYTES);
+    }
+
+    private static long fileSize(int numTaxa, int numSites) {
+        return HEADER_SIZE + PLANES.length * planeSize(numTaxa, numSites);
+    }
+
+    private static MemoryMappedRegion[][] mapRegions(FileChannel channel, FileChannel.MapMode mode, int numTaxa, int numSites) {
+        MemoryMappedRegion[][] result = new MemoryMappedRegion[2][PLANES.length];
+        int taxaRowSize = numSiteWords(numSites) * Long.BYTES;
+        int siteRowSize = numTaxaWords(numTaxa) * Long.BYTES;
+        long position = HEADER_SIZE;
+        for (int p = 0; p < PLANES.length; p++) {
+            result[0][p] = MemoryMappedRegion.getInstance(channel, mode, position, numTaxa, taxaRowSize);
+            position += MemoryMappedRegion.regionSize(numTaxa, taxaRowSize);
+            result[1][p] = MemoryMappedRegion.getInstance(channel, mode, position, numSites, siteRowSize);
+            position += MemoryMappedRegion.regionSize(numSites, siteRowSize);
+        }
+        return result;
+    }
+
+    private static BitStorageFile open(String filename) {
+
+        Header header = readHeader(filename);
+        if (header == null) {
+            throw new IllegalStateException("BitStorageFile: open: not a valid bit storage file: " + filename);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            MemoryMappedRegion[][] regions = mapRegions(file.getChannel(), FileChannel.MapMode.READ_ONLY, header.myNumTaxa, header.myNumSites);
+            myLogger.info("open: " + filename + " taxa: " + header.myNumTaxa + " sites: " + header.myNumSites);
+            return new BitStorageFile(filename, header.myNumTaxa, header.myNumSites, regions[0], regions[1]);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BitStorageFile: open: problem opening: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Builds all planes in one parallel pass over 64 site blocks and writes
+     * sidecar file. File is written to a temporary name and renamed when
+     * complete.
+     */
+    private static void build(GenotypeCallTable genotype, String sourceFilename, String filename) {
+
+        long time = System.nanoTime();
+        int numTaxa = genotype.numberOfTaxa();
+        int numSites = genotype.numberOfSites();
+        int numTaxaWords = numTaxaWords(numTaxa);
+        int numSiteBlocks = BitUtil.bits2words(numSites);
+
+        File source = new File(sourceFilename);
+        long sourceLength = source.length();
+        long sourceLastModified = source.lastModified();
+        String checksum = CheckSum.getMD5Checksum(sourceFilename);
+        if ((checksum == null) || (checksum.length() != CHECKSUM_LENGTH)) {
+            throw new IllegalStateException("BitStorageFile: build: problem calculating checksum for: " + sourceFilename);
+        }
+
+        byte[][] alleles = new byte[PLANES.length][];
+        alleles[0] = genotype.majorAlleleForAllSites();
+        alleles[1] = genotype.minorAlleleForAllSites();
+        alleles[2] = genotype.thirdAlleleForAllSites();
+
+        File tempFile = new File(filename + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+
+            file.setLength(0);
+            file.setLength(fileSize(numTaxa, numSites));
+            MemoryMappedRegion[][] regions = mapRegions(file.getChannel(), FileChannel.MapMode.READ_WRITE, numTaxa, numSites);
+            MemoryMappedRegion[] taxaRegions = regions[0];
+            MemoryMappedRegion[] siteRegions = regions[1];
+
+            IntStream.range(0, numSiteBlocks).parallel().forEach(block -> {
+
+                int startSite = block << 6;
+                int numSitesInBlock = Math.min(64, numSites - startSite);
+                long[][] taxonWords = new long[PLANES.length][numTaxa];
+                long[][] siteWords = new long[PLANES.length][numTaxaWords];
+
+                for (int i = 0; i < numSitesInBlock; i++) {
+                    int site = startSite + i;
+                    byte[] genotypes = genotype.genotypeForAllTaxa(site);
+                    for (long[] current : siteWords) {
+                        Arrays.fill(current, 0L);
+                    }
+                    long siteMask = 1L << i;
+                    for (int p = 0; p < PLANES.length; p++) {
+                        long[] currentSiteWords = siteWords[p];
+                        long[] currentTaxonWords = taxonWords[p];
+                        if (PLANES[p] == WHICH_ALLELE.Unknown) {
+                            for (int t = 0; t < numTaxa; t++) {
+                                if (genotypes[t] == GenotypeTable.UNKNOWN_DIPLOID_ALLELE) {
+                                    currentSiteWords[t >>> 6] |= 1L << t;
+                                    currentTaxonWords[t] |= siteMask;
+                                }
+                            }
+                        } else {
+                            byte allele = alleles[p][site];
+                            if (allele == GenotypeTable.UNKNOWN_ALLELE) {
+                                continue;
+                            }
+                            for (int t = 0; t < numTaxa; t++) {
+                                byte current = genotypes[t];
+                                if ((allele == (byte) (current & 0xf)) || (allele == (byte) ((current >>> 4) & 0xf))) {
+                                    currentSiteWords[t >>> 6] |= 1L << t;
+                                    currentTaxonWords[t] |= siteMask;
+                                }
+                            }
+                        }
+                    }
+                    for (int p = 0; p < PLANES.length; p++) {
+                        siteRegions[p].putLongs(site, 0, siteWords[p], 0, numTaxaWords);
+                    }
+                }
+
+                for (int p = 0; p < PLANES.length; p++) {
+                    for (int t = 0; t < numTaxa; t++) {
+                        taxaRegions[p].putLong(t, block * Long.BYTES, taxonWords[p][t]);
+                    }
+                }
+
+            });
+
+            for (int p = 0; p < PLANES.length; p++) {
+                taxaRegions[p].force();
+                siteRegions[p].force();
+            }
+
+            file.seek(0);
+            file.writeLong(MAGIC_NUMBER);
+            file.writeInt(VERSION);
+            file.writeInt(numTaxa);
+            file.writeInt(numSites);
+            file.seek(SOURCE_INFO_POSITION);
+            file.writeLong(sourceLength);
+            file.writeLong(sourceLastModified);
+            file.seek(CHECKSUM_POSITION);
+            file.write(checksum.getBytes(StandardCharsets.US_ASCII));
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            tempFile.delete();
+            throw new IllegalStateException("BitStorageFile: build: problem writing: " + tempFile.getPath() + ": " + e.getMessage());
+        }
+
+        File finalFile = new File(filename);
+        if (finalFile.exists() && !finalFile.delete()) {
+            throw new IllegalStateException("BitStorageFile: build: can't replace: " + filename);
+        }
+        if (!tempFile.renameTo(finalFile)) {
+            throw new IllegalStateException("BitStorageFile: build: can't rename: " + tempFile.getPath() + " to: " + filename);
+        }
+
+        myLogger.info("build: " + filename + " taxa: " + numTaxa + " sites: " + numSites + " time: " + (System.nanoTime() - time) / 1e9 + " secs.");
+
+    }
+
+}
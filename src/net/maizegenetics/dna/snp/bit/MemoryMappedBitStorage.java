@@ -0,0 +1,83 @@
+/*
+ *  MemoryMappedBitStorage
+ */
+package net.maizegenetics.dna.snp.bit;
+
+import net.maizegenetics.util.BitSet;
+import net.maizegenetics.util.BitUtil;
+import net.maizegenetics.util.MemoryMappedRegion;
+import net.maizegenetics.util.OpenBitSet;
+import net.maizegenetics.util.UnmodifiableBitSet;
+
+/**
+ * BitStorage backed by one plane of a BitStorageFile. Both taxon major and
+ * site major bits are stored, so neither direction needs pivoting. Nothing is
+ * cached on the heap.
+ *
+ * @see BitStorageFile
+ *
+ * @author agent
+ */
+public class MemoryMappedBitStorage implements BitStorage {
+
+    private final int myTaxaCount;
+    private final int mySiteCount;
+    private final int myNumSiteWords;
+    private final int myNumTaxaWords;
+    private final MemoryMappedRegion myTaxaRegion;
+    private final MemoryMappedRegion mySiteRegion;
+
+    MemoryMappedBitStorage(int numTaxa, int numSites, MemoryMappedRegion taxaRegion, MemoryMappedRegion siteRegion) {
+        myTaxaCount = numTaxa;
+        mySiteCount = numSites;
+        myNumSiteWords = BitUtil.bits2words(numSites);
+        myNumTaxaWords = BitUtil.bits2words(numTaxa);
+        myTaxaRegion = taxaRegion;
+        mySiteRegion = siteRegion;
+    }
+
+    @Override
+    public BitSet allelePresenceForAllSites(int taxon) {
+        long[] bits = new long[myNumSiteWords];
+        myTaxaRegion.getLongs(taxon, 0, bits, 0, myNumSiteWords);
+        return UnmodifiableBitSet.getInstance(new OpenBitSet(bits));
+    }
+
+    @Override
+    public BitSet allelePresenceForAllTaxa(int site) {
+        long[] bits = new long[myNumTaxaWords];
+        mySiteRegion.getLongs(site, 0, bits, 0, myNumTaxaWords);
+        return UnmodifiableBitSet.getInstance(new OpenBitSet(bits));
+    }
+
+    @Override
+    public long[] allelePresenceForSitesBlock(int taxon, int startBlock, int endBlock) {
+        long[] result = new long[endBlock - startBlock];
+        myTaxaRegion.getLongs(taxon, startBlock * Long.BYTES, result, 0, result.length);
+        return result;
+    }
+
+    @Override
+    public BitSet haplotypeAllelePresenceForAllSites(int taxon, boolean firstParent) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public BitSet haplotypeAllelePresenceForAllTaxa(int site, boolean firstParent) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public long[] haplotypeAllelePresenceForSitesBlock(int taxon, boolean firstParent, int startBlock, int endBlock) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    public int numberOfTaxa() {
+        return myTaxaCount;
+    }
+
+    public int numberOfSites() {
+        return mySiteCount;
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ *  LineIndexVCFAlleleDepth
+ */
+package net.maizegenetics.dna.snp.depth;
+
+import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
+import net.maizegenetics.dna.snp.genotypecall.LineIndexVCFGenotypeCallTable;
+
+/**
+ * Allele depths decoded on demand from a line indexed VCF file. The depths are
+ * parsed and cached with the genotypes by the genotype call table.
+ *
+ * @author agent
+ */
+public class LineIndexVCFAlleleDepth extends AbstractAlleleDepth {
+
+    private final LineIndexVCFGenotypeCallTable myGenotypes;
+
+    private LineIndexVCFAlleleDepth(LineIndexVCFGenotypeCallTable genotypes) {
+        super(NucleotideAlignmentConstants.NUMBER_NUCLEOTIDE_ALLELES, genotypes.numberOfTaxa(), genotypes.numberOfSites());
+        myGenotypes = genotypes;
+    }
+
+    public static LineIndexVCFAlleleDepth getInstance(LineIndexVCFGenotypeCallTable genotypes) {
+        if (!genotypes.hasDepth()) {
+            throw new IllegalArgumentException("LineIndexVCFAlleleDepth: getInstance: genotype call table doesn't keep depths.");
+        }
+        return new LineIndexVCFAlleleDepth(genotypes);
+    }
+
+    @Override
+    public byte depthForAlleleByte(int taxon, int site, int allele) {
+        return myGenotypes.depthForAlleleByte(taxon, site, allele);
+    }
+
+}
@@ -637,7 +637,7 @@ abstract class AbstractGenotypeCallTable implements GenotypeCallTable {
         int numSites = end - start;
         byte[] result = new byte[numSites];
         for (int i = start; i < end; i++) {
-            result[i] = genotype(taxon, i);
+            result[i - start] = genotype(taxon, i);
         }
         return result;
     }
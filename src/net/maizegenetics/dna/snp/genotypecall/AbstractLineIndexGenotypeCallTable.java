@@ -0,0 +1,282 @@
+/*
+ *  AbstractLineIndexGenotypeCallTable
+ */
+package net.maizegenetics.dna.snp.genotypecall;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import java.io.File;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ForkJoinPool;
+import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
+import net.maizegenetics.dna.snp.io.LineIndex;
+import net.maizegenetics.util.Tuple;
+import org.apache.log4j.Logger;
+
+/**
+ * Genotype call table backed by a bgzipped text file with one site per line
+ * and a line index (.lix). Lines are parsed on demand in blocks of
+ * LineIndex.numLinesPerInterval() sites. When a block is requested, the
+ * following blocks are parsed ahead on the same reader, since sites are
+ * usually accessed in order.
+ *
+ * @author Terry Casstevens
+ */
+public abstract class AbstractLineIndexGenotypeCallTable extends AbstractGenotypeCallTable {
+
+    private static final Logger myLogger = Logger.getLogger(AbstractLineIndexGenotypeCallTable.class);
+    private static final int NUM_LOOK_AHEAD_BLOCKS = 103;
+
+    private final String myFilename;
+    private final LineIndex myIndex;
+    private final int myNumLinesPerInterval;
+    private final int myMaxCacheSize;
+    private final ConcurrentLinkedQueue<BlockCompressedInputStream> myReaders = new ConcurrentLinkedQueue<>();
+    private final CopyOnWriteArraySet<Integer> myCurrentlyProcessingBlocks = new CopyOnWriteArraySet<>();
+    private final WeakHashMap<Thread, Tuple<Integer, byte[]>> myLastSite = new WeakHashMap<>();
+
+    private final Cache<Integer, byte[][]> myGenoCache;
+
+    private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> myFutureQueue = new ConcurrentHashMap<>();
+
+    private final ForkJoinPool myThreadPool;
+
+    /**
+     * @param numTaxa number of taxa
+     * @param numSites number of sites
+     * @param phased whether genotypes are phased
+     * @param index line index
+     * @param filename bgzipped file
+     * @param bytesPerSite size of array returned by parseLine(). Used to size
+     * the cache.
+     */
+    AbstractLineIndexGenotypeCallTable(int numTaxa, int numSites, boolean phased, LineIndex index, String filename, int bytesPerSite) {
+        super(numTaxa, numSites, phased, NucleotideAlignmentConstants.NUCLEOTIDE_ALLELES);
+        myIndex = index;
+        myNumLinesPerInterval = index.numLinesPerInterval();
+        myFilename = filename;
+
+        long oneThirdMemory = Runtime.getRuntime().maxMemory() / ((long) bytesPerSite * 3L);
+        myMaxCacheSize = (int) Math.min((long) (110 * Runtime.getRuntime().availableProcessors()), oneThirdMemory);
+
+        myGenoCache = CacheBuilder.newBuilder()
+                .initialCapacity(myMaxCacheSize)
+                .maximumSize(myMaxCacheSize)
+                .build();
+        myThreadPool = new ForkJoinPool();
+    }
+
+    /**
+     * Parse line from file to data for a site. The first numTaxa bytes are the
+     * genotypes.
+     *
+     * @param input input line
+     * @param site site
+     *
+     * @return data for site
+     */
+    abstract byte[] parseLine(String input, int site);
+
+    private byte[] getFromCache(int site) {
+
+        int blockNumber = site / myNumLinesPerInterval;
+
+        byte[][] result = myGenoCache.getIfPresent(blockNumber);
+
+        if (result == null) {
+
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            CompletableFuture<byte[]> temp = myFutureQueue.putIfAbsent(site, future);
+            if (temp != null) {
+                future = temp;
+            }
+            if (myCurrentlyProcessingBlocks.add(blockNumber)) {
+                myThreadPool.submit(new ProcessLines(site));
+            }
+
+            try {
+                result = myGenoCache.getIfPresent(blockNumber);
+                if (result != null) {
+                    myFutureQueue.remove(site);
+                    future.complete(result[site % myNumLinesPerInterval]);
+                    return result[site % myNumLinesPerInterval];
+                } else {
+                    return future.get();
+                }
+            } catch (Exception e) {
+                myLogger.error(e.getMessage(), e);
+            }
+
+        }
+
+        return result[site % myNumLinesPerInterval];
+
+    }
+
+    /**
+     * Returns parsed data for site. The last site requested by each thread is
+     * kept.
+     *
+     * @param site site
+     *
+     * @return data for site
+     */
+    byte[] siteData(int site) {
+        Tuple<Integer, byte[]> temp = myLastSite.get(Thread.currentThread());
+        if ((temp != null) && (temp.x == site)) {
+            return temp.y;
+        }
+        byte[] result = getFromCache(site);
+        myLastSite.put(Thread.currentThread(), new Tuple<>(site, result));
+        return result;
+    }
+
+    private BlockCompressedInputStream getReader() {
+        BlockCompressedInputStream reader = myReaders.poll();
+        if (reader == null) {
+            try {
+                reader = new BlockCompressedInputStream(new File(myFilename));
+            } catch (Exception e) {
+                myLogger.error(e.getMessage(), e);
+            }
+        }
+        return reader;
+    }
+
+    @Override
+    public byte genotype(int taxon, int site) {
+        try {
+            return siteData(site)[taxon];
+        } catch (Exception ex) {
+            myLogger.error(ex.getMessage(), ex);
+            throw new IllegalStateException(getClass().getSimpleName() + ": genotype: Error getting genotype from cache: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public byte[] genotypeForAllTaxa(int site) {
+        byte[] result = new byte[myTaxaCount];
+        System.arraycopy(getFromCache(site), 0, result, 0, myTaxaCount);
+        return result;
+    }
+
+    @Override
+    public String genotypeAsString(int taxon, int site) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(genotype(taxon, site));
+    }
+
+    @Override
+    public String diploidAsString(int site, byte value) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(value);
+    }
+
+    @Override
+    public void transposeData(boolean siteInnerLoop) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    private class ProcessLines implements Runnable {
+
+        private int myStartSite;
+        private final int mySeekIndex;
+        private final int myProcessBlock;
+
+        public ProcessLines(int site) {
+            myProcessBlock = site / myNumLinesPerInterval;
+            myStartSite = myProcessBlock * myNumLinesPerInterval;
+            mySeekIndex = myStartSite / myNumLinesPerInterval;
+        }
+
+        @Override
+        public void run() {
+
+            if (myStartSite >= mySiteCount) {
+                return;
+            }
+
+            int currentBlock = myProcessBlock;
+            BlockCompressedInputStream reader = getReader();
+            try {
+
+                reader.seek(myIndex.virtualOffset(mySeekIndex));
+
+                int numSites = Math.min(myNumLinesPerInterval, mySiteCount - myStartSite);
+                byte[][] result = new byte[numSites][];
+                for (int i = 0; i < numSites; i++) {
+                    result[i] = parseLine(reader.readLine(), myStartSite + i);
+                    CompletableFuture<byte[]> future = myFutureQueue.remove(myStartSite + i);
+                    if (future != null) {
+                        future.complete(result[i]);
+                    }
+                }
+                myGenoCache.put(myProcessBlock, result);
+                // This get to prevent early eviction from cache
+                myGenoCache.getIfPresent(myProcessBlock);
+                myCurrentlyProcessingBlocks.remove(myProcessBlock);
+                for (int i = 0; i < numSites; i++) {
+                    CompletableFuture<byte[]> future = myFutureQueue.remove(myStartSite + i);
+                    if (future != null) {
+                        future.complete(result[i]);
+                    }
+                }
+                myStartSite += myNumLinesPerInterval;
+                if (myStartSite >= mySiteCount) {
+                    return;
+                }
+
+                for (int b = 1; b < NUM_LOOK_AHEAD_BLOCKS; b++) {
+
+                    if (myGenoCache.getIfPresent(myProcessBlock + b) != null) {
+                        return;
+                    }
+                    if (!myCurrentlyProcessingBlocks.add(myProcessBlock + b)) {
+                        return;
+                    }
+                    currentBlock = myProcessBlock + b;
+
+                    numSites = Math.min(myNumLinesPerInterval, mySiteCount - myStartSite);
+                    result = new byte[numSites][];
+                    for (int i = 0; i < numSites; i++) {
+                        result[i] = parseLine(reader.readLine(), myStartSite + i);
+                    }
+                    myGenoCache.put(myProcessBlock + b, result);
+                    // This get to prevent early eviction from cache
+                    myGenoCache.getIfPresent(myProcessBlock + b);
+                    myCurrentlyProcessingBlocks.remove(myProcessBlock + b);
+                    for (int i = 0; i < numSites; i++) {
+                        CompletableFuture<byte[]> future = myFutureQueue.remove(myStartSite + i);
+                        if (future != null) {
+                            future.complete(result[i]);
+                        }
+                    }
+                    myStartSite += myNumLinesPerInterval;
+                    if (myStartSite >= mySiteCount) {
+                        return;
+                    }
+                }
+
+            } catch (Exception e) {
+                myLogger.error(e.getMessage(), e);
+                // release threads waiting on sites of the failed block
+                myCurrentlyProcessingBlocks.remove(currentBlock);
+                int numSites = Math.min(myNumLinesPerInterval, mySiteCount - myStartSite);
+                for (int i = 0; i < numSites; i++) {
+                    CompletableFuture<byte[]> future = myFutureQueue.remove(myStartSite + i);
+                    if (future != null) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            } finally {
+                myReaders.add(reader);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ *  BlockCompressedGenotypeCallTable
+ */
+package net.maizegenetics.dna.snp.genotypecall;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
+import net.maizegenetics.dna.snp.io.BlockGenotypeFile;
+import org.apache.log4j.Logger;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Genotype call table backed by a block genotype file (see
+ * BlockGenotypeFile). Site blocks are read and decompressed when first
+ * accessed and kept in a least recently used cache. Allele frequency
+ * summaries are read per block from the file, so allele frequencies are not
+ * recalculated from genotypes. The file is opened for each block read, so no
+ * file handle is held between reads.
+ *
+ * @author agent
+ */
+public class BlockCompressedGenotypeCallTable extends AbstractGenotypeCallTable {
+
+    private static final Logger myLogger = Logger.getLogger(BlockCompressedGenotypeCallTable.class);
+
+    private final String myFilename;
+    private final int mySitesPerBlock;
+    private final long[] myBlockOffsets;
+    private final int[] myBlockLengths;
+    private final long[] mySummaryOffsets;
+    private final int[] mySummaryLengths;
+
+    private final LoadingCache<Integer, byte[]> myGenoCache;
+    private final LoadingCache<Integer, BlockGenotypeFile.BlockSummary> mySummaryCache;
+
+    private BlockCompressedGenotypeCallTable(int numTaxa, int numSites, boolean phased, String filename, int sitesPerBlock,
+            long[] blockOffsets, int[] blockLengths, long[] summaryOffsets, int[] summaryLengths) {
+        super(numTaxa, numSites, phased, NucleotideAlignmentConstants.NUCLEOTIDE_ALLELES);
+        myFilename = filename;
+        mySitesPerBlock = sitesPerBlock;
+        myBlockOffsets = blockOffsets;
+        myBlockLengths = blockLengths;
+        mySummaryOffsets = summaryOffsets;
+        mySummaryLengths = summaryLengths;
+        if (!Files.isReadable(Paths.get(filename))) {
+            throw new IllegalArgumentException("BlockCompressedGenotypeCallTable: init: can't read: " + filename);
+        }
+
+        long blockBytes = Math.max(1L, (long) numTaxa * (long) sitesPerBlock);
+        long oneThirdMemory = Runtime.getRuntime().maxMemory() / (blockBytes * 3L);
+        int maxCacheSize = (int) Math.max(2L, Math.min((long) (4 * Runtime.getRuntime().availableProcessors()), oneThirdMemory));
+
+        myGenoCache = CacheBuilder.newBuilder()
+                .maximumSize(maxCacheSize)
+                .build(new CacheLoader<Integer, byte[]>() {
+                    @Override
+                    public byte[] load(Integer block) throws IOException {
+                        return Snappy.uncompress(read(myBlockOffsets[block], myBlockLengths[block]));
+                    }
+                });
+
+        mySummaryCache = CacheBuilder.newBuilder()
+                .maximumSize(1024)
+                .build(new CacheLoader<Integer, BlockGenotypeFile.BlockSummary>() {
+                    @Override
+                    public BlockGenotypeFile.BlockSummary load(Integer block) throws IOException {
+                        return BlockGenotypeFile.BlockSummary.fromBytes(Snappy.uncompress(read(mySummaryOffsets[block], mySummaryLengths[block])));
+                    }
+                });
+    }
+
+    /**
+     * Creates genotype call table.
+     *
+     * @param numTaxa number of taxa
+     * @param numSites number of sites
+     * @param phased whether genotypes are phased
+     * @param filename block genotype file
+     * @param sitesPerBlock number of sites per block
+     * @param blockOffsets file offset of each genotype block
+     * @param blockLengths compressed length of each genotype block
+     * @param summaryOffsets file offset of each summary block
+     * @param summaryLengths compressed length of each summary block
+     *
+     * @return genotype call table
+     */
+    public static BlockCompressedGenotypeCallTable getInstance(int numTaxa, int numSites, boolean phased, String filename, int sitesPerBlock,
+            long[] blockOffsets, int[] blockLengths, long[] summaryOffsets, int[] summaryLengths) {
+        return new BlockCompressedGenotypeCallTable(numTaxa, numSites, phased, filename, sitesPerBlock, blockOffsets, blockLengths, summaryOffsets, summaryLengths);
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(Paths.get(myFilename), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("BlockCompressedGenotypeCallTable: read: unexpected end of file: " + myFilename);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private byte[] block(int block) {
+        try {
+            return myGenoCache.get(block);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockCompressedGenotypeCallTable: block: problem reading block: " + block + " of: " + myFilename + ": " + e.getCause().getMessage());
+        }
+    }
+
+    private BlockGenotypeFile.BlockSummary summary(int site) {
+        try {
+            return mySummaryCache.get(site / mySitesPerBlock);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockCompressedGenotypeCallTable: summary: problem reading summary for site: " + site + " of: " + myFilename + ": " + e.getCause().getMessage());
+        }
+    }
+
+    @Override
+    public byte genotype(int taxon, int site) {
+        return block(site / mySitesPerBlock)[(site % mySitesPerBlock) * myTaxaCount + taxon];
+    }
+
+    @Override
+    public byte[] genotypeForAllTaxa(int site) {
+        byte[] result = new byte[myTaxaCount];
+        System.arraycopy(block(site / mySitesPerBlock), (site % mySitesPerBlock) * myTaxaCount, result, 0, myTaxaCount);
+        return result;
+    }
+
+    @Override
+    public byte[] genotypeForSiteRange(int taxon, int start, int end) {
+        byte[] result = new byte[end - start];
+        int site = start;
+        while (site < end) {
+            int blockNum = site / mySitesPerBlock;
+            byte[] current = block(blockNum);
+            int blockEnd = Math.min(end, (blockNum + 1) * mySitesPerBlock);
+            for (int index = (site % mySitesPerBlock) * myTaxaCount + taxon; site < blockEnd; site++, index += myTaxaCount) {
+                result[site - start] = current[index];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] genotypeForAllSites(int taxon) {
+        return genotypeForSiteRange(taxon, 0, mySiteCount);
+    }
+
+    @Override
+    public String genotypeAsString(int taxon, int site) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(genotype(taxon, site));
+    }
+
+    @Override
+    public String diploidAsString(int site, byte value) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(value);
+    }
+
+    @Override
+    public int[][] allelesSortedByFrequency(int site) {
+        return summary(site).allelesSortedByFrequency(site % mySitesPerBlock);
+    }
+
+    @Override
+    public double minorAlleleFrequency(int site) {
+        return summary(site).minorAlleleFrequency(site % mySitesPerBlock);
+    }
+
+    @Override
+    public void transposeData(boolean siteInnerLoop) {
+        // blocks hold all taxa for a range of sites, which serves both loop orders
+    }
+
+}
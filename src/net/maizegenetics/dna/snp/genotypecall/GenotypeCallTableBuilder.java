@@ -284,6 +284,46 @@ public class GenotypeCallTableBuilder {
         }
     }
 
+    /**
+     * Builds memory mapped GenotypeCallTable. Genotypes are written packed two
+     * bits per call to the given file, and the returned table decodes directly
+     * from the mapped pages. Only nucleotide encodings are supported.
+     *
+     * @param filename memory mapped genotype file
+     *
+     * @return memory mapped GenotypeCallTable
+     */
+    public GenotypeCallTable buildMemoryMapped(String filename) {
+        GenotypeCallTable temp = build();
+        MemoryMappedGenotypeCallTable.write(temp, filename);
+        return MemoryMappedGenotypeCallTable.getInstance(filename);
+    }
+
+    /**
+     * Writes given GenotypeCallTable to memory mapped genotype file and returns
+     * table backed by that file.
+     *
+     * @param genotype genotype call table
+     * @param filename memory mapped genotype file
+     *
+     * @return memory mapped GenotypeCallTable
+     */
+    public static GenotypeCallTable buildMemoryMapped(GenotypeCallTable genotype, String filename) {
+        MemoryMappedGenotypeCallTable.write(genotype, filename);
+        return MemoryMappedGenotypeCallTable.getInstance(filename);
+    }
+
+    /**
+     * Opens existing memory mapped genotype file.
+     *
+     * @param filename memory mapped genotype file
+     *
+     * @return memory mapped GenotypeCallTable
+     */
+    public static GenotypeCallTable openMemoryMapped(String filename) {
+        return MemoryMappedGenotypeCallTable.getInstance(filename);
+    }
+
     public static GenotypeCallTable buildHDF5(String filename) {
         return HDF5ByteGenotypeCallTable.getInstance(HDF5Factory.openForReading(filename));
     }
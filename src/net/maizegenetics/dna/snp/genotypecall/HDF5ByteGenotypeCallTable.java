@@ -15,7 +15,12 @@ import net.maizegenetics.taxa.TaxaListBuilder;
 import net.maizegenetics.util.Tassel5HDF5Constants;
 import net.maizegenetics.util.HDF5Utils;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.Spliterator;
 import java.util.stream.Stream;
@@ -26,6 +31,14 @@ import org.apache.log4j.Logger;
 /**
  * HDF5 implementation of GenotypeTable. Uses caching of GenotypeTable,
  * alleleCounts, MAF, and siteCoverage
+ * <p></p>
+ * When a taxon is read sequentially, the next 65,536 site block for that
+ * taxon is read ahead asynchronously, so reads overlap with computation. Reads
+ * share one reader, as jhdf5 serializes native calls anyway. When access
+ * is site major (taxa loop inside site loop, see transposeData() and
+ * genotypeForAllTaxa()), whole site blocks for all taxa are pinned in memory
+ * and the next site block is read ahead. Hit, miss, and wait time counters
+ * are available through cacheStatistics().
  *
  * @author Ed Buckler
  * @author Terry Casstevens
@@ -42,41 +55,72 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
      */
     private static final int HDF5_GENOTYPE_BLOCK_SIZE = 1 << SHIFT_AMOUNT;
     public static final int SITE_BLOCK_MASK = ~(HDF5_GENOTYPE_BLOCK_SIZE - 1);
+    private static final int NUM_MISSES_PER_STATISTICS_LOG = 1 << 12;
+
+    /**
+     * Read aheads for all instances. Daemon threads, so nothing needs to be
+     * shut down when a table is no longer used.
+     */
+    private static final ExecutorService READ_AHEAD_POOL = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "HDF5ByteGenotypeCallTable read ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final IHDF5Reader myHDF5Reader;
 
+    private final LongAdder myNumHits = new LongAdder();
+    private final LongAdder myNumMisses = new LongAdder();
+    private final LongAdder myWaitTimeNanos = new LongAdder();
+    private final LongAdder myNumReadAheads = new LongAdder();
+
     private final LoadingCache<Long, byte[]> myGenoCache;
+    private final Set<Long> myReadAheadKeys = ConcurrentHashMap.newKeySet();
     private final CacheLoader<Long, byte[]> myGenoLoader = new CacheLoader<Long, byte[]>() {
         @Override
         public byte[] load(Long key) {
-            long offset = getSiteStartFromKey(key) << SHIFT_AMOUNT;
-            byte[] data;
-            synchronized (myHDF5Reader) {
-                data = myHDF5Reader.readAsByteArrayBlockWithOffset(getTaxaGenoPath(getTaxonFromKey(key)), HDF5_GENOTYPE_BLOCK_SIZE, offset);
+            return readBlock(getTaxonFromKey(key), getSiteStartFromKey(key));
+        }
+    };
+
+    /**
+     * Site major (pinned block) mode. Key is site block number. Value is
+     * genotypes for all taxa in that block.
+     */
+    private volatile boolean mySiteMajor = false;
+    private final int myMaxNumPinnedBlocks;
+    private final LoadingCache<Integer, byte[][]> myPinnedBlocks;
+    private final Set<Integer> myReadAheadPinnedKeys = ConcurrentHashMap.newKeySet();
+    private final CacheLoader<Integer, byte[][]> myPinnedLoader = new CacheLoader<Integer, byte[][]>() {
+        @Override
+        public byte[][] load(Integer block) {
+            byte[][] result = new byte[myTaxaCount][];
+            int startSite = block << SHIFT_AMOUNT;
+            for (int t = 0; t < myTaxaCount; t++) {
+                byte[] cached = myGenoCache.getIfPresent(getCacheKey(t, startSite));
+                result[t] = (cached != null) ? cached : readBlock(t, block);
             }
-            return data;
+            return result;
         }
     };
 
     private final LoadingCache<Integer, SiteBlockAttr> mySiteAnnoCache; //key = site
     private final CacheLoader<Integer, SiteBlockAttr> siteAnnotLoader = new CacheLoader<Integer, SiteBlockAttr>() {
-        int lastCachedStartSite = Integer.MIN_VALUE;
-        int[][] af;
-        byte[][] afOrder;
-        float[] maf;
-        float[] paf;
 
         @Override
         public SiteBlockAttr load(Integer key) {
             int startSite = getStartSite(key);
             int length = Math.min(HDF5_GENOTYPE_BLOCK_SIZE, numberOfSites() - startSite);
-            System.out.println("Reading from HDF5 site anno:" + startSite);
-            System.out.println("");
+            myLogger.debug("Reading from HDF5 site anno: " + startSite);
+            int[][] af;
+            byte[][] afOrder;
+            float[] maf;
+            float[] paf;
             synchronized (myHDF5Reader) {
                 af = myHDF5Reader.readIntMatrixBlockWithOffset(Tassel5HDF5Constants.ALLELE_CNT, 6, length, 0l, startSite);
                 afOrder = myHDF5Reader.readByteMatrixBlockWithOffset(Tassel5HDF5Constants.ALLELE_FREQ_ORD, 6, length, 0l, startSite);
                 maf = myHDF5Reader.readFloatArrayBlockWithOffset(Tassel5HDF5Constants.MAF, length, startSite);
                 paf = myHDF5Reader.readFloatArrayBlockWithOffset(Tassel5HDF5Constants.SITECOV, length, startSite);
-                lastCachedStartSite = startSite;
             }
             return new SiteBlockAttr(startSite, afOrder, af, maf, paf);
         }
@@ -143,6 +187,168 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
         return genotypePaths[taxon];
     }
 
+    /**
+     * Reads one site block for a taxon.
+     *
+     * @param taxon taxon
+     * @param block site block number
+     *
+     * @return genotypes
+     */
+    private byte[] readBlock(int taxon, int block) {
+        long offset = (long) block << SHIFT_AMOUNT;
+        synchronized (myHDF5Reader) {
+            return myHDF5Reader.readAsByteArrayBlockWithOffset(getTaxaGenoPath(taxon), HDF5_GENOTYPE_BLOCK_SIZE, offset);
+        }
+    }
+
+    /**
+     * Gets site block containing given site for a taxon. On a miss, or on the
+     * first hit of a block that was read ahead, the following block is
+     * scheduled to be read ahead.
+     */
+    private byte[] genotypeBlock(int taxon, int site) {
+
+        long key = getCacheKey(taxon, site);
+        byte[] data = myGenoCache.getIfPresent(key);
+        if (data != null) {
+            myNumHits.increment();
+            if (myReadAheadKeys.remove(key)) {
+                readAhead(myGenoCache, myReadAheadKeys, key + 1, site + HDF5_GENOTYPE_BLOCK_SIZE);
+            }
+            return data;
+        }
+
+        myNumMisses.increment();
+        myReadAheadKeys.remove(key);
+        long start = System.nanoTime();
+        try {
+            data = myGenoCache.get(key);
+        } catch (ExecutionException ex) {
+            myLogger.error(ex.getMessage(), ex);
+            throw new IllegalStateException("HDF5ByteGenotyeCallTable: genotypeBlock: Error getting block from cache: " + ex.getMessage());
+        } finally {
+            myWaitTimeNanos.add(System.nanoTime() - start);
+        }
+        readAhead(myGenoCache, myReadAheadKeys, key + 1, site + HDF5_GENOTYPE_BLOCK_SIZE);
+        logStatistics();
+        return data;
+
+    }
+
+    /**
+     * Gets pinned site block (all taxa) containing given site.
+     */
+    private byte[][] pinnedBlock(int site) {
+
+        int block = site >>> SHIFT_AMOUNT;
+        byte[][] data = myPinnedBlocks.getIfPresent(block);
+        if (data != null) {
+            myNumHits.increment();
+            if (myReadAheadPinnedKeys.remove(block)) {
+                readAhead(myPinnedBlocks, myReadAheadPinnedKeys, block + 1, site + HDF5_GENOTYPE_BLOCK_SIZE);
+            }
+            return data;
+        }
+
+        myNumMisses.increment();
+        myReadAheadPinnedKeys.remove(block);
+        long start = System.nanoTime();
+        try {
+            data = myPinnedBlocks.get(block);
+        } catch (ExecutionException ex) {
+            myLogger.error(ex.getMessage(), ex);
+            throw new IllegalStateException("HDF5ByteGenotyeCallTable: pinnedBlock: Error getting block from cache: " + ex.getMessage());
+        } finally {
+            myWaitTimeNanos.add(System.nanoTime() - start);
+        }
+        if (myMaxNumPinnedBlocks > 1) {
+            readAhead(myPinnedBlocks, myReadAheadPinnedKeys, block + 1, site + HDF5_GENOTYPE_BLOCK_SIZE);
+        }
+        logStatistics();
+        return data;
+
+    }
+
+    private <K> void readAhead(LoadingCache<K, ?> cache, Set<K> readAheadKeys, K key, int site) {
+        if (site >= mySiteCount) {
+            return;
+        }
+        if (cache.getIfPresent(key) != null) {
+            return;
+        }
+        if (!readAheadKeys.add(key)) {
+            return;
+        }
+        myNumReadAheads.increment();
+        READ_AHEAD_POOL.submit(() -> {
+            try {
+                cache.getUnchecked(key);
+            } catch (Exception e) {
+                readAheadKeys.remove(key);
+                myLogger.debug(e.getMessage(), e);
+            }
+        });
+    }
+
+    private boolean useSiteMajor() {
+        return mySiteMajor && (myMaxNumPinnedBlocks > 0);
+    }
+
+    private void logStatistics() {
+        if (myLogger.isDebugEnabled() && (myNumMisses.sum() % NUM_MISSES_PER_STATISTICS_LOG == 0)) {
+            myLogger.debug(cacheStatistics());
+        }
+    }
+
+    /**
+     * Number of genotype block requests satisfied by the cache.
+     *
+     * @return number of hits
+     */
+    public long hitCount() {
+        return myNumHits.sum();
+    }
+
+    /**
+     * Number of genotype block requests that had to wait for a read.
+     *
+     * @return number of misses
+     */
+    public long missCount() {
+        return myNumMisses.sum();
+    }
+
+    /**
+     * Total time calling threads spent waiting for reads.
+     *
+     * @return wait time in nanoseconds
+     */
+    public long waitTimeNanos() {
+        return myWaitTimeNanos.sum();
+    }
+
+    /**
+     * Number of blocks scheduled to be read ahead.
+     *
+     * @return number of read aheads
+     */
+    public long readAheadCount() {
+        return myNumReadAheads.sum();
+    }
+
+    public String cacheStatistics() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("HDF5ByteGenotypeCallTable: ");
+        builder.append(myHDF5Reader.getFile().getAbsolutePath());
+        builder.append(" hits: ").append(hitCount());
+        builder.append(" misses: ").append(missCount());
+        builder.append(" wait time (ms): ").append(waitTimeNanos() / 1000000L);
+        builder.append(" read aheads: ").append(readAheadCount());
+        builder.append(" site major: ").append(useSiteMajor());
+        return builder.toString();
+    }
+
     private HDF5ByteGenotypeCallTable(IHDF5Reader reader, int numTaxa, int numSites, boolean phased, String[][] alleleEncodings) {
         super(numTaxa, numSites, phased, alleleEncodings);
         genotypePaths = new String[numTaxa];
@@ -150,12 +356,18 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
         for (int i = 0; i < numTaxa; i++) {
             genotypePaths[i] = Tassel5HDF5Constants.getGenotypesCallsPath(tL.taxaName(i));
         }
+        int numProcessors = Runtime.getRuntime().availableProcessors();
         myHDF5Reader = reader;
         long oneThirdMemory = Runtime.getRuntime().maxMemory() / 196608l;
-        long oneColumnBlockForEachProcess = numTaxa * Runtime.getRuntime().availableProcessors();
+        long oneColumnBlockForEachProcess = numTaxa * numProcessors;
         myGenoCache = CacheBuilder.newBuilder()
                 .maximumSize(Math.min(oneThirdMemory, oneColumnBlockForEachProcess))
                 .build(myGenoLoader);
+        long oneThirdMemoryPinned = Runtime.getRuntime().maxMemory() / 3l / ((long) Math.max(1, numTaxa) * (long) HDF5_GENOTYPE_BLOCK_SIZE);
+        myMaxNumPinnedBlocks = (int) Math.min(oneThirdMemoryPinned, numProcessors);
+        myPinnedBlocks = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, myMaxNumPinnedBlocks))
+                .build(myPinnedLoader);
         mySiteAnnoCache = CacheBuilder.newBuilder()
                 .maximumSize(150)
                 .build(siteAnnotLoader);
@@ -173,13 +385,24 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
 
     @Override
     public byte genotype(int taxon, int site) {
-        try {
-            byte[] data = myGenoCache.get(getCacheKey(taxon, site));
-            return data[site % HDF5_GENOTYPE_BLOCK_SIZE];
-        } catch (ExecutionException ex) {
-            myLogger.error(ex.getMessage(), ex);
-            throw new IllegalStateException("HDF5ByteGenotyeCallTable: getBase: Error getting base from cache: " + ex.getMessage());
+        if (useSiteMajor()) {
+            return pinnedBlock(site)[taxon][site % HDF5_GENOTYPE_BLOCK_SIZE];
+        }
+        return genotypeBlock(taxon, site)[site % HDF5_GENOTYPE_BLOCK_SIZE];
+    }
+
+    @Override
+    public byte[] genotypeForAllTaxa(int site) {
+        if (myMaxNumPinnedBlocks == 0) {
+            return super.genotypeForAllTaxa(site);
+        }
+        byte[][] block = pinnedBlock(site);
+        int offset = site % HDF5_GENOTYPE_BLOCK_SIZE;
+        byte[] result = new byte[myTaxaCount];
+        for (int t = 0; t < myTaxaCount; t++) {
+            result[t] = block[t][offset];
         }
+        return result;
     }
 
     @Override
@@ -214,9 +437,15 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
         }
     }
 
+    /**
+     * Data isn't transposed, but if siteInnerLoop is false, this switches to
+     * pinned block mode where whole site blocks for all taxa are loaded.
+     *
+     * @param siteInnerLoop flag for which iteration
+     */
     @Override
     public void transposeData(boolean siteInnerLoop) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        mySiteMajor = !siteInnerLoop;
     }
 
     @Override
@@ -245,34 +474,24 @@ class HDF5ByteGenotypeCallTable extends AbstractGenotypeCallTable {
 
             for (; myTaxaOrigin < myTaxaFence; myTaxaOrigin++) {
                 while (mySiteOrigin < myNumSites) {
-                    try {
-                        byte[] data = myGenoCache.get(getCacheKey(myTaxaOrigin, mySiteOrigin));
-                        int startIndex = mySiteOrigin % HDF5_GENOTYPE_BLOCK_SIZE;
-                        int endIndex = data.length;
-                        for (int i = startIndex; i < endIndex; i++) {
-                            action.accept(data[i]);
-                        }
-                        mySiteOrigin += endIndex - startIndex;
-                    } catch (ExecutionException ex) {
-                        myLogger.error(ex.getMessage(), ex);
-                        throw new IllegalStateException("HDF5ByteGenotyeCallTable: HDF5ByteGenotypeCallTableSpliterator: forEachRemaining: Error getting base from cache: " + ex.getMessage());
-                    }
-                }
-                mySiteOrigin = 0;
-            }
-            while (mySiteOrigin < mySiteFence) {
-                try {
-                    byte[] data = myGenoCache.get(getCacheKey(myTaxaOrigin, mySiteOrigin));
+                    byte[] data = genotypeBlock(myTaxaOrigin, mySiteOrigin);
                     int startIndex = mySiteOrigin % HDF5_GENOTYPE_BLOCK_SIZE;
-                    int endIndex = Math.min(data.length, mySiteFence - mySiteOrigin);
+                    int endIndex = data.length;
                     for (int i = startIndex; i < endIndex; i++) {
                         action.accept(data[i]);
                     }
                     mySiteOrigin += endIndex - startIndex;
-                } catch (ExecutionException ex) {
-                    myLogger.error(ex.getMessage(), ex);
-                    throw new IllegalStateException("HDF5ByteGenotyeCallTable: HDF5ByteGenotypeCallTableSpliterator: forEachRemaining: Error getting base from cache: " + ex.getMessage());
                 }
+                mySiteOrigin = 0;
+            }
+            while (mySiteOrigin < mySiteFence) {
+                byte[] data = genotypeBlock(myTaxaOrigin, mySiteOrigin);
+                int startIndex = mySiteOrigin % HDF5_GENOTYPE_BLOCK_SIZE;
+                int endIndex = Math.min(data.length, mySiteFence - mySiteOrigin);
+                for (int i = startIndex; i < endIndex; i++) {
+                    action.accept(data[i]);
+                }
+                mySiteOrigin += endIndex - startIndex;
             }
         }
 
@@ -0,0 +1,214 @@
+/*
+ *  LineIndexVCFGenotypeCallTable
+ */
+package net.maizegenetics.dna.snp.genotypecall;
+
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.GenotypeTableUtils;
+import net.maizegenetics.dna.snp.depth.AlleleDepthUtil;
+import net.maizegenetics.dna.snp.io.LineIndex;
+
+/**
+ * Genotype call table for a bgzipped VCF file with a line index. GT and
+ * optionally AD are decoded from a line when its site is first requested.
+ * Columns must be in the standard VCF order, with FORMAT in the ninth column.
+ * The FORMAT column is read for each line, and GT must be the first field.
+ *
+ * @author agent
+ */
+public class LineIndexVCFGenotypeCallTable extends AbstractLineIndexGenotypeCallTable {
+
+    private static final int NUM_VCF_NON_TAXA_HEADERS = 9;
+    private static final int NUM_DEPTH_ALLELES = 6;
+
+    private final byte[][] myAlleles;
+    private final boolean myKeepDepth;
+
+    private LineIndexVCFGenotypeCallTable(int numTaxa, int numSites, boolean phased, byte[][] alleles, boolean keepDepth, LineIndex index, String filename) {
+        super(numTaxa, numSites, phased, index, filename, keepDepth ? numTaxa * (NUM_DEPTH_ALLELES + 1) : numTaxa);
+        if (alleles.length != numSites) {
+            throw new IllegalArgumentException("LineIndexVCFGenotypeCallTable: init: number of allele arrays: " + alleles.length + " doesn't match number of sites: " + numSites);
+        }
+        myAlleles = alleles;
+        myKeepDepth = keepDepth;
+    }
+
+    /**
+     * Creates genotype call table.
+     *
+     * @param numTaxa number of taxa
+     * @param numSites number of sites
+     * @param phased whether genotypes are phased
+     * @param alleles alleles for each site in the order of REF and ALT
+     * @param keepDepth whether to decode AD
+     * @param index line index
+     * @param filename bgzipped VCF file
+     *
+     * @return genotype call table
+     */
+    public static LineIndexVCFGenotypeCallTable getInstance(int numTaxa, int numSites, boolean phased, byte[][] alleles, boolean keepDepth, LineIndex index, String filename) {
+        return new LineIndexVCFGenotypeCallTable(numTaxa, numSites, phased, alleles, keepDepth, index, filename);
+    }
+
+    /**
+     * Whether allele depths are decoded.
+     *
+     * @return true if depths are kept
+     */
+    public boolean hasDepth() {
+        return myKeepDepth;
+    }
+
+    /**
+     * Returns depth of allele for taxon and site.
+     *
+     * @param taxon taxon
+     * @param site site
+     * @param allele allele (0 - 5)
+     *
+     * @return depth as byte (see AlleleDepthUtil)
+     */
+    public byte depthForAlleleByte(int taxon, int site, int allele) {
+        if (!myKeepDepth) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: depthForAlleleByte: depths not kept.");
+        }
+        return siteData(site)[myTaxaCount + taxon * NUM_DEPTH_ALLELES + allele];
+    }
+
+    /**
+     * Parses genotypes and depths of a VCF line. Genotypes are stored in the
+     * first numTaxa bytes. Depths follow, six alleles per taxon.
+     */
+    @Override
+    byte[] parseLine(String input, int site) {
+
+        int len = input.length();
+        int tabIndex = 0;
+        int offset = 0;
+        int formatStart = 0;
+        for (int i = 0; (tabIndex < NUM_VCF_NON_TAXA_HEADERS) && (i < len); i++) {
+            if (input.charAt(i) == '\t') {
+                tabIndex++;
+                if (tabIndex == NUM_VCF_NON_TAXA_HEADERS - 1) {
+                    formatStart = i + 1;
+                }
+                offset = i + 1;
+            }
+        }
+        if (tabIndex < NUM_VCF_NON_TAXA_HEADERS) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " has no genotypes.");
+        }
+        if (!input.startsWith("GT", formatStart)) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " GT field is not in first position of FORMAT.");
+        }
+        int iAD = myKeepDepth ? fieldIndex(input, formatStart, offset - 1, 'A', 'D') : -1;
+
+        byte[] alleles = myAlleles[site];
+        byte[] data = new byte[myKeepDepth ? myTaxaCount * (NUM_DEPTH_ALLELES + 1) : myTaxaCount];
+        int taxon = 0;
+        int taxonStart = offset;
+        while (taxonStart <= len) {
+            if (taxon >= myTaxaCount) {
+                throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " has too many values.");
+            }
+            int taxonEnd = input.indexOf('\t', taxonStart);
+            if (taxonEnd == -1) {
+                taxonEnd = len;
+            }
+            data[taxon] = parseGenotype(input, taxonStart, taxonEnd, alleles, site);
+            if (iAD > 0) {
+                parseDepth(input, taxonStart, taxonEnd, iAD, alleles, data, myTaxaCount + taxon * NUM_DEPTH_ALLELES);
+            }
+            taxon++;
+            taxonStart = taxonEnd + 1;
+        }
+
+        if (taxon != myTaxaCount) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " has too few values: " + taxon);
+        }
+
+        return data;
+    }
+
+    private static byte parseGenotype(String input, int start, int end, byte[] alleles, int site) {
+        if ((end == start) || ((end - start == 1) && (input.charAt(start) == '.'))) {
+            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+        }
+        int gtEnd = input.indexOf(':', start);
+        if ((gtEnd == -1) || (gtEnd > end)) {
+            gtEnd = end;
+        }
+        if (gtEnd - start < 3) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " found haploid information for the element: "
+                    + input.substring(start, end) + ". Expected a diploid entry.");
+        }
+        int a1 = input.charAt(start) - '0';
+        int a2 = input.charAt(start + 2) - '0';
+        if ((a1 >= alleles.length && a1 <= 9) || (a2 >= alleles.length && a2 <= 9)) {
+            throw new IllegalStateException("LineIndexVCFGenotypeCallTable: Site: " + site + " allele ID larger than number of alleles: " + input.substring(start, gtEnd));
+        }
+        if ((a1 < 0) || (a2 < 0) || (a1 > 9) || (a2 > 9)) {
+            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+        }
+        return GenotypeTableUtils.getDiploidValue(alleles[a1], alleles[a2]);
+    }
+
+    /**
+     * Parses AD field of a taxon into depths at offset. Depths of unknown
+     * alleles and missing depths are skipped.
+     */
+    private static void parseDepth(String input, int start, int end, int iAD, byte[] alleles, byte[] data, int offset) {
+        int fieldStart = start;
+        for (int f = 0; f < iAD; f++) {
+            fieldStart = input.indexOf(':', fieldStart);
+            if ((fieldStart == -1) || (fieldStart >= end)) {
+                return;
+            }
+            fieldStart++;
+        }
+        int fieldEnd = input.indexOf(':', fieldStart);
+        if ((fieldEnd == -1) || (fieldEnd > end)) {
+            fieldEnd = end;
+        }
+        int i = 0;
+        int adStart = fieldStart;
+        while ((adStart <= fieldEnd) && (i < alleles.length)) {
+            int adEnd = adStart;
+            int value = 0;
+            boolean isNumber = adEnd < fieldEnd;
+            while ((adEnd < fieldEnd) && (input.charAt(adEnd) != ',')) {
+                int digit = input.charAt(adEnd) - '0';
+                if ((digit < 0) || (digit > 9)) {
+                    isNumber = false;
+                }
+                value = value * 10 + digit;
+                adEnd++;
+            }
+            if (isNumber && (alleles[i] != GenotypeTable.UNKNOWN_ALLELE)) {
+                data[offset + alleles[i]] = AlleleDepthUtil.depthIntToByte(value);
+            }
+            i++;
+            adStart = adEnd + 1;
+        }
+    }
+
+    /**
+     * Returns index of the colon separated field with the given two character
+     * name, or -1 if not present.
+     */
+    private static int fieldIndex(String input, int start, int end, char first, char second) {
+        int f = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if ((i == end) || (input.charAt(i) == ':')) {
+                if ((i - fieldStart == 2) && (input.charAt(fieldStart) == first) && (input.charAt(fieldStart + 1) == second)) {
+                    return f;
+                }
+                f++;
+                fieldStart = i + 1;
+            }
+        }
+        return -1;
+    }
+
+}
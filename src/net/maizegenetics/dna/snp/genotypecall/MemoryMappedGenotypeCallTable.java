@@ -0,0 +1,361 @@
+/*
+ *  MemoryMappedGenotypeCallTable
+ */
+package net.maizegenetics.dna.snp.genotypecall;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
+import net.maizegenetics.util.MemoryMappedRegion;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Memory mapped implementation of GenotypeCallTable. Genotypes are stored two
+ * bits per call in a site major layout. Each site has a dictionary of up to
+ * three diploid values (code 3 is always unknown), which covers biallelic
+ * sites including one orientation of the heterozygote. Sites that need more
+ * than three non-missing values are stored one byte per call in a side table
+ * at the end of the file. Nothing but the file header is held on the heap, so
+ * multiple JVMs can share the page cache for the same file.
+ * <p></p>
+ * File layout (big endian)
+ * <pre>
+ * header       64 bytes (magic, version, taxa, sites, phased, number side table sites)
+ * dictionary   8 bytes per site (3 diploid values, unused byte, side table row or -1)
+ * packed       ceil(numTaxa / 4) bytes per site
+ * side table   numTaxa bytes per side table site
+ * </pre>
+ *
+ * @author agent
+ */
+class MemoryMappedGenotypeCallTable extends AbstractGenotypeCallTable {
+
+    private static final Logger myLogger = Logger.getLogger(MemoryMappedGenotypeCallTable.class);
+
+    public static final String FILE_EXTENSION = ".t2b";
+
+    private static final long MAGIC_NUMBER = 0x54415353454C3242L; // TASSEL2B
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int DICTIONARY_ENTRY_SIZE = 8;
+    private static final int SIDE_TABLE_ROW_COLUMN = 4;
+    private static final int NUM_DICTIONARY_VALUES = 3;
+    private static final int UNKNOWN_CODE = 3;
+    private static final int NUM_SITES_PER_WRITE_BLOCK = 4096;
+
+    private final String myFilename;
+    private final int myNumBytesPerSite;
+    private final MemoryMappedRegion myDictionary;
+    private final MemoryMappedRegion myPacked;
+    private final MemoryMappedRegion mySideTable;
+
+    private MemoryMappedGenotypeCallTable(String filename, int numTaxa, int numSites, boolean phased, MemoryMappedRegion dictionary, MemoryMappedRegion packed, MemoryMappedRegion sideTable) {
+        super(numTaxa, numSites, phased, NucleotideAlignmentConstants.NUCLEOTIDE_ALLELES);
+        myFilename = filename;
+        myNumBytesPerSite = numBytesPerSite(numTaxa);
+        myDictionary = dictionary;
+        myPacked = packed;
+        mySideTable = sideTable;
+    }
+
+    /**
+     * Opens previously written memory mapped genotype file.
+     *
+     * @param filename filename
+     *
+     * @return genotype call table
+     */
+    static MemoryMappedGenotypeCallTable getInstance(String filename) {
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IllegalStateException("MemoryMappedGenotypeCallTable: getInstance: file too short: " + filename);
+                }
+            }
+            header.flip();
+
+            if (header.getLong() != MAGIC_NUMBER) {
+                throw new IllegalStateException("MemoryMappedGenotypeCallTable: getInstance: not a memory mapped genotype file: " + filename);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("MemoryMappedGenotypeCallTable: getInstance: unsupported version: " + version + " file: " + filename);
+            }
+            int numTaxa = header.getInt();
+            int numSites = header.getInt();
+            boolean phased = header.get() != 0;
+            header.position(header.position() + 3);
+            int numSideTableSites = header.getInt();
+
+            int numBytesPerSite = numBytesPerSite(numTaxa);
+            long dictionaryStart = HEADER_SIZE;
+            long packedStart = dictionaryStart + MemoryMappedRegion.regionSize(numSites, DICTIONARY_ENTRY_SIZE);
+            long sideTableStart = packedStart + MemoryMappedRegion.regionSize(numSites, numBytesPerSite);
+            long expectedSize = sideTableStart + MemoryMappedRegion.regionSize(numSideTableSites, numTaxa);
+            if (channel.size() < expectedSize) {
+                throw new IllegalStateException("MemoryMappedGenotypeCallTable: getInstance: file: " + filename + " is truncated. Expected: " + expectedSize + " bytes but found: " + channel.size());
+            }
+
+            MemoryMappedRegion dictionary = MemoryMappedRegion.getInstance(channel, FileChannel.MapMode.READ_ONLY, dictionaryStart, numSites, DICTIONARY_ENTRY_SIZE);
+            MemoryMappedRegion packed = MemoryMappedRegion.getInstance(channel, FileChannel.MapMode.READ_ONLY, packedStart, numSites, numBytesPerSite);
+            MemoryMappedRegion sideTable = MemoryMappedRegion.getInstance(channel, FileChannel.MapMode.READ_ONLY, sideTableStart, numSideTableSites, Math.max(1, numTaxa));
+
+            myLogger.info("getInstance: " + filename + " taxa: " + numTaxa + " sites: " + numSites + " side table sites: " + numSideTableSites);
+
+            return new MemoryMappedGenotypeCallTable(filename, numTaxa, numSites, phased, dictionary, packed, sideTable);
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("MemoryMappedGenotypeCallTable: getInstance: problem reading: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Writes given genotype call table to memory mapped genotype file. Sites
+     * are encoded in parallel in blocks and written in order.
+     *
+     * @param genotype genotype call table
+     * @param filename output filename
+     */
+    static void write(GenotypeCallTable genotype, String filename) {
+
+        if (!NucleotideAlignmentConstants.isNucleotideEncodings(genotype.alleleDefinitions())) {
+            throw new IllegalArgumentException("MemoryMappedGenotypeCallTable: write: only nucleotide allele encodings are supported.");
+        }
+
+        int numTaxa = genotype.numberOfTaxa();
+        int numSites = genotype.numberOfSites();
+        int numBytesPerSite = numBytesPerSite(numTaxa);
+        long dictionaryStart = HEADER_SIZE;
+        long packedStart = dictionaryStart + MemoryMappedRegion.regionSize(numSites, DICTIONARY_ENTRY_SIZE);
+        long sideTableStart = packedStart + MemoryMappedRegion.regionSize(numSites, numBytesPerSite);
+
+        File temp = new File(filename);
+        if (temp.exists() && !temp.delete()) {
+            throw new IllegalStateException("MemoryMappedGenotypeCallTable: write: can't overwrite: " + filename);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+
+            FileChannel channel = file.getChannel();
+            int numSideTableSites = 0;
+
+            for (int blockStart = 0; blockStart < numSites; blockStart += NUM_SITES_PER_WRITE_BLOCK) {
+
+                int blockSize = Math.min(NUM_SITES_PER_WRITE_BLOCK, numSites - blockStart);
+                final int start = blockStart;
+                EncodedSite[] encoded = new EncodedSite[blockSize];
+                IntStream.range(0, blockSize).parallel().forEach(i -> encoded[i] = encodeSite(genotype.genotypeForAllTaxa(start + i), numBytesPerSite));
+
+                ByteBuffer dictionary = ByteBuffer.allocate(blockSize * DICTIONARY_ENTRY_SIZE);
+                ByteBuffer packed = ByteBuffer.allocate(blockSize * numBytesPerSite);
+                for (int i = 0; i < blockSize; i++) {
+                    EncodedSite current = encoded[i];
+                    dictionary.put(current.myDictionary);
+                    dictionary.put((byte) 0);
+                    if (current.myRaw != null) {
+                        dictionary.putInt(numSideTableSites);
+                        writeFully(channel, ByteBuffer.wrap(current.myRaw), sideTableStart + (long) numSideTableSites * (long) numTaxa);
+                        numSideTableSites++;
+                    } else {
+                        dictionary.putInt(-1);
+                    }
+                    packed.put(current.myPacked);
+                }
+                dictionary.flip();
+                packed.flip();
+                writeFully(channel, dictionary, dictionaryStart + (long) blockStart * DICTIONARY_ENTRY_SIZE);
+                writeFully(channel, packed, packedStart + (long) blockStart * (long) numBytesPerSite);
+
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC_NUMBER);
+            header.putInt(VERSION);
+            header.putInt(numTaxa);
+            header.putInt(numSites);
+            header.put(genotype.isPhased() ? (byte) 1 : (byte) 0);
+            header.put(new byte[3]);
+            header.putInt(numSideTableSites);
+            header.position(HEADER_SIZE);
+            header.flip();
+            writeFully(channel, header, 0);
+
+            myLogger.info("write: " + filename + " taxa: " + numTaxa + " sites: " + numSites + " side table sites: " + numSideTableSites);
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("MemoryMappedGenotypeCallTable: write: problem writing: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+    }
+
+    private static int numBytesPerSite(int numTaxa) {
+        return Math.max(1, (numTaxa + 3) >>> 2);
+    }
+
+    private static class EncodedSite {
+
+        private final byte[] myDictionary;
+        private final byte[] myPacked;
+        private final byte[] myRaw;
+
+        private EncodedSite(byte[] dictionary, byte[] packed, byte[] raw) {
+            myDictionary = dictionary;
+            myPacked = packed;
+            myRaw = raw;
+        }
+    }
+
+    /**
+     * Encodes genotypes for a site. Dictionary values are assigned in order of
+     * first occurrence. If more than three non-missing values exist, the site
+     * goes to the side table and the packed bytes are all unknown.
+     */
+    private static EncodedSite encodeSite(byte[] genotypes, int numBytesPerSite) {
+
+        byte[] dictionary = new byte[NUM_DICTIONARY_VALUES];
+        Arrays.fill(dictionary, GenotypeTable.UNKNOWN_DIPLOID_ALLELE);
+        int numValues = 0;
+        byte[] packed = new byte[numBytesPerSite];
+
+        for (int t = 0; t < genotypes.length; t++) {
+            byte value = genotypes[t];
+            int code = UNKNOWN_CODE;
+            if (value != GenotypeTable.UNKNOWN_DIPLOID_ALLELE) {
+                for (int d = 0; d < numValues; d++) {
+                    if (dictionary[d] == value) {
+                        code = d;
+                        break;
+                    }
+                }
+                if (code == UNKNOWN_CODE) {
+                    if (numValues == NUM_DICTIONARY_VALUES) {
+                        Arrays.fill(packed, (byte) 0xFF);
+                        return new EncodedSite(dictionary, packed, Arrays.copyOf(genotypes, genotypes.length));
+                    }
+                    dictionary[numValues] = value;
+                    code = numValues++;
+                }
+            }
+            packed[t >>> 2] |= code << ((t & 0x3) << 1);
+        }
+
+        return new EncodedSite(dictionary, packed, null);
+
+    }
+
+    private byte decode(int site, int code) {
+        if (code == UNKNOWN_CODE) {
+            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+        }
+        return myDictionary.get(site, code);
+    }
+
+    private int sideTableRow(int site) {
+        return myDictionary.getInt(site, SIDE_TABLE_ROW_COLUMN);
+    }
+
+    public String filename() {
+        return myFilename;
+    }
+
+    @Override
+    public byte genotype(int taxon, int site) {
+        int sideTableRow = sideTableRow(site);
+        if (sideTableRow >= 0) {
+            return mySideTable.get(sideTableRow, taxon);
+        }
+        int code = (myPacked.get(site, taxon >>> 2) >>> ((taxon & 0x3) << 1)) & 0x3;
+        return decode(site, code);
+    }
+
+    @Override
+    public byte[] genotypeForAllTaxa(int site) {
+
+        byte[] result = new byte[myTaxaCount];
+        int sideTableRow = sideTableRow(site);
+        if (sideTableRow >= 0) {
+            mySideTable.getBytes(sideTableRow, 0, result, 0, myTaxaCount);
+            return result;
+        }
+
+        byte[] lookup = new byte[UNKNOWN_CODE + 1];
+        myDictionary.getBytes(site, 0, lookup, 0, NUM_DICTIONARY_VALUES);
+        lookup[UNKNOWN_CODE] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+
+        byte[] packed = new byte[myNumBytesPerSite];
+        myPacked.getBytes(site, 0, packed, 0, myNumBytesPerSite);
+        int t = 0;
+        int fullBytes = myTaxaCount >>> 2;
+        for (int b = 0; b < fullBytes; b++) {
+            int current = packed[b];
+            result[t++] = lookup[current & 0x3];
+            result[t++] = lookup[(current >>> 2) & 0x3];
+            result[t++] = lookup[(current >>> 4) & 0x3];
+            result[t++] = lookup[(current >>> 6) & 0x3];
+        }
+        for (int shift = 0; t < myTaxaCount; t++, shift += 2) {
+            result[t] = lookup[(packed[fullBytes] >>> shift) & 0x3];
+        }
+        return result;
+
+    }
+
+    @Override
+    public byte[] genotypeForAllSites(int taxon) {
+        return genotypeForSiteRange(taxon, 0, mySiteCount);
+    }
+
+    @Override
+    public byte[] genotypeForSiteRange(int taxon, int start, int end) {
+        byte[] result = new byte[end - start];
+        int byteIndex = taxon >>> 2;
+        int shift = (taxon & 0x3) << 1;
+        for (int s = start; s < end; s++) {
+            int sideTableRow = sideTableRow(s);
+            if (sideTableRow >= 0) {
+                result[s - start] = mySideTable.get(sideTableRow, taxon);
+            } else {
+                result[s - start] = decode(s, (myPacked.get(s, byteIndex) >>> shift) & 0x3);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String genotypeAsString(int taxon, int site) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(genotype(taxon, site));
+    }
+
+    @Override
+    public String diploidAsString(int site, byte value) {
+        return NucleotideAlignmentConstants.getNucleotideIUPAC(value);
+    }
+
+    @Override
+    public void transposeData(boolean siteInnerLoop) {
+        // Layout is fixed by the file.  Nothing to do.
+    }
+
+}
@@ -1,6 +1,7 @@
 package net.maizegenetics.dna.snp.genotypecall;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.BoundType;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
 import com.google.common.collect.TreeRangeMap;
@@ -9,9 +10,13 @@ import net.maizegenetics.dna.snp.GenotypeTableUtils;
 import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
 import net.maizegenetics.dna.map.DonorHaplotypes;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
+import java.util.function.IntFunction;
 
 /**
  * Projection genotype use defined haplotypes and breakpoints that point to a high
@@ -23,48 +28,103 @@ import java.util.NavigableSet;
  * ProjectionGenotypeCallTable. The taxa indices come from the projection alignment file,
  * while the site indices are the same as the base GenotypeTable. TODO this
  * implement a projection interface with the getDonorHaplotypes method
+ * <p>
+ * </p>
+ * Donor haplotypes are resolved to site ranges and kept as a breakpoint index:
+ * for each taxon, non overlapping segments (startSite, endSite, parent1, parent2)
+ * sorted by start site, found by binary search. The segments can be backed by
+ * a memory mapped file (see ProjectionGenotypeIO). Site ranges for a taxon are
+ * decoded a segment at a time from ranges of the base genotypes.
  *
  * @author Ed Buckler
  */
 public class ProjectionGenotypeCallTable extends AbstractGenotypeCallTable {
 
+    /**
+     * Number of ints per segment: startSite, endSite (inclusive), parent1, parent2
+     */
+    public static final int SEGMENT_SIZE = 4;
+
     private final GenotypeTable myBaseGenoTable;  //high density marker alignment that is being projected. It was suggested that this
     //just have a pointer to a genotype, which would work, excepting for saving the file, when the base taxa names are needed.
-    private ImmutableList<NavigableSet<DonorHaplotypes>> allBreakPoints;
+    private final GenotypeCallTable myBaseCalls;
+    private final IntFunction<NavigableSet<DonorHaplotypes>> myDonorHaplotypes;
 
-    private enum BaseMode {
-
-        General, Site, Taxa
-    };
-    private BaseMode currMode = BaseMode.Taxa;
-    private ArrayList<RangeMap<Integer, DonorSiteHaps>> breakMaps;
-    private byte[] donorForCachedSite;
-    private byte[] projForCachedTaxon;
-    private int cachedSite = -1;
-    private int cachedTaxon = -1;
-    int[] primDSH; //startSite,endSite,parent1,parent2 array for the
+    // start of each taxon's segments (numTaxa + 1 entries), in units of segments
+    private final int[] mySegmentIndex;
+    private final IntBuffer mySegments;
 
   public ProjectionGenotypeCallTable(GenotypeTable hdAlign, ImmutableList<NavigableSet<DonorHaplotypes>> allBreakPoints) {
         super(allBreakPoints.size(), hdAlign.numberOfSites(), false, NucleotideAlignmentConstants.NUCLEOTIDE_ALLELES);
         myBaseGenoTable= hdAlign;
-        this.allBreakPoints = allBreakPoints;
-        breakMaps = new ArrayList<>(numberOfTaxa());
-        for (NavigableSet<DonorHaplotypes> allBreakPoint : allBreakPoints) {
-            RangeMap<Integer, DonorSiteHaps> tRM = TreeRangeMap.create();
-            for (DonorHaplotypes dh : allBreakPoint) {
+        myBaseCalls = hdAlign.genotypeMatrix();
+        myDonorHaplotypes = allBreakPoints::get;
+        mySegmentIndex = new int[myTaxaCount + 1];
+        List<int[]> segments = new ArrayList<>();
+        int numSegments = 0;
+        for (int t = 0; t < myTaxaCount; t++) {
+            // later donor haplotypes override earlier ones where they overlap
+            RangeMap<Integer, int[]> tRM = TreeRangeMap.create();
+            for (DonorHaplotypes dh : allBreakPoints.get(t)) {
                 int[] siteRange = siteRangeForDonor(dh);
-                DonorSiteHaps dsh = new DonorSiteHaps(siteRange[0], siteRange[1], dh.getParent1index(), dh.getParent2index());
-                tRM.put(Range.closed(siteRange[0], siteRange[1]), dsh);
-                //TODO consider putting in blank range maps
+                tRM.put(Range.closed(siteRange[0], siteRange[1]), new int[]{dh.getParent1index(), dh.getParent2index()});
+            }
+            mySegmentIndex[t] = numSegments;
+            for (Map.Entry<Range<Integer>, int[]> entry : tRM.asMapOfRanges().entrySet()) {
+                Range<Integer> range = entry.getKey();
+                int start = (range.lowerBoundType() == BoundType.CLOSED) ? range.lowerEndpoint() : range.lowerEndpoint() + 1;
+                int end = (range.upperBoundType() == BoundType.CLOSED) ? range.upperEndpoint() : range.upperEndpoint() - 1;
+                if (start <= end) {
+                    segments.add(new int[]{start, end, entry.getValue()[0], entry.getValue()[1]});
+                    numSegments++;
+                }
             }
-            breakMaps.add(tRM);
         }
-        primDSH = new int[myTaxaCount * 4];
-        Arrays.fill(primDSH, Integer.MIN_VALUE);
+        mySegmentIndex[myTaxaCount] = numSegments;
+        int[] flat = new int[numSegments * SEGMENT_SIZE];
+        for (int s = 0; s < numSegments; s++) {
+            System.arraycopy(segments.get(s), 0, flat, s * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+        mySegments = IntBuffer.wrap(flat);
+    }
+
+    /**
+     * Creates projection from resolved segments.
+     *
+     * @param hdAlign base genotype table
+     * @param segmentIndex start of each taxon's segments (number of taxa + 1
+     * entries) in units of segments
+     * @param segments segments (see SEGMENT_SIZE) sorted by start site within
+     * each taxon and not overlapping
+     * @param donorHaplotypes returns donor haplotypes for taxon
+     */
+    public ProjectionGenotypeCallTable(GenotypeTable hdAlign, int[] segmentIndex, IntBuffer segments, IntFunction<NavigableSet<DonorHaplotypes>> donorHaplotypes) {
+        super(segmentIndex.length - 1, hdAlign.numberOfSites(), false, NucleotideAlignmentConstants.NUCLEOTIDE_ALLELES);
+        myBaseGenoTable = hdAlign;
+        myBaseCalls = hdAlign.genotypeMatrix();
+        myDonorHaplotypes = donorHaplotypes;
+        mySegmentIndex = segmentIndex;
+        mySegments = segments;
     }
 
     public NavigableSet<DonorHaplotypes> getDonorHaplotypes(int taxon) {
-        return allBreakPoints.get(taxon);
+        return myDonorHaplotypes.apply(taxon);
+    }
+
+    /**
+     * Returns resolved segments for taxon. Each segment is SEGMENT_SIZE ints:
+     * startSite, endSite (inclusive), parent1, parent2.
+     *
+     * @param taxon taxon
+     *
+     * @return segments
+     */
+    public int[] getDonorSegments(int taxon) {
+        int[] result = new int[(mySegmentIndex[taxon + 1] - mySegmentIndex[taxon]) * SEGMENT_SIZE];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = mySegments.get(mySegmentIndex[taxon] * SEGMENT_SIZE + i);
+        }
+        return result;
     }
 
     private int[] siteRangeForDonor(DonorHaplotypes dh) {
@@ -79,28 +139,65 @@ public class ProjectionGenotypeCallTable extends AbstractGenotypeCallTable {
         return new int[]{start, end};
     }
 
+    /**
+     * Returns segment of taxon containing site, or -1 if none.
+     */
+    private int segment(int taxon, int site) {
+        int low = mySegmentIndex[taxon];
+        int high = mySegmentIndex[taxon + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = mid * SEGMENT_SIZE;
+            if (site < mySegments.get(offset)) {
+                high = mid - 1;
+            } else if (site > mySegments.get(offset + 1)) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns first segment of taxon that ends at or after site.
+     */
+    private int firstSegmentEndingAtOrAfter(int taxon, int site) {
+        int low = mySegmentIndex[taxon];
+        int high = mySegmentIndex[taxon + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mySegments.get(mid * SEGMENT_SIZE + 1) < site) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     @Override
     public byte genotype(int taxon, int site) {
-        if (currMode == BaseMode.Site) {
-            return getBaseSite(taxon, site);
+        int segment = segment(taxon, site);
+        if (segment < 0) {
+            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+        }
+        int parent1 = mySegments.get(segment * SEGMENT_SIZE + 2);
+        int parent2 = mySegments.get(segment * SEGMENT_SIZE + 3);
+        if ((parent1 < 0) || (parent2 < 0)) {
+            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
         }
-//        if(currMode==BaseMode.Taxa) {return getBaseTaxon(taxon, site);}
-        return getBaseGeneral(taxon, site);
+        byte p1 = myBaseCalls.genotype(parent1, site);
+        byte p2 = (parent1 == parent2) ? p1 : myBaseCalls.genotype(parent2, site);
+        return GenotypeTableUtils.getUnphasedDiploidValueNoHets(p1, p2);
     }
-    
+
     public int[] taxonDonors(int taxon, int site) {
-        int primPos = taxon << 2;
-        if ((site < primDSH[primPos++]) || (site > primDSH[primPos++])) {
-            DonorSiteHaps currentDSH = breakMaps.get(taxon).get(site);
-            primPos = taxon << 2;
-            primDSH[primPos++] = currentDSH.getStartSite(); //NOTE:-used to be currentDSH.getStartSite(), but it threw an exception
-            primDSH[primPos++] = currentDSH.getStartSite(); //NOTE:-used to be currentDSH.getEndSite(), but it threw an exception
-            primDSH[primPos++] = currentDSH.getParent1index();
-            primDSH[primPos++] = currentDSH.getParent2index();
-            primPos = (taxon << 2) + 2;
-            //TODO consider null
+        int segment = segment(taxon, site);
+        if (segment < 0) {
+            return new int[]{-1, -1};
         }
-        return new int[]{primDSH[primPos], primDSH[primPos + 1]};
+        return new int[]{mySegments.get(segment * SEGMENT_SIZE + 2), mySegments.get(segment * SEGMENT_SIZE + 3)};
     }
 
     /**
@@ -112,52 +209,77 @@ public class ProjectionGenotypeCallTable extends AbstractGenotypeCallTable {
         return myBaseGenoTable;
     }
 
-    private byte getBaseGeneral(int taxon, int site) {
-        DonorSiteHaps currentDSH = breakMaps.get(taxon).get(site);
-        if (currentDSH == null) {
-            return GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+    /**
+     * Decodes sites start (inclusive) to end (exclusive) of taxon. Each donor
+     * segment overlapping the range is filled from site ranges of its parents
+     * in the base genotypes.
+     */
+    @Override
+    public byte[] genotypeForSiteRange(int taxon, int start, int end) {
+        byte[] result = new byte[end - start];
+        Arrays.fill(result, GenotypeTable.UNKNOWN_DIPLOID_ALLELE);
+        int last = mySegmentIndex[taxon + 1];
+        for (int segment = firstSegmentEndingAtOrAfter(taxon, start); segment < last; segment++) {
+            int offset = segment * SEGMENT_SIZE;
+            int segmentStart = Math.max(start, mySegments.get(offset));
+            if (segmentStart >= end) {
+                break;
+            }
+            int segmentEnd = Math.min(end, mySegments.get(offset + 1) + 1);
+            int parent1 = mySegments.get(offset + 2);
+            int parent2 = mySegments.get(offset + 3);
+            if ((parent1 < 0) || (parent2 < 0) || (segmentStart >= segmentEnd)) {
+                continue;
+            }
+            byte[] p1 = myBaseCalls.genotypeForSiteRange(parent1, segmentStart, segmentEnd);
+            if (parent1 == parent2) {
+                for (int i = 0; i < p1.length; i++) {
+                    result[segmentStart - start + i] = GenotypeTableUtils.isHeterozygous(p1[i]) ? GenotypeTable.UNKNOWN_DIPLOID_ALLELE : p1[i];
+                }
+            } else {
+                byte[] p2 = myBaseCalls.genotypeForSiteRange(parent2, segmentStart, segmentEnd);
+                for (int i = 0; i < p1.length; i++) {
+                    result[segmentStart - start + i] = GenotypeTableUtils.getUnphasedDiploidValueNoHets(p1[i], p2[i]);
+                }
+            }
         }
-        byte p1 = myBaseGenoTable.genotype(currentDSH.getParent1index(), site);
-        byte p2 = myBaseGenoTable.genotype(currentDSH.getParent2index(), site);
-        return GenotypeTableUtils.getUnphasedDiploidValueNoHets(p1, p2);
+        return result;
     }
 
-    //Currently this is no faster than general genotype.  it should be possible to make this faster.
-    private byte getBaseTaxon(int taxon, int site) {
-        if (taxon != cachedTaxon) {
-            projForCachedTaxon = new byte[mySiteCount];
-            Arrays.fill(projForCachedTaxon, GenotypeTable.RARE_DIPLOID_ALLELE);
-            cachedTaxon = taxon;
-        }
-        byte result = projForCachedTaxon[site];
-        if (result == GenotypeTable.RARE_DIPLOID_ALLELE) {
-            DonorSiteHaps currentDSH = breakMaps.get(taxon).get(site);
-            byte[] r = myBaseGenoTable.genotypeRange(currentDSH.getParent1index(), currentDSH.getStartSite(), currentDSH.getEndSite() + 1);
-            System.arraycopy(r, 0, projForCachedTaxon, currentDSH.getStartSite(), r.length);
-            result = projForCachedTaxon[site];
-        }
-        return result;
+    @Override
+    public byte[] genotypeForAllSites(int taxon) {
+        return genotypeForSiteRange(taxon, 0, mySiteCount);
     }
 
-    private byte getBaseSite(int taxon, int site) {
-        //test transpose problems
-        if (site != cachedSite) {
-            donorForCachedSite = myBaseGenoTable.genotypeMatrix().genotypeForAllTaxa(site);
-            cachedSite = site;
-        }
-        int primPos = taxon << 2;
-        if ((site < primDSH[primPos++]) || (site > primDSH[primPos++])) {
-            DonorSiteHaps currentDSH = breakMaps.get(taxon).get(site);
-            primPos = taxon << 2;
-            primDSH[primPos++] = currentDSH.getStartSite();
-            primDSH[primPos++] = currentDSH.getEndSite();
-            primDSH[primPos++] = currentDSH.getParent1index();
-            primDSH[primPos] = currentDSH.getParent2index();
-            primPos = (taxon << 2) + 2;
-            //TODO consider null
+    @Override
+    public byte[] genotypeRange(int taxon, int startSite, int endSite) {
+        return genotypeForSiteRange(taxon, startSite, endSite);
+    }
+
+    @Override
+    public byte[] genotypeAllSites(int taxon) {
+        return genotypeForSiteRange(taxon, 0, mySiteCount);
+    }
+
+    @Override
+    public byte[] genotypeForAllTaxa(int site) {
+        byte[] donors = myBaseCalls.genotypeForAllTaxa(site);
+        byte[] result = new byte[myTaxaCount];
+        for (int t = 0; t < myTaxaCount; t++) {
+            int segment = segment(t, site);
+            if (segment < 0) {
+                result[t] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+                continue;
+            }
+            int parent1 = mySegments.get(segment * SEGMENT_SIZE + 2);
+            int parent2 = mySegments.get(segment * SEGMENT_SIZE + 3);
+            if ((parent1 < 0) || (parent2 < 0)) {
+                result[t] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+            } else {
+                result[t] = GenotypeTableUtils.getUnphasedDiploidValueNoHets(donors[parent1], donors[parent2]);
+            }
         }
-        //       if(primDSH[primPos]==primDSH[primPos+1]) return donorForCachedSite[primDSH[primPos]];
-        return GenotypeTableUtils.getUnphasedDiploidValueNoHets(donorForCachedSite[primDSH[primPos]], donorForCachedSite[primDSH[primPos + 1]]);
+        return result;
     }
 
     @Override
@@ -172,51 +294,7 @@ public class ProjectionGenotypeCallTable extends AbstractGenotypeCallTable {
 
     @Override
     public void transposeData(boolean siteInnerLoop) {
-        myBaseGenoTable.genotypeMatrix().transposeData(siteInnerLoop);
-        if (siteInnerLoop) {
-            currMode = BaseMode.Site;
-        } else {
-            currMode = BaseMode.General;
-        }
-
-    }
-
-    private class DonorSiteHaps {
-
-        private final int startSite;
-        private final int endSite;
-        private final int parent1index;
-        private final int parent2index;
-
-        private DonorSiteHaps(int startSite, int endSite, int parent1index, int parent2index) {
-            this.startSite = startSite;
-            this.endSite = endSite;
-            this.parent1index = parent1index;
-            this.parent2index = parent2index;
-        }
-
-        private int getStartSite() {
-            return startSite;
-        }
-
-        private int getEndSite() {
-            return endSite;
-        }
-
-        private int getParent1index() {
-            return parent1index;
-        }
-
-        private int getParent2index() {
-            return parent2index;
-        }
-
-        private boolean containsSite(int site) {
-            if ((site < startSite) || (site > endSite)) {
-                return false;
-            }
-            return true;
-        }
+        myBaseCalls.transposeData(siteInnerLoop);
     }
 
 }
@@ -0,0 +1,444 @@
+/*
+ *  BlockGenotypeFile
+ */
+package net.maizegenetics.dna.snp.io;
+
+import net.maizegenetics.dna.WHICH_ALLELE;
+import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.dna.map.GeneralPosition;
+import net.maizegenetics.dna.map.Position;
+import net.maizegenetics.dna.map.PositionList;
+import net.maizegenetics.dna.map.PositionListBuilder;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.GenotypeTableBuilder;
+import net.maizegenetics.dna.snp.genotypecall.AlleleFreqCache;
+import net.maizegenetics.dna.snp.genotypecall.BlockCompressedGenotypeCallTable;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.taxa.TaxaListBuilder;
+import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.util.ProgressListener;
+
+import org.apache.log4j.Logger;
+import org.xerial.snappy.Snappy;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * TASSEL block genotype file (.t5b). Genotypes are stored in blocks of sites.
+ * Each block holds all taxa, site major, and is compressed with Snappy. Each
+ * block has a Snappy compressed summary with the alleles of each site sorted
+ * by frequency, their counts, minor allele frequency, and site coverage
+ * (like ALLELE_CNT, MAF, and SITECOV of TASSEL 5 HDF5 files).
+ * <p></p>
+ * Layout: magic and version, then genotype and summary block pairs, then a
+ * Snappy compressed footer with the taxa, positions, and block index. The
+ * file ends with the footer offset, footer length, and magic.
+ * <p></p>
+ * Taxa names and position chromosome, position, strand, cM, SNP name,
+ * reference allele, and known variants are stored. Other annotations are not.
+ *
+ * @author agent
+ */
+public class BlockGenotypeFile {
+
+    private static final Logger myLogger = Logger.getLogger(BlockGenotypeFile.class);
+
+    public static final String FILE_EXTENSION = ".t5b";
+
+    // "T5BG"
+    private static final int MAGIC = 0x54354247;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 16;
+
+    // uncompressed genotype bytes per block
+    private static final int TARGET_BLOCK_SIZE = 1 << 20;
+    private static final int MAX_SITES_PER_BLOCK = 1 << 16;
+
+    private BlockGenotypeFile() {
+    }
+
+    /**
+     * Writes genotype table to block genotype file. Blocks are gathered and
+     * compressed on multiple threads and written in order.
+     *
+     * @param genotypes genotype table
+     * @param filename output file (.t5b added if needed)
+     * @param numThreads number of threads
+     * @param listener progress listener (null if unneeded)
+     *
+     * @return output file name
+     */
+    public static String write(GenotypeTable genotypes, String filename, int numThreads, ProgressListener listener) {
+
+        String outputFile = filename.endsWith(FILE_EXTENSION) ? filename : filename + FILE_EXTENSION;
+        int numTaxa = genotypes.numberOfTaxa();
+        int numSites = genotypes.numberOfSites();
+        int sitesPerBlock = Math.max(1, Math.min(MAX_SITES_PER_BLOCK, TARGET_BLOCK_SIZE / Math.max(1, numTaxa)));
+        int numBlocks = (numSites + sitesPerBlock - 1) / sitesPerBlock;
+        long[] blockOffsets = new long[numBlocks];
+        int[] blockLengths = new int[numBlocks];
+        long[] summaryOffsets = new long[numBlocks];
+        int[] summaryLengths = new int[numBlocks];
+
+        numThreads = Math.max(1, numThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 20))) {
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            long offset = HEADER_SIZE;
+
+            ArrayDeque<Future<byte[][]>> pending = new ArrayDeque<>();
+            int nextBlock = 0;
+            for (int b = 0; b < numBlocks; b++) {
+                final int first = b * sitesPerBlock;
+                final int last = Math.min(first + sitesPerBlock, numSites);
+                pending.add(pool.submit(() -> compressBlock(genotypes, first, last)));
+                while ((pending.size() > numThreads * 2) || ((b == numBlocks - 1) && !pending.isEmpty())) {
+                    byte[][] block = pending.poll().get();
+                    blockOffsets[nextBlock] = offset;
+                    blockLengths[nextBlock] = block[0].length;
+                    output.write(block[0]);
+                    offset += block[0].length;
+                    summaryOffsets[nextBlock] = offset;
+                    summaryLengths[nextBlock] = block[1].length;
+                    output.write(block[1]);
+                    offset += block[1].length;
+                    nextBlock++;
+                    if (listener != null) {
+                        listener.progress(nextBlock * 100 / numBlocks, null);
+                    }
+                }
+            }
+
+            byte[] footer = Snappy.compress(footer(genotypes, sitesPerBlock, blockOffsets, blockLengths, summaryOffsets, summaryLengths));
+            output.write(footer);
+            output.writeLong(offset);
+            output.writeInt(footer.length);
+            output.writeInt(MAGIC);
+
+            return outputFile;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("BlockGenotypeFile: write: interrupted writing: " + outputFile);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockGenotypeFile: write: problem writing: " + outputFile + ": " + e.getCause().getMessage());
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockGenotypeFile: write: problem writing: " + outputFile + ": " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Returns compressed genotypes and compressed summary of sites first
+     * (inclusive) to last (exclusive).
+     */
+    private static byte[][] compressBlock(GenotypeTable genotypes, int first, int last) throws IOException {
+
+        int numTaxa = genotypes.numberOfTaxa();
+        byte[] data = new byte[(last - first) * numTaxa];
+        ByteArrayOutputStream summaryBytes = new ByteArrayOutputStream();
+        DataOutputStream summary = new DataOutputStream(summaryBytes);
+        summary.writeInt(last - first);
+        for (int site = first; site < last; site++) {
+
+            byte[] siteGenotypes = genotypes.genotypeAllTaxa(site);
+            System.arraycopy(siteGenotypes, 0, data, (site - first) * numTaxa, numTaxa);
+
+            int[][] alleles = AlleleFreqCache.allelesSortedByFrequencyNucleotide(siteGenotypes);
+            int numAlleles = alleles[0].length;
+            int total = 0;
+            summary.writeByte(numAlleles);
+            for (int a = 0; a < numAlleles; a++) {
+                summary.writeByte(alleles[0][a]);
+                summary.writeInt(alleles[1][a]);
+                total += alleles[1][a];
+            }
+            summary.writeFloat((numAlleles >= 2) ? (float) alleles[1][1] / (float) total : 0.0f);
+            summary.writeFloat((numTaxa == 0) ? 0.0f : (float) total / (float) (2 * numTaxa));
+
+        }
+        summary.flush();
+
+        return new byte[][]{Snappy.compress(data), Snappy.compress(summaryBytes.toByteArray())};
+
+    }
+
+    private static byte[] footer(GenotypeTable genotypes, int sitesPerBlock, long[] blockOffsets, int[] blockLengths, long[] summaryOffsets, int[] summaryLengths) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream footer = new DataOutputStream(bytes);
+
+        int numTaxa = genotypes.numberOfTaxa();
+        int numSites = genotypes.numberOfSites();
+        footer.writeInt(numTaxa);
+        footer.writeInt(numSites);
+        footer.writeInt(sitesPerBlock);
+        footer.writeBoolean(genotypes.isPhased());
+
+        TaxaList taxa = genotypes.taxa();
+        for (int t = 0; t < numTaxa; t++) {
+            footer.writeUTF(taxa.taxaName(t));
+        }
+
+        Chromosome[] chromosomes = genotypes.chromosomes();
+        Map<String, Integer> chrIndices = new HashMap<>();
+        footer.writeInt(chromosomes.length);
+        for (int c = 0; c < chromosomes.length; c++) {
+            footer.writeUTF(chromosomes[c].getName());
+            chrIndices.put(chromosomes[c].getName(), c);
+        }
+
+        PositionList positions = genotypes.positions();
+        for (int s = 0; s < numSites; s++) {
+            Position current = positions.get(s);
+            footer.writeInt(chrIndices.get(current.getChromosome().getName()));
+            footer.writeInt(current.getPosition());
+            footer.writeByte(current.getStrand());
+            footer.writeFloat(current.getCM());
+            String snpID = current.getActualSNPID();
+            footer.writeBoolean(snpID != null);
+            if (snpID != null) {
+                footer.writeUTF(snpID);
+            }
+            footer.writeByte(current.getAllele(WHICH_ALLELE.Reference));
+            String[] variants = current.getKnownVariants();
+            if (variants == null) {
+                footer.writeInt(0);
+            } else {
+                footer.writeInt(variants.length);
+                for (String variant : variants) {
+                    footer.writeUTF(variant);
+                }
+            }
+        }
+
+        for (int b = 0; b < blockOffsets.length; b++) {
+            footer.writeLong(blockOffsets[b]);
+            footer.writeInt(blockLengths[b]);
+            footer.writeLong(summaryOffsets[b]);
+            footer.writeInt(summaryLengths[b]);
+        }
+
+        footer.flush();
+        return bytes.toByteArray();
+
+    }
+
+    /**
+     * Returns whether file starts with the block genotype file magic number.
+     *
+     * @param filename file name
+     *
+     * @return true if block genotype file
+     */
+    public static boolean isBlockGenotypeFile(String filename) {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            return (file.length() >= HEADER_SIZE + TRAILER_SIZE) && (file.readInt() == MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads block genotype file. Taxa and positions are read into memory.
+     * Genotype blocks are read as accessed.
+     *
+     * @param filename block genotype file
+     *
+     * @return genotype table
+     */
+    public static GenotypeTable read(String filename) {
+
+        byte[] footerBytes;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+
+            if ((file.length() < HEADER_SIZE + TRAILER_SIZE) || (file.readInt() != MAGIC)) {
+                throw new IllegalStateException("BlockGenotypeFile: read: not a block genotype file: " + filename);
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("BlockGenotypeFile: read: unsupported version: " + version + " of: " + filename);
+            }
+
+            file.seek(file.length() - TRAILER_SIZE);
+            long footerOffset = file.readLong();
+            int footerLength = file.readInt();
+            if (file.readInt() != MAGIC) {
+                throw new IllegalStateException("BlockGenotypeFile: read: file is truncated: " + filename);
+            }
+
+            byte[] compressed = new byte[footerLength];
+            file.seek(footerOffset);
+            file.readFully(compressed);
+            footerBytes = Snappy.uncompress(compressed);
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockGenotypeFile: read: problem reading: " + filename + ": " + e.getMessage());
+        }
+
+        try (DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBytes))) {
+
+            int numTaxa = footer.readInt();
+            int numSites = footer.readInt();
+            int sitesPerBlock = footer.readInt();
+            boolean phased = footer.readBoolean();
+
+            TaxaListBuilder taxa = new TaxaListBuilder();
+            for (int t = 0; t < numTaxa; t++) {
+                taxa.add(new Taxon(footer.readUTF()));
+            }
+
+            Chromosome[] chromosomes = new Chromosome[footer.readInt()];
+            for (int c = 0; c < chromosomes.length; c++) {
+                chromosomes[c] = new Chromosome(footer.readUTF());
+            }
+
+            List<Position> positions = new ArrayList<>(numSites);
+            for (int s = 0; s < numSites; s++) {
+                GeneralPosition.Builder builder = new GeneralPosition.Builder(chromosomes[footer.readInt()], footer.readInt())
+                        .strand(footer.readByte())
+                        .cM(footer.readFloat());
+                if (footer.readBoolean()) {
+                    builder.snpName(footer.readUTF());
+                }
+                byte reference = footer.readByte();
+                if (reference != GenotypeTable.UNKNOWN_ALLELE) {
+                    builder.allele(WHICH_ALLELE.Reference, reference);
+                }
+                int numVariants = footer.readInt();
+                if (numVariants != 0) {
+                    String[] variants = new String[numVariants];
+                    for (int v = 0; v < numVariants; v++) {
+                        variants[v] = footer.readUTF();
+                    }
+                    builder.knownVariants(variants);
+                }
+                positions.add(builder.build());
+            }
+
+            int numBlocks = (numSites + sitesPerBlock - 1) / sitesPerBlock;
+            long[] blockOffsets = new long[numBlocks];
+            int[] blockLengths = new int[numBlocks];
+            long[] summaryOffsets = new long[numBlocks];
+            int[] summaryLengths = new int[numBlocks];
+            for (int b = 0; b < numBlocks; b++) {
+                blockOffsets[b] = footer.readLong();
+                blockLengths[b] = footer.readInt();
+                summaryOffsets[b] = footer.readLong();
+                summaryLengths[b] = footer.readInt();
+            }
+
+            BlockCompressedGenotypeCallTable calls = BlockCompressedGenotypeCallTable.getInstance(numTaxa, numSites, phased, filename, sitesPerBlock,
+                    blockOffsets, blockLengths, summaryOffsets, summaryLengths);
+            return GenotypeTableBuilder.getInstance(calls, new PositionListBuilder().addAll(positions).build(), taxa.build());
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BlockGenotypeFile: read: problem reading footer of: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Allele frequency summary of the sites in a block.
+     */
+    public static class BlockSummary {
+
+        private final int[][][] myAllelesSortedByFrequency;
+        private final float[] myMAF;
+        private final float[] mySiteCoverage;
+
+        private BlockSummary(int[][][] allelesSortedByFrequency, float[] maf, float[] siteCoverage) {
+            myAllelesSortedByFrequency = allelesSortedByFrequency;
+            myMAF = maf;
+            mySiteCoverage = siteCoverage;
+        }
+
+        /**
+         * Parses uncompressed summary.
+         *
+         * @param data summary bytes
+         *
+         * @return summary
+         */
+        public static BlockSummary fromBytes(byte[] data) {
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+                int numSites = input.readInt();
+                int[][][] alleles = new int[numSites][][];
+                float[] maf = new float[numSites];
+                float[] siteCoverage = new float[numSites];
+                for (int s = 0; s < numSites; s++) {
+                    int numAlleles = input.readByte();
+                    alleles[s] = new int[2][numAlleles];
+                    for (int a = 0; a < numAlleles; a++) {
+                        alleles[s][0][a] = input.readByte();
+                        alleles[s][1][a] = input.readInt();
+                    }
+                    maf[s] = input.readFloat();
+                    siteCoverage[s] = input.readFloat();
+                }
+                return new BlockSummary(alleles, maf, siteCoverage);
+            } catch (IOException e) {
+                throw new IllegalStateException("BlockGenotypeFile: BlockSummary: problem parsing summary: " + e.getMessage());
+            }
+        }
+
+        public int numSites() {
+            return myMAF.length;
+        }
+
+        /**
+         * Alleles sorted by frequency and their counts. Same as
+         * GenotypeCallTable.allelesSortedByFrequency().
+         *
+         * @param site site within block
+         *
+         * @return alleles [0][] and counts [1][]
+         */
+        public int[][] allelesSortedByFrequency(int site) {
+            int[][] alleles = myAllelesSortedByFrequency[site];
+            return new int[][]{alleles[0].clone(), alleles[1].clone()};
+        }
+
+        public float minorAlleleFrequency(int site) {
+            return myMAF[site];
+        }
+
+        /**
+         * Proportion of gametes that are not missing.
+         *
+         * @param site site within block
+         *
+         * @return site coverage
+         */
+        public float siteCoverage(int site) {
+            return mySiteCoverage[site];
+        }
+
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ *  BuilderFromPLINKBed
+ */
+package net.maizegenetics.dna.snp.io;
+
+import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.dna.map.GeneralPosition;
+import net.maizegenetics.dna.map.PositionListBuilder;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.GenotypeTableBuilder;
+import net.maizegenetics.dna.snp.GenotypeTableUtils;
+import net.maizegenetics.dna.snp.NucleotideAlignmentConstants;
+import net.maizegenetics.dna.snp.genotypecall.GenotypeCallTableBuilder;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.taxa.TaxaListBuilder;
+import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.util.ProgressListener;
+import net.maizegenetics.util.Utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Builds genotype table from PLINK binary files (.bed, .bim, .fam). The .bed
+ * file must be in SNP-major mode. It is memory mapped in ranges of sites, and
+ * each range is decoded on its own thread directly into the genotype call
+ * table. Each genotype is two bits, first taxon in the low bits: 00
+ * homozygous for the first .bim allele, 01 missing, 10 heterozygous, 11
+ * homozygous for the second .bim allele.
+ *
+ * @author agent
+ */
+public class BuilderFromPLINKBed {
+
+    private static final Logger myLogger = Logger.getLogger(BuilderFromPLINKBed.class);
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+    public static final String FILE_EXT_BED = ".bed";
+    public static final String FILE_EXT_BIM = ".bim";
+    public static final String FILE_EXT_FAM = ".fam";
+
+    private static final byte BED_MAGIC_1 = 0x6C;
+    private static final byte BED_MAGIC_2 = 0x1B;
+    private static final byte BED_SNP_MAJOR = 0x01;
+    private static final int BED_HEADER_SIZE = 3;
+
+    // largest range of the .bed file mapped by one task
+    private static final int MAX_BYTES_PER_TASK = 1 << 26;
+
+    private final String myBedFile;
+    private final String myBimFile;
+    private final String myFamFile;
+    private final ProgressListener myProgressListener;
+    private boolean mySortTaxaAlphabetically = false;
+    private boolean mySortPositions = false;
+
+    private BuilderFromPLINKBed(String bedFile, String bimFile, String famFile, ProgressListener listener) {
+        myBedFile = bedFile;
+        myBimFile = bimFile;
+        myFamFile = famFile;
+        myProgressListener = listener;
+    }
+
+    /**
+     * Returns builder for .bed file. The .bim and .fam files must have the
+     * same base name.
+     *
+     * @param bedFile PLINK .bed file
+     * @param listener progress listener
+     *
+     * @return builder
+     */
+    public static BuilderFromPLINKBed getBuilder(String bedFile, ProgressListener listener) {
+        if (!bedFile.endsWith(FILE_EXT_BED)) {
+            throw new IllegalArgumentException("BuilderFromPLINKBed: getBuilder: file must end with: " + FILE_EXT_BED + ": " + bedFile);
+        }
+        String base = bedFile.substring(0, bedFile.length() - FILE_EXT_BED.length());
+        return new BuilderFromPLINKBed(bedFile, base + FILE_EXT_BIM, base + FILE_EXT_FAM, listener);
+    }
+
+    public static BuilderFromPLINKBed getBuilder(String bedFile, String bimFile, String famFile, ProgressListener listener) {
+        return new BuilderFromPLINKBed(bedFile, bimFile, famFile, listener);
+    }
+
+    /**
+     * Set the builder so that when built it will sort the taxa
+     */
+    public BuilderFromPLINKBed sortTaxa() {
+        mySortTaxaAlphabetically = true;
+        return this;
+    }
+
+    /**
+     * Set the builder so that when built it will sort the positions.
+     */
+    public BuilderFromPLINKBed sortPositions() {
+        mySortPositions = true;
+        return this;
+    }
+
+    public GenotypeTable build() {
+
+        myLogger.info("Reading: " + myBedFile + ", " + myBimFile + " and " + myFamFile);
+
+        TaxaListBuilder taxaBuild = processTaxa(myFamFile);
+        int numTaxa = taxaBuild.numberOfTaxa();
+        myLogger.info("Number of taxa: " + numTaxa);
+
+        List<byte[]> alleles = new ArrayList<>();
+        PositionListBuilder posBuild = processSites(myBimFile, alleles);
+        int numSites = posBuild.size();
+        myLogger.info("Number of sites: " + numSites);
+
+        GenotypeCallTableBuilder genotypeCallTableBuilder = GenotypeCallTableBuilder.getInstanceTranspose(numTaxa, numSites);
+
+        int bytesPerSite = (numTaxa + 3) / 4;
+        int sitesPerTask = Math.max(1, MAX_BYTES_PER_TASK / Math.max(1, bytesPerSite));
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        sitesPerTask = Math.max(1, Math.min(sitesPerTask, (numSites + numThreads * 4 - 1) / (numThreads * 4)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try (RandomAccessFile file = new RandomAccessFile(myBedFile, "r");
+                FileChannel channel = file.getChannel()) {
+
+            long expectedSize = BED_HEADER_SIZE + (long) bytesPerSite * (long) numSites;
+            if (channel.size() != expectedSize) {
+                throw new IllegalStateException("BuilderFromPLINKBed: build: " + myBedFile + " size: " + channel.size() + " doesn't match expected size: " + expectedSize + " for " + numTaxa + " taxa and " + numSites + " sites.");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BED_HEADER_SIZE);
+            if ((header.get(0) != BED_MAGIC_1) || (header.get(1) != BED_MAGIC_2)) {
+                throw new IllegalStateException("BuilderFromPLINKBed: build: " + myBedFile + " is not a PLINK .bed file.");
+            }
+            if (header.get(2) != BED_SNP_MAJOR) {
+                throw new IllegalStateException("BuilderFromPLINKBed: build: " + myBedFile + " must be in SNP-major mode.");
+            }
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int start = 0; start < numSites; start += sitesPerTask) {
+                int end = Math.min(start + sitesPerTask, numSites);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, BED_HEADER_SIZE + (long) start * (long) bytesPerSite, (long) (end - start) * (long) bytesPerSite);
+                futures.add(pool.submit(new ProcessBedBlock(buffer, genotypeCallTableBuilder, alleles, numTaxa, start, end)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).get();
+                if (myProgressListener != null) {
+                    myProgressListener.progress((i + 1) * 100 / futures.size(), null);
+                }
+            }
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BuilderFromPLINKBed: build: problem reading: " + myBedFile + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("BuilderFromPLINKBed: build: interrupted reading: " + myBedFile);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BuilderFromPLINKBed: build: problem decoding: " + myBedFile + ": " + e.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (mySortTaxaAlphabetically) {
+            taxaBuild.sortTaxaAlphabetically(genotypeCallTableBuilder);
+        }
+        TaxaList taxaList = taxaBuild.build();
+
+        if (posBuild.validateOrdering() == false) {
+            if (mySortPositions) {
+                posBuild.sortPositions(genotypeCallTableBuilder);
+                if (posBuild.validateOrdering() == false) {
+                    throw new IllegalStateException("BuilderFromPLINKBed: Ordering of PLINK failed.");
+                }
+            } else {
+                throw new IllegalStateException("BuilderFromPLINKBed: Ordering incorrect. PLINK must be ordered by position.");
+            }
+        }
+
+        return GenotypeTableBuilder.getInstance(genotypeCallTableBuilder.build(), posBuild.build(), taxaList);
+
+    }
+
+    // Family ID
+    // Individual ID
+    // Paternal ID
+    // Maternal ID
+    // Sex (1=male; 2=female; other=unknown)
+    // Phenotype
+    private static final int PLINK_FAM_INDIVIDUAL_ID_INDEX = 1;
+    private static final int NUM_PLINK_FAM_COLUMNS = 6;
+
+    private static TaxaListBuilder processTaxa(String famFile) {
+
+        TaxaListBuilder result = new TaxaListBuilder();
+        int lineNum = 1;
+        try (BufferedReader reader = Utils.getBufferedReader(famFile)) {
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    String[] tokens = WHITESPACE_PATTERN.split(line);
+                    if (tokens.length < NUM_PLINK_FAM_COLUMNS) {
+                        throw new IllegalStateException("BuilderFromPLINKBed: processTaxa: Not all columns defined line : \"" + line + "\" of file: " + famFile);
+                    }
+                    result.add(new Taxon.Builder(new String(tokens[PLINK_FAM_INDIVIDUAL_ID_INDEX])).build());
+                }
+                line = reader.readLine();
+                lineNum++;
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BuilderFromPLINKBed: processTaxa: problem with: " + famFile + " line: " + lineNum);
+        }
+        return result;
+
+    }
+
+    // chromosome
+    // snp identifier
+    // Genetic distance (morgans or centimorgans)
+    // Base-pair position (bp units)
+    // Allele 1 (usually minor)
+    // Allele 2 (usually major)
+    private static final int PLINK_BIM_CHROMOSOME_INDEX = 0;
+    private static final int PLINK_BIM_SNP_ID_INDEX = 1;
+    private static final int PLINK_BIM_POSITION_INDEX = 3;
+    private static final int PLINK_BIM_ALLELE_1_INDEX = 4;
+    private static final int PLINK_BIM_ALLELE_2_INDEX = 5;
+    private static final int NUM_PLINK_BIM_COLUMNS = 6;
+
+    /**
+     * Reads positions from .bim file. For each site, adds diploid values of
+     * the four .bed codes to alleles.
+     */
+    private static PositionListBuilder processSites(String bimFile, List<byte[]> alleles) {
+
+        Map<String, Chromosome> chromosomes = new HashMap<>();
+        PositionListBuilder result = new PositionListBuilder();
+        int lineNum = 1;
+        try (BufferedReader reader = Utils.getBufferedReader(bimFile)) {
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    String[] tokens = WHITESPACE_PATTERN.split(line);
+                    if (tokens.length < NUM_PLINK_BIM_COLUMNS) {
+                        throw new IllegalStateException("BuilderFromPLINKBed: processSites: Not all columns defined line : \"" + line + "\" of file: " + bimFile);
+                    }
+                    Chromosome chr = chromosomes.get(tokens[PLINK_BIM_CHROMOSOME_INDEX]);
+                    if (chr == null) {
+                        chr = new Chromosome(new String(tokens[PLINK_BIM_CHROMOSOME_INDEX]));
+                        chromosomes.put(tokens[PLINK_BIM_CHROMOSOME_INDEX], chr);
+                    }
+                    result.add(new GeneralPosition.Builder(chr, Integer.parseInt(tokens[PLINK_BIM_POSITION_INDEX]))
+                            .snpName(new String(tokens[PLINK_BIM_SNP_ID_INDEX])).build());
+
+                    byte allele1 = alleleByte(tokens[PLINK_BIM_ALLELE_1_INDEX]);
+                    byte allele2 = alleleByte(tokens[PLINK_BIM_ALLELE_2_INDEX]);
+                    alleles.add(new byte[]{
+                        GenotypeTableUtils.getDiploidValue(allele1, allele1),
+                        GenotypeTable.UNKNOWN_DIPLOID_ALLELE,
+                        GenotypeTableUtils.getDiploidValue(allele1, allele2),
+                        GenotypeTableUtils.getDiploidValue(allele2, allele2)});
+                }
+                line = reader.readLine();
+                lineNum++;
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("BuilderFromPLINKBed: processSites: problem with: " + bimFile + " line: " + lineNum);
+        }
+        return result;
+
+    }
+
+    /**
+     * Returns allele for .bim allele code. Codes longer than one character
+     * are insertions.
+     */
+    private static byte alleleByte(String value) {
+        if (value.length() > 1) {
+            return NucleotideAlignmentConstants.INSERT_ALLELE;
+        }
+        byte result = BuilderFromPLINK.getPLINKAlleleByte(Character.toUpperCase(value.charAt(0)));
+        return (result == NucleotideAlignmentConstants.UNDEFINED_ALLELE) ? GenotypeTable.UNKNOWN_ALLELE : result;
+    }
+
+    private static class ProcessBedBlock implements Runnable {
+
+        private final MappedByteBuffer myBuffer;
+        private final GenotypeCallTableBuilder myBuilder;
+        private final List<byte[]> myAlleles;
+        private final int myNumTaxa;
+        private final int myStartSite;
+        private final int myEndSite;
+
+        private ProcessBedBlock(MappedByteBuffer buffer, GenotypeCallTableBuilder builder, List<byte[]> alleles, int numTaxa, int startSite, int endSite) {
+            myBuffer = buffer;
+            myBuilder = builder;
+            myAlleles = alleles;
+            myNumTaxa = numTaxa;
+            myStartSite = startSite;
+            myEndSite = endSite;
+        }
+
+        @Override
+        public void run() {
+            int bytesPerSite = (myNumTaxa + 3) / 4;
+            byte[] packed = new byte[bytesPerSite];
+            for (int site = myStartSite; site < myEndSite; site++) {
+                myBuffer.get(packed);
+                byte[] codes = myAlleles.get(site);
+                int taxon = 0;
+                for (int i = 0; i < bytesPerSite; i++) {
+                    int value = packed[i];
+                    for (int j = 0; (j < 4) && (taxon < myNumTaxa); j++) {
+                        byte genotype = codes[value & 0x3];
+                        if (genotype != GenotypeTable.UNKNOWN_DIPLOID_ALLELE) {
+                            myBuilder.setBase(taxon, site, genotype);
+                        }
+                        value >>>= 2;
+                        taxon++;
+                    }
+                }
+            }
+        }
+
+    }
+
+}
@@ -19,13 +19,14 @@ import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.TaxaListBuilder;
 import net.maizegenetics.taxa.TaxaListIOUtils;
 import net.maizegenetics.taxa.Taxon;
+import net.maizegenetics.util.ByteLineReader;
+import net.maizegenetics.util.ProgressListener;
 import net.maizegenetics.util.Tassel5HDF5Constants;
-import net.maizegenetics.util.Utils;
 
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
@@ -61,9 +62,12 @@ public class BuilderFromVCF {
     private boolean inMemory=true;
     private String hdf5Outfile=null;
     private GenotypeTableBuilder hdf5GenoTableBuilder=null;
+    private List<String> regions=null;
+    private final ProgressListener listener;
 
-    private BuilderFromVCF(String infile) {
+    private BuilderFromVCF(String infile, ProgressListener listener) {
         this.infile=infile;
+        this.listener=listener;
     }
 
     /**
@@ -72,7 +76,17 @@ public class BuilderFromVCF {
      * @return a builder
      */
     public static BuilderFromVCF getBuilder(String infile) {
-        return new BuilderFromVCF(infile);
+        return new BuilderFromVCF(infile, null);
+    }
+
+    /**
+     * Create a builder for loading a VCF file into memory
+     * @param infile name of the VCF file to be load
+     * @param listener progress listener
+     * @return a builder
+     */
+    public static BuilderFromVCF getBuilder(String infile, ProgressListener listener) {
+        return new BuilderFromVCF(infile, listener);
     }
 
     /**
@@ -96,6 +110,17 @@ public class BuilderFromVCF {
         return this;
     }
 
+    /**
+     * Load only the sites in the given regions.  Only the blocks of the file that
+     * contain the regions are read, so the VCF file must be bgzipped and tabix indexed (infile.tbi).
+     * @param regions regions as chromosome, chromosome:start, or chromosome:start-end (1-based, inclusive)
+     * @return this builder
+     */
+    public BuilderFromVCF regions(List<String> regions) {
+        this.regions=new ArrayList<>(regions);
+        return this;
+    }
+
     public GenotypeTable buildAndSortInMemory() {
         return buildEngine(true);
     }
@@ -108,15 +133,17 @@ public class BuilderFromVCF {
     private GenotypeTable buildEngine(boolean fullSort) {
         long time=System.nanoTime();
         GenotypeTable result=null;
-        int totalSites=-1;//unknown
         GenotypeTableBuilder gtbDiskBuild=null;
         ExecutorService pool = null;
         try {
 
+            //bgzipped files are decompressed in parallel, regions are read using the tabix index
+            ByteLineReader r=(regions==null)?ByteLineReader.getInstance(infile)
+                    :ByteLineReader.getInstance(TabixRegionInputStream.getInstance(infile, regions), 1<<22);
+
             int numThreads=Runtime.getRuntime().availableProcessors();
             pool=Executors.newFixedThreadPool(numThreads);
             
-            BufferedReader r=Utils.getBufferedReader(infile, -1);
             //Read the ## annotation rows
             String currLine;
             Map<String,String> infoMap=new HashMap<>();
@@ -126,77 +153,48 @@ public class BuilderFromVCF {
 
             TaxaList taxaList=processTaxa(currLine,sampAnnoBuild);
             if(inMemory==false) {
-                totalSites=Utils.getNumberLinesNotHashOrBlank(infile);
-                System.out.println("TotalSite count:"+totalSites);
-                gtbDiskBuild=GenotypeTableBuilder.getSiteIncremental(taxaList,totalSites,hdf5Outfile);
+                //sites are not counted first, HDF5 genotypes grow as blocks are added
+                gtbDiskBuild=GenotypeTableBuilder.getSiteIncremental(taxaList,hdf5Outfile);
             }
             int linesAtTime=(inMemory)?1<<12:Tassel5HDF5Constants.BLOCK_SIZE;  //this is a critical lines with 20% or more swings.  Needs to be optimized with transposing
             //  int linesAtTime=1<<8;  //better for with lots of taxa.
-            ArrayList<String> txtLines=new ArrayList<>(linesAtTime);
             ArrayList<ProcessVCFBlock> pbs=new ArrayList<>();
             List<Future<ProcessVCFBlock>> futures = new ArrayList<>();
             int sitesRead=0;
-            while ((currLine=r.readLine())!=null) {
-                if(currLine.startsWith("#")) continue;
-                txtLines.add(currLine);
-                sitesRead++;
-               if (sitesRead%linesAtTime==0) {
-                    ProcessVCFBlock pb;
-                    if(inMemory) {
-                        pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, txtLines,includeDepth);}
-                    else{
-                        pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, txtLines, sitesRead-txtLines.size(),gtbDiskBuild, includeDepth);
-                    }
-                    //pbs.add(pb);
-                        //     pb.run(); //used for testing
-                    try {
-                        if(inMemory) {
-                            futures.add(pool.submit(pb));
-                        }
-                        else {
-                            //Put a future on the queue
-                            futures.add(pool.submit(pb));
-                            //If We are streaming to HDF5, we need to block temporarily and clean out the queue.
-                            if(futures.size()>=numThreads) {
-                            //if(futures.size()>0) {
-                                for(Future<ProcessVCFBlock> future : futures) {
-                                    pbs.add(future.get());
-                                }
-                                futures = new ArrayList<>();
-                            }
-                           
-                        }
-                    }
-                    catch(Exception e) {
-                        myLogger.debug(e.getMessage(), e);
-                        throw new IllegalStateException(e.getMessage());
-                    }
-                    txtLines=new ArrayList<>(linesAtTime);
-                }
-            }
-            r.close();
-            //Handle whatever is left over in the file
-            if (txtLines.size()>0) {
-                ProcessVCFBlock pb;//=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, txtLines);
+            ByteLineReader.LineBlock lines;
+            while ((lines=r.readBlock(linesAtTime, (byte)'#'))!=null) {
+                sitesRead+=lines.numberOfLines();
+                ProcessVCFBlock pb;
                 if(inMemory) {
-                    pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, txtLines, includeDepth);}
+                    pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, lines,includeDepth);}
                 else{
-                    pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, txtLines, sitesRead-txtLines.size(),gtbDiskBuild, includeDepth);
+                    pb=ProcessVCFBlock.getInstance(taxaList.numberOfTaxa(), hp, lines, sitesRead-lines.numberOfLines(),gtbDiskBuild, includeDepth);
                 }
-                //pbs.add(pb);
-                    //  pb.run(); //used for testing
-                
                 try {
+                    //Put a future on the queue
                     futures.add(pool.submit(pb));
+                    //If We are streaming to HDF5, we need to block temporarily and clean out the queue.
+                    if(!inMemory && futures.size()>=numThreads) {
+                        for(Future<ProcessVCFBlock> future : futures) {
+                            pbs.add(future.get());
+                        }
+                        futures = new ArrayList<>();
+                    }
                 }
                 catch(Exception e) {
                     myLogger.debug(e.getMessage(), e);
-                throw new IllegalStateException(e.getMessage());
+                    throw new IllegalStateException(e.getMessage());
                 }
             }
+            r.close();
+            int count=0;
             for(Future<ProcessVCFBlock> future : futures) {
                 try {
                     pbs.add(future.get());
+                    if(listener!=null) {
+                        count++;
+                        listener.progress(count*100/futures.size(), null);
+                    }
                 }
                 catch(Exception e) {
                     myLogger.debug(e.getMessage(),e);
@@ -299,8 +297,8 @@ public class BuilderFromVCF {
 
     }
 
-    private static String parseVCFHeadersIntoMaps(Map<String,String> infoMap, Map<String,String> formatMap,
-        Map<String,SetMultimap<String,String>> sampAnnoBuild, BufferedReader r) throws IOException {
+    static String parseVCFHeadersIntoMaps(Map<String,String> infoMap, Map<String,String> formatMap,
+        Map<String,SetMultimap<String,String>> sampAnnoBuild, ByteLineReader r) throws IOException {
         String currLine;
         while (((currLine=r.readLine())!=null)&&(currLine.startsWith("##"))) {
             String[] cat=currLine.split("=",2);
@@ -342,6 +340,31 @@ public class BuilderFromVCF {
     private TaxaList processTaxa(String readLn, Map<String,SetMultimap<String,String>> taxaAnnotation) {
         String[] header = TAB_PATTERN.split(readLn);
         hp=new HeaderPositions(header);
+        return processTaxa(header, hp, taxaAnnotation);
+    }
+
+    /**
+     * Creates the taxa list from the #CHROM header line, adding the ##SAMPLE annotations of each taxon
+     */
+    static TaxaList processTaxa(String[] header, Map<String,SetMultimap<String,String>> taxaAnnotation) {
+        return processTaxa(header, new HeaderPositions(header), taxaAnnotation);
+    }
+
+    /**
+     * Returns the REF and ALT alleles as a slash separated list of variants.
+     */
+    static String variants(String refS, String alt) {
+        return ProcessVCFBlock.variants(refS, alt);
+    }
+
+    /**
+     * Returns the allele of each variant in a slash separated list of variants.
+     */
+    static byte[] parseAlleles(String variants) {
+        return ProcessVCFBlock.parseAlleles(variants);
+    }
+
+    private static TaxaList processTaxa(String[] header, HeaderPositions hp, Map<String,SetMultimap<String,String>> taxaAnnotation) {
         int numTaxa=header.length-hp.NUM_HAPMAP_NON_TAXA_HEADERS;
         TaxaListBuilder tlb=new TaxaListBuilder();
         for (int i=0; i<numTaxa; i++) {
@@ -406,27 +429,31 @@ class HeaderPositions {
 }
 
 //class ProcessVCFBlock implements Runnable {
+/**
+ * Parses a block of VCF lines held as bytes.  Site fields (chromosome, position, alleles, INFO) are converted
+ * to Strings once per site.  The taxa columns are parsed in place, so no Strings are created per taxon or
+ * per FORMAT field.
+ */
 class ProcessVCFBlock implements Callable<ProcessVCFBlock> {
 
-    private static final Pattern WHITESPACE_PATTERN=Pattern.compile("\\s");
-    private static final Pattern SLASH_PATTERN=Pattern.compile("/");
+    private static final int MAX_GT_ALLELES=10; //GT allele indices are single digits
     private final HeaderPositions hp;
     private final int taxaN;
     private final int siteN;
     private final int startSite; //if unknown Int.Mini
     private final GenotypeTableBuilder hdf5Builder; //null is building in memory
-    private ArrayList<String> txtL;
+    private ByteLineReader.LineBlock lines;
     private byte[][] gTS;  //genotypes
     private byte[][][] dTS; //depth
     private final ArrayList<Position> blkPosList;
     private final boolean keepDepth;
     
 
-    private ProcessVCFBlock(int taxaN, HeaderPositions hp, ArrayList<String> txtL, int startSite,
+    private ProcessVCFBlock(int taxaN, HeaderPositions hp, ByteLineReader.LineBlock lines, int startSite,
                             GenotypeTableBuilder hdf5Builder, boolean keepDepth) {
         this.taxaN=taxaN;
-        this.siteN=txtL.size();
-        this.txtL=txtL;
+        this.siteN=lines.numberOfLines();
+        this.lines=lines;
         this.hp=hp;
         blkPosList=new ArrayList<>(siteN);
         this.startSite=startSite;
@@ -434,13 +461,13 @@ class ProcessVCFBlock implements Callable<ProcessVCFBlock> {
         this.keepDepth=keepDepth;
     }
     /*Used to process VCF blocks and return the result for a in memory GenotypeTable*/
-    static ProcessVCFBlock getInstance(int taxaN, HeaderPositions hp, ArrayList<String> txtL,boolean keepDepth) {
-        return new ProcessVCFBlock(taxaN, hp, txtL, Integer.MIN_VALUE, null,keepDepth);
+    static ProcessVCFBlock getInstance(int taxaN, HeaderPositions hp, ByteLineReader.LineBlock lines, boolean keepDepth) {
+        return new ProcessVCFBlock(taxaN, hp, lines, Integer.MIN_VALUE, null,keepDepth);
     }
 
     /*Used to process VCF blocks and return the result for on disk HDF5 GenotypeTable*/
-    static ProcessVCFBlock getInstance(int taxaN, HeaderPositions hp, ArrayList<String> txtL, int startSite, GenotypeTableBuilder hdf5Builder, boolean keepDepth) {
-        return new ProcessVCFBlock(taxaN, hp, txtL, startSite, hdf5Builder,keepDepth);
+    static ProcessVCFBlock getInstance(int taxaN, HeaderPositions hp, ByteLineReader.LineBlock lines, int startSite, GenotypeTableBuilder hdf5Builder, boolean keepDepth) {
+        return new ProcessVCFBlock(taxaN, hp, lines, startSite, hdf5Builder,keepDepth);
     }
 
     @Override
@@ -448,124 +475,73 @@ class ProcessVCFBlock implements Callable<ProcessVCFBlock> {
         Map<String, Chromosome> chromosomeLookup=new HashMap<>();
         gTS=new byte[taxaN][siteN];
         if(keepDepth==true) dTS=new byte[taxaN][6][siteN];
+        byte[] data=lines.data();
+        int[] tabPos=new int[hp.NUM_HAPMAP_NON_TAXA_HEADERS];
+        byte[][] diploids=new byte[MAX_GT_ALLELES][MAX_GT_ALLELES];
+        byte[] currChrName=null;
+        Chromosome currChr=null;
         for (int s=0; s<siteN; s++) {
-            //really needs to use a Splitter iterator to make this cleaner if it is performant
-            String input=txtL.get(s);
+            int lineStart=lines.start(s);
+            int lineEnd=lines.end(s);
             try{
-                int[] tabPos=new int[hp.NUM_HAPMAP_NON_TAXA_HEADERS+taxaN];
-                int tabIndex=0;
-                int len=input.length();
-                for (int i=0; (tabIndex<hp.NUM_HAPMAP_NON_TAXA_HEADERS+taxaN)&&(i<len); i++) {
-                    if (input.charAt(i)=='\t') {
-                        tabPos[tabIndex++]=i;
+                //tabs ending the non taxa columns.  Missing columns end at the end of the line
+                int tabsFound=0;
+                for (int i=lineStart; (tabsFound<tabPos.length)&&(i<lineEnd); i++) {
+                    if (data[i]=='\t') {
+                        tabPos[tabsFound++]=i;
                     }
                 }
-                String chrName=input.substring(0, tabPos[hp.CHROMOSOME_INDEX]);
-                Chromosome currChr=chromosomeLookup.get(chrName);
-                if (currChr==null) {
-                    currChr=new Chromosome(new String(chrName));
-                    chromosomeLookup.put(chrName, currChr);
+                for (int i=tabsFound; i<tabPos.length; i++) tabPos[i]=lineEnd;
+
+                int chrStart=columnStart(hp.CHROMOSOME_INDEX, lineStart, tabPos);
+                int chrEnd=tabPos[hp.CHROMOSOME_INDEX];
+                if (currChr==null || !equalBytes(currChrName, data, chrStart, chrEnd)) {
+                    currChrName=Arrays.copyOfRange(data, chrStart, chrEnd);
+                    String chrName=new String(currChrName, StandardCharsets.UTF_8);
+                    currChr=chromosomeLookup.get(chrName);
+                    if (currChr==null) {
+                        currChr=new Chromosome(chrName);
+                        chromosomeLookup.put(chrName, currChr);
+                    }
                 }
                 String snpID=null;
-                if(hp.SNPID_INDEX>0) snpID=input.substring(tabPos[hp.SNPID_INDEX-1]+1, tabPos[hp.SNPID_INDEX]);
-                String refS=input.substring(tabPos[hp.REF_INDEX-1]+1, tabPos[hp.REF_INDEX]);
-                String alt=input.substring(tabPos[hp.ALT_INDEX-1]+1, tabPos[hp.ALT_INDEX]);
-                String variants;
-                if(alt.equals(".")) {variants=refS;}
-                else {variants=(refS+"/"+alt).replace(',','/')
-                        .replace("<INS>", "+").replace('I', '+')
-                        .replace("<DEL>", "-").replace('D', '-');}
-            
-                //GeneralPosition.Builder apb=new GeneralPosition.Builder(currChr, currentPosition)
-                //                                               .knownVariants(variants); //TODO strand, variants,
-                //ZRM 8_26
-                GeneralPosition.Builder apb=new GeneralPosition.Builder(currChr, Integer.parseInt(input.substring(tabPos[hp.POSITION_INDEX-1]+1, tabPos[hp.POSITION_INDEX])))
+                if(hp.SNPID_INDEX>0) snpID=column(data, hp.SNPID_INDEX, lineStart, tabPos);
+                String refS=column(data, hp.REF_INDEX, lineStart, tabPos);
+                String alt=column(data, hp.ALT_INDEX, lineStart, tabPos);
+                String variants=variants(refS, alt);
+
+                int position=parseInt(data, columnStart(hp.POSITION_INDEX, lineStart, tabPos), tabPos[hp.POSITION_INDEX]);
+                GeneralPosition.Builder apb=new GeneralPosition.Builder(currChr, position)
                         .knownVariants(variants) //TODO strand, variants,
                         ;
                 if(snpID!=null && !snpID.equals(".")) {
                     apb.snpName(snpID);
                 }
-                //byte[] alleles=new byte[(variants.length()+1)/2];
-                byte[] alleles = new byte[variants.split("/").length];
-                for (int i = 0, varInd=0; i < alleles.length; i++, varInd+=2) {
-                    alleles[i]=NucleotideAlignmentConstants.getNucleotideAlleleByte(variants.charAt(varInd));
-                }
-                /***ZRM 8_27 New code ***/
-                String[] variantList = variants.split("/");
-                if(variantList[0].length()>1) {
-                    String[] parsedVariantList = new String[variantList.length];
-                    //alt deletion
-                    for(int i = 0; i < variantList.length; i++) {
-                        //Pull off the first character if it exists
-                        if(variantList[i].length()>1) {
-                            parsedVariantList[i] = variantList[i].substring(1);
-                            if(parsedVariantList[i].length()==0) {
-                                parsedVariantList[i] = "-";
-                            }
-                        }
-                        else {
-                            //Mark as deletion
-                            parsedVariantList[i] = "-";
-                        }
-                    }
-                    for(int i = 0; i<parsedVariantList.length; i++) {
-                        alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariantList[i].charAt(0));
-                    }
-                }
-                else {
-                    //Check for reference deletion(insertion)
-                    //Loop through all variants to see if one alt is longer than the ref
-                    boolean isIndel = false;
-                    for(int i = 1; i < variantList.length; i++) {
-                        if(variantList[i].length() > variantList[0].length()) {
-                            isIndel = true;
-                            break;
-                        }
-                    }
-                    if(isIndel) {
-                        String[] parsedVariantList = new String[variantList.length];
-                        //ref+alt deletion
-                        for(int i = 0; i < variantList.length; i++) {
-                            //Pull off the first character if it exists
-                            if(variantList[i].length()>1) {
-                                parsedVariantList[i] = variantList[i].substring(1);
-                                if(parsedVariantList[i].length()==0) {
-                                    parsedVariantList[i] = "-";
-                                }
-                            }
-                            else {
-                                //Mark as deletion
-                                parsedVariantList[i] = "-";
-                            }
-                        }
-                        for(int i = 0; i<parsedVariantList.length; i++) {
-                            alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(parsedVariantList[i].charAt(0));
-                        }
-                    }
-                    else {
-                        //if not just put it in the allele array
-                        for(int i = 0; i<variantList.length; i++) {
-                            alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(variantList[i].charAt(0));
-                        }
-                    }
-                }
-                /***ZRM 8_27 New code end ***/
+                byte[] alleles=parseAlleles(variants);
                 apb.allele(WHICH_ALLELE.Reference, alleles[0]);
-                for(String annoS: Splitter.on(";").split(input.substring(tabPos[hp.INFO_INDEX-1]+1, tabPos[hp.INFO_INDEX]))) {
+                for(String annoS: Splitter.on(";").split(column(data, hp.INFO_INDEX, lineStart, tabPos))) {
                     apb.addAnno(annoS);
                 }
                 blkPosList.add(apb.build());
-                final int iGT=0; //genotype index
-                int iAD=-1,iDP=-1,iGQ=-1, iPL=-1;  //alleleDepth, overall depth, genotypeQuality, phredGenotypeLikelihoods
+
+                int numGTAlleles=Math.min(alleles.length, MAX_GT_ALLELES);
+                for (int a1=0; a1<numGTAlleles; a1++) {
+                    for (int a2=0; a2<numGTAlleles; a2++) {
+                        diploids[a1][a2]=GenotypeTableUtils.getDiploidValue(alleles[a1], alleles[a2]);
+                    }
+                }
+
+                int iAD=-1;  //alleleDepth
                 if(hp.FORMAT_INDEX>=0) {
                     //Check to see if FORMAT tag is missing. Only applicable for single taxa files
-                    if(tabPos[hp.FORMAT_INDEX]==0) {
+                    if(tabsFound<=hp.FORMAT_INDEX) {
                         throw new IllegalStateException("Error Processing VCF: Missing FORMAT tag.");
                     }
-                    String unsplitInput = input.substring(tabPos[hp.FORMAT_INDEX-1]+1, tabPos[hp.FORMAT_INDEX]);
-                    if(unsplitInput.length()==0|| !unsplitInput.startsWith("GT")) {
+                    int formatStart=columnStart(hp.FORMAT_INDEX, lineStart, tabPos);
+                    int formatEnd=tabPos[hp.FORMAT_INDEX];
+                    if(formatEnd-formatStart<2 || data[formatStart]!='G' || data[formatStart+1]!='T') {
                         //Check to see it has the GT field
-                        if(unsplitInput.contains("GT")) {
+                        if(new String(data, formatStart, formatEnd-formatStart, StandardCharsets.UTF_8).contains("GT")) {
                             throw new IllegalStateException("Error Processing VCF Block: GT field is not in first position of FORMAT.");
                         }
                         //If GT isnt in, we assume that it is missing FORMAT
@@ -573,83 +549,136 @@ class ProcessVCFBlock implements Callable<ProcessVCFBlock> {
                             throw new IllegalStateException("Error Processing VCF Block: Missing FORMAT tag.");
                         }
                     }
-                    String[] formatS = unsplitInput.split(":");
-                    
-                    iAD=firstEqualIndex(formatS,"AD");
+                    iAD=fieldIndex(data, formatStart, formatEnd, 'A', 'D');
                 }
-                int t=0;
-                for(String taxaAllG: Splitter.on("\t").split(input.substring(tabPos[hp.NUM_HAPMAP_NON_TAXA_HEADERS-1]+1))) {
-                    int f=0;
-                    if(taxaAllG.equals(".")) {
-                        gTS[t][s] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
-                        continue;
-                    }
-                    for(String fieldS: Splitter.on(":").split(taxaAllG)) {
-                        if(f==iGT) {
-                            //String "[.0-9]\\/[.0-9]||[.0-9]\\|[.0-9]" will match a valid diploid
-                            if (!fieldS.equals(".")) { //[TAS-509] Check to make sure we are using diploids in the form 0/1 or 0|0
-                                int a1 = fieldS.charAt(0) - '0';
-                                int a2 = fieldS.charAt(2) - '0';
-                                
-                                if(a1>alleles.length-1 || a2>alleles.length-1) {
-                                    Position pos = blkPosList.get(blkPosList.size()-1);
-                                    throw new IllegalStateException("\nError Processing VCF block: Mismatch of alleles.\n  At Chromosome "+ pos.getChromosome().getName() + ", Position "+pos.getPosition() +".\nAllele ID larger than number of alleles" );
-                                }
-                                if (a1 < 0 || a2 < 0) {
-                                    gTS[t][s] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
-                                }
-                                else {
-                                    gTS[t][s] =
-                                            GenotypeTableUtils.getDiploidValue(alleles[a1], alleles[a2]);
-                                }
-                            }
-                            else {	//[TAS-509] if it isnt a diploid error out early
-                                throw new IllegalStateException("Error Processing VCF block: Found haploid information for the element: "
-                                        + taxaAllG + ".\nExpected a diploid entry.");
-                            }
-                        } else if((f==iAD)&&keepDepth) {
-                            int i=0;
-                            for(String ad: Splitter.on(",").split(fieldS)){
-                                //System.out.println(i);
-                        
-                                if(alleles[i]==GenotypeTable.UNKNOWN_ALLELE) {  //no position for depth of unknown alleles, so skip
-                                    //Uncomment when converted
-                                    //dTS[t][alleles[i++]][s] = AlleleDepthUtil.depthIntToByte(AlleleDepthUtil.DEPTH_MISSING);
-                                    //Comment next two lines when converted
-                                    i++;
-                                    continue;
-                                    }
-                                int adInt=Integer.parseInt(ad);
-                                dTS[t][alleles[i++]][s]=AlleleDepthUtil.depthIntToByte(adInt);
-                            }
-                        }
-                        f++;
-                    }
-                    t++;
+
+                int taxonStart=(tabPos.length==0)?lineStart:tabPos[tabPos.length-1]+1;
+                for (int t=0; (t<taxaN)&&(taxonStart<=lineEnd); t++) {
+                    int taxonEnd=taxonStart;
+                    while (taxonEnd<lineEnd && data[taxonEnd]!='\t') taxonEnd++;
+                    parseTaxon(data, taxonStart, taxonEnd, t, s, alleles, diploids, iAD);
+                    taxonStart=taxonEnd+1;
                 }
             } catch(IllegalStateException e) {
             	throw e;
             }
             catch(Exception e) {
                 System.err.println("Err Site Number:"+s);
-                System.err.println("Err Site Number:"+blkPosList.get(blkPosList.size()-1).toString());
-                System.err.println("Err:"+input);
+                if(!blkPosList.isEmpty()) System.err.println("Err Site Number:"+blkPosList.get(blkPosList.size()-1).toString());
+                System.err.println("Err:"+lines.lineAsString(s));
                 throw e;
             }
 
         }
-        txtL=null;
+        lines=null;
         if(hdf5Builder!=null) {
             addResultsToHDF5Builder();
             gTS=null;
             dTS=null;
-            txtL=null;
             blkPosList.clear();
         }
         //TODO TAS-315 Create memory efficient VCF to HDF5 insert writing to Builder of direct.
         return this;
     }
 
+    /**
+     * Parses the genotype (GT) and, if depth is kept, the allele depth (AD) of one taxon.  Only the FORMAT
+     * fields up to the last one needed are read.
+     */
+    private void parseTaxon(byte[] data, int start, int end, int t, int s, byte[] alleles, byte[][] diploids, int iAD) {
+        if((end==start) || (end-start==1 && data[start]=='.')) {
+            gTS[t][s] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+            return;
+        }
+        int f=0;
+        int fieldStart=start;
+        while (fieldStart<=end) {
+            int fieldEnd=fieldStart;
+            while (fieldEnd<end && data[fieldEnd]!=':') fieldEnd++;
+            if(f==0) {
+                //[TAS-509] Check to make sure we are using diploids in the form 0/1 or 0|0, if it isnt a diploid error out early
+                if (fieldEnd-fieldStart<3) {
+                    throw new IllegalStateException("Error Processing VCF block: Found haploid information for the element: "
+                            + new String(data, start, end-start, StandardCharsets.UTF_8) + ".\nExpected a diploid entry.");
+                }
+                int a1 = data[fieldStart] - '0';
+                int a2 = data[fieldStart+2] - '0';
+                if(a1>alleles.length-1 || a2>alleles.length-1) {
+                    Position pos = blkPosList.get(blkPosList.size()-1);
+                    throw new IllegalStateException("\nError Processing VCF block: Mismatch of alleles.\n  At Chromosome "+ pos.getChromosome().getName() + ", Position "+pos.getPosition() +".\nAllele ID larger than number of alleles" );
+                }
+                if (a1 < 0 || a2 < 0 || a1 >= MAX_GT_ALLELES || a2 >= MAX_GT_ALLELES) {
+                    gTS[t][s] = GenotypeTable.UNKNOWN_DIPLOID_ALLELE;
+                }
+                else {
+                    gTS[t][s] = diploids[a1][a2];
+                }
+            } else if(f==iAD) {
+                int i=0;
+                int adStart=fieldStart;
+                while (adStart<=fieldEnd && i<alleles.length) {
+                    int adEnd=adStart;
+                    while (adEnd<fieldEnd && data[adEnd]!=',') adEnd++;
+                    //no position for depth of unknown alleles, so skip.  Missing depths are skipped too
+                    if(alleles[i]!=GenotypeTable.UNKNOWN_ALLELE && adEnd>adStart && !(adEnd-adStart==1 && data[adStart]=='.')) {
+                        dTS[t][alleles[i]][s]=AlleleDepthUtil.depthIntToByte(parseInt(data, adStart, adEnd));
+                    }
+                    i++;
+                    adStart=adEnd+1;
+                }
+            }
+            f++;
+            if(!keepDepth || f>iAD) break;
+            fieldStart=fieldEnd+1;
+        }
+    }
+
+    /**
+     * Returns the REF and ALT alleles as a slash separated list of variants.
+     */
+    static String variants(String refS, String alt) {
+        if(alt.equals(".")) return refS;
+        return (refS+"/"+alt).replace(',','/')
+                .replace("<INS>", "+").replace('I', '+')
+                .replace("<DEL>", "-").replace('D', '-');
+    }
+
+    /**
+     * Returns the allele of each variant in a slash separated list of variants.  For indels, the first
+     * (padding) base is removed and variants without other bases are deletions.
+     */
+    static byte[] parseAlleles(String variants) {
+        String[] variantList = variants.split("/");
+        byte[] alleles = new byte[variantList.length];
+        /***ZRM 8_27 New code ***/
+        boolean isIndel = variantList[0].length()>1;
+        if(!isIndel) {
+            //Check for reference deletion(insertion)
+            //Loop through all variants to see if one alt is longer than the ref
+            for(int i = 1; i < variantList.length; i++) {
+                if(variantList[i].length() > variantList[0].length()) {
+                    isIndel = true;
+                    break;
+                }
+            }
+        }
+        for(int i = 0; i < variantList.length; i++) {
+            if(!isIndel) {
+                //if not just put it in the allele array
+                alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(variantList[i].charAt(0));
+            }
+            //Pull off the first character if it exists, otherwise mark as deletion
+            else if(variantList[i].length()>1) {
+                alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte(variantList[i].charAt(1));
+            }
+            else {
+                alleles[i] = NucleotideAlignmentConstants.getNucleotideAlleleByte('-');
+            }
+        }
+        /***ZRM 8_27 New code end ***/
+        return alleles;
+    }
+
     private void addResultsToHDF5Builder() {
 
         hdf5Builder.addSiteBlock(startSite, PositionListBuilder.getInstance(blkPosList), gTS, dTS);
@@ -671,11 +700,49 @@ class ProcessVCFBlock implements Callable<ProcessVCFBlock> {
         return blkPosList;
     }
 
-    private static int firstEqualIndex(String[] sa, String match) {
-        for (int i=0; i<sa.length; i++) {
-            if(sa[i].equals(match)) return i;
+    private static int columnStart(int column, int lineStart, int[] tabPos) {
+        return (column==0)?lineStart:tabPos[column-1]+1;
+    }
+
+    private static String column(byte[] data, int column, int lineStart, int[] tabPos) {
+        int start=columnStart(column, lineStart, tabPos);
+        return new String(data, start, tabPos[column]-start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean equalBytes(byte[] value, byte[] data, int start, int end) {
+        if (value.length!=end-start) return false;
+        for (int i=0; i<value.length; i++) {
+            if (value[i]!=data[start+i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns index of the colon separated field with the given two character name, or -1 if not present.
+     */
+    private static int fieldIndex(byte[] data, int start, int end, char first, char second) {
+        int f=0;
+        int fieldStart=start;
+        for (int i=start; i<=end; i++) {
+            if (i==end || data[i]==':') {
+                if (i-fieldStart==2 && data[fieldStart]==first && data[fieldStart+1]==second) return f;
+                f++;
+                fieldStart=i+1;
+            }
         }
         return -1;
     }
-}
 
+    private static int parseInt(byte[] data, int start, int end) {
+        if (start>=end) throw new NumberFormatException("Empty integer field");
+        int result=0;
+        for (int i=start; i<end; i++) {
+            int digit=data[i]-'0';
+            if (digit<0 || digit>9) {
+                throw new NumberFormatException("For input string: \""+new String(data, start, end-start, StandardCharsets.UTF_8)+"\"");
+            }
+            result=result*10+digit;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  BuilderFromVCFLIX
+ */
+package net.maizegenetics.dna.snp.io;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.SetMultimap;
+import htsjdk.tribble.util.ParsingUtils;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import net.maizegenetics.dna.WHICH_ALLELE;
+import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.dna.map.GeneralPosition;
+import net.maizegenetics.dna.map.Position;
+import net.maizegenetics.dna.map.PositionList;
+import net.maizegenetics.dna.map.PositionListBuilder;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.GenotypeTableBuilder;
+import net.maizegenetics.dna.snp.depth.LineIndexVCFAlleleDepth;
+import net.maizegenetics.dna.snp.genotypecall.LineIndexVCFGenotypeCallTable;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.util.ByteLineReader;
+import net.maizegenetics.util.Tuple;
+
+/**
+ * Builds genotype table from a bgzipped VCF file and its line index (see
+ * LineIndexBuilder.buildVCFIndex()). Positions are read from the index.
+ * Genotypes and optionally depths are decoded from the VCF file as sites are
+ * accessed.
+ *
+ * @author agent
+ */
+public class BuilderFromVCFLIX {
+
+    private static final Pattern TAB_PATTERN = Pattern.compile("[\\t]+");
+    private static final String[] VCF_COLUMNS = {"#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT"};
+    private static final int CHROMOSOME_INDEX = 0;
+    private static final int POSITION_INDEX = 1;
+    private static final int SNPID_INDEX = 2;
+    private static final int REF_INDEX = 3;
+    private static final int ALT_INDEX = 4;
+    private static final int INFO_INDEX = 7;
+
+    private BuilderFromVCFLIX() {
+    }
+
+    public static GenotypeTable build(String vcfFileBGZip, boolean keepDepth) {
+        return build(vcfFileBGZip, ParsingUtils.appendToPath(vcfFileBGZip, LineIndexBuilder.LINE_INDEX_FILE_EXTENSION), keepDepth);
+    }
+
+    public static GenotypeTable build(String vcfFileBGZip, String indexFilename, boolean keepDepth) {
+
+        Tuple<LineIndex, String[]> indexPositionInfo = LineIndexBuilder.readIndex(indexFilename);
+        if (indexPositionInfo == null) {
+            throw new IllegalStateException("BuilderFromVCFLIX: Problem reading index: " + indexFilename);
+        }
+
+        Map<String, Chromosome> chromosomeLookup = new HashMap<>();
+        PositionListBuilder positions = new PositionListBuilder();
+        byte[][] alleles = new byte[indexPositionInfo.y.length][];
+        Position previous = null;
+        for (int s = 0; s < indexPositionInfo.y.length; s++) {
+
+            String[] tokens = indexPositionInfo.y[s].split("\t");
+            if (tokens.length <= INFO_INDEX) {
+                throw new IllegalStateException("BuilderFromVCFLIX: Index row doesn't have CHROM to INFO columns: " + indexPositionInfo.y[s]);
+            }
+
+            String chrName = tokens[CHROMOSOME_INDEX];
+            Chromosome currChr = chromosomeLookup.get(chrName);
+            if (currChr == null) {
+                currChr = new Chromosome(new String(chrName));
+                chromosomeLookup.put(chrName, currChr);
+            }
+
+            int physicalPos;
+            try {
+                physicalPos = Integer.parseInt(tokens[POSITION_INDEX]);
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("BuilderFromVCFLIX: Position must be an integer: " + tokens[POSITION_INDEX]);
+            }
+
+            String variants = BuilderFromVCF.variants(tokens[REF_INDEX], tokens[ALT_INDEX]);
+            alleles[s] = BuilderFromVCF.parseAlleles(variants);
+
+            GeneralPosition.Builder positionBuilder = new GeneralPosition.Builder(currChr, physicalPos)
+                    .knownVariants(variants);
+            if (!tokens[SNPID_INDEX].equals(".")) {
+                positionBuilder.snpName(tokens[SNPID_INDEX]);
+            }
+            positionBuilder.allele(WHICH_ALLELE.Reference, alleles[s][0]);
+            for (String annoS : Splitter.on(";").split(tokens[INFO_INDEX])) {
+                positionBuilder.addAnno(annoS);
+            }
+
+            // sites are accessed by line number, so positions can't be reordered
+            Position current = positionBuilder.build();
+            if ((previous != null) && (previous.compareTo(current) > 0)) {
+                throw new IllegalStateException("BuilderFromVCFLIX: VCF file must be sorted by position: " + current.toString() + " follows: " + previous.toString());
+            }
+            positions.add(current);
+            previous = current;
+        }
+        PositionList positionList = positions.build();
+
+        TaxaList taxaList = null;
+        try (ByteLineReader reader = ByteLineReader.getInstance(vcfFileBGZip, 1)) {
+
+            Map<String, SetMultimap<String, String>> sampAnnoBuild = new TreeMap<>();
+            String currLine = BuilderFromVCF.parseVCFHeadersIntoMaps(null, null, sampAnnoBuild, reader);
+            if ((currLine == null) || !currLine.startsWith("#")) {
+                throw new IllegalStateException("BuilderFromVCFLIX: #CHROM header line not found.");
+            }
+
+            String[] header = TAB_PATTERN.split(currLine);
+            for (int i = 0; i < VCF_COLUMNS.length; i++) {
+                if ((i >= header.length) || (!header[i].equals(VCF_COLUMNS[i]) && !(i == CHROMOSOME_INDEX && header[i].equals("#CHR")))) {
+                    throw new IllegalStateException("BuilderFromVCFLIX: Expected column: " + VCF_COLUMNS[i] + " at index: " + i + " of header line.");
+                }
+            }
+            taxaList = BuilderFromVCF.processTaxa(header, sampAnnoBuild);
+
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("BuilderFromVCFLIX: Problem opening file: " + vcfFileBGZip + "\n" + e.getMessage());
+        }
+
+        LineIndexVCFGenotypeCallTable genotypes = LineIndexVCFGenotypeCallTable.getInstance(taxaList.numberOfTaxa(), positionList.numberOfSites(), false, alleles, keepDepth, indexPositionInfo.x, vcfFileBGZip);
+        return GenotypeTableBuilder.getInstance(genotypes, positionList, taxaList, keepDepth ? LineIndexVCFAlleleDepth.getInstance(genotypes) : null);
+
+    }
+
+}
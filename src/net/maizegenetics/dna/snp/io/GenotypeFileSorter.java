@@ -0,0 +1,396 @@
+/*
+ *  GenotypeFileSorter
+ */
+package net.maizegenetics.dna.snp.io;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.dna.map.Position;
+import net.maizegenetics.util.Utils;
+
+import org.apache.log4j.Logger;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sorts a HapMap or VCF file by TASSEL position order (chromosome, position,
+ * strand, then SNP name) without loading it into memory. Lines are read in runs that
+ * fit the memory limit. Each run is sorted and written to a Snappy compressed
+ * temporary file on its own thread. The runs are then merged into the output
+ * file. Header lines are copied unchanged. Output files ending with .gz are
+ * written in BGZF format so they can be indexed.
+ *
+ * @author agent
+ */
+public class GenotypeFileSorter {
+
+    private static final Logger myLogger = Logger.getLogger(GenotypeFileSorter.class);
+
+    // approximate heap used by each line in addition to its characters
+    private static final int LINE_OVERHEAD = 96;
+    private static final int RUN_BUFFER_SIZE = 1 << 16;
+
+    private static final int HAPMAP_SNPID_INDEX = 0;
+    private static final int HAPMAP_CHROMOSOME_INDEX = 2;
+    private static final int HAPMAP_POSITION_INDEX = 3;
+    private static final int HAPMAP_STRAND_INDEX = 4;
+
+    private static final int VCF_CHROMOSOME_INDEX = 0;
+    private static final int VCF_POSITION_INDEX = 1;
+    private static final int VCF_SNPID_INDEX = 2;
+
+    private final String myInputFile;
+    private final String myOutputFile;
+    private final boolean myIsVCF;
+    private final int myChromosomeIndex;
+    private final int myPositionIndex;
+    private final int mySNPIDIndex;
+    private final int myStrandIndex;
+    private final int myNumKeyColumns;
+    private final ConcurrentHashMap<String, Chromosome> myChromosomes = new ConcurrentHashMap<>();
+    private long myMaxMemory = -1;
+    private int myNumThreads = Runtime.getRuntime().availableProcessors();
+    private File myTempDir = null;
+
+    private GenotypeFileSorter(String inputFile, String outputFile, boolean isVCF) {
+        myInputFile = inputFile;
+        myOutputFile = outputFile;
+        myIsVCF = isVCF;
+        if (isVCF) {
+            myChromosomeIndex = VCF_CHROMOSOME_INDEX;
+            myPositionIndex = VCF_POSITION_INDEX;
+            mySNPIDIndex = VCF_SNPID_INDEX;
+            // VCF has no strand column
+            myStrandIndex = -1;
+        } else {
+            myChromosomeIndex = HAPMAP_CHROMOSOME_INDEX;
+            myPositionIndex = HAPMAP_POSITION_INDEX;
+            mySNPIDIndex = HAPMAP_SNPID_INDEX;
+            myStrandIndex = HAPMAP_STRAND_INDEX;
+        }
+        myNumKeyColumns = Math.max(Math.max(myChromosomeIndex, myPositionIndex), Math.max(mySNPIDIndex, myStrandIndex)) + 1;
+    }
+
+    public static GenotypeFileSorter getHapmapInstance(String inputFile, String outputFile) {
+        return new GenotypeFileSorter(inputFile, outputFile, false);
+    }
+
+    public static GenotypeFileSorter getVCFInstance(String inputFile, String outputFile) {
+        return new GenotypeFileSorter(inputFile, outputFile, true);
+    }
+
+    /**
+     * Sets approximate number of bytes of heap used for lines held in memory.
+     * Default is half of the heap available when sort() is called.
+     */
+    public GenotypeFileSorter maxMemory(long bytes) {
+        myMaxMemory = bytes;
+        return this;
+    }
+
+    /**
+     * Sets number of threads sorting and writing runs.
+     */
+    public GenotypeFileSorter numThreads(int numThreads) {
+        myNumThreads = Math.max(1, numThreads);
+        return this;
+    }
+
+    /**
+     * Sets directory for temporary run files. Default is the directory of the
+     * output file.
+     */
+    public GenotypeFileSorter tempDir(String dir) {
+        myTempDir = new File(dir);
+        return this;
+    }
+
+    /**
+     * Sorts input file into output file.
+     *
+     * @return output file name
+     */
+    public String sort() {
+
+        long maxMemory = myMaxMemory;
+        if (maxMemory <= 0) {
+            Runtime runtime = Runtime.getRuntime();
+            maxMemory = (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 2;
+        }
+        // runs being sorted plus the run being read
+        long runMemory = Math.max(1 << 20, maxMemory / (myNumThreads + 1));
+
+        File tempDir = myTempDir;
+        if (tempDir == null) {
+            tempDir = new File(myOutputFile).getAbsoluteFile().getParentFile();
+        }
+
+        List<String> header = new ArrayList<>();
+        List<File> runs = new ArrayList<>();
+        List<Future<File>> futures = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(myNumThreads);
+        Semaphore available = new Semaphore(myNumThreads);
+        try {
+
+            try (BufferedReader reader = Utils.getBufferedReader(myInputFile, 1 << 20)) {
+
+                String line = reader.readLine();
+                while ((line != null) && line.startsWith("#")) {
+                    header.add(line);
+                    line = reader.readLine();
+                }
+                if (!myIsVCF && (line != null)) {
+                    // HapMap column header line (rs# alleles chrom pos ...)
+                    header.add(line);
+                    line = reader.readLine();
+                }
+
+                while (line != null) {
+                    List<String> lines = new ArrayList<>();
+                    long size = 0;
+                    while ((line != null) && (size < runMemory)) {
+                        if (!line.isEmpty()) {
+                            lines.add(line);
+                            size += 2L * line.length() + LINE_OVERHEAD;
+                        }
+                        line = reader.readLine();
+                    }
+                    available.acquire();
+                    File run = File.createTempFile("tassel_sort_", ".run", tempDir);
+                    run.deleteOnExit();
+                    runs.add(run);
+                    final List<String> runLines = lines;
+                    futures.add(pool.submit(() -> {
+                        try {
+                            return writeRun(runLines, run);
+                        } finally {
+                            available.release();
+                        }
+                    }));
+                }
+
+            }
+
+            for (Future<File> future : futures) {
+                future.get();
+            }
+            myLogger.info("sort: " + myInputFile + " number of runs: " + runs.size());
+
+            merge(header, runs);
+
+            return myOutputFile;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("GenotypeFileSorter: sort: interrupted sorting: " + myInputFile);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("GenotypeFileSorter: sort: problem sorting: " + myInputFile + ": " + e.getCause().getMessage());
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("GenotypeFileSorter: sort: problem sorting: " + myInputFile + ": " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+
+    }
+
+    private File writeRun(List<String> lines, File run) throws IOException {
+        List<SortLine> records = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            records.add(new SortLine(line, 0));
+        }
+        lines.clear();
+        Collections.sort(records);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new SnappyOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE)), StandardCharsets.UTF_8), RUN_BUFFER_SIZE)) {
+            for (SortLine record : records) {
+                writer.write(record.myLine);
+                writer.write('\n');
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges sorted runs into output file. Equal lines keep the order of the
+     * input file.
+     */
+    private void merge(List<String> header, List<File> runs) throws IOException {
+
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try (BufferedWriter writer = getOutputWriter()) {
+
+            for (String line : header) {
+                writer.write(line);
+                writer.write('\n');
+            }
+
+            PriorityQueue<SortLine> queue = new PriorityQueue<>(Math.max(1, runs.size()));
+            for (int r = 0; r < runs.size(); r++) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new SnappyInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), RUN_BUFFER_SIZE)), StandardCharsets.UTF_8), RUN_BUFFER_SIZE);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    queue.add(new SortLine(line, r));
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                SortLine current = queue.poll();
+                writer.write(current.myLine);
+                writer.write('\n');
+                String line = readers.get(current.myRun).readLine();
+                if (line != null) {
+                    queue.add(new SortLine(line, current.myRun));
+                }
+            }
+
+        } finally {
+            for (BufferedReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    // do nothing
+                }
+            }
+        }
+
+    }
+
+    private BufferedWriter getOutputWriter() throws IOException {
+        if (myOutputFile.endsWith(".gz")) {
+            return new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(myOutputFile), StandardCharsets.UTF_8), 1 << 20);
+        } else {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(myOutputFile), StandardCharsets.UTF_8), 1 << 20);
+        }
+    }
+
+    private Chromosome chromosome(String name) {
+        Chromosome result = myChromosomes.get(name);
+        if (result == null) {
+            result = new Chromosome(name);
+            Chromosome temp = myChromosomes.putIfAbsent(name, result);
+            if (temp != null) {
+                result = temp;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Strand byte of HapMap strand column. Values other than +, -, and N
+     * (i.e. .) are unknown strand.
+     */
+    private static byte strand(String value) {
+        switch (value) {
+            case Position.STRAND_PLUS_STR:
+                return Position.STRAND_PLUS;
+            case Position.STRAND_MINUS_STR:
+                return Position.STRAND_MINUS;
+            default:
+                return Position.STRAND_UNKNOWN;
+        }
+    }
+
+    /**
+     * Line with its sort key. Compares like GeneralPosition.compareTo(), then
+     * by run.
+     */
+    private class SortLine implements Comparable<SortLine> {
+
+        private final String myLine;
+        private final int myRun;
+        private final Chromosome myChromosome;
+        private final int myPosition;
+        private final byte myStrand;
+        private final String mySNPID;
+
+        private SortLine(String line, int run) {
+            myLine = line;
+            myRun = run;
+
+            int[] starts = new int[myNumKeyColumns];
+            int[] ends = new int[myNumKeyColumns];
+            int column = 0;
+            int start = 0;
+            int len = line.length();
+            for (int i = 0; (i <= len) && (column < myNumKeyColumns); i++) {
+                if ((i == len) || (line.charAt(i) == '\t')) {
+                    starts[column] = start;
+                    ends[column] = i;
+                    column++;
+                    start = i + 1;
+                }
+            }
+            if (column < myNumKeyColumns) {
+                throw new IllegalStateException("GenotypeFileSorter: line has too few columns: " + line.substring(0, Math.min(len, 100)));
+            }
+
+            myChromosome = chromosome(line.substring(starts[myChromosomeIndex], ends[myChromosomeIndex]));
+            try {
+                myPosition = Integer.parseInt(line.substring(starts[myPositionIndex], ends[myPositionIndex]));
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("GenotypeFileSorter: position must be an integer: " + line.substring(starts[myPositionIndex], ends[myPositionIndex]));
+            }
+            myStrand = myStrandIndex < 0 ? Position.STRAND_PLUS : strand(line.substring(starts[myStrandIndex], ends[myStrandIndex]));
+            String snpID = line.substring(starts[mySNPIDIndex], ends[mySNPIDIndex]);
+            if (myIsVCF && snpID.equals(".")) {
+                // same as GeneralPosition.getSNPID() when no name
+                snpID = "S" + myChromosome.getName() + "_" + myPosition;
+            }
+            mySNPID = snpID;
+        }
+
+        /**
+         * Same order as GeneralPosition.compareTo(). HapMap and VCF files have
+         * no cM column, so cM is not compared.
+         */
+        @Override
+        public int compareTo(SortLine o) {
+            int result = myChromosome.compareTo(o.myChromosome);
+            if (result != 0) {
+                return result;
+            }
+            result = Integer.compare(myPosition, o.myPosition);
+            if (result != 0) {
+                return result;
+            }
+            result = Integer.compare(myStrand, o.myStrand);
+            if (result != 0) {
+                return result;
+            }
+            result = mySNPID.compareTo(o.mySNPID);
+            if (result != 0) {
+                return result;
+            }
+            return Integer.compare(myRun, o.myRun);
+        }
+
+    }
+
+}
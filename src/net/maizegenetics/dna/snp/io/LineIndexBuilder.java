@@ -12,10 +12,13 @@ import htsjdk.tribble.util.LittleEndianInputStream;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import htsjdk.tribble.util.ParsingUtils;
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import net.maizegenetics.util.ParallelBGZFWriter;
 import net.maizegenetics.util.Tuple;
 import org.apache.log4j.Logger;
 
@@ -98,6 +101,69 @@ public class LineIndexBuilder {
 
     public void build() {
 
+        List<Long> virtualFileOffsets = new ArrayList<>();
+        List<String> beginningColumnsPerRow = new ArrayList<>();
+
+        try (BlockCompressedInputStream input = new BlockCompressedInputStream(new File(myFileToIndex))) {
+
+            // Skip comment, empty, and header lines. Stops at the
+            // beginning of the first data line, so that a header
+            // starting with the comment char (i.e. VCF #CHROM) works.
+            long lineStart = 0;
+            int linesSkipped = 0;
+            String str = input.readLine();
+            while (str != null) {
+                if (!str.isEmpty() && str.charAt(0) != myCommentChar) {
+                    if (linesSkipped >= myNumHeaderLinesToSkip) {
+                        input.seek(lineStart);
+                        break;
+                    }
+                    linesSkipped++;
+                }
+                lineStart = input.getFilePointer();
+                str = input.readLine();
+            }
+
+            boolean notFinished = true;
+            while (notFinished) {
+                virtualFileOffsets.add(input.getFilePointer());
+                for (int i = 0; i < LineIndex.NUM_LINES_PER_INTERVAL; i++) {
+                    String current = input.readLine();
+
+                    if (current == null) {
+                        notFinished = false;
+                        break;
+                    }
+
+                    if (myNumColumnsPerRowToKeepInIndex > 0) {
+                        int n = myNumColumnsPerRowToKeepInIndex - 1;
+                        int pos = current.indexOf('\t');
+                        while (n-- > 0 && pos != -1) {
+                            pos = current.indexOf('\t', pos + 1);
+                        }
+                        if (pos == -1) {
+                            throw new IllegalStateException("LineIndexBuilder: build: " + myNumColumnsPerRowToKeepInIndex + " columns not found.");
+                        }
+                        beginningColumnsPerRow.add(current.substring(0, pos));
+                    }
+
+                }
+            }
+
+        } catch (SAMFormatException se) {
+            myLogger.debug(se.getMessage(), se);
+            throw new IllegalStateException("LineIndexBuilder: build: this file is not bgzipped: " + myFileToIndex + ": " + se.getMessage());
+        } catch (Exception ex) {
+            myLogger.debug(ex.getMessage(), ex);
+            throw new IllegalStateException("LineIndexBuilder: build: problem creating index for file: " + myFileToIndex + ": " + ex.getMessage());
+        }
+
+        writeIndex(beginningColumnsPerRow, virtualFileOffsets);
+
+    }
+
+    private void writeIndex(List<String> beginningColumnsPerRow, List<Long> virtualFileOffsets) {
+
         try (LittleEndianOutputStream output = new LittleEndianOutputStream(new BlockCompressedOutputStream(myIdxFilename))) {
 
             output.writeInt(MAGIC_NUMBER);
@@ -105,73 +171,101 @@ public class LineIndexBuilder {
             output.writeInt(myNumHeaderLinesToSkip);
             output.writeInt(LineIndex.NUM_LINES_PER_INTERVAL);
 
-            try (BlockCompressedInputStream input = new BlockCompressedInputStream(new File(myFileToIndex))) {
+            output.writeInt(beginningColumnsPerRow.size());
 
-                boolean notFinished = true;
-                int linesSkipped = 0;
-                while (notFinished) {
-                    String str = input.readLine();
-                    if (!(str.charAt(0) == myCommentChar)) {
-                        linesSkipped++;
-                    }
-                    if (myNumHeaderLinesToSkip <= linesSkipped) {
-                        notFinished = false;
-                    }
-                }
+            for (String current : beginningColumnsPerRow) {
+                output.writeString(current);
+            }
 
-                List<Long> virtualFileOffsets = new ArrayList<>();
-                List<String> beginningColumnsPerRow = new ArrayList<>();
-                notFinished = true;
-                while (notFinished) {
-                    virtualFileOffsets.add(input.getFilePointer());
-                    for (int i = 0; i < LineIndex.NUM_LINES_PER_INTERVAL; i++) {
-                        String current = input.readLine();
+            output.writeInt(virtualFileOffsets.size());
 
-                        if (current == null) {
-                            notFinished = false;
-                            break;
-                        }
+            for (Long current : virtualFileOffsets) {
+                output.writeLong(current);
+            }
 
-                        if (myNumColumnsPerRowToKeepInIndex > 0) {
-                            int n = myNumColumnsPerRowToKeepInIndex - 1;
-                            int pos = current.indexOf('\t');
-                            while (n-- > 0 && pos != -1) {
-                                pos = current.indexOf('\t', pos + 1);
-                            }
-                            if (pos == -1) {
-                                throw new IllegalStateException("LineIndexBuilder: build: " + myNumColumnsPerRowToKeepInIndex + " columns not found.");
-                            }
-                            beginningColumnsPerRow.add(current.substring(0, pos));
-                        }
+        } catch (Exception e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("LineIndexBuilder: build: problem writing index file: " + myIdxFilename + ": " + e.getMessage());
+        }
+
+    }
 
+    /**
+     * Returns indexer that creates this index while the file is written with
+     * ParallelBGZFWriter, instead of reading the file afterwards with build().
+     *
+     * @return line indexer
+     */
+    public ParallelBGZFWriter.LineIndexer lineIndexer() {
+
+        return new ParallelBGZFWriter.LineIndexer() {
+
+            private final List<Long> myVirtualFileOffsets = new ArrayList<>();
+            private final List<String> myBeginningColumnsPerRow = new ArrayList<>();
+            private int myLinesSkipped = 0;
+            private boolean myInHeader = true;
+            private int myNumDataLines = 0;
+
+            @Override
+            public void line(byte[] data, int start, int end, long virtualOffset) throws IOException {
+
+                if (myInHeader) {
+                    if ((end == start) || (data[start] == myCommentChar)) {
+                        return;
                     }
+                    if (myLinesSkipped < myNumHeaderLinesToSkip) {
+                        myLinesSkipped++;
+                        return;
+                    }
+                    myInHeader = false;
                 }
 
-                output.writeInt(beginningColumnsPerRow.size());
+                if (myNumDataLines % LineIndex.NUM_LINES_PER_INTERVAL == 0) {
+                    myVirtualFileOffsets.add(virtualOffset);
+                }
+                myNumDataLines++;
 
-                for (String current : beginningColumnsPerRow) {
-                    output.writeString(current);
+                if (myNumColumnsPerRowToKeepInIndex > 0) {
+                    int n = myNumColumnsPerRowToKeepInIndex;
+                    int pos = start;
+                    for (; pos < end; pos++) {
+                        if ((data[pos] == '\t') && (--n == 0)) {
+                            break;
+                        }
+                    }
+                    if (n != 0) {
+                        throw new IllegalStateException("LineIndexBuilder: lineIndexer: " + myNumColumnsPerRowToKeepInIndex + " columns not found.");
+                    }
+                    myBeginningColumnsPerRow.add(new String(data, start, pos - start, StandardCharsets.UTF_8));
                 }
 
-                output.writeInt(virtualFileOffsets.size());
+            }
 
-                for (Long current : virtualFileOffsets) {
-                    output.writeLong(current);
+            @Override
+            public void finish(long virtualOffset) throws IOException {
+                // build() also records an offset when the last interval is full
+                if (myNumDataLines % LineIndex.NUM_LINES_PER_INTERVAL == 0) {
+                    myVirtualFileOffsets.add(virtualOffset);
                 }
-
-            } catch (SAMFormatException se) {
-                myLogger.debug(se.getMessage(), se);
-                throw new IllegalStateException("LineIndexBuilder: build: this file is not bgzipped: " + myFileToIndex + ": " + se.getMessage());
-            } catch (Exception ex) {
-                myLogger.debug(ex.getMessage(), ex);
-                throw new IllegalStateException("LineIndexBuilder: build: problem creating index for file: " + myFileToIndex + ": " + ex.getMessage());
+                writeIndex(myBeginningColumnsPerRow, myVirtualFileOffsets);
             }
 
-        } catch (Exception e) {
-            myLogger.debug(e.getMessage(), e);
-            throw new IllegalStateException("LineIndexBuilder: build: problem writing index file: " + myIdxFilename + ": " + e.getMessage());
-        }
+        };
+
+    }
 
+    /**
+     * Builds index for bgzipped VCF file. The first eight columns (CHROM to
+     * INFO) of each line are saved in the index.
+     *
+     * @param filename bgzipped VCF file
+     */
+    public static void buildVCFIndex(String filename) {
+        new LineIndexBuilder(filename)
+                .commentChar('#')
+                .numHeaderLinesToSkip(0)
+                .numColumnsPerRowToKeepInIndex(8)
+                .build();
     }
 
     public static void buildHapmapIndex(String filename) {
@@ -6,24 +6,53 @@ import net.maizegenetics.dna.snp.ImportUtils;
 import net.maizegenetics.dna.snp.ProjectionBuilder;
 import net.maizegenetics.dna.snp.genotypecall.ProjectionGenotypeCallTable;
 import net.maizegenetics.dna.map.Chromosome;
+import net.maizegenetics.taxa.TaxaList;
+import net.maizegenetics.taxa.TaxaListBuilder;
 import net.maizegenetics.taxa.Taxon;
 import net.maizegenetics.dna.map.DonorHaplotypes;
 import net.maizegenetics.util.ExceptionUtils;
 import net.maizegenetics.util.Utils;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
  * Methods for reading and writing ProjectionGenotypes to files. ProjectionGenotypes have two parts - one is the
  * Projection file that has the names of high density genotyped taxa and the recombination breakpoints for
  * each of the low density taxa that point to the high density taxa.
+ * <p></p>
+ * Projection files ending with .pa.bin are binary.  They hold the breakpoints already resolved to
+ * site ranges of the base genotype table (startSite, endSite, donor1, donor2) with an index to the
+ * first segment of each taxon, so they are memory mapped when loaded instead of parsed.  The donor
+ * haplotypes by physical position are also stored and only decoded when requested for a taxon.
+ * <p></p>
+ * Binary layout (big endian): magic, version, header length, header (base taxa names, number of
+ * base sites, taxa names, chromosome names) padded to 4 bytes, segment index (number of taxa + 1 ints),
+ * segments (4 ints each), donor index (number of taxa + 1 ints), and donor haplotypes
+ * (chromosome index, start position, end position, donor1, donor2).
  *
  * @author Ed Buckler
  */
 public class ProjectionGenotypeIO {
 
+    public static final String FILE_EXT_BINARY = ".pa.bin";
+
+    private static final int BINARY_MAGIC = 0x50414249; // PABI
+    private static final int BINARY_VERSION = 1;
+    private static final int DONOR_SIZE = 5;
+
     /**
      * Returns a genotypeTable based on a projection genotype file and high density genotype table
      * @param paFile file name for projection file
@@ -42,6 +71,7 @@ public class ProjectionGenotypeIO {
      * @return Projection GenotypeTable based on both
      */
     public static GenotypeTable getInstance(String paFile, GenotypeTable baseHighDensityAlignment) {
+        if (paFile.endsWith(FILE_EXT_BINARY)) return getBinaryInstance(paFile, baseHighDensityAlignment);
         BufferedReader br = null;
         try {
             br = Utils.getBufferedReader(paFile);
@@ -102,6 +132,10 @@ public class ProjectionGenotypeIO {
         if(!(pa.genotypeMatrix() instanceof ProjectionGenotypeCallTable)) {
             throw new UnsupportedOperationException("Save only works for Alignments with projection genotypes");
         }
+        if(outfile.endsWith(FILE_EXT_BINARY)) {
+            writeToBinaryFile(outfile, pa);
+            return;
+        }
         ProjectionGenotypeCallTable pg=(ProjectionGenotypeCallTable)pa.genotypeMatrix();
         GenotypeTable baseAlignment=pg.getBaseGenotypeTable();
         BufferedWriter bw = null;
@@ -135,4 +169,191 @@ public class ProjectionGenotypeIO {
         }
     }
 
+    /**
+     * Returns a genotypeTable based on a binary projection genotype file and high density genotype table.
+     * The segments are memory mapped, unless the base taxa are in a different order than when the file
+     * was written, in which case they are copied with the donors renumbered.
+     * @param paFile file name for binary projection file
+     * @param baseHighDensityAlignment GenotypeTable of high density taxa
+     * @return Projection GenotypeTable based on both
+     */
+    public static GenotypeTable getBinaryInstance(String paFile, GenotypeTable baseHighDensityAlignment) {
+        try (RandomAccessFile raf = new RandomAccessFile(paFile, "r"); FileChannel channel = raf.getChannel()) {
+
+            if (raf.readInt() != BINARY_MAGIC) {
+                throw new IllegalArgumentException("Not a binary projection file");
+            }
+            int version = raf.readInt();
+            if (version != BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported binary projection version: " + version);
+            }
+            int headerLength = raf.readInt();
+            byte[] header = new byte[headerLength];
+            raf.readFully(header);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(header));
+
+            int baseTaxaCnt = dis.readInt();
+            TaxaList baseTaxa = baseHighDensityAlignment.taxa();
+            int[] paIndexToBaseIndex = new int[baseTaxaCnt];
+            boolean sameOrder = baseTaxaCnt == baseTaxa.numberOfTaxa();
+            for (int i = 0; i < baseTaxaCnt; i++) {
+                String name = dis.readUTF();
+                int matches = baseTaxa.indexOf(new Taxon(name));
+                if (matches < 0) {
+                    throw new NoSuchElementException("Taxon " + name + " not found within base taxa");
+                }
+                paIndexToBaseIndex[i] = matches;
+                if (matches != i) sameOrder = false;
+            }
+            int baseSiteCnt = dis.readInt();
+            if (baseSiteCnt != baseHighDensityAlignment.numberOfSites()) {
+                throw new IllegalArgumentException("Projection written for base with " + baseSiteCnt
+                        + " sites, but base has " + baseHighDensityAlignment.numberOfSites());
+            }
+            int taxaCnt = dis.readInt();
+            TaxaListBuilder tlb = new TaxaListBuilder();
+            for (int i = 0; i < taxaCnt; i++) {
+                tlb.add(new Taxon(dis.readUTF()));
+            }
+            int chrCnt = dis.readInt();
+            Chromosome[] chromosomes = new Chromosome[chrCnt];
+            for (int i = 0; i < chrCnt; i++) {
+                chromosomes[i] = new Chromosome(dis.readUTF());
+            }
+
+            long offset = 12L + headerLength;
+            int[] segmentIndex = new int[taxaCnt + 1];
+            map(channel, offset, segmentIndex.length).get(segmentIndex);
+            offset += 4L * segmentIndex.length;
+            long numSegmentInts = (long) segmentIndex[taxaCnt] * ProjectionGenotypeCallTable.SEGMENT_SIZE;
+            IntBuffer segments = map(channel, offset, numSegmentInts);
+            offset += 4L * numSegmentInts;
+            if (!sameOrder) {
+                int[] copy = new int[(int) numSegmentInts];
+                segments.get(copy);
+                for (int i = 0; i < copy.length; i += ProjectionGenotypeCallTable.SEGMENT_SIZE) {
+                    if (copy[i + 2] >= 0) copy[i + 2] = paIndexToBaseIndex[copy[i + 2]];
+                    if (copy[i + 3] >= 0) copy[i + 3] = paIndexToBaseIndex[copy[i + 3]];
+                }
+                segments = IntBuffer.wrap(copy);
+            }
+
+            int[] donorIndex = new int[taxaCnt + 1];
+            map(channel, offset, donorIndex.length).get(donorIndex);
+            offset += 4L * donorIndex.length;
+            IntBuffer donors = map(channel, offset, (long) donorIndex[taxaCnt] * DONOR_SIZE);
+
+            ProjectionGenotypeCallTable pg = new ProjectionGenotypeCallTable(baseHighDensityAlignment, segmentIndex, segments, taxon -> {
+                NavigableSet<DonorHaplotypes> result = new TreeSet<>();
+                for (int d = donorIndex[taxon]; d < donorIndex[taxon + 1]; d++) {
+                    int i = d * DONOR_SIZE;
+                    int p1 = donors.get(i + 3);
+                    int p2 = donors.get(i + 4);
+                    result.add(new DonorHaplotypes(chromosomes[donors.get(i)], donors.get(i + 1), donors.get(i + 2),
+                            (p1 < 0) ? p1 : paIndexToBaseIndex[p1], (p2 < 0) ? p2 : paIndexToBaseIndex[p2]));
+                }
+                return result;
+            });
+            return GenotypeTableBuilder.getInstance(pg, baseHighDensityAlignment.positions(), tlb.build());
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Error reading Projection file: " + paFile + ": " + ExceptionUtils.getExceptionCauses(e));
+        }
+    }
+
+    private static IntBuffer map(FileChannel channel, long offset, long numInts) throws IOException {
+        if (numInts > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Projection file region too large to map: " + numInts + " ints");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, numInts * 4L);
+        return buffer.asIntBuffer();
+    }
+
+    /**
+     * Exports the ProjectionGenotypes to a binary projection file that can be memory mapped when loaded.
+     * The file can only be used with the same base sites it was written with.
+     * @param outfile the path and name of the projection file
+     * @param pa GenotypeTable with a ProjectionGenotypeCallTable
+     */
+    public static void writeToBinaryFile(String outfile, GenotypeTable pa) {
+        if(!(pa.genotypeMatrix() instanceof ProjectionGenotypeCallTable)) {
+            throw new UnsupportedOperationException("Save only works for Alignments with projection genotypes");
+        }
+        ProjectionGenotypeCallTable pg=(ProjectionGenotypeCallTable)pa.genotypeMatrix();
+        GenotypeTable baseAlignment=pg.getBaseGenotypeTable();
+        String fullFileName = Utils.addSuffixIfNeeded(outfile, FILE_EXT_BINARY);
+        int taxaCnt = pa.numberOfTaxa();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fullFileName), 1 << 20))) {
+
+            Map<Chromosome, Integer> chrIndex = new LinkedHashMap<>();
+            List<NavigableSet<DonorHaplotypes>> allDonors = new ArrayList<>(taxaCnt);
+            for (int t = 0; t < taxaCnt; t++) {
+                NavigableSet<DonorHaplotypes> theDH = pg.getDonorHaplotypes(t);
+                allDonors.add(theDH);
+                for (DonorHaplotypes dh : theDH) {
+                    if (!chrIndex.containsKey(dh.getChromosome())) chrIndex.put(dh.getChromosome(), chrIndex.size());
+                }
+            }
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(baseAlignment.numberOfTaxa());
+            for (int i = 0; i < baseAlignment.numberOfTaxa(); i++) {
+                header.writeUTF(baseAlignment.taxaName(i));
+            }
+            header.writeInt(baseAlignment.numberOfSites());
+            header.writeInt(taxaCnt);
+            for (int t = 0; t < taxaCnt; t++) {
+                header.writeUTF(pa.taxaName(t));
+            }
+            header.writeInt(chrIndex.size());
+            for (Chromosome chr : chrIndex.keySet()) {
+                header.writeUTF(chr.getName());
+            }
+            while (header.size() % 4 != 0) {
+                header.writeByte(0);
+            }
+            header.flush();
+
+            dos.writeInt(BINARY_MAGIC);
+            dos.writeInt(BINARY_VERSION);
+            dos.writeInt(headerBytes.size());
+            headerBytes.writeTo(dos);
+
+            List<int[]> segments = new ArrayList<>(taxaCnt);
+            int numSegments = 0;
+            for (int t = 0; t < taxaCnt; t++) {
+                dos.writeInt(numSegments);
+                int[] taxonSegments = pg.getDonorSegments(t);
+                segments.add(taxonSegments);
+                numSegments += taxonSegments.length / ProjectionGenotypeCallTable.SEGMENT_SIZE;
+            }
+            dos.writeInt(numSegments);
+            for (int[] taxonSegments : segments) {
+                for (int value : taxonSegments) {
+                    dos.writeInt(value);
+                }
+            }
+
+            int numDonors = 0;
+            for (int t = 0; t < taxaCnt; t++) {
+                dos.writeInt(numDonors);
+                numDonors += allDonors.get(t).size();
+            }
+            dos.writeInt(numDonors);
+            for (NavigableSet<DonorHaplotypes> theDH : allDonors) {
+                for (DonorHaplotypes dh : theDH) {
+                    dos.writeInt(chrIndex.get(dh.getChromosome()));
+                    dos.writeInt(dh.getStartPosition());
+                    dos.writeInt(dh.getEndPosition());
+                    dos.writeInt(dh.getParent1index());
+                    dos.writeInt(dh.getParent2index());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Error writing Projection file: " + outfile + ": " + ExceptionUtils.getExceptionCauses(e));
+        }
+    }
+
 }
@@ -0,0 +1,87 @@
+/*
+ *  TabixLineIndexer
+ */
+package net.maizegenetics.dna.snp.io;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.util.LittleEndianOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import net.maizegenetics.util.ParallelBGZFWriter;
+
+/**
+ * Creates a tabix index (.tbi) for a VCF file while it is written with
+ * ParallelBGZFWriter. Lines must be sorted by position within each
+ * chromosome, and each chromosome must be contiguous.
+ *
+ * @author agent
+ */
+public class TabixLineIndexer implements ParallelBGZFWriter.LineIndexer {
+
+    public static final String TABIX_INDEX_FILE_EXTENSION = ".tbi";
+
+    private static final int CHROMOSOME_INDEX = 0;
+    private static final int POSITION_INDEX = 1;
+    private static final int REF_INDEX = 3;
+
+    private final String myIdxFilename;
+    private final TabixIndexCreator myCreator = new TabixIndexCreator(TabixFormat.VCF);
+    private final int[] myTabs = new int[REF_INDEX + 1];
+
+    private TabixLineIndexer(String idxFilename) {
+        myIdxFilename = idxFilename;
+    }
+
+    /**
+     * Returns indexer for bgzipped VCF file.
+     *
+     * @param filename VCF file (.vcf.gz). The index is written to filename +
+     * .tbi
+     *
+     * @return indexer
+     */
+    public static TabixLineIndexer getVCFInstance(String filename) {
+        return new TabixLineIndexer(filename + TABIX_INDEX_FILE_EXTENSION);
+    }
+
+    @Override
+    public void line(byte[] data, int start, int end, long virtualOffset) throws IOException {
+
+        if ((end == start) || (data[start] == '#')) {
+            return;
+        }
+
+        int numTabs = 0;
+        for (int i = start; (i < end) && (numTabs < myTabs.length); i++) {
+            if (data[i] == '\t') {
+                myTabs[numTabs++] = i;
+            }
+        }
+        if (numTabs < myTabs.length) {
+            throw new IllegalStateException("TabixLineIndexer: line: expected CHROM, POS, ID, REF columns: " + new String(data, start, end - start, StandardCharsets.UTF_8));
+        }
+
+        String chromosome = new String(data, start, myTabs[CHROMOSOME_INDEX] - start, StandardCharsets.UTF_8);
+        int position = 0;
+        for (int i = myTabs[POSITION_INDEX - 1] + 1; i < myTabs[POSITION_INDEX]; i++) {
+            position = position * 10 + (data[i] - '0');
+        }
+        int refLength = myTabs[REF_INDEX] - myTabs[REF_INDEX - 1] - 1;
+
+        myCreator.addFeature(new SimpleFeature(chromosome, position, position + Math.max(refLength, 1) - 1), virtualOffset);
+
+    }
+
+    @Override
+    public void finish(long virtualOffset) throws IOException {
+        Index index = myCreator.finalizeIndex(virtualOffset);
+        try (LittleEndianOutputStream output = new LittleEndianOutputStream(new BlockCompressedOutputStream(myIdxFilename))) {
+            index.write(output);
+        }
+    }
+
+}
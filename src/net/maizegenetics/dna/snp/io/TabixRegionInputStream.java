@@ -0,0 +1,211 @@
+/*
+ *  TabixRegionInputStream
+ */
+package net.maizegenetics.dna.snp.io;
+
+import htsjdk.tribble.readers.TabixReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Input stream of the header lines of a bgzipped, tabix indexed VCF file,
+ * followed by the lines in the given regions. Only the BGZF blocks that the
+ * index lists for a region are read. Regions are sorted in file order and
+ * overlapping regions are merged, so lines are returned in file order and a
+ * line in more than one region is returned once.
+ *
+ * @author agent
+ */
+class TabixRegionInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final TabixReader myReader;
+    private final Iterator<int[]> myRegions;
+    private TabixReader.Iterator myRegionLines = null;
+    private boolean myInHeader = true;
+
+    //
+    // Chromosome (tabix id) of the current region, position of the
+    // last line returned, and position through which lines of the
+    // current region were already returned by the previous region.
+    //
+    private int myChromosome = -1;
+    private int myLastPosition = -1;
+    private int mySkipThrough = -1;
+
+    private byte[] myCurrent = new byte[0];
+    private int myPosition = 0;
+
+    private TabixRegionInputStream(TabixReader reader, List<String> regions) {
+        myReader = reader;
+        myRegions = mergeRegions(reader, regions).iterator();
+    }
+
+    /**
+     * Parses regions to tabix id, 0-based start, and end (exclusive). Sorts
+     * them in file order and merges those that overlap or touch.
+     */
+    private static List<int[]> mergeRegions(TabixReader reader, List<String> regions) {
+
+        List<int[]> parsed = new ArrayList<>();
+        for (String region : regions) {
+            int[] current;
+            try {
+                current = reader.parseReg(region.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("TabixRegionInputStream: mergeRegions: invalid region: " + region);
+            }
+            if (current[0] < 0) {
+                throw new IllegalArgumentException("TabixRegionInputStream: mergeRegions: chromosome not in index: " + region);
+            }
+            if (current[1] < 0 || current[1] >= current[2]) {
+                throw new IllegalArgumentException("TabixRegionInputStream: mergeRegions: invalid region: " + region);
+            }
+            parsed.add(current);
+        }
+        parsed.sort(Comparator.<int[]>comparingInt(region -> region[0]).thenComparingInt(region -> region[1]));
+
+        List<int[]> result = new ArrayList<>();
+        int[] previous = null;
+        for (int[] current : parsed) {
+            if (previous != null && previous[0] == current[0] && current[1] <= previous[2]) {
+                previous[2] = Math.max(previous[2], current[2]);
+            } else {
+                result.add(current);
+                previous = current;
+            }
+        }
+        return result;
+
+    }
+
+    /**
+     * Opens file for reading given regions. Requires tabix index (filename +
+     * .tbi).
+     *
+     * @param filename bgzipped file name
+     * @param regions regions as chromosome, chromosome:start, or
+     * chromosome:start-end (1-based, inclusive)
+     *
+     * @return input stream
+     */
+    static TabixRegionInputStream getInstance(String filename, List<String> regions) {
+        if (!new File(filename + ".tbi").isFile()) {
+            if (new File(filename + ".csi").isFile()) {
+                throw new IllegalArgumentException("TabixRegionInputStream: getInstance: CSI indices are not supported. Please index with: tabix -p vcf " + filename);
+            }
+            throw new IllegalArgumentException("TabixRegionInputStream: getInstance: loading regions requires a tabix index: " + filename + ".tbi");
+        }
+        TabixReader reader;
+        try {
+            reader = new TabixReader(filename);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("TabixRegionInputStream: getInstance: problem opening: " + filename + ": " + e.getMessage(), e);
+        }
+        try {
+            return new TabixRegionInputStream(reader, regions);
+        } catch (RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return myCurrent[myPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int numRead = Math.min(len, myCurrent.length - myPosition);
+        System.arraycopy(myCurrent, myPosition, b, off, numRead);
+        myPosition += numRead;
+        return numRead;
+    }
+
+    private boolean ensureData() throws IOException {
+        if (myPosition < myCurrent.length) {
+            return true;
+        }
+        StringBuilder builder = new StringBuilder();
+        String line;
+        while (builder.length() < BUFFER_SIZE && (line = nextLine()) != null) {
+            builder.append(line).append('\n');
+        }
+        myCurrent = builder.toString().getBytes(StandardCharsets.UTF_8);
+        myPosition = 0;
+        return myCurrent.length != 0;
+    }
+
+    /**
+     * Returns next header line, then next line of the current region.
+     */
+    private String nextLine() throws IOException {
+        if (myInHeader) {
+            String line = myReader.readLine();
+            if (line != null && line.startsWith("#")) {
+                return line;
+            }
+            // first data line is read again by the region queries
+            myInHeader = false;
+        }
+        while (true) {
+            if (myRegionLines != null) {
+                String line = myRegionLines.next();
+                if (line == null) {
+                    myRegionLines = null;
+                    continue;
+                }
+                // a line (i.e. a deletion) that spans the gap between two regions is in both
+                int position = position(line);
+                if (position <= mySkipThrough) {
+                    continue;
+                }
+                myLastPosition = position;
+                return line;
+            }
+            if (!myRegions.hasNext()) {
+                return null;
+            }
+            int[] region = myRegions.next();
+            mySkipThrough = region[0] == myChromosome ? myLastPosition : -1;
+            myChromosome = region[0];
+            myRegionLines = myReader.query(region[0], region[1], region[2]);
+        }
+    }
+
+    /**
+     * Position (second column) of VCF line.
+     */
+    private static int position(String line) {
+        int start = line.indexOf('\t') + 1;
+        int end = line.indexOf('\t', start);
+        if (start == 0 || end < 0) {
+            throw new IllegalStateException("TabixRegionInputStream: position: line has too few columns: " + line);
+        }
+        return Integer.parseInt(line.substring(start, end));
+    }
+
+    @Override
+    public void close() throws IOException {
+        myReader.close();
+    }
+
+}
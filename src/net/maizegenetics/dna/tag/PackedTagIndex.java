@@ -0,0 +1,158 @@
+/*
+ *  PackedTagIndex
+ */
+package net.maizegenetics.dna.tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read only index of tags that is looked up with 2-bit encoded longs (i.e.
+ * reads encoded in place with BaseEncoder.getLongArrayFromSeq()), so reads can
+ * be matched to tags without creating a Tag for each read. Tags are numbered
+ * in the order given. Keys are held in primitive arrays with open addressing.
+ * Thread safe once created.
+ *
+ * @author agent
+ */
+public class PackedTagIndex {
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final List<Tag> myTags;
+    private final int myWordsPerTag;
+    private final int myMask;
+    private final long[] myKeys;
+    private final short[] myLengths;
+    private final int[] myIndices;
+
+    /**
+     * Creates index of tags. If a tag is given more than once, the first is
+     * kept.
+     *
+     * @param tags tags
+     */
+    public PackedTagIndex(Collection<Tag> tags) {
+
+        myTags = new ArrayList<>(tags.size());
+        int wordsPerTag = 1;
+        for (Tag tag : tags) {
+            wordsPerTag = Math.max(wordsPerTag, numWords(tag.seqLength()));
+        }
+        myWordsPerTag = wordsPerTag;
+
+        int capacity = Integer.highestOneBit(Math.max(16, tags.size() + tags.size() / 2)) << 1;
+        if ((long) capacity * myWordsPerTag > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("PackedTagIndex: init: too many tags: " + tags.size());
+        }
+        myMask = capacity - 1;
+        myKeys = new long[capacity * myWordsPerTag];
+        myLengths = new short[capacity];
+        myIndices = new int[capacity];
+        Arrays.fill(myIndices, -1);
+
+        for (Tag tag : tags) {
+            long[] words = tag.seq2Bit();
+            short length = tag.seqLength();
+            int slot = slot(words, 0, numWords(length), length);
+            if (slot >= 0) {
+                continue;
+            }
+            slot = -slot - 1;
+            System.arraycopy(words, 0, myKeys, slot * myWordsPerTag, numWords(length));
+            myLengths[slot] = length;
+            myIndices[slot] = myTags.size();
+            myTags.add(tag);
+        }
+
+    }
+
+    /**
+     * Returns index of tag encoded in words starting at offset.
+     *
+     * @param words 2-bit encoded sequence
+     * @param offset index of first long
+     * @param length sequence length
+     *
+     * @return index of tag or -1 if not in this index
+     */
+    public int indexOf(long[] words, int offset, short length) {
+        int numWords = numWords(length);
+        if (numWords > myWordsPerTag) {
+            return -1;
+        }
+        int slot = slot(words, offset, numWords, length);
+        return slot < 0 ? -1 : myIndices[slot];
+    }
+
+    /**
+     * Returns tag encoded in words starting at offset.
+     *
+     * @param words 2-bit encoded sequence
+     * @param offset index of first long
+     * @param length sequence length
+     *
+     * @return tag or null if not in this index
+     */
+    public Tag get(long[] words, int offset, short length) {
+        int index = indexOf(words, offset, length);
+        return index < 0 ? null : myTags.get(index);
+    }
+
+    /**
+     * Returns tag with given index.
+     *
+     * @param index index
+     *
+     * @return tag
+     */
+    public Tag tag(int index) {
+        return myTags.get(index);
+    }
+
+    /**
+     * Number of tags in this index.
+     *
+     * @return number of tags
+     */
+    public int size() {
+        return myTags.size();
+    }
+
+    private static int numWords(short length) {
+        return (length + 31) / 32;
+    }
+
+    /**
+     * Returns slot holding key or (-(insertion slot) - 1) if not present.
+     */
+    private int slot(long[] words, int offset, int numWords, short length) {
+        long hash = length * HASH_MULTIPLIER;
+        for (int w = 0; w < numWords; w++) {
+            hash = (hash ^ words[offset + w]) * HASH_MULTIPLIER;
+        }
+        int slot = (int) (hash ^ (hash >>> 32)) & myMask;
+        while (true) {
+            if (myIndices[slot] < 0) {
+                return -slot - 1;
+            }
+            if (myLengths[slot] == length && matches(slot, words, offset, numWords)) {
+                return slot;
+            }
+            slot = (slot + 1) & myMask;
+        }
+    }
+
+    private boolean matches(int slot, long[] words, int offset, int numWords) {
+        int keyStart = slot * myWordsPerTag;
+        for (int w = 0; w < numWords; w++) {
+            if (myKeys[keyStart + w] != words[offset + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -3,6 +3,7 @@ package net.maizegenetics.dna.tag;
 import net.maizegenetics.dna.BaseEncoder;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Builder for tags that optimizes the memory footprint.
@@ -42,6 +43,16 @@ public class TagBuilder {
         return new TagBuilder(seq2Bit,length);
     }
 
+    /**
+     * Tag from 2-bit longs held in a larger array (i.e. reads encoded in place
+     * with BaseEncoder.getLongArrayFromSeq()).  The (length + 31) / 32 longs
+     * starting at offset are copied.
+     */
+    public static TagBuilder instance(long[] words, int offset, short length) {
+        int numWords = (length + BaseEncoder.chunkSize - 1) / BaseEncoder.chunkSize;
+        return new TagBuilder(Arrays.copyOfRange(words, offset, offset + numWords), length);
+    }
+
     public static TagBuilder instance(byte[] seq2BitInBytes, short length) {
         int seqBitLength=seq2BitInBytes.length/8;
         long[] seq2Bit=new long[seqBitLength];
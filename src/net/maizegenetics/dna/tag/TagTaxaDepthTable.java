@@ -0,0 +1,635 @@
+/*
+ *  TagTaxaDepthTable
+ */
+package net.maizegenetics.dna.tag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Table of tag depths by taxa held off heap. Tags are keyed by their 2-bit
+ * encoded longs (see BaseEncoder.getLongArrayFromSeq()), so reads can be
+ * counted without creating a Tag. This replaces a map of Tag to
+ * TaxaDistribution, which needs several objects per tag.
+ * <p>
+ * The table is split into segments by hash, and each segment is an open
+ * addressing table guarded by its own lock, so many threads can increment at
+ * once. A slot holds the tag longs and one more long with the tag length and
+ * either the depth of the only taxon with the tag or the location of the
+ * tag's taxa depths in the segment's arena. The arena holds (taxon, depth)
+ * pairs, or a depth for every taxon once a tag is in many taxa, and is
+ * compacted when tags are removed.
+ * <p>
+ * Memory is allocated with direct buffers, so the JVM option
+ * -XX:MaxDirectMemorySize may need to be raised for large tables.
+ *
+ * @author agent
+ */
+public class TagTaxaDepthTable {
+
+    /**
+     * Maximum number of taxa
+     */
+    public static final int MAX_TAXA = 1 << 22;
+
+    /**
+     * Maximum tag length
+     */
+    public static final int MAX_TAG_LENGTH = (1 << 10) - 1;
+
+    private static final int SEGMENT_BITS = 8;
+    private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 1 << 8;
+    private static final double MAX_LOAD = 0.75;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // Last long of a slot is the tag length (0 for empty slot), whether the depths are in
+    // the arena, and either the taxon and its depth or the arena offset of the taxa depths.
+    private static final int LENGTH_SHIFT = 54;
+    private static final long IN_ARENA = 1L << 53;
+    private static final int TAXON_SHIFT = 31;
+    private static final long DEPTH_MASK = (1L << TAXON_SHIFT) - 1;
+    private static final long OFFSET_MASK = IN_ARENA - 1;
+
+    // Arena block: capacity, number of taxa, total depth, then (taxon, depth) pairs.
+    // Dense blocks (capacity DENSE) have the depth of every taxon instead.
+    private static final int BLOCK_HEADER = 3;
+    private static final int MIN_BLOCK_TAXA = 4;
+    private static final int DENSE = -1;
+
+    private final int myMaxTaxa;
+    private final int myWordsPerTag;
+    private final int mySlotLongs;
+    private final Segment[] mySegments = new Segment[NUM_SEGMENTS];
+
+    /**
+     * Creates empty table.
+     *
+     * @param maxTaxa number of taxa
+     * @param maxTagLength maximum length of tags added
+     */
+    public TagTaxaDepthTable(int maxTaxa, int maxTagLength) {
+        if (maxTaxa < 1 || maxTaxa > MAX_TAXA) {
+            throw new IllegalArgumentException("TagTaxaDepthTable: init: number of taxa must be between 1 and " + MAX_TAXA + ": " + maxTaxa);
+        }
+        if (maxTagLength < 1 || maxTagLength > MAX_TAG_LENGTH) {
+            throw new IllegalArgumentException("TagTaxaDepthTable: init: maximum tag length must be between 1 and " + MAX_TAG_LENGTH + ": " + maxTagLength);
+        }
+        myMaxTaxa = maxTaxa;
+        myWordsPerTag = numWords(maxTagLength);
+        mySlotLongs = myWordsPerTag + 1;
+        for (int s = 0; s < NUM_SEGMENTS; s++) {
+            mySegments[s] = new Segment(MIN_SEGMENT_CAPACITY);
+        }
+    }
+
+    /**
+     * Adds one read of a tag for a taxon.
+     *
+     * @param words 2-bit encoded tag
+     * @param offset index of first long of tag
+     * @param length tag length
+     * @param taxon taxon index
+     *
+     * @return true if tag was not already in the table
+     */
+    public boolean increment(long[] words, int offset, short length, int taxon) {
+        return add(words, offset, length, taxon, 1);
+    }
+
+    /**
+     * Adds depth of a tag for a taxon.
+     *
+     * @param words 2-bit encoded tag
+     * @param offset index of first long of tag
+     * @param length tag length
+     * @param taxon taxon index
+     * @param depth depth added
+     *
+     * @return true if tag was not already in the table
+     */
+    public boolean add(long[] words, int offset, short length, int taxon, int depth) {
+        if (length < 1 || numWords(length) > myWordsPerTag) {
+            throw new IllegalArgumentException("TagTaxaDepthTable: add: tag length: " + length + " not supported by this table");
+        }
+        if (taxon < 0 || taxon >= myMaxTaxa) {
+            throw new IndexOutOfBoundsException("TagTaxaDepthTable: add: taxon index: " + taxon + " out of range: 0 to " + (myMaxTaxa - 1));
+        }
+        long hash = hash(words, offset, numWords(length), length);
+        return mySegments[(int) (hash >>> (64 - SEGMENT_BITS))].add(words, offset, length, hash, taxon, depth);
+    }
+
+    /**
+     * Adds all taxa depths of a tag.
+     *
+     * @param tag tag
+     * @param distribution taxa depths of tag
+     */
+    public void add(Tag tag, TaxaDistribution distribution) {
+        long[] words = tag.seq2Bit();
+        int[][] taxaWithDepths = distribution.taxaWithDepths();
+        for (int i = 0; i < taxaWithDepths[0].length; i++) {
+            add(words, 0, tag.seqLength(), taxaWithDepths[0][i], taxaWithDepths[1][i]);
+        }
+    }
+
+    /**
+     * Number of tags in the table.
+     *
+     * @return number of tags
+     */
+    public long size() {
+        long result = 0;
+        for (Segment segment : mySegments) {
+            result += segment.size();
+        }
+        return result;
+    }
+
+    public int maxTaxa() {
+        return myMaxTaxa;
+    }
+
+    /**
+     * Memory allocated (bytes) for this table.
+     *
+     * @return bytes
+     */
+    public long memorySize() {
+        long result = 0;
+        for (Segment segment : mySegments) {
+            result += segment.memorySize();
+        }
+        return result;
+    }
+
+    /**
+     * Total depth of all tags.
+     *
+     * @return total depth
+     */
+    public long totalDepth() {
+        long result = 0;
+        for (Segment segment : mySegments) {
+            result += segment.totalDepth();
+        }
+        return result;
+    }
+
+    /**
+     * Removes tags with total depth less than minCount. Segments are swept in
+     * parallel.
+     *
+     * @param minCount minimum total depth kept
+     *
+     * @return number of tags removed
+     */
+    public long removeTagsBelowCount(int minCount) {
+        return IntStream.range(0, NUM_SEGMENTS).parallel()
+                .mapToLong(s -> mySegments[s].removeTags(minCount, 1, 1))
+                .sum();
+    }
+
+    /**
+     * Removes tags that have fewer than minTaxa taxa with at least minDepth
+     * depth (i.e. tags not replicated across taxa). Segments are swept in
+     * parallel.
+     *
+     * @param minTaxa minimum number of taxa
+     * @param minDepth minimum depth of those taxa
+     *
+     * @return number of tags removed
+     */
+    public long removeTagsWithoutReplication(int minTaxa, int minDepth) {
+        return IntStream.range(0, NUM_SEGMENTS).parallel()
+                .mapToLong(s -> mySegments[s].removeTags(minTaxa * minDepth, minTaxa, minDepth))
+                .sum();
+    }
+
+    /**
+     * Returns the tags and their taxa distributions. Intended for writing
+     * results once the table has been reduced to the tags kept.
+     *
+     * @return map of tag to taxa distribution
+     */
+    public Map<Tag, TaxaDistribution> toTagTaxaDistributionMap() {
+        Map<Tag, TaxaDistribution> result = new HashMap<>((int) Math.min(Integer.MAX_VALUE / 2, size() * 4 / 3 + 1));
+        for (Segment segment : mySegments) {
+            segment.addTo(result);
+        }
+        return result;
+    }
+
+    private static int numWords(int length) {
+        return (length + 31) / 32;
+    }
+
+    private static long hash(long[] words, int offset, int numWords, int length) {
+        long hash = length * HASH_MULTIPLIER;
+        for (int w = 0; w < numWords; w++) {
+            hash = (hash ^ words[offset + w]) * HASH_MULTIPLIER;
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    private static LongBuffer allocateLongs(long numLongs) {
+        if (numLongs > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalStateException("TagTaxaDepthTable: allocateLongs: segment too large: " + numLongs + " longs");
+        }
+        return ByteBuffer.allocateDirect((int) numLongs * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    private static IntBuffer allocateInts(long numInts) {
+        if (numInts > Integer.MAX_VALUE / Integer.BYTES) {
+            throw new IllegalStateException("TagTaxaDepthTable: allocateInts: segment too large: " + numInts + " ints");
+        }
+        return ByteBuffer.allocateDirect((int) numInts * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Open addressing table for the tags whose hash selects this segment.
+     * All methods are synchronized on the segment.
+     */
+    private final class Segment {
+
+        private LongBuffer mySlots;
+        private int myCapacity;
+        private int mySize = 0;
+
+        private IntBuffer myArena;
+        private int myArenaUsed = 0;
+        private int myArenaLive = 0;
+
+        private Segment(int capacity) {
+            myCapacity = capacity;
+            mySlots = allocateLongs((long) capacity * mySlotLongs);
+            myArena = allocateInts(0);
+        }
+
+        private synchronized int size() {
+            return mySize;
+        }
+
+        private synchronized long memorySize() {
+            return (long) mySlots.capacity() * Long.BYTES + (long) myArena.capacity() * Integer.BYTES;
+        }
+
+        private synchronized long totalDepth() {
+            long result = 0;
+            for (int slot = 0; slot < myCapacity; slot++) {
+                long meta = meta(slot);
+                if (meta != 0) {
+                    result += depth(meta);
+                }
+            }
+            return result;
+        }
+
+        private synchronized boolean add(long[] words, int offset, short length, long hash, int taxon, int depth) {
+
+            int slot = find(words, offset, length, hash);
+            if (slot < 0) {
+                if (mySize + 1 > myCapacity * MAX_LOAD) {
+                    resize(myCapacity * 2);
+                    slot = find(words, offset, length, hash);
+                }
+                slot = -slot - 1;
+                int base = slot * mySlotLongs;
+                for (int w = 0, n = numWords(length); w < n; w++) {
+                    mySlots.put(base + w, words[offset + w]);
+                }
+                setMeta(slot, single(length, taxon, depth));
+                mySize++;
+                return true;
+            }
+
+            long meta = meta(slot);
+            if ((meta & IN_ARENA) == 0) {
+                int onlyTaxon = (int) ((meta & OFFSET_MASK) >>> TAXON_SHIFT);
+                long newDepth = (meta & DEPTH_MASK) + depth;
+                if (onlyTaxon == taxon && newDepth <= DEPTH_MASK) {
+                    setMeta(slot, single(length, taxon, (int) newDepth));
+                    return false;
+                }
+                int block = allocateBlock(MIN_BLOCK_TAXA);
+                myArena.put(block + 1, 1);
+                myArena.put(block + 2, (int) (meta & DEPTH_MASK));
+                myArena.put(block + BLOCK_HEADER, onlyTaxon);
+                myArena.put(block + BLOCK_HEADER + 1, (int) (meta & DEPTH_MASK));
+                meta = ((long) length << LENGTH_SHIFT) | IN_ARENA | block;
+                setMeta(slot, meta);
+            }
+
+            int block = (int) (meta & OFFSET_MASK);
+            int numTaxa = myArena.get(block + 1);
+            myArena.put(block + 2, myArena.get(block + 2) + depth);
+            if (myArena.get(block) == DENSE) {
+                int index = block + BLOCK_HEADER + taxon;
+                if (myArena.get(index) == 0) {
+                    myArena.put(block + 1, numTaxa + 1);
+                }
+                myArena.put(index, myArena.get(index) + depth);
+                return false;
+            }
+            for (int i = 0, index = block + BLOCK_HEADER; i < numTaxa; i++, index += 2) {
+                if (myArena.get(index) == taxon) {
+                    myArena.put(index + 1, myArena.get(index + 1) + depth);
+                    return false;
+                }
+            }
+
+            if (numTaxa == myArena.get(block)) {
+                // pairs take as much space as a depth for every taxon, switch to dense
+                int capacity = numTaxa * 4 >= myMaxTaxa ? DENSE : numTaxa * 2;
+                // allocating may compact the arena, so the block is found again
+                int newBlock = allocateBlock(capacity);
+                block = (int) (meta(slot) & OFFSET_MASK);
+                copyBlock(block, newBlock);
+                freeBlock(block);
+                setMeta(slot, ((long) length << LENGTH_SHIFT) | IN_ARENA | newBlock);
+                if (capacity == DENSE) {
+                    int index = newBlock + BLOCK_HEADER + taxon;
+                    myArena.put(index, depth);
+                    myArena.put(newBlock + 1, numTaxa + 1);
+                    return false;
+                }
+                block = newBlock;
+            }
+            int index = block + BLOCK_HEADER + 2 * numTaxa;
+            myArena.put(index, taxon);
+            myArena.put(index + 1, depth);
+            myArena.put(block + 1, numTaxa + 1);
+            return false;
+
+        }
+
+        /**
+         * Returns slot holding tag or (-(empty slot) - 1) if not present.
+         */
+        private int find(long[] words, int offset, short length, long hash) {
+            int numWords = numWords(length);
+            int mask = myCapacity - 1;
+            int slot = (int) hash & mask;
+            while (true) {
+                long meta = meta(slot);
+                if (meta == 0) {
+                    return -slot - 1;
+                }
+                if ((int) (meta >>> LENGTH_SHIFT) == length) {
+                    int base = slot * mySlotLongs;
+                    int w = 0;
+                    while (w < numWords && mySlots.get(base + w) == words[offset + w]) {
+                        w++;
+                    }
+                    if (w == numWords) {
+                        return slot;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private long meta(int slot) {
+            return mySlots.get(slot * mySlotLongs + myWordsPerTag);
+        }
+
+        private void setMeta(int slot, long meta) {
+            mySlots.put(slot * mySlotLongs + myWordsPerTag, meta);
+        }
+
+        private long single(short length, int taxon, int depth) {
+            return ((long) length << LENGTH_SHIFT) | ((long) taxon << TAXON_SHIFT) | depth;
+        }
+
+        private long depth(long meta) {
+            if ((meta & IN_ARENA) == 0) {
+                return meta & DEPTH_MASK;
+            }
+            return myArena.get((int) (meta & OFFSET_MASK) + 2);
+        }
+
+        private int blockSize(int capacity) {
+            return capacity == DENSE ? BLOCK_HEADER + myMaxTaxa : BLOCK_HEADER + 2 * capacity;
+        }
+
+        /**
+         * Returns arena offset of an empty block for capacity taxa (or
+         * DENSE). Arena is compacted or enlarged as needed.
+         */
+        private int allocateBlock(int capacity) {
+            int blockSize = blockSize(capacity);
+            if (myArenaUsed + blockSize > myArena.capacity()) {
+                if (myArenaLive < myArenaUsed / 2) {
+                    compactArena(myArena.capacity());
+                }
+                if (myArenaUsed + blockSize > myArena.capacity()) {
+                    long newSize = Math.max(1024L, Math.max(2L * myArena.capacity(), (long) myArenaUsed + blockSize));
+                    compactArena(Math.min(newSize, Integer.MAX_VALUE / Integer.BYTES));
+                    if (myArenaUsed + blockSize > myArena.capacity()) {
+                        throw new IllegalStateException("TagTaxaDepthTable: allocateBlock: segment arena full");
+                    }
+                }
+            }
+            int result = myArenaUsed;
+            for (int i = 0; i < blockSize; i++) {
+                myArena.put(result + i, 0);
+            }
+            myArena.put(result, capacity);
+            myArenaUsed += blockSize;
+            myArenaLive += blockSize;
+            return result;
+        }
+
+        private void freeBlock(int block) {
+            myArenaLive -= blockSize(myArena.get(block));
+        }
+
+        /**
+         * Copies taxa depths from pairs block to a larger (possibly dense)
+         * block.
+         */
+        private void copyBlock(int from, int to) {
+            int numTaxa = myArena.get(from + 1);
+            myArena.put(to + 1, numTaxa);
+            myArena.put(to + 2, myArena.get(from + 2));
+            boolean dense = myArena.get(to) == DENSE;
+            for (int i = 0, index = from + BLOCK_HEADER; i < numTaxa; i++, index += 2) {
+                if (dense) {
+                    myArena.put(to + BLOCK_HEADER + myArena.get(index), myArena.get(index + 1));
+                } else {
+                    myArena.put(to + BLOCK_HEADER + 2 * i, myArena.get(index));
+                    myArena.put(to + BLOCK_HEADER + 2 * i + 1, myArena.get(index + 1));
+                }
+            }
+        }
+
+        /**
+         * Copies blocks of tags in the table to a new arena of given size.
+         */
+        private void compactArena(long size) {
+            IntBuffer old = myArena;
+            myArena = allocateInts(Math.max(size, myArenaLive));
+            myArenaUsed = 0;
+            for (int slot = 0; slot < myCapacity; slot++) {
+                long meta = meta(slot);
+                if ((meta & IN_ARENA) != 0) {
+                    myArenaUsed = moveBlock(old, (int) (meta & OFFSET_MASK), slot, meta, myArenaUsed);
+                }
+            }
+            myArenaLive = myArenaUsed;
+        }
+
+        /**
+         * Copies block from old arena to this arena at position and updates
+         * the slot.
+         *
+         * @return position after the block
+         */
+        private int moveBlock(IntBuffer old, int block, int slot, long meta, int position) {
+            int blockSize = blockSize(old.get(block));
+            for (int i = 0; i < blockSize; i++) {
+                myArena.put(position + i, old.get(block + i));
+            }
+            setMeta(slot, (meta & ~OFFSET_MASK) | position);
+            return position + blockSize;
+        }
+
+        /**
+         * Rehashes tags into a table of given capacity.
+         */
+        private void resize(int capacity) {
+            LongBuffer old = mySlots;
+            int oldCapacity = myCapacity;
+            mySlots = allocateLongs((long) capacity * mySlotLongs);
+            myCapacity = capacity;
+            long[] words = new long[myWordsPerTag];
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                int base = slot * mySlotLongs;
+                long meta = old.get(base + myWordsPerTag);
+                if (meta != 0) {
+                    short length = (short) (meta >>> LENGTH_SHIFT);
+                    for (int w = 0; w < myWordsPerTag; w++) {
+                        words[w] = old.get(base + w);
+                    }
+                    int newSlot = -find(words, 0, length, hash(words, 0, numWords(length), length)) - 1;
+                    int newBase = newSlot * mySlotLongs;
+                    for (int w = 0; w < mySlotLongs; w++) {
+                        mySlots.put(newBase + w, old.get(base + w));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes tags with total depth less than minCount or with fewer
+         * than minTaxa taxa having at least minDepth. Remaining tags are
+         * rehashed into a table sized for them, and their blocks compacted.
+         *
+         * @return number of tags removed
+         */
+        private synchronized long removeTags(int minCount, int minTaxa, int minDepth) {
+
+            int numRemoved = 0;
+            for (int slot = 0; slot < myCapacity; slot++) {
+                long meta = meta(slot);
+                if (meta != 0 && !keep(meta, minCount, minTaxa, minDepth)) {
+                    if ((meta & IN_ARENA) != 0) {
+                        freeBlock((int) (meta & OFFSET_MASK));
+                    }
+                    setMeta(slot, 0);
+                    numRemoved++;
+                }
+            }
+            if (numRemoved == 0) {
+                return 0;
+            }
+            mySize -= numRemoved;
+
+            int capacity = MIN_SEGMENT_CAPACITY;
+            while (mySize > capacity * MAX_LOAD) {
+                capacity *= 2;
+            }
+            resize(capacity);
+            compactArena(myArenaLive);
+            return numRemoved;
+
+        }
+
+        private boolean keep(long meta, int minCount, int minTaxa, int minDepth) {
+            if (depth(meta) < minCount) {
+                return false;
+            }
+            if ((meta & IN_ARENA) == 0) {
+                return minTaxa <= 1 && (meta & DEPTH_MASK) >= minDepth;
+            }
+            int block = (int) (meta & OFFSET_MASK);
+            boolean dense = myArena.get(block) == DENSE;
+            int numEntries = dense ? myMaxTaxa : myArena.get(block + 1);
+            int step = dense ? 1 : 2;
+            int count = 0;
+            for (int i = 0, index = block + BLOCK_HEADER + (dense ? 0 : 1); i < numEntries; i++, index += step) {
+                if (myArena.get(index) >= minDepth && ++count >= minTaxa) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized void addTo(Map<Tag, TaxaDistribution> result) {
+            long[] words = new long[myWordsPerTag];
+            for (int slot = 0; slot < myCapacity; slot++) {
+                long meta = meta(slot);
+                if (meta == 0) {
+                    continue;
+                }
+                int base = slot * mySlotLongs;
+                for (int w = 0; w < myWordsPerTag; w++) {
+                    words[w] = mySlots.get(base + w);
+                }
+                Tag tag = TagBuilder.instance(words, 0, (short) (meta >>> LENGTH_SHIFT)).build();
+                int[] taxa;
+                int[] depths;
+                if ((meta & IN_ARENA) == 0) {
+                    taxa = new int[]{(int) ((meta & OFFSET_MASK) >>> TAXON_SHIFT)};
+                    depths = new int[]{(int) (meta & DEPTH_MASK)};
+                } else if (myArena.get((int) (meta & OFFSET_MASK)) == DENSE) {
+                    int block = (int) (meta & OFFSET_MASK);
+                    int numTaxa = myArena.get(block + 1);
+                    taxa = new int[numTaxa];
+                    depths = new int[numTaxa];
+                    for (int taxon = 0, i = 0; taxon < myMaxTaxa; taxon++) {
+                        int depth = myArena.get(block + BLOCK_HEADER + taxon);
+                        if (depth != 0) {
+                            taxa[i] = taxon;
+                            depths[i++] = depth;
+                        }
+                    }
+                } else {
+                    int block = (int) (meta & OFFSET_MASK);
+                    int numTaxa = myArena.get(block + 1);
+                    long[] taxonDepths = new long[numTaxa];
+                    for (int i = 0; i < numTaxa; i++) {
+                        int index = block + BLOCK_HEADER + 2 * i;
+                        taxonDepths[i] = ((long) myArena.get(index) << 32) | myArena.get(index + 1);
+                    }
+                    Arrays.sort(taxonDepths);
+                    taxa = new int[numTaxa];
+                    depths = new int[numTaxa];
+                    for (int i = 0; i < numTaxa; i++) {
+                        taxa[i] = (int) (taxonDepths[i] >>> 32);
+                        depths[i] = (int) taxonDepths[i];
+                    }
+                }
+                result.put(tag, TaxaDistBuilder.create(myMaxTaxa, taxa, depths));
+            }
+        }
+
+    }
+
+}
@@ -424,7 +424,11 @@ public class TasselPipeline implements PluginListener {
                     loadFile(tableFile, FileLoadPlugin.TasselFileType.Table);
                 } else if (current.equalsIgnoreCase("-vcf")) {
                     String vcfFile = args[index++].trim();
-                    loadFile(vcfFile, FileLoadPlugin.TasselFileType.VCF);
+                    FileLoadPlugin plugin = loadFile(vcfFile, FileLoadPlugin.TasselFileType.VCF);
+                    if ((index < args.length) && args[index].trim().equalsIgnoreCase("-regions")) {
+                        index++;
+                        plugin.setVCFRegions(Arrays.asList(args[index++].trim().split(",")));
+                    }
                 } else if (current.equalsIgnoreCase("-readSerialAlignment")) {
                     String file = args[index++].trim();
                     loadFile(file, FileLoadPlugin.TasselFileType.Serial);
@@ -583,6 +587,19 @@ public class TasselPipeline implements PluginListener {
                         throw new IllegalArgumentException("TasselPipeline: parseArgs: Problem parsing max P: " + temp);
                     }
                     plugin.setMaxp(maxP);
+                } else if (current.equalsIgnoreCase("-mlmMaxThreads")) {
+                    WeightedMLMPlugin plugin = (WeightedMLMPlugin) findLastPluginFromCurrentPipe(new Class[]{WeightedMLMPlugin.class});
+                    if (plugin == null) {
+                        throw new IllegalArgumentException("TasselPipeline: parseArgs: No MLM step defined: " + current);
+                    }
+                    String temp = args[index++].trim();
+                    int maxThreads = 0;
+                    try {
+                        maxThreads = Integer.parseInt(temp);
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("TasselPipeline: parseArgs: Problem parsing max threads: " + temp);
+                    }
+                    plugin.setMaxThreads(maxThreads);
                 } else if (current.equalsIgnoreCase("-glm")) {
                     myDeprecatedWarning.append("parseArgs: NOTE: The -glm flags are deprecated.\n");
                     myDeprecatedWarning.append("parseArgs: PLEASE RUN THIS COMMAND TO GET USAGE: ./run_pipeline.pl -FixedEffectLMPlugin\n");
@@ -0,0 +1,189 @@
+package net.maizegenetics.stats.linearmodels;
+
+/**
+ * Sweeps X'X once for many responses (for example, permutations of the same data) at the same time.
+ * The responses are the columns of Y, so X'Y is a single p x r matrix and each sweep step updates all responses together.
+ * Columns are swept in order and singular columns are detected the same way as SweepFastLinearModel,
+ * so incremental sums of squares and degrees of freedom match that class.
+ * <p>
+ * A swept model can be extended with more effects without sweeping its columns again. This is used to sweep a base model once
+ * and then add the marker effects of each site.
+ */
+public class SweepFastMultipleResponse {
+	private final int[] effectSizes;
+	private final int[] effectDf;
+	private final double[] totalSS;
+	private final double[][] residualSS;
+
+	//the swept X'X and X'Y. Once a column is swept its row is not changed, so row i holds the pivot row of column i.
+	private final double[][] sweptXtX;
+	private final double[][] sweptXtY;
+	private final boolean[] isSwept;
+
+	/**
+	 * @param xtx	X'X as a full symmetric p x p array. This array is modified.
+	 * @param xty	X'Y as a p x r array. This array is modified.
+	 * @param yty	the diagonal of Y'Y, one value for each response
+	 * @param effectSizes	the number of columns of X for each model effect in order
+	 */
+	public SweepFastMultipleResponse(double[][] xtx, double[][] xty, double[] yty, int[] effectSizes) {
+		this.effectSizes = effectSizes;
+		int numberOfEffects = effectSizes.length;
+		int numberOfColumns = xtx.length;
+		effectDf = new int[numberOfEffects];
+		totalSS = yty.clone();
+		residualSS = new double[numberOfEffects][];
+		sweptXtX = xtx;
+		sweptXtY = xty;
+		isSwept = new boolean[numberOfColumns];
+
+		double[] Dmin = new double[numberOfColumns];
+		for (int i = 0; i < numberOfColumns; i++) Dmin[i] = SweepFast.TOL;
+		sweepEffects(0, 0, yty.clone(), Dmin);
+	}
+
+	/**
+	 * Extends a swept model with more effects. The base model is not changed, so it can be extended any number of times.
+	 * The result is the same as sweeping X'X of all effects with the new effects following the base effects.
+	 * @param base	a swept model with at least one effect (the mean)
+	 * @param xtxBase	X'X between new and base columns as a q x p array, where p is the number of base columns. This array is modified.
+	 * @param xtx	X'X of the new columns as a full symmetric q x q array. This array is modified.
+	 * @param xty	X'Y of the new columns as a q x r array. This array is modified.
+	 * @param newEffectSizes	the number of columns of X for each new effect in order
+	 */
+	public SweepFastMultipleResponse(SweepFastMultipleResponse base, double[][] xtxBase, double[][] xtx, double[][] xty, int[] newEffectSizes) {
+		int numberOfBaseEffects = base.effectSizes.length;
+		int numberOfEffects = numberOfBaseEffects + newEffectSizes.length;
+		int numberOfBaseColumns = base.isSwept.length;
+		int numberOfNewColumns = xtx.length;
+		int numberOfColumns = numberOfBaseColumns + numberOfNewColumns;
+		int numberOfResponses = base.residualSS[numberOfBaseEffects - 1].length;
+
+		effectSizes = new int[numberOfEffects];
+		System.arraycopy(base.effectSizes, 0, effectSizes, 0, numberOfBaseEffects);
+		System.arraycopy(newEffectSizes, 0, effectSizes, numberOfBaseEffects, newEffectSizes.length);
+		effectDf = new int[numberOfEffects];
+		System.arraycopy(base.effectDf, 0, effectDf, 0, numberOfBaseEffects);
+		totalSS = base.totalSS;
+		residualSS = new double[numberOfEffects][];
+		System.arraycopy(base.residualSS, 0, residualSS, 0, numberOfBaseEffects);
+
+		//apply the base pivots to the new rows
+		double[] Dmin = new double[numberOfColumns];
+		int column = 0;
+		for (int e = 0; e < numberOfBaseEffects; e++) {
+			for (int c = 0; c < base.effectSizes[e]; c++) {
+				if (base.isSwept[column]) {
+					double D = base.sweptXtX[column][column];
+					double[] pivotRow = base.sweptXtX[column];
+					double[] pivotResponses = base.sweptXtY[column];
+					for (int i = 0; i < numberOfNewColumns; i++) {
+						double B = xtxBase[i][column] / D;
+						if (B == 0) continue;
+						double[] row = xtxBase[i];
+						for (int j = column + 1; j < numberOfBaseColumns; j++) row[j] -= B * pivotRow[j];
+						//by symmetry, the pivot row entry for new column j is xtxBase[j][column]
+						double[] newRow = xtx[i];
+						for (int j = 0; j < numberOfNewColumns; j++) newRow[j] -= B * xtxBase[j][column];
+						double[] responses = xty[i];
+						for (int r = 0; r < numberOfResponses; r++) responses[r] -= B * pivotResponses[r];
+					}
+				}
+				column++;
+			}
+			if (e == 0) {
+				for (int i = 0; i < numberOfNewColumns; i++) Dmin[numberOfBaseColumns + i] = Math.max(xtx[i][i] * SweepFast.TOL, SweepFast.TOL);
+			}
+		}
+
+		sweptXtX = new double[numberOfColumns][];
+		sweptXtY = new double[numberOfColumns][];
+		System.arraycopy(base.sweptXtX, 0, sweptXtX, 0, numberOfBaseColumns);
+		System.arraycopy(base.sweptXtY, 0, sweptXtY, 0, numberOfBaseColumns);
+		for (int i = 0; i < numberOfNewColumns; i++) {
+			double[] row = new double[numberOfColumns];
+			System.arraycopy(xtx[i], 0, row, numberOfBaseColumns, numberOfNewColumns);
+			sweptXtX[numberOfBaseColumns + i] = row;
+			sweptXtY[numberOfBaseColumns + i] = xty[i];
+		}
+		isSwept = new boolean[numberOfColumns];
+		System.arraycopy(base.isSwept, 0, isSwept, 0, numberOfBaseColumns);
+
+		sweepEffects(numberOfBaseEffects, numberOfBaseColumns, residualSS[numberOfBaseEffects - 1].clone(), Dmin);
+	}
+
+	/**
+	 * Sweeps the columns of effects firstEffect to the last effect, which start at firstColumn.
+	 * @param rss	the residual sums of squares after the preceding effects. This array is modified.
+	 * @param Dmin	the tolerance for each column. This array is modified.
+	 */
+	private void sweepEffects(int firstEffect, int firstColumn, double[] rss, double[] Dmin) {
+		int numberOfEffects = effectSizes.length;
+		int numberOfColumns = sweptXtX.length;
+		int numberOfResponses = rss.length;
+
+		int column = firstColumn;
+		for (int e = firstEffect; e < numberOfEffects; e++) {
+			for (int c = 0; c < effectSizes[e]; c++) {
+				double D = sweptXtX[column][column];
+				if (Math.abs(D) >= Dmin[column]) {
+					effectDf[e]++;
+					isSwept[column] = true;
+					double[] pivotRow = sweptXtX[column];
+					double[] pivotResponses = sweptXtY[column];
+					for (int i = column + 1; i < numberOfColumns; i++) {
+						double B = sweptXtX[i][column] / D;
+						if (B == 0) continue;
+						double[] row = sweptXtX[i];
+						for (int j = column + 1; j < numberOfColumns; j++) row[j] -= B * pivotRow[j];
+						double[] responses = sweptXtY[i];
+						for (int r = 0; r < numberOfResponses; r++) responses[r] -= B * pivotResponses[r];
+					}
+					for (int r = 0; r < numberOfResponses; r++) rss[r] -= pivotResponses[r] * pivotResponses[r] / D;
+				}
+				column++;
+			}
+			residualSS[e] = rss.clone();
+
+			//after the first effect (the mean), the tolerance is relative to the corrected sums of squares
+			if (e == 0) {
+				for (int i = 0; i < numberOfColumns; i++) Dmin[i] = Math.max(sweptXtX[i][i] * SweepFast.TOL, SweepFast.TOL);
+			}
+		}
+	}
+
+	/**
+	 * @param effect	an effect number
+	 * @return	the residual sum of squares of each response after fitting effects 0 through effect
+	 */
+	public double[] getResidualSS(int effect) {
+		return residualSS[effect];
+	}
+
+	/**
+	 * @param effect	an effect number
+	 * @return	the sum of squares of each response for this effect fit after the preceding effects
+	 */
+	public double[] getIncrementalSS(int effect) {
+		double[] before = effect == 0 ? totalSS : residualSS[effect - 1];
+		double[] after = residualSS[effect];
+		double[] ss = new double[before.length];
+		for (int r = 0; r < ss.length; r++) ss[r] = before[r] - after[r];
+		return ss;
+	}
+
+	/**
+	 * @param effect	an effect number
+	 * @return	the degrees of freedom of this effect fit after the preceding effects
+	 */
+	public int getIncrementalDf(int effect) {
+		return effectDf[effect];
+	}
+
+	/**
+	 * @return	the number of model effects
+	 */
+	public int numberOfEffects() {
+		return effectSizes.length;
+	}
+}
@@ -12,6 +12,8 @@ import net.maizegenetics.taxa.TaxaList;
 import net.maizegenetics.taxa.Taxon;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
@@ -31,6 +33,12 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      * distances [seq1][seq2]
      */
     private double[][] distance = null;
+    /**
+     * packed upper triangle (used instead of distance for large matrices).
+     * Serialized by writeObject() since the memory mapped file can't be.
+     */
+    private transient TriangularDistanceStorage myStorage = null;
+    private final int mySize;
     static final long serialVersionUID = 4725925229860707633L;
 
     /**
@@ -39,20 +47,45 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     public DistanceMatrix(double[][] distance, TaxaList taxaList) {
         super();
         this.distance = distance;
+        mySize = distance.length;
+        myTaxaList = taxaList;
+    }
+
+    /**
+     * constructor taking packed upper triangle and TaxaList
+     */
+    public DistanceMatrix(TriangularDistanceStorage storage, TaxaList taxaList) {
+        super();
+        if (storage.numberOfTaxa() != taxaList.numberOfTaxa()) {
+            throw new IllegalArgumentException("DistanceMatrix: init: number of taxa: " + taxaList.numberOfTaxa() + " doesn't match storage: " + storage.numberOfTaxa());
+        }
+        myStorage = storage;
+        mySize = storage.numberOfTaxa();
         myTaxaList = taxaList;
     }
 
+    /**
+     * constructor taking storage built by DistanceMatrixBuilder
+     */
+    protected DistanceMatrix(DistanceMatrixBuilder builder) {
+        super();
+        distance = builder.myDistances;
+        myStorage = builder.myStorage;
+        mySize = builder.numberOfTaxa();
+        myTaxaList = builder.taxa();
+    }
+
     /**
      * constructor that takes a distance matrix and clones the distances and
      * IdGroup
      */
     public DistanceMatrix(DistanceMatrix dm) {
-        double[][] copy = new double[dm.distance.length][];
-        for (int i = 0; i < copy.length; i++) {
-            copy[i] = new double[dm.distance[i].length];
-            System.arraycopy(dm.distance[i], 0, copy[i], 0, dm.distance[i].length);
+        if (dm.myStorage != null) {
+            myStorage = dm.myStorage.copy();
+        } else {
+            distance = dm.getClonedDistances();
         }
-        distance = copy;
+        mySize = dm.mySize;
         myTaxaList = dm.myTaxaList;
     }
 
@@ -64,13 +97,14 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
 
         int index1, index2;
 
-        distance = new double[subset.numberOfTaxa()][subset.numberOfTaxa()];
-        for (int i = 0; i < distance.length; i++) {
+        mySize = subset.numberOfTaxa();
+        distance = new double[mySize][mySize];
+        for (int i = 0; i < mySize; i++) {
             index1 = dm.whichIdNumber(subset.taxaName(i));
-            distance[i][i] = dm.distance[index1][index1];
+            distance[i][i] = dm.getDistance(index1, index1);
             for (int j = 0; j < i; j++) {
                 index2 = dm.whichIdNumber(subset.taxaName(j));
-                distance[i][j] = dm.distance[index1][index2];
+                distance[i][j] = dm.getDistance(index1, index2);
                 distance[j][i] = distance[i][j];
             }
         }
@@ -82,15 +116,15 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      */
     public void printPHYLIP(PrintWriter out) throws IOException {
         // PHYLIP header line
-        out.println("  " + distance.length);
+        out.println("  " + mySize);
         FormattedOutput format = FormattedOutput.getInstance();
 
-        for (int i = 0; i < distance.length; i++) {
+        for (int i = 0; i < mySize; i++) {
             format.displayLabel(out,
                     myTaxaList.taxaName(i), 10);
             out.print("      ");
 
-            for (int j = 0; j < distance.length; j++) {
+            for (int j = 0; j < mySize; j++) {
                 // Chunks of 6 blocks each
                 if (j % 6 == 0 && j != 0) {
                     out.println();
@@ -98,7 +132,7 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
                 }
 
                 out.print("  ");
-                format.displayDecimal(out, distance[i][j], 5);
+                format.displayDecimal(out, getDistance(i, j), 5);
             }
             out.println();
         }
@@ -125,14 +159,15 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      */
     public double squaredDistance(DistanceMatrix mat, boolean weighted) {
         double sum = 0;
-        for (int i = 0; i < distance.length - 1; i++) {
-            for (int j = i + 1; j < distance.length; j++) {
-                double diff = distance[i][j] - mat.distance[i][j];
+        for (int i = 0; i < mySize - 1; i++) {
+            for (int j = i + 1; j < mySize; j++) {
+                double dist = getDistance(i, j);
+                double diff = dist - mat.getDistance(i, j);
                 double weight;
                 if (weighted) {
                     // Fitch-Margoliash weight
                     // (variances proportional to distances)
-                    weight = 1.0 / (distance[i][j] * distance[i][j]);
+                    weight = 1.0 / (dist * dist);
                 } else {
                     // Cavalli-Sforza-Edwards weight
                     // (homogeneity of variances)
@@ -150,10 +185,10 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      */
     public double absoluteDistance(DistanceMatrix mat) {
         double sum = 0;
-        for (int i = 0; i < distance.length - 1; i++) {
-            for (int j = i + 1; j < distance.length; j++) {
+        for (int i = 0; i < mySize - 1; i++) {
+            for (int j = i + 1; j < mySize; j++) {
                 double diff
-                        = Math.abs(distance[i][j] - mat.distance[i][j]);
+                        = Math.abs(getDistance(i, j) - mat.getDistance(i, j));
 
                 sum += diff;
             }
@@ -166,14 +201,29 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      * Returns the number of rows and columns that the distance matrix has.
      */
     public int getSize() {
-        return distance.length;
+        return mySize;
+    }
+
+    /**
+     * Returns whether distances are stored as packed upper triangle.
+     */
+    public boolean isPacked() {
+        return myStorage != null;
     }
 
     /**
      * Returns the distances as a 2-dimensional array of doubles. Matrix is
-     * cloned first so it can be altered freely.
+     * cloned first so it can be altered freely. If packed, the full matrix is
+     * created on the heap.
      */
     public final double[][] getClonedDistances() {
+        if (myStorage != null) {
+            double[][] copy = new double[mySize][mySize];
+            for (int i = 0; i < mySize; i++) {
+                myStorage.getRow(i, copy[i]);
+            }
+            return copy;
+        }
         double[][] copy = new double[distance.length][];
         for (int i = 0; i < copy.length; i++) {
             copy[i] = new double[distance[i].length];
@@ -191,6 +241,9 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     }
 
     public final double getDistance(final int row, final int col) {
+        if (myStorage != null) {
+            return myStorage.get(row, col);
+        }
         return distance[row][col];
     }
 
@@ -200,7 +253,11 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      * @deprecated Needs to have a Builder
      */
     public void setDistance(int i, int j, double dist) {
-        distance[i][j] = distance[j][i] = dist;
+        if (myStorage != null) {
+            myStorage.set(i, j, dist);
+        } else {
+            distance[i][j] = distance[j][i] = dist;
+        }
     }
 
     /**
@@ -210,10 +267,11 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     public double meanDistance() {
         double dist = 0.0;
         int count = 0;
-        for (int i = 0; i < distance.length; i++) {
-            for (int j = 0; j < distance[i].length; j++) {
-                if ((i != j) && (!Double.isNaN(distance[i][j]))) {
-                    dist += distance[i][j];
+        for (int i = 0; i < mySize; i++) {
+            for (int j = 0; j < mySize; j++) {
+                double current = getDistance(i, j);
+                if ((i != j) && (!Double.isNaN(current))) {
+                    dist += current;
                     count += 1;
                 }
             }
@@ -251,13 +309,16 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
      */
     @Override
     public boolean isSymmetric() {
-        for (int i = 0; i < distance.length; i++) {
-            if (distance[i][i] != 0) {
+        for (int i = 0; i < mySize; i++) {
+            if (getDistance(i, i) != 0) {
                 return false;
             }
         }
-        for (int i = 0; i < distance.length - 1; i++) {
-            for (int j = i + 1; j < distance.length; j++) {
+        if (myStorage != null) {
+            return true;
+        }
+        for (int i = 0; i < mySize - 1; i++) {
+            for (int j = i + 1; j < mySize; j++) {
                 if (distance[i][j] != distance[j][i]) {
                     return false;
                 }
@@ -288,9 +349,9 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     public int getClosestIndex(int fromIndex, int[] exclusion) {
         double min = Double.POSITIVE_INFINITY;
         int index = -1;
-        for (int i = 0; i < distance.length; i++) {
+        for (int i = 0; i < mySize; i++) {
             if (i != fromIndex && !isIn(i, exclusion)) {
-                double d = distance[fromIndex][i];
+                double d = getDistance(fromIndex, i);
                 if (d < min) {
                     min = d;
                     index = i;
@@ -304,7 +365,7 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     public Object[] getTableColumnNames() {
         String[] colNames = new String[getSize() + 1];
         colNames[0] = "Taxa";
-        for (int i = 0; i < distance[0].length; i++) {
+        for (int i = 0; i < mySize; i++) {
             colNames[i + 1] = getTaxon(i).toString();
         }
         return colNames;
@@ -321,10 +382,10 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
     public Object[] getRow(long rowLong) {
 
         int row = (int) rowLong;
-        Object[] result = new Object[distance[row].length + 1];
+        Object[] result = new Object[mySize + 1];
         result[0] = getTaxon(row);
-        for (int j = 1; j <= distance[row].length; j++) {
-            result[j] = "" + distance[row][j - 1];
+        for (int j = 1; j <= mySize; j++) {
+            result[j] = "" + getDistance(row, j - 1);
         }
 
         return result;
@@ -338,11 +399,7 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
 
     @Override
     public long getRowCount() {
-        if (distance != null) {
-            return distance.length;
-        } else {
-            return 0;
-        }
+        return mySize;
     }
 
     @Override
@@ -352,8 +409,8 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
 
     @Override
     public int getColumnCount() {
-        if ((distance != null) && distance[0] != null) {
-            return distance[0].length + 1;
+        if (mySize != 0) {
+            return mySize + 1;
         } else {
             return 0;
         }
@@ -364,7 +421,7 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
         if (columnIndex == 0) {
             return getTaxon((int) rowIndex);
         }
-        return distance[(int) rowIndex][columnIndex - 1];
+        return getDistance((int) rowIndex, columnIndex - 1);
     }
 
     public String getColumnName(int col) {
@@ -374,4 +431,31 @@ public class DistanceMatrix implements TaxaListMatrix, TableReport {
         return getTaxon(col - 1).toString();
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeBoolean(myStorage != null);
+        if (myStorage != null) {
+            boolean singlePrecision = myStorage.isSinglePrecision();
+            out.writeBoolean(singlePrecision);
+            for (long i = 0, n = TriangularDistanceStorage.numElements(mySize); i < n; i++) {
+                if (singlePrecision) {
+                    out.writeFloat((float) myStorage.get(i));
+                } else {
+                    out.writeDouble(myStorage.get(i));
+                }
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (in.readBoolean()) {
+            boolean singlePrecision = in.readBoolean();
+            myStorage = TriangularDistanceStorage.getInstance(mySize, singlePrecision);
+            for (long i = 0, n = TriangularDistanceStorage.numElements(mySize); i < n; i++) {
+                myStorage.set(i, singlePrecision ? in.readFloat() : in.readDouble());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,129 @@
+/*
+ *  DistanceMatrixBuilder
+ */
+package net.maizegenetics.taxa.distance;
+
+import net.maizegenetics.taxa.TaxaList;
+
+/**
+ * Builder for DistanceMatrix. Values are written straight into the final
+ * storage, which is either a full double[][] or a packed upper triangle
+ * (TriangularDistanceStorage) outside the Java heap. By default, packed
+ * storage is used when the full matrix would take more than a quarter of the
+ * maximum heap.
+ *
+ * @author agent
+ */
+public class DistanceMatrixBuilder {
+
+    private final TaxaList myTaxaList;
+    private final int myNumTaxa;
+    double[][] myDistances = null;
+    TriangularDistanceStorage myStorage = null;
+
+    private DistanceMatrixBuilder(TaxaList taxaList, double[][] distances, TriangularDistanceStorage storage) {
+        myTaxaList = taxaList;
+        myNumTaxa = taxaList.numberOfTaxa();
+        myDistances = distances;
+        myStorage = storage;
+    }
+
+    /**
+     * Gets builder with storage selected by size of matrix.
+     *
+     * @param taxaList taxa
+     *
+     * @return builder
+     */
+    public static DistanceMatrixBuilder getInstance(TaxaList taxaList) {
+        int numTaxa = taxaList.numberOfTaxa();
+        if (usePackedStorage(numTaxa)) {
+            return new DistanceMatrixBuilder(taxaList, null, TriangularDistanceStorage.getInstance(numTaxa, false));
+        } else {
+            return new DistanceMatrixBuilder(taxaList, new double[numTaxa][numTaxa], null);
+        }
+    }
+
+    /**
+     * Gets builder that writes to given packed storage.
+     *
+     * @param taxaList taxa
+     * @param storage packed storage
+     *
+     * @return builder
+     */
+    public static DistanceMatrixBuilder getInstance(TaxaList taxaList, TriangularDistanceStorage storage) {
+        if (taxaList.numberOfTaxa() != storage.numberOfTaxa()) {
+            throw new IllegalArgumentException("DistanceMatrixBuilder: getInstance: number of taxa: " + taxaList.numberOfTaxa() + " doesn't match storage: " + storage.numberOfTaxa());
+        }
+        return new DistanceMatrixBuilder(taxaList, null, storage);
+    }
+
+    /**
+     * Gets builder that uses packed storage backed by a temporary file.
+     *
+     * @param taxaList taxa
+     * @param singlePrecision true to store floats, false for doubles
+     *
+     * @return builder
+     */
+    public static DistanceMatrixBuilder getPackedInstance(TaxaList taxaList, boolean singlePrecision) {
+        return new DistanceMatrixBuilder(taxaList, null, TriangularDistanceStorage.getInstance(taxaList.numberOfTaxa(), singlePrecision));
+    }
+
+    /**
+     * Whether packed storage should be used for given number of taxa. True if
+     * a full double[][] would take more than a quarter of the maximum heap.
+     *
+     * @param numTaxa number of taxa
+     *
+     * @return true if packed storage should be used
+     */
+    public static boolean usePackedStorage(int numTaxa) {
+        long fullSize = (long) numTaxa * (long) numTaxa * (long) Double.BYTES;
+        return fullSize > Runtime.getRuntime().maxMemory() / 4L;
+    }
+
+    /**
+     * Sets distance between two taxa (both triangles).
+     *
+     * @param row row
+     * @param col column
+     * @param value distance
+     *
+     * @return this builder
+     */
+    public DistanceMatrixBuilder set(int row, int col, double value) {
+        if (myStorage != null) {
+            myStorage.set(row, col, value);
+        } else {
+            myDistances[row][col] = myDistances[col][row] = value;
+        }
+        return this;
+    }
+
+    public double get(int row, int col) {
+        if (myStorage != null) {
+            return myStorage.get(row, col);
+        } else {
+            return myDistances[row][col];
+        }
+    }
+
+    public boolean isPacked() {
+        return myStorage != null;
+    }
+
+    public int numberOfTaxa() {
+        return myNumTaxa;
+    }
+
+    public TaxaList taxa() {
+        return myTaxaList;
+    }
+
+    public DistanceMatrix build() {
+        return new DistanceMatrix(this);
+    }
+
+}
@@ -27,12 +27,33 @@ public class ReadDistanceMatrix {
     }
 
     public static DistanceMatrix readDistanceMatrix(String filename) {
+        return readDistanceMatrix(filename, null);
+    }
+
+    /**
+     * Reads distance matrix. If packed is null, packed storage is used when
+     * the full matrix would be too large for the heap. When packed, only the
+     * upper triangle of the file is used.
+     *
+     * @param filename filename
+     * @param packed whether to use packed storage (TriangularDistanceStorage)
+     *
+     * @return distance matrix
+     */
+    public static DistanceMatrix readDistanceMatrix(String filename, Boolean packed) {
 
         try (BufferedReader reader = Utils.getBufferedReader(filename)) {
 
             int numSeqs = Integer.parseInt(reader.readLine().trim());
 
-            double[][] distance = new double[numSeqs][numSeqs];
+            boolean usePacked = packed == null ? DistanceMatrixBuilder.usePackedStorage(numSeqs) : packed;
+            double[][] distance = null;
+            TriangularDistanceStorage storage = null;
+            if (usePacked) {
+                storage = TriangularDistanceStorage.getInstance(numSeqs, false);
+            } else {
+                distance = new double[numSeqs][numSeqs];
+            }
             TaxaListBuilder taxa = new TaxaListBuilder();
             String current = reader.readLine();
             int index = 0;
@@ -48,9 +69,13 @@ public class ReadDistanceMatrix {
                 }
                 taxa.add(new Taxon(tokens[0]));
 
-                for (int i = 0; i < numSeqs; i++) {
+                for (int i = usePacked ? index : 0; i < numSeqs; i++) {
                     try {
-                        distance[index][i] = Double.parseDouble(tokens[i + 1]);
+                        if (usePacked) {
+                            storage.set(index, i, Double.parseDouble(tokens[i + 1]));
+                        } else {
+                            distance[index][i] = Double.parseDouble(tokens[i + 1]);
+                        }
                     } catch (NumberFormatException nfex) {
                         myLogger.debug(nfex.getMessage(), nfex);
                         throw new IllegalArgumentException("ReadDistanceMatrix: Incorrectly formatted number: " + tokens[i + 1] + " on line number: " + (index + 2));
@@ -65,7 +90,11 @@ public class ReadDistanceMatrix {
                 throw new IllegalArgumentException("ReadDistanceMatrix: There are too few lines in this file.  Expected: " + (numSeqs + 1) + " counting the first line (number of taxa)");
             }
 
-            return new DistanceMatrix(distance, taxa.build());
+            if (usePacked) {
+                return new DistanceMatrix(storage, taxa.build());
+            } else {
+                return new DistanceMatrix(distance, taxa.build());
+            }
 
         } catch (IOException ioex) {
             myLogger.debug(ioex.getMessage(), ioex);
@@ -0,0 +1,307 @@
+/*
+ *  TriangularDistanceStorage
+ */
+package net.maizegenetics.taxa.distance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import net.maizegenetics.util.MemoryMappedRegion;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Packed storage for symmetric distance matrices. Only the upper triangle
+ * (including the diagonal) is stored as float or double in a memory mapped
+ * file, so the values live outside the Java heap. Elements are ordered row by
+ * row, which is the same order used by the triangular accumulators of
+ * EndelmanDistanceMatrix and GCTADistanceMatrix.
+ * <p></p>
+ * If no filename is given, a temporary file is used and removed once mapped
+ * (or on exit if the platform doesn't allow that). Otherwise, the file persists
+ * and can be reopened with open().
+ *
+ * @author agent
+ */
+public class TriangularDistanceStorage {
+
+    private static final Logger myLogger = Logger.getLogger(TriangularDistanceStorage.class);
+
+    public static final String FILE_EXTENSION = ".tdm";
+
+    private static final long MAGIC_NUMBER = 0x54415353454C444DL; // TASSELDM
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHUNK_SHIFT = 20;
+    private static final int ELEMENTS_PER_CHUNK = 1 << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = ELEMENTS_PER_CHUNK - 1;
+
+    private final int myNumTaxa;
+    private final boolean mySinglePrecision;
+    private final int myElementSize;
+    private final MemoryMappedRegion myData;
+    private final String myFilename;
+
+    private TriangularDistanceStorage(int numTaxa, boolean singlePrecision, MemoryMappedRegion data, String filename) {
+        myNumTaxa = numTaxa;
+        mySinglePrecision = singlePrecision;
+        myElementSize = singlePrecision ? Float.BYTES : Double.BYTES;
+        myData = data;
+        myFilename = filename;
+    }
+
+    /**
+     * Creates storage backed by temporary memory mapped file.
+     *
+     * @param numTaxa number of taxa
+     * @param singlePrecision true to store floats, false for doubles
+     *
+     * @return storage
+     */
+    public static TriangularDistanceStorage getInstance(int numTaxa, boolean singlePrecision) {
+        try {
+            File temp = File.createTempFile("tassel_distance_", FILE_EXTENSION);
+            TriangularDistanceStorage result = create(numTaxa, singlePrecision, temp.getAbsolutePath(), null);
+            if (!temp.delete()) {
+                temp.deleteOnExit();
+            }
+            return result;
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("TriangularDistanceStorage: getInstance: problem creating temporary file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates storage backed by given memory mapped file. The file persists
+     * and can be reopened with open().
+     *
+     * @param numTaxa number of taxa
+     * @param singlePrecision true to store floats, false for doubles
+     * @param filename filename
+     *
+     * @return storage
+     */
+    public static TriangularDistanceStorage getInstance(int numTaxa, boolean singlePrecision, String filename) {
+        return create(numTaxa, singlePrecision, filename, filename);
+    }
+
+    private static TriangularDistanceStorage create(int numTaxa, boolean singlePrecision, String filename, String persistentFilename) {
+
+        if (numTaxa < 0) {
+            throw new IllegalArgumentException("TriangularDistanceStorage: create: number of taxa can't be negative: " + numTaxa);
+        }
+
+        int elementSize = singlePrecision ? Float.BYTES : Double.BYTES;
+        long numChunks = numChunks(numTaxa);
+        int chunkSize = ELEMENTS_PER_CHUNK * elementSize;
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(0);
+            file.setLength(HEADER_SIZE + MemoryMappedRegion.regionSize(numChunks, chunkSize));
+            file.writeLong(MAGIC_NUMBER);
+            file.writeInt(VERSION);
+            file.writeInt(numTaxa);
+            file.writeBoolean(singlePrecision);
+            MemoryMappedRegion data = MemoryMappedRegion.getInstance(file.getChannel(), FileChannel.MapMode.READ_WRITE, HEADER_SIZE, numChunks, chunkSize);
+            return new TriangularDistanceStorage(numTaxa, singlePrecision, data, persistentFilename);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("TriangularDistanceStorage: create: problem creating: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Opens storage previously created with getInstance(numTaxa,
+     * singlePrecision, filename).
+     *
+     * @param filename filename
+     *
+     * @return storage
+     */
+    public static TriangularDistanceStorage open(String filename) {
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            if (file.readLong() != MAGIC_NUMBER) {
+                throw new IllegalStateException("TriangularDistanceStorage: open: not a distance matrix file: " + filename);
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("TriangularDistanceStorage: open: unsupported version: " + version + " file: " + filename);
+            }
+            int numTaxa = file.readInt();
+            boolean singlePrecision = file.readBoolean();
+            int elementSize = singlePrecision ? Float.BYTES : Double.BYTES;
+            long numChunks = numChunks(numTaxa);
+            int chunkSize = ELEMENTS_PER_CHUNK * elementSize;
+            if (file.length() < HEADER_SIZE + MemoryMappedRegion.regionSize(numChunks, chunkSize)) {
+                throw new IllegalStateException("TriangularDistanceStorage: open: file is truncated: " + filename);
+            }
+            MemoryMappedRegion data = MemoryMappedRegion.getInstance(file.getChannel(), FileChannel.MapMode.READ_WRITE, HEADER_SIZE, numChunks, chunkSize);
+            return new TriangularDistanceStorage(numTaxa, singlePrecision, data, filename);
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalStateException("TriangularDistanceStorage: open: problem reading: " + filename + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Number of elements in upper triangle including the diagonal.
+     *
+     * @param numTaxa number of taxa
+     *
+     * @return number of elements
+     */
+    public static long numElements(int numTaxa) {
+        return (long) numTaxa * (long) (numTaxa + 1) / 2L;
+    }
+
+    private static long numChunks(int numTaxa) {
+        return (numElements(numTaxa) + ELEMENTS_PER_CHUNK - 1) >>> CHUNK_SHIFT;
+    }
+
+    /**
+     * Index of element in packed upper triangle. Order of row and column
+     * doesn't matter.
+     *
+     * @param row row
+     * @param col column
+     *
+     * @return index
+     */
+    public long index(int row, int col) {
+        long i = Math.min(row, col);
+        long j = Math.max(row, col);
+        return i * (long) myNumTaxa - i * (i - 1L) / 2L + (j - i);
+    }
+
+    public double get(int row, int col) {
+        return get(index(row, col));
+    }
+
+    public void set(int row, int col, double value) {
+        set(index(row, col), value);
+    }
+
+    /**
+     * Gets value by packed index. See index().
+     *
+     * @param index packed index
+     *
+     * @return value
+     */
+    public double get(long index) {
+        long chunk = index >>> CHUNK_SHIFT;
+        int offset = (int) (index & CHUNK_MASK) * myElementSize;
+        if (mySinglePrecision) {
+            return myData.getFloat(chunk, offset);
+        } else {
+            return myData.getDouble(chunk, offset);
+        }
+    }
+
+    /**
+     * Sets value by packed index. See index().
+     *
+     * @param index packed index
+     * @param value value
+     */
+    public void set(long index, double value) {
+        long chunk = index >>> CHUNK_SHIFT;
+        int offset = (int) (index & CHUNK_MASK) * myElementSize;
+        if (mySinglePrecision) {
+            myData.putFloat(chunk, offset, (float) value);
+        } else {
+            myData.putDouble(chunk, offset, value);
+        }
+    }
+
+    /**
+     * Copies one full row (including the lower triangle values) into given
+     * array.
+     *
+     * @param row row
+     * @param dest destination with at least numberOfTaxa() elements
+     */
+    public void getRow(int row, double[] dest) {
+        for (int c = 0; c < row; c++) {
+            dest[c] = get(c, row);
+        }
+        long index = index(row, row);
+        for (int c = row; c < myNumTaxa; c++) {
+            dest[c] = get(index++);
+        }
+    }
+
+    /**
+     * Creates copy of this storage in a new temporary file.
+     *
+     * @return copy
+     */
+    public TriangularDistanceStorage copy() {
+        TriangularDistanceStorage result = getInstance(myNumTaxa, mySinglePrecision);
+        copyTo(result);
+        return result;
+    }
+
+    /**
+     * Creates copy of this storage in given file.
+     *
+     * @param filename filename
+     *
+     * @return copy
+     */
+    public TriangularDistanceStorage copy(String filename) {
+        TriangularDistanceStorage result = getInstance(myNumTaxa, mySinglePrecision, filename);
+        copyTo(result);
+        result.force();
+        return result;
+    }
+
+    /**
+     * Copies all values into given storage, which must have same number of
+     * taxa and precision.
+     *
+     * @param dest destination
+     */
+    public void copyTo(TriangularDistanceStorage dest) {
+        if (dest.myNumTaxa != myNumTaxa || dest.mySinglePrecision != mySinglePrecision) {
+            throw new IllegalArgumentException("TriangularDistanceStorage: copyTo: destination must have same number of taxa and precision.");
+        }
+        int chunkSize = myData.rowSize();
+        byte[] buffer = new byte[chunkSize];
+        for (long chunk = 0, n = myData.numRows(); chunk < n; chunk++) {
+            myData.getBytes(chunk, 0, buffer, 0, chunkSize);
+            dest.myData.putBytes(chunk, 0, buffer, 0, chunkSize);
+        }
+    }
+
+    /**
+     * Flushes values to the file.
+     */
+    public void force() {
+        myData.force();
+    }
+
+    public int numberOfTaxa() {
+        return myNumTaxa;
+    }
+
+    public boolean isSinglePrecision() {
+        return mySinglePrecision;
+    }
+
+    /**
+     * Persistent filename or null if backed by temporary file.
+     *
+     * @return filename
+     */
+    public String filename() {
+        return myFilename;
+    }
+
+}
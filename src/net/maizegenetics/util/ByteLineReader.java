@@ -0,0 +1,267 @@
+/*
+ *  ByteLineReader
+ */
+package net.maizegenetics.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads lines of a text file as bytes. Lines are located in a large read
+ * buffer and copied in blocks, so parsers can work on fields without creating
+ * a String for each line or field. Gzipped files are decompressed as a stream,
+ * one buffer at a time, and BGZF files are decompressed on multiple threads.
+ * Line terminators (\n or \r\n) are not included in lines. Not thread safe.
+ *
+ * @author agent
+ */
+public class ByteLineReader implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+
+    private final InputStream myInput;
+    private byte[] myBuffer;
+    private int myPosition = 0;
+    private int myLimit = 0;
+    private boolean myEndOfInput = false;
+
+    // bounds of line found by nextLine()
+    private int myLineStart;
+    private int myLineEnd;
+
+    // used to size the data array of the next block
+    private int myLastBlockSize = 0;
+
+    private ByteLineReader(InputStream input, int bufferSize) {
+        myInput = input;
+        myBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Returns reader for given file. Files ending with .gz are decompressed.
+     * BGZF files are decompressed on multiple threads.
+     *
+     * @param filename file name
+     *
+     * @return reader
+     */
+    public static ByteLineReader getInstance(String filename) {
+        return getInstance(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns reader for given file. Files ending with .gz are decompressed.
+     * BGZF files are decompressed with numThreads threads.
+     *
+     * @param filename file name
+     * @param numThreads number of threads to decompress BGZF files
+     *
+     * @return reader
+     */
+    public static ByteLineReader getInstance(String filename, int numThreads) {
+        InputStream input;
+        if (filename.endsWith(".gz") && ParallelBGZFInputStream.isBGZF(filename)) {
+            input = ParallelBGZFInputStream.getInstance(filename, numThreads);
+        } else {
+            input = Utils.getInputStream(filename);
+        }
+        if (input == null) {
+            throw new IllegalArgumentException("ByteLineReader: getInstance: can't open file: " + filename);
+        }
+        return new ByteLineReader(input, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns reader for given input stream.
+     *
+     * @param input input stream
+     * @param bufferSize initial read buffer size. Buffer grows if a line is
+     * longer.
+     *
+     * @return reader
+     */
+    public static ByteLineReader getInstance(InputStream input, int bufferSize) {
+        return new ByteLineReader(input, Math.max(bufferSize, 16));
+    }
+
+    /**
+     * Reads next line as a String. Intended for headers and other lines that
+     * are read once.
+     *
+     * @return line or null if no more lines
+     *
+     * @throws IOException if problem reading input
+     */
+    public String readLine() throws IOException {
+        if (!nextLine()) {
+            return null;
+        }
+        return new String(myBuffer, myLineStart, myLineEnd - myLineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads up to maxLines lines into a single block. Empty lines and lines
+     * starting with skipPrefix are skipped.
+     *
+     * @param maxLines maximum number of lines
+     * @param skipPrefix lines starting with this byte are skipped
+     *
+     * @return block of lines or null if no more lines
+     *
+     * @throws IOException if problem reading input
+     */
+    public LineBlock readBlock(int maxLines, byte skipPrefix) throws IOException {
+        return readBlock(maxLines, skipPrefix, true);
+    }
+
+    /**
+     * Reads up to maxLines lines into a single block. No lines are skipped, so
+     * line numbers in the block follow the file (i.e. four lines per FASTQ
+     * record).
+     *
+     * @param maxLines maximum number of lines
+     *
+     * @return block of lines or null if no more lines
+     *
+     * @throws IOException if problem reading input
+     */
+    public LineBlock readBlock(int maxLines) throws IOException {
+        return readBlock(maxLines, (byte) 0, false);
+    }
+
+    private LineBlock readBlock(int maxLines, byte skipPrefix, boolean skip) throws IOException {
+
+        byte[] data = new byte[Math.max(myLastBlockSize, 1024)];
+        int[] starts = new int[maxLines + 1];
+        int numLines = 0;
+        int size = 0;
+        while (numLines < maxLines && nextLine()) {
+            int length = myLineEnd - myLineStart;
+            if (skip && (length == 0 || myBuffer[myLineStart] == skipPrefix)) {
+                continue;
+            }
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+            }
+            System.arraycopy(myBuffer, myLineStart, data, size, length);
+            starts[numLines++] = size;
+            size += length;
+        }
+
+        if (numLines == 0) {
+            return null;
+        }
+        starts[numLines] = size;
+        myLastBlockSize = size + size / 8;
+        return new LineBlock(data, starts, numLines);
+
+    }
+
+    /**
+     * Finds bounds of next line in the buffer, reading more input as needed.
+     */
+    private boolean nextLine() throws IOException {
+
+        int searchFrom = myPosition;
+        while (true) {
+            for (int i = searchFrom; i < myLimit; i++) {
+                if (myBuffer[i] == '\n') {
+                    setLine(myPosition, i);
+                    myPosition = i + 1;
+                    return true;
+                }
+            }
+            if (myEndOfInput) {
+                if (myPosition < myLimit) {
+                    setLine(myPosition, myLimit);
+                    myPosition = myLimit;
+                    return true;
+                }
+                return false;
+            }
+            searchFrom = myLimit - myPosition;
+            fill();
+        }
+
+    }
+
+    private void setLine(int start, int end) {
+        myLineStart = start;
+        myLineEnd = (end > start && myBuffer[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    /**
+     * Moves unread bytes to the start of the buffer and reads more input. The
+     * buffer is doubled when it is full of a single partial line.
+     */
+    private void fill() throws IOException {
+        if (myPosition > 0) {
+            System.arraycopy(myBuffer, myPosition, myBuffer, 0, myLimit - myPosition);
+            myLimit -= myPosition;
+            myPosition = 0;
+        }
+        if (myLimit == myBuffer.length) {
+            myBuffer = Arrays.copyOf(myBuffer, myBuffer.length * 2);
+        }
+        int numRead = myInput.read(myBuffer, myLimit, myBuffer.length - myLimit);
+        if (numRead < 0) {
+            myEndOfInput = true;
+        } else {
+            myLimit += numRead;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        myInput.close();
+    }
+
+    /**
+     * Block of lines held in one byte array. Line i is bytes start(i)
+     * (inclusive) to end(i) (exclusive).
+     */
+    public static class LineBlock {
+
+        private final byte[] myData;
+        private final int[] myStarts;
+        private final int myNumLines;
+
+        private LineBlock(byte[] data, int[] starts, int numLines) {
+            myData = data;
+            myStarts = starts;
+            myNumLines = numLines;
+        }
+
+        public byte[] data() {
+            return myData;
+        }
+
+        public int numberOfLines() {
+            return myNumLines;
+        }
+
+        public int start(int line) {
+            return myStarts[line];
+        }
+
+        public int end(int line) {
+            return myStarts[line + 1];
+        }
+
+        /**
+         * Returns line as String. Used for error messages.
+         *
+         * @param line line index
+         *
+         * @return line
+         */
+        public String lineAsString(int line) {
+            return new String(myData, start(line), end(line) - start(line), StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
@@ -0,0 +1,629 @@
+/*
+ *  ColumnarTableReport
+ */
+package net.maizegenetics.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Table report that stores each column with a single type. Integer columns
+ * are stored as int arrays and numeric columns as double arrays, so large
+ * tables (i.e. association results) don't hold an object for every value.
+ * Columns are stored in blocks of rows, and more than Integer.MAX_VALUE rows
+ * are supported.
+ * <p>
+ * Delimited files are read in blocks of lines that are parsed on multiple
+ * threads. A column is integer if every value is an integer, numeric if every
+ * value is a number, NaN, Infinity, or empty (stored as NaN), and text
+ * otherwise. Integers and numbers with leading zeros (i.e. 007) are treated as
+ * text, since they are usually identifiers.
+ *
+ * @author agent
+ */
+public class ColumnarTableReport extends AbstractTableReport {
+
+    private static final Logger myLogger = Logger.getLogger(ColumnarTableReport.class);
+
+    public enum ColumnType {
+
+        INTEGER, DOUBLE, STRING
+    };
+
+    private static final int BLOCK_SHIFT = 16;
+    private static final int ROWS_PER_BLOCK = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = ROWS_PER_BLOCK - 1;
+
+    // number of distinct values per text column in a block that are shared
+    private static final int MAX_SHARED_STRINGS = 4096;
+
+    private static final String REGEX_SPECIAL_CHARS = ".$|()[]{}^?*+\\";
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private static final byte[] NAN_BYTES = "NaN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFINITY_BYTES = "Infinity".getBytes(StandardCharsets.US_ASCII);
+
+    private final String myName;
+    private final Object[] myColumnNames;
+    private final ColumnType[] myTypes;
+    // [column][block] int[], double[], or String[] depending on column type
+    private final Object[][] myColumns;
+    private final long myNumRows;
+
+    private ColumnarTableReport(String name, Object[] columnNames, ColumnType[] types, Object[][] columns, long numRows) {
+        myName = name;
+        myColumnNames = columnNames;
+        myTypes = types;
+        myColumns = columns;
+        myNumRows = numRows;
+    }
+
+    /**
+     * Reads delimited file with column names on the first line.
+     *
+     * @param filename file name
+     * @param delimit delimiter (regular expression as with String.split(). A
+     * single character delimiter is matched directly)
+     * @param numThreads number of threads parsing lines
+     *
+     * @return table report
+     */
+    public static ColumnarTableReport readDelimited(String filename, String delimit, int numThreads) {
+
+        Pattern delimitPattern = Pattern.compile(delimit);
+        int delimitByte = -1;
+        if (delimit.length() == 1 && delimit.charAt(0) < 128 && REGEX_SPECIAL_CHARS.indexOf(delimit.charAt(0)) < 0) {
+            delimitByte = delimit.charAt(0);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try (ByteLineReader reader = ByteLineReader.getInstance(filename)) {
+
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("ColumnarTableReport: readDelimited: no column names in file: " + filename);
+            }
+            String[] columnNames = delimitPattern.split(header.trim());
+            int numColumns = columnNames.length;
+
+            List<ParsedBlock> blocks = new ArrayList<>();
+            ArrayDeque<Future<ParsedBlock>> futures = new ArrayDeque<>();
+            // empty lines are skipped, and no lines start with 0
+            ByteLineReader.LineBlock lines = reader.readBlock(ROWS_PER_BLOCK, (byte) 0);
+            while (lines != null) {
+                final ByteLineReader.LineBlock current = lines;
+                final int delimiter = delimitByte;
+                futures.add(pool.submit(() -> new ParsedBlock(current, numColumns, delimiter, delimitPattern)));
+                if (futures.size() >= 2 * numThreads) {
+                    blocks.add(futures.poll().get());
+                }
+                lines = reader.readBlock(ROWS_PER_BLOCK, (byte) 0);
+            }
+            while (!futures.isEmpty()) {
+                blocks.add(futures.poll().get());
+            }
+
+            long numRows = 0;
+            ColumnType[] types = new ColumnType[numColumns];
+            for (int c = 0; c < numColumns; c++) {
+                types[c] = ColumnType.INTEGER;
+            }
+            for (ParsedBlock block : blocks) {
+                numRows += block.myNumRows;
+                for (int c = 0; c < numColumns; c++) {
+                    if (block.myTypes[c].compareTo(types[c]) > 0) {
+                        types[c] = block.myTypes[c];
+                    }
+                }
+            }
+
+            Object[][] columns = new Object[numColumns][blocks.size()];
+            for (int b = 0; b < blocks.size(); b++) {
+                ParsedBlock block = blocks.get(b);
+                for (int c = 0; c < numColumns; c++) {
+                    columns[c][b] = convert(block, c, types[c]);
+                }
+                blocks.set(b, null);
+            }
+
+            myLogger.info("readDelimited: " + filename + " rows: " + numRows + " column types: " + Arrays.toString(types));
+            return new ColumnarTableReport(filename, columnNames, types, columns, numRows);
+
+        } catch (IOException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalArgumentException("ColumnarTableReport: readDelimited: problem reading: " + filename + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ColumnarTableReport: readDelimited: interrupted reading: " + filename);
+        } catch (ExecutionException e) {
+            myLogger.debug(e.getMessage(), e);
+            throw new IllegalArgumentException("ColumnarTableReport: readDelimited: problem reading: " + filename + ": " + e.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Converts block of column values to the type of the whole column.
+     * Numbers in a column that is text in other blocks keep their original
+     * text.
+     */
+    private static Object convert(ParsedBlock block, int column, ColumnType to) {
+        ColumnType from = block.myTypes[column];
+        if (from == to) {
+            return block.myColumns[column];
+        }
+        if (to == ColumnType.DOUBLE) {
+            int[] ints = (int[]) block.myColumns[column];
+            double[] result = new double[block.myNumRows];
+            for (int i = 0; i < block.myNumRows; i++) {
+                result[i] = ints[i];
+            }
+            return result;
+        }
+        return block.strings(column);
+    }
+
+    /**
+     * Returns type of column.
+     *
+     * @param col column
+     *
+     * @return type
+     */
+    public ColumnType columnType(int col) {
+        return myTypes[col];
+    }
+
+    /**
+     * Returns value of integer or numeric column without creating an object.
+     *
+     * @param row row
+     * @param col column
+     *
+     * @return value
+     */
+    public double getDouble(long row, int col) {
+        Object block = myColumns[col][(int) (row >>> BLOCK_SHIFT)];
+        int index = (int) (row & BLOCK_MASK);
+        switch (myTypes[col]) {
+            case INTEGER:
+                return ((int[]) block)[index];
+            case DOUBLE:
+                return ((double[]) block)[index];
+            default:
+                throw new IllegalArgumentException("ColumnarTableReport: getDouble: column: " + myColumnNames[col] + " is not numeric.");
+        }
+    }
+
+    /**
+     * Returns value of integer column without creating an object.
+     *
+     * @param row row
+     * @param col column
+     *
+     * @return value
+     */
+    public int getInt(long row, int col) {
+        if (myTypes[col] != ColumnType.INTEGER) {
+            throw new IllegalArgumentException("ColumnarTableReport: getInt: column: " + myColumnNames[col] + " is not integer.");
+        }
+        return ((int[]) myColumns[col][(int) (row >>> BLOCK_SHIFT)])[(int) (row & BLOCK_MASK)];
+    }
+
+    @Override
+    public Object getValueAt(long row, int col) {
+        Object block = myColumns[col][(int) (row >>> BLOCK_SHIFT)];
+        int index = (int) (row & BLOCK_MASK);
+        switch (myTypes[col]) {
+            case INTEGER:
+                return ((int[]) block)[index];
+            case DOUBLE:
+                return ((double[]) block)[index];
+            default:
+                return ((String[]) block)[index];
+        }
+    }
+
+    @Override
+    public Object[] getRow(long row) {
+        Object[] result = new Object[myColumnNames.length];
+        for (int c = 0; c < result.length; c++) {
+            result[c] = getValueAt(row, c);
+        }
+        return result;
+    }
+
+    @Override
+    public Object[] getTableColumnNames() {
+        return myColumnNames;
+    }
+
+    @Override
+    public String getTableTitle() {
+        return myName;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return myColumnNames.length;
+    }
+
+    @Override
+    public long getRowCount() {
+        return myNumRows;
+    }
+
+    @Override
+    public long getElementCount() {
+        return myNumRows * getColumnCount();
+    }
+
+    /**
+     * Values of a block of lines with the narrowest type that holds each
+     * column. Unless every column is text, the line bytes are kept so that
+     * numeric columns can be converted to text with their original values.
+     */
+    private static class ParsedBlock {
+
+        private final int myNumRows;
+        private final int myNumColumns;
+        private final ColumnType[] myTypes;
+        private final Object[] myColumns;
+        private final byte[] myData;
+        // start and end of each field
+        private final int[] myBounds;
+
+        private ParsedBlock(ByteLineReader.LineBlock lines, int numColumns, int delimiter, Pattern delimitPattern) {
+
+            myNumRows = lines.numberOfLines();
+            myNumColumns = numColumns;
+            byte[] data = lines.data();
+
+            int[] bounds = new int[myNumRows * numColumns * 2];
+            for (int line = 0; line < myNumRows; line++) {
+                if (delimiter >= 0) {
+                    splitLine(lines, line, numColumns, (byte) delimiter, bounds);
+                } else {
+                    splitLine(lines, line, numColumns, delimitPattern, bounds);
+                }
+            }
+
+            myTypes = new ColumnType[numColumns];
+            myColumns = new Object[numColumns];
+            boolean allText = true;
+            for (int c = 0; c < numColumns; c++) {
+                int[] ints = parseInts(data, bounds, c, numColumns);
+                if (ints != null) {
+                    myTypes[c] = ColumnType.INTEGER;
+                    myColumns[c] = ints;
+                    allText = false;
+                    continue;
+                }
+                double[] doubles = parseDoubles(data, bounds, c, numColumns);
+                if (doubles != null) {
+                    myTypes[c] = ColumnType.DOUBLE;
+                    myColumns[c] = doubles;
+                    allText = false;
+                    continue;
+                }
+                myTypes[c] = ColumnType.STRING;
+                myColumns[c] = strings(data, bounds, c);
+            }
+
+            myData = allText ? null : data;
+            myBounds = allText ? null : bounds;
+
+        }
+
+        /**
+         * Original text of column values.
+         */
+        private String[] strings(int column) {
+            return strings(myData, myBounds, column);
+        }
+
+        private static void splitLine(ByteLineReader.LineBlock lines, int line, int numColumns, byte delimiter, int[] bounds) {
+            byte[] data = lines.data();
+            int end = lines.end(line);
+            int fieldStart = lines.start(line);
+            // trailing white space (i.e. a tab after the last value) is ignored
+            while (end > fieldStart && (data[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            int offset = line * numColumns * 2;
+            int column = 0;
+            for (int i = fieldStart; i <= end; i++) {
+                if (i == end || data[i] == delimiter) {
+                    if (column == numColumns) {
+                        // trailing empty values are ignored
+                        if (isEmpty(data, fieldStart, end, delimiter)) {
+                            break;
+                        }
+                        throw new IllegalStateException("ColumnarTableReport: more than " + numColumns + " values in line: " + lines.lineAsString(line));
+                    }
+                    setField(data, fieldStart, i, bounds, offset + column * 2);
+                    column++;
+                    fieldStart = i + 1;
+                }
+            }
+            for (; column < numColumns; column++) {
+                bounds[offset + column * 2] = end;
+                bounds[offset + column * 2 + 1] = end;
+            }
+        }
+
+        private static void splitLine(ByteLineReader.LineBlock lines, int line, int numColumns, Pattern delimitPattern, int[] bounds) {
+            byte[] data = lines.data();
+            String raw = lines.lineAsString(line);
+            boolean ascii = raw.length() == lines.end(line) - lines.start(line);
+            String text = trimEnd(raw);
+            int offset = line * numColumns * 2;
+            int column = 0;
+            int fieldStart = 0;
+            Matcher matcher = delimitPattern.matcher(text);
+            while (true) {
+                boolean found = matcher.find();
+                if (found && matcher.end() == 0) {
+                    continue;
+                }
+                int fieldEnd = found ? matcher.start() : text.length();
+                if (column == numColumns) {
+                    // trailing empty values are ignored
+                    if (delimitPattern.matcher(text.substring(fieldStart)).replaceAll("").trim().isEmpty()) {
+                        break;
+                    }
+                    throw new IllegalStateException("ColumnarTableReport: more than " + numColumns + " values in line: " + text);
+                }
+                setField(data, lines.start(line) + byteOffset(text, fieldStart, ascii), lines.start(line) + byteOffset(text, fieldEnd, ascii), bounds, offset + column * 2);
+                column++;
+                if (!found) {
+                    break;
+                }
+                fieldStart = matcher.end();
+            }
+            for (; column < numColumns; column++) {
+                bounds[offset + column * 2] = lines.end(line);
+                bounds[offset + column * 2 + 1] = lines.end(line);
+            }
+        }
+
+        private static boolean isEmpty(byte[] data, int start, int end, byte delimiter) {
+            for (int i = start; i < end; i++) {
+                if (data[i] != delimiter && data[i] != ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String trimEnd(String text) {
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            return text.substring(0, end);
+        }
+
+        private static int byteOffset(String text, int charIndex, boolean ascii) {
+            return ascii ? charIndex : text.substring(0, charIndex).getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        /**
+         * Records field bounds without surrounding spaces.
+         */
+        private static void setField(byte[] data, int start, int end, int[] bounds, int index) {
+            while (start < end && data[start] == ' ') {
+                start++;
+            }
+            while (end > start && data[end - 1] == ' ') {
+                end--;
+            }
+            bounds[index] = start;
+            bounds[index + 1] = end;
+        }
+
+        private int[] parseInts(byte[] data, int[] bounds, int column, int numColumns) {
+            int[] result = new int[myNumRows];
+            for (int r = 0; r < myNumRows; r++) {
+                int index = (r * numColumns + column) * 2;
+                if (!parseInt(data, bounds[index], bounds[index + 1], result, r)) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        private double[] parseDoubles(byte[] data, int[] bounds, int column, int numColumns) {
+            double[] result = new double[myNumRows];
+            for (int r = 0; r < myNumRows; r++) {
+                int index = (r * numColumns + column) * 2;
+                if (!parseDouble(data, bounds[index], bounds[index + 1], result, r)) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        private String[] strings(byte[] data, int[] bounds, int column) {
+            String[] result = new String[myNumRows];
+            Map<String, String> shared = new HashMap<>();
+            for (int r = 0; r < myNumRows; r++) {
+                int index = (r * myNumColumns + column) * 2;
+                String value = new String(data, bounds[index], bounds[index + 1] - bounds[index], StandardCharsets.UTF_8);
+                String previous = shared.get(value);
+                if (previous != null) {
+                    value = previous;
+                } else if (shared.size() < MAX_SHARED_STRINGS) {
+                    shared.put(value, value);
+                }
+                result[r] = value;
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Parses integer without leading zeros or plus sign.
+     *
+     * @return false if not an integer
+     */
+    private static boolean parseInt(byte[] data, int start, int end, int[] dest, int index) {
+        boolean negative = start < end && data[start] == '-';
+        int i = negative ? start + 1 : start;
+        int numDigits = end - i;
+        if (numDigits == 0 || numDigits > 10 || (data[i] == '0' && numDigits > 1)) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        dest[index] = (int) value;
+        return true;
+    }
+
+    /**
+     * Parses decimal number (optionally with exponent), NaN, Infinity, or
+     * empty (NaN). Numbers with up to 15 significant digits and small
+     * exponents are converted exactly without Double.parseDouble().
+     *
+     * @return false if not a number
+     */
+    private static boolean parseDouble(byte[] data, int start, int end, double[] dest, int index) {
+
+        if (start == end || matches(data, start, end, NAN_BYTES)) {
+            dest[index] = Double.NaN;
+            return true;
+        }
+
+        boolean negative = data[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (matches(data, i, end, INFINITY_BYTES)) {
+            dest[index] = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            return true;
+        }
+
+        long mantissa = 0;
+        int numSignificant = 0;
+        int decimalExponent = 0;
+        int numDigits = 0;
+
+        int wholeStart = i;
+        for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+            numDigits++;
+            if (mantissa != 0 || data[i] != '0') {
+                if (numSignificant < 18) {
+                    mantissa = mantissa * 10 + (data[i] - '0');
+                } else {
+                    decimalExponent++;
+                }
+                numSignificant++;
+            }
+        }
+        if (i - wholeStart > 1 && data[wholeStart] == '0') {
+            return false;
+        }
+
+        if (i < end && data[i] == '.') {
+            i++;
+            for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                numDigits++;
+                if (mantissa != 0 || data[i] != '0') {
+                    if (numSignificant < 18) {
+                        mantissa = mantissa * 10 + (data[i] - '0');
+                        decimalExponent--;
+                    }
+                    numSignificant++;
+                } else {
+                    decimalExponent--;
+                }
+            }
+        }
+        if (numDigits == 0) {
+            return false;
+        }
+
+        if (i < end && (data[i] == 'E' || data[i] == 'e')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) {
+                negativeExponent = data[i] == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int exponent = 0;
+            for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (data[i] - '0');
+                }
+            }
+            if (i == exponentStart) {
+                return false;
+            }
+            decimalExponent += negativeExponent ? -exponent : exponent;
+        }
+        if (i != end) {
+            return false;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (numSignificant <= 15 && decimalExponent >= -22 && decimalExponent <= 22) {
+            value = decimalExponent < 0 ? mantissa / POWERS_OF_TEN[-decimalExponent] : mantissa * POWERS_OF_TEN[decimalExponent];
+        } else {
+            value = Math.abs(Double.parseDouble(new String(data, start, end - start, StandardCharsets.US_ASCII)));
+        }
+        dest[index] = negative ? -value : value;
+        return true;
+
+    }
+
+    private static boolean matches(byte[] data, int start, int end, byte[] text) {
+        if (end - start != text.length) {
+            return false;
+        }
+        for (int i = 0; i < text.length; i++) {
+            if (data[start + i] != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,13 +1,52 @@
 package net.maizegenetics.util;
 
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 
+/**
+ * Formats doubles with up to five decimal places, or in scientific notation
+ * with up to five significant digits when less than 0.001 or at least
+ * 1,000,000. Results are the same as the DecimalFormat patterns "0.#####" and
+ * "0.0###E0". Digits are generated directly for most values, and
+ * DecimalFormat is only used for values that fall near a rounding tie or when
+ * the default locale doesn't use ASCII digits and '.'. Thread safe.
+ */
 public class DoubleFormat {
 
-    private static NumberFormat nfe = null;
-    private static NumberFormat nf = null;
-    private static String NAN_STRING = "NaN";
+    private static final String NAN_STRING = "NaN";
+
+    private static final ThreadLocal<NumberFormat> NFE = ThreadLocal.withInitial(() -> {
+        NumberFormat result = NumberFormat.getInstance();
+        if (result instanceof DecimalFormat) {
+            ((DecimalFormat) result).applyPattern("0.0###E0");
+        }
+        return result;
+    });
+
+    private static final ThreadLocal<NumberFormat> NF = ThreadLocal.withInitial(() -> {
+        NumberFormat result = NumberFormat.getInstance();
+        if (result instanceof DecimalFormat) {
+            ((DecimalFormat) result).applyPattern("0.#####");
+        }
+        return result;
+    });
+
+    private static final boolean ASCII_SYMBOLS;
+
+    static {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        ASCII_SYMBOLS = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0'
+                && symbols.getMinusSign() == '-' && "E".equals(symbols.getExponentSeparator())
+                && (NumberFormat.getInstance() instanceof DecimalFormat);
+    }
+
+    private static final int NUM_DIGITS = 5;
+    private static final double SCALE = 1e5;
+    private static final double SCALE_MANTISSA = 1e4;
+
+    // scaled values this close to x.5 are left to DecimalFormat, which rounds the exact binary value
+    private static final double TIE_TOLERANCE = 1e-6;
 
     public static String format(double value) {
         if (Double.isNaN(value)) {
@@ -16,31 +55,121 @@ public class DoubleFormat {
         if (Double.isInfinite(value)) {
             return "Infinity";
         }
-        if (nfe == null) {
-            nfe = NumberFormat.getInstance();
-            if (nfe instanceof DecimalFormat) {
-                ((DecimalFormat) nfe).applyPattern("0.0###E0");
-            }
+        StringBuilder builder = new StringBuilder(12);
+        format(value, builder);
+        return builder.toString();
+    }
+
+    public static String format(Double value) {
+        if (value == null) {
+            return NAN_STRING;
         }
-        if (nf == null) {
-            nf = NumberFormat.getInstance();
-            if (nf instanceof DecimalFormat) {
-                ((DecimalFormat) nf).applyPattern("0.#####");
+        return format(value.doubleValue());
+    }
+
+    /**
+     * Appends formatted value to builder. Same result as format(double).
+     *
+     * @param value value
+     * @param builder builder
+     */
+    public static void format(double value, StringBuilder builder) {
+        if (Double.isNaN(value)) {
+            builder.append(NAN_STRING);
+        } else if (Double.isInfinite(value)) {
+            builder.append("Infinity");
+        } else if (value == 0) {
+            builder.append(NF.get().format(value));
+        } else if (value < .001 || value >= 1000000) {
+            if (!ASCII_SYMBOLS || !appendScientific(value, builder)) {
+                builder.append(NFE.get().format(value));
+            }
+        } else {
+            if (!ASCII_SYMBOLS || !appendPlain(value, builder)) {
+                builder.append(NF.get().format(value));
             }
         }
-        if (value == 0) {
-            return nf.format(value);
+    }
+
+    /**
+     * Appends positive value less than 1,000,000 with up to five decimal
+     * places.
+     *
+     * @return false if value is near a rounding tie
+     */
+    private static boolean appendPlain(double value, StringBuilder builder) {
+        double scaled = value * SCALE;
+        double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) < TIE_TOLERANCE) {
+            return false;
+        }
+        long rounded = (long) Math.rint(scaled);
+        long whole = rounded / (long) SCALE;
+        int decimals = (int) (rounded % (long) SCALE);
+        builder.append(whole);
+        appendDecimals(decimals, NUM_DIGITS, false, builder);
+        return true;
+    }
+
+    /**
+     * Appends non-zero value as mantissa with one to four decimal places and
+     * exponent.
+     *
+     * @return false if value is near a rounding tie or can't be scaled exactly
+     * enough
+     */
+    private static boolean appendScientific(double value, StringBuilder builder) {
+        double abs = Math.abs(value);
+        if (abs < 1e-300 || abs > 1e300) {
+            return false;
+        }
+        int exponent = (int) Math.floor(Math.log10(abs));
+        double mantissa = abs / Math.pow(10, exponent);
+        if (mantissa >= 10) {
+            mantissa /= 10;
+            exponent++;
+        } else if (mantissa < 1) {
+            mantissa *= 10;
+            exponent--;
+        }
+        double scaled = mantissa * SCALE_MANTISSA;
+        double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) < TIE_TOLERANCE) {
+            return false;
         }
-        if (value < .001 || value >= 1000000) {
-            return nfe.format(value);
+        int rounded = (int) Math.rint(scaled);
+        if (rounded >= 100000) {
+            rounded /= 10;
+            exponent++;
         }
-        return nf.format(value);
+        if (value < 0) {
+            builder.append('-');
+        }
+        builder.append(rounded / 10000);
+        appendDecimals(rounded % 10000, NUM_DIGITS - 1, true, builder);
+        builder.append('E').append(exponent);
+        return true;
     }
 
-    public static String format(Double value) {
-        if (value == null) {
-            return NAN_STRING;
+    /**
+     * Appends decimals (numDigits wide) without trailing zeros. If required,
+     * at least one decimal is appended.
+     */
+    private static void appendDecimals(int decimals, int numDigits, boolean required, StringBuilder builder) {
+        if (decimals == 0) {
+            if (required) {
+                builder.append(".0");
+            }
+            return;
+        }
+        while (decimals % 10 == 0) {
+            decimals /= 10;
+            numDigits--;
+        }
+        builder.append('.');
+        for (int divisor = (int) Math.pow(10, numDigits - 1); divisor > 0; divisor /= 10) {
+            builder.append((char) ('0' + (decimals / divisor) % 10));
         }
-        return format(value.doubleValue());
     }
+
 }
@@ -271,6 +271,41 @@ public final class HDF5Utils {
         writeHDF5EntireArray(callsPath, h5w, calls.length, Tassel5HDF5Constants.BLOCK_SIZE, calls);
     }
 
+    /**
+     * Creates an empty, extendable genotype calls data set for taxon. It is
+     * chunked by BLOCK_SIZE and grows as blocks are written with
+     * replaceHDF5GenotypesCalls(h5w, taxon, startSite, calls). The writer must
+     * not be configured with dontUseExtendableDataTypes().
+     *
+     * @param h5w writer
+     * @param taxon taxon name
+     */
+    public static void createHDF5GenotypesCalls(IHDF5Writer h5w, String taxon) {
+        if (isHDF5GenotypeLocked(h5w) == true) {
+            throw new UnsupportedOperationException("Trying to write to a locked HDF5 file");
+        }
+        String callsPath = Tassel5HDF5Constants.getGenotypesCallsPath(taxon);
+        if (h5w.exists(callsPath)) {
+            throw new IllegalStateException("Taxa Calls Already Exists:" + taxon);
+        }
+        h5w.createByteArray(callsPath, 0, Tassel5HDF5Constants.BLOCK_SIZE, Tassel5HDF5Constants.intDeflation);
+    }
+
+    /**
+     * Sets the number of sites of an extendable genotype calls data set.
+     * Used to trim a data set grown block by block.
+     *
+     * @param h5w writer
+     * @param taxon taxon name
+     * @param numberOfSites number of sites
+     */
+    public static void setHDF5GenotypesCallsSize(IHDF5Writer h5w, String taxon, int numberOfSites) {
+        if (isHDF5GenotypeLocked(h5w) == true) {
+            throw new UnsupportedOperationException("Trying to write to a locked HDF5 file");
+        }
+        h5w.setDataSetSize(Tassel5HDF5Constants.getGenotypesCallsPath(taxon), numberOfSites);
+    }
+
     public static void replaceHDF5GenotypesCalls(IHDF5Writer h5w, String taxon, byte[] calls) {
         if (isHDF5GenotypeLocked(h5w) == true) {
             throw new UnsupportedOperationException("Trying to write to a locked HDF5 file");
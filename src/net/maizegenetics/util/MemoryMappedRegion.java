@@ -0,0 +1,236 @@
+/*
+ *  MemoryMappedRegion
+ */
+package net.maizegenetics.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped region of a file made up of fixed size rows. A single
+ * MappedByteBuffer is limited to Integer.MAX_VALUE bytes, so the region is
+ * split into segments that each hold a whole number of rows. Rows never span
+ * segments, which keeps row access to a single buffer lookup. Absolute get
+ * methods on the underlying buffers don't change buffer state, so concurrent
+ * reads are safe.
+ *
+ * @author agent
+ */
+public class MemoryMappedRegion {
+
+    private final MappedByteBuffer[] mySegments;
+    private final long myNumRows;
+    private final int myRowSize;
+    private final int myRowsPerSegment;
+
+    private MemoryMappedRegion(MappedByteBuffer[] segments, long numRows, int rowSize, int rowsPerSegment) {
+        mySegments = segments;
+        myNumRows = numRows;
+        myRowSize = rowSize;
+        myRowsPerSegment = rowsPerSegment;
+    }
+
+    /**
+     * Maps region of file starting at given file position.
+     *
+     * @param channel file channel
+     * @param mode map mode (READ_ONLY or READ_WRITE)
+     * @param start start position in file (bytes)
+     * @param numRows number of rows
+     * @param rowSize number of bytes per row
+     *
+     * @return memory mapped region
+     */
+    public static MemoryMappedRegion getInstance(FileChannel channel, FileChannel.MapMode mode, long start, long numRows, int rowSize) {
+
+        if (rowSize <= 0) {
+            throw new IllegalArgumentException("MemoryMappedRegion: getInstance: row size must be positive: " + rowSize);
+        }
+        if (numRows < 0) {
+            throw new IllegalArgumentException("MemoryMappedRegion: getInstance: number of rows can't be negative: " + numRows);
+        }
+
+        int rowsPerSegment = Math.max(1, Integer.MAX_VALUE / rowSize);
+        int numSegments = (int) ((numRows + rowsPerSegment - 1) / rowsPerSegment);
+        MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        try {
+            long position = start;
+            long rowsRemaining = numRows;
+            for (int i = 0; i < numSegments; i++) {
+                long segmentRows = Math.min(rowsPerSegment, rowsRemaining);
+                long size = segmentRows * rowSize;
+                segments[i] = channel.map(mode, position, size);
+                segments[i].order(ByteOrder.BIG_ENDIAN);
+                position += size;
+                rowsRemaining -= segmentRows;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("MemoryMappedRegion: getInstance: problem mapping region: " + e.getMessage(), e);
+        }
+
+        return new MemoryMappedRegion(segments, numRows, rowSize, rowsPerSegment);
+
+    }
+
+    /**
+     * Number of bytes needed on disk for region.
+     *
+     * @param numRows number of rows
+     * @param rowSize number of bytes per row
+     *
+     * @return size in bytes
+     */
+    public static long regionSize(long numRows, int rowSize) {
+        return numRows * (long) rowSize;
+    }
+
+    public long numRows() {
+        return myNumRows;
+    }
+
+    public int rowSize() {
+        return myRowSize;
+    }
+
+    public byte get(long row, int column) {
+        return segment(row).get(offset(row, column));
+    }
+
+    public short getShort(long row, int column) {
+        return segment(row).getShort(offset(row, column));
+    }
+
+    public int getInt(long row, int column) {
+        return segment(row).getInt(offset(row, column));
+    }
+
+    public long getLong(long row, int column) {
+        return segment(row).getLong(offset(row, column));
+    }
+
+    public float getFloat(long row, int column) {
+        return segment(row).getFloat(offset(row, column));
+    }
+
+    public double getDouble(long row, int column) {
+        return segment(row).getDouble(offset(row, column));
+    }
+
+    public void put(long row, int column, byte value) {
+        segment(row).put(offset(row, column), value);
+    }
+
+    public void putInt(long row, int column, int value) {
+        segment(row).putInt(offset(row, column), value);
+    }
+
+    public void putLong(long row, int column, long value) {
+        segment(row).putLong(offset(row, column), value);
+    }
+
+    public void putFloat(long row, int column, float value) {
+        segment(row).putFloat(offset(row, column), value);
+    }
+
+    public void putDouble(long row, int column, double value) {
+        segment(row).putDouble(offset(row, column), value);
+    }
+
+    /**
+     * Copies bytes of a row into destination array.
+     *
+     * @param row row
+     * @param column first column (byte offset within row)
+     * @param dest destination
+     * @param destOffset offset in destination
+     * @param length number of bytes
+     */
+    public void getBytes(long row, int column, byte[] dest, int destOffset, int length) {
+        ByteBuffer temp = segment(row).duplicate();
+        temp.position(offset(row, column));
+        temp.get(dest, destOffset, length);
+    }
+
+    /**
+     * Copies bytes into row.
+     *
+     * @param row row
+     * @param column first column (byte offset within row)
+     * @param src source
+     * @param srcOffset offset in source
+     * @param length number of bytes
+     */
+    public void putBytes(long row, int column, byte[] src, int srcOffset, int length) {
+        ByteBuffer temp = segment(row).duplicate();
+        temp.position(offset(row, column));
+        temp.put(src, srcOffset, length);
+    }
+
+    /**
+     * Copies longs of a row into destination array.
+     *
+     * @param row row
+     * @param column first column (byte offset within row)
+     * @param dest destination
+     * @param destOffset offset in destination
+     * @param length number of longs
+     */
+    public void getLongs(long row, int column, long[] dest, int destOffset, int length) {
+        ByteBuffer temp = segment(row).duplicate();
+        temp.position(offset(row, column));
+        temp.asLongBuffer().get(dest, destOffset, length);
+    }
+
+    /**
+     * Copies longs into row.
+     *
+     * @param row row
+     * @param column first column (byte offset within row)
+     * @param src source
+     * @param srcOffset offset in source
+     * @param length number of longs
+     */
+    public void putLongs(long row, int column, long[] src, int srcOffset, int length) {
+        ByteBuffer temp = segment(row).duplicate();
+        temp.position(offset(row, column));
+        temp.asLongBuffer().put(src, srcOffset, length);
+    }
+
+    /**
+     * Returns read only view of given row. Returned buffer is independent of
+     * other callers.
+     *
+     * @param row row
+     *
+     * @return buffer positioned at beginning of row and limited to end of row
+     */
+    public ByteBuffer row(long row) {
+        ByteBuffer temp = segment(row).duplicate();
+        int start = offset(row, 0);
+        temp.limit(start + myRowSize);
+        temp.position(start);
+        return temp.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Flushes changes to storage device. Only relevant for READ_WRITE
+     * mappings.
+     */
+    public void force() {
+        for (MappedByteBuffer current : mySegments) {
+            current.force();
+        }
+    }
+
+    private MappedByteBuffer segment(long row) {
+        return mySegments[(int) (row / myRowsPerSegment)];
+    }
+
+    private int offset(long row, int column) {
+        return (int) (row % myRowsPerSegment) * myRowSize + column;
+    }
+
+}
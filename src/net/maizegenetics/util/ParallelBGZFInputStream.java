@@ -0,0 +1,275 @@
+/*
+ *  ParallelBGZFInputStream
+ */
+package net.maizegenetics.util;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream that decompresses a BGZF (block gzip) file on multiple threads.
+ * BGZF blocks are independent deflate streams, each with its compressed size
+ * in the header. Compressed blocks are read on the calling thread in batches,
+ * and batches are inflated by a thread pool ahead of the reader. Decompressed
+ * bytes are returned in file order. Each block is checked against the CRC32
+ * and uncompressed size in its trailer.
+ *
+ * @author agent
+ */
+public class ParallelBGZFInputStream extends InputStream {
+
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int BLOCKS_PER_BATCH = 64;
+
+    private final InputStream myInput;
+    private final ExecutorService myPool;
+    private final int myMaxPendingBatches;
+    private final ArrayDeque<Future<byte[]>> myPending = new ArrayDeque<>();
+    private boolean myEndOfInput = false;
+
+    private byte[] myCurrent = new byte[0];
+    private int myPosition = 0;
+
+    private ParallelBGZFInputStream(InputStream input, int numThreads) {
+        myInput = input;
+        myPool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ParallelBGZFInputStream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        myMaxPendingBatches = numThreads * 2;
+    }
+
+    /**
+     * Opens BGZF file for reading.
+     *
+     * @param filename file name
+     * @param numThreads number of decompression threads
+     *
+     * @return input stream
+     */
+    public static ParallelBGZFInputStream getInstance(String filename, int numThreads) {
+        try {
+            return new ParallelBGZFInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 20), Math.max(1, numThreads));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("ParallelBGZFInputStream: getInstance: problem opening: " + filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns whether given file is a local BGZF file.
+     *
+     * @param filename file name
+     *
+     * @return true if BGZF
+     */
+    public static boolean isBGZF(String filename) {
+        if (filename.startsWith("http")) {
+            return false;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(filename))) {
+            return BlockCompressedInputStream.isValidFile(input);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return myCurrent[myPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int numRead = Math.min(len, myCurrent.length - myPosition);
+        System.arraycopy(myCurrent, myPosition, b, off, numRead);
+        myPosition += numRead;
+        return numRead;
+    }
+
+    /**
+     * Makes next decompressed batch current if current batch is used up.
+     *
+     * @return false if no more data
+     */
+    private boolean ensureData() throws IOException {
+        while (myPosition >= myCurrent.length) {
+            submitBatches();
+            Future<byte[]> next = myPending.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                myCurrent = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("ParallelBGZFInputStream: interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("ParallelBGZFInputStream: " + e.getCause().getMessage(), e.getCause());
+            }
+            myPosition = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads compressed batches and submits them for decompression until
+     * enough batches are pending.
+     */
+    private void submitBatches() throws IOException {
+        while (!myEndOfInput && myPending.size() < myMaxPendingBatches) {
+            byte[][] blocks = new byte[BLOCKS_PER_BATCH][];
+            int numBlocks = 0;
+            while (numBlocks < BLOCKS_PER_BATCH) {
+                byte[] block = readBlock();
+                if (block == null) {
+                    myEndOfInput = true;
+                    break;
+                }
+                blocks[numBlocks++] = block;
+            }
+            if (numBlocks == 0) {
+                break;
+            }
+            final byte[][] batch = (numBlocks == BLOCKS_PER_BATCH) ? blocks : Arrays.copyOf(blocks, numBlocks);
+            myPending.add(myPool.submit(() -> inflate(batch)));
+        }
+    }
+
+    /**
+     * Reads one compressed block.
+     *
+     * @return whole block including header and footer, or null at end of file
+     */
+    private byte[] readBlock() throws IOException {
+        byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        int numRead = readFully(header, 0, BLOCK_HEADER_LENGTH);
+        if (numRead == 0) {
+            return null;
+        }
+        if (numRead < BLOCK_HEADER_LENGTH) {
+            throw new EOFException("ParallelBGZFInputStream: readBlock: truncated block header");
+        }
+        if ((header[0] & 0xFF) != 31 || (header[1] & 0xFF) != 139 || (header[3] & 4) == 0
+                || header[12] != 'B' || header[13] != 'C') {
+            throw new IOException("ParallelBGZFInputStream: readBlock: not a BGZF block");
+        }
+        int blockSize = unsignedShort(header, 16) + 1;
+        if (blockSize < BLOCK_HEADER_LENGTH || blockSize > MAX_BLOCK_SIZE) {
+            throw new IOException("ParallelBGZFInputStream: readBlock: invalid block size: " + blockSize);
+        }
+        byte[] block = Arrays.copyOf(header, blockSize);
+        if (readFully(block, BLOCK_HEADER_LENGTH, blockSize - BLOCK_HEADER_LENGTH) != blockSize - BLOCK_HEADER_LENGTH) {
+            throw new EOFException("ParallelBGZFInputStream: readBlock: truncated block");
+        }
+        return block;
+    }
+
+    private int readFully(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int numRead = myInput.read(buffer, offset + total, length - total);
+            if (numRead < 0) {
+                break;
+            }
+            total += numRead;
+        }
+        return total;
+    }
+
+    /**
+     * Inflates each block of batch and concatenates the results. The CRC32
+     * and uncompressed size (ISIZE) in the trailer of each block are verified.
+     */
+    private static byte[] inflate(byte[][] batch) throws DataFormatException {
+        int total = 0;
+        for (byte[] block : batch) {
+            total += uncompressedSize(block);
+        }
+        byte[] result = new byte[total];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] probe = new byte[1];
+        try {
+            int offset = 0;
+            for (byte[] block : batch) {
+                int size = uncompressedSize(block);
+                int extraLength = unsignedShort(block, 10);
+                int dataStart = 12 + extraLength;
+                inflater.reset();
+                inflater.setInput(block, dataStart, block.length - dataStart - 8);
+                int inflated = 0;
+                while (inflated < size) {
+                    int numInflated = inflater.inflate(result, offset + inflated, size - inflated);
+                    if (numInflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    inflated += numInflated;
+                }
+                // the end of the deflate stream may not be seen until inflate is called again
+                if (inflated == size && !inflater.finished() && inflater.inflate(probe) != 0) {
+                    inflated++;
+                }
+                if (inflated != size || !inflater.finished() || inflater.getRemaining() != 0) {
+                    throw new DataFormatException("ParallelBGZFInputStream: inflate: block size doesn't match trailer: expected " + size + " bytes");
+                }
+                crc.reset();
+                crc.update(result, offset, size);
+                if ((int) crc.getValue() != littleEndianInt(block, block.length - 8)) {
+                    throw new DataFormatException("ParallelBGZFInputStream: inflate: CRC32 doesn't match trailer");
+                }
+                offset += size;
+            }
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    private static int uncompressedSize(byte[] block) {
+        return littleEndianInt(block, block.length - 4);
+    }
+
+    private static int littleEndianInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int unsignedShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : myPending) {
+            future.cancel(true);
+        }
+        myPending.clear();
+        myPool.shutdownNow();
+        myInput.close();
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *  ParallelBGZFWriter
+ */
+package net.maizegenetics.util;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a BGZF (block gzip) text file on multiple threads. Each call to
+ * write() submits a task that formats a block of whole lines and compresses it
+ * into BGZF blocks. Compressed blocks are written in the order submitted, on
+ * the calling thread. The virtual file offset of each line is passed to the
+ * given indexers as the blocks are written, so indices are created in the same
+ * pass.
+ *
+ * @author agent
+ */
+public class ParallelBGZFWriter implements Closeable {
+
+    private final OutputStream myOutput;
+    private final ExecutorService myPool;
+    private final int myMaxPendingBlocks;
+    private final ArrayDeque<Future<CompressedBlock>> myPending = new ArrayDeque<>();
+    private final LineIndexer[] myIndexers;
+    private long myBlockAddress = 0;
+    private boolean myFailed = false;
+
+    private ParallelBGZFWriter(OutputStream output, int numThreads, LineIndexer[] indexers) {
+        myOutput = output;
+        myPool = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ParallelBGZFWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        myMaxPendingBlocks = numThreads * 2;
+        myIndexers = indexers;
+    }
+
+    /**
+     * Opens file for writing.
+     *
+     * @param filename file name
+     * @param numThreads number of threads to format and compress blocks
+     * @param indexers indexers given each line and its virtual file offset
+     *
+     * @return writer
+     */
+    public static ParallelBGZFWriter getInstance(String filename, int numThreads, LineIndexer... indexers) {
+        try {
+            return new ParallelBGZFWriter(new BufferedOutputStream(new FileOutputStream(filename), 1 << 20), Math.max(1, numThreads), indexers);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("ParallelBGZFWriter: getInstance: problem opening: " + filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Submits task that returns a block of whole lines (each ending with a
+     * newline). Blocks until the number of pending tasks is under the limit.
+     *
+     * @param formatter task returning lines
+     *
+     * @throws IOException if a previous block failed or couldn't be written
+     */
+    public void write(Callable<String> formatter) throws IOException {
+        myPending.add(myPool.submit(() -> compress(formatter.call())));
+        while (myPending.size() > myMaxPendingBlocks) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes next pending block, after passing its lines to the indexers.
+     */
+    private void writeNext() throws IOException {
+        CompressedBlock block;
+        try {
+            block = myPending.poll().get();
+        } catch (InterruptedException e) {
+            myFailed = true;
+            Thread.currentThread().interrupt();
+            throw new IOException("ParallelBGZFWriter: interrupted", e);
+        } catch (ExecutionException e) {
+            myFailed = true;
+            throw new IOException("ParallelBGZFWriter: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        try {
+            for (LineIndexer indexer : myIndexers) {
+                for (int i = 0; i < block.myNumLines; i++) {
+                    long offset = block.myLineOffsets[i];
+                    long virtualOffset = ((myBlockAddress + (offset >>> 16)) << 16) | (offset & 0xFFFF);
+                    indexer.line(block.myData, block.myLineStarts[i], block.myLineEnds[i], virtualOffset);
+                }
+            }
+            myOutput.write(block.myCompressed);
+            myBlockAddress += block.myCompressed.length;
+        } catch (IOException | RuntimeException e) {
+            myFailed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses lines into BGZF blocks, recording the offset of each line
+     * relative to the first block.
+     */
+    private static CompressedBlock compress(String lines) throws IOException {
+
+        byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+
+        int numLines = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\n') {
+                numLines++;
+            }
+        }
+        if ((data.length != 0) && (data[data.length - 1] != '\n')) {
+            numLines++;
+        }
+
+        int[] starts = new int[numLines];
+        int[] ends = new int[numLines];
+        long[] offsets = new long[numLines];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 3 + 1024);
+        BlockCompressedOutputStream bgzf = new BlockCompressedOutputStream(bytes, null);
+        byte[] compressed;
+        try {
+            int start = 0;
+            for (int line = 0; line < numLines; line++) {
+                int end = start;
+                while ((end < data.length) && (data[end] != '\n')) {
+                    end++;
+                }
+                starts[line] = start;
+                ends[line] = ((end > start) && (data[end - 1] == '\r')) ? end - 1 : end;
+                offsets[line] = bgzf.getFilePointer();
+                int next = Math.min(end + 1, data.length);
+                bgzf.write(data, start, next - start);
+                start = next;
+            }
+            bgzf.flush();
+            // taken before close() appends an end of file block
+            compressed = bytes.toByteArray();
+        } finally {
+            bgzf.close();
+        }
+
+        return new CompressedBlock(data, starts, ends, offsets, numLines, compressed);
+
+    }
+
+    /**
+     * Writes remaining blocks, finishes the indexers, and writes the BGZF end
+     * of file block. If a block failed, the file is closed without finishing
+     * the indexers.
+     *
+     * @throws IOException if problem writing
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!myFailed) {
+                while (!myPending.isEmpty()) {
+                    writeNext();
+                }
+                for (LineIndexer indexer : myIndexers) {
+                    indexer.finish(myBlockAddress << 16);
+                }
+                myOutput.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            }
+        } finally {
+            for (Future<CompressedBlock> future : myPending) {
+                future.cancel(true);
+            }
+            myPending.clear();
+            myPool.shutdownNow();
+            myOutput.close();
+        }
+    }
+
+    /**
+     * Receives each line written and its BGZF virtual file offset.
+     */
+    public interface LineIndexer {
+
+        /**
+         * Called for each line in file order.
+         *
+         * @param data bytes holding line
+         * @param start start of line (inclusive)
+         * @param end end of line (exclusive, without line terminator)
+         * @param virtualOffset virtual file offset of line
+         *
+         * @throws IOException if problem indexing
+         */
+        public void line(byte[] data, int start, int end, long virtualOffset) throws IOException;
+
+        /**
+         * Called after the last line.
+         *
+         * @param virtualOffset virtual file offset of end of file
+         *
+         * @throws IOException if problem writing index
+         */
+        public void finish(long virtualOffset) throws IOException;
+
+    }
+
+    private static class CompressedBlock {
+
+        private final byte[] myData;
+        private final int[] myLineStarts;
+        private final int[] myLineEnds;
+        private final long[] myLineOffsets;
+        private final int myNumLines;
+        private final byte[] myCompressed;
+
+        private CompressedBlock(byte[] data, int[] lineStarts, int[] lineEnds, long[] lineOffsets, int numLines, byte[] compressed) {
+            myData = data;
+            myLineStarts = lineStarts;
+            myLineEnds = lineEnds;
+            myLineOffsets = lineOffsets;
+            myNumLines = numLines;
+            myCompressed = compressed;
+        }
+
+    }
+
+}
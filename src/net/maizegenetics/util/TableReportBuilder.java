@@ -97,6 +97,20 @@ public class TableReportBuilder {
 
     }
 
+    /**
+     * Adds all rows of given in memory builder in order.
+     *
+     * @param builder builder
+     */
+    public void add(TableReportBuilder builder) {
+        if (!builder.myInMemory) {
+            throw new IllegalArgumentException("TableReportBuilder: add: rows can only be added from an in memory builder.");
+        }
+        for (Object[] row : builder.myData) {
+            add(row);
+        }
+    }
+
     public void addElements(Object... rowElements) {
         //this uses reflection to append the arrays together.
         Object[] list = new Object[myNumColumns];
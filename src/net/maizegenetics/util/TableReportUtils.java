@@ -4,14 +4,14 @@ import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.concurrent.Future;
 
 /**
  * @author Terry Casstevens
@@ -20,6 +20,8 @@ public class TableReportUtils {
 
     private static final Logger myLogger = Logger.getLogger(TableReportUtils.class);
 
+    private static final int ROWS_PER_BATCH = 10000;
+
     /**
      * Saves Table Report to file delimited by tabs.
      *
@@ -57,13 +59,30 @@ public class TableReportUtils {
     }
 
     /**
-     * Saves Table Report to file delimited by specified delimiter.
+     * Saves Table Report to file delimited by specified delimiter. Rows are
+     * formatted in batches on multiple threads and written in order.
      *
      * @param theTableSource table report
      * @param delimit delimiter
      * @param bw writer
      */
     public static void saveDelimitedTableReport(TableReport theTableSource, String delimit, BufferedWriter bw, boolean includeHeader) throws IOException {
+        saveDelimitedTableReport(theTableSource, delimit, bw, includeHeader, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Saves Table Report to file delimited by specified delimiter. Rows are
+     * retrieved from the table report on the calling thread, formatted in
+     * batches on numThreads threads, and written in order. Only a few batches
+     * are held in memory at once.
+     *
+     * @param theTableSource table report
+     * @param delimit delimiter
+     * @param bw writer
+     * @param includeHeader whether to write column names
+     * @param numThreads number of threads formatting rows
+     */
+    public static void saveDelimitedTableReport(TableReport theTableSource, String delimit, BufferedWriter bw, boolean includeHeader, int numThreads) throws IOException {
 
         if (bw == null) {
             throw new IllegalArgumentException("TableReportUtils: saveDelimitedTableReport: no buffered writer specified.");
@@ -80,86 +99,80 @@ public class TableReportUtils {
             bw.write("\n");
         }
 
-        for (long r = 0, n = theTableSource.getRowCount(); r < n; r++) {
-            Object[] theRow = theTableSource.getRow(r);
-            for (int i = 0; i < theRow.length; i++) {
-                if (i != 0) {
-                    bw.write(delimit);
-                }
-                if (theRow[i] == null) {
-                    // do nothing
-                } else if (theRow[i] instanceof Double) {
-                    bw.write(DoubleFormat.format((Double) theRow[i]));
-                } else {
-                    bw.write(theRow[i].toString());
-                }
+        long numRows = theTableSource.getRowCount();
+        if (numRows <= ROWS_PER_BATCH || numThreads <= 1) {
+            for (long r = 0; r < numRows; r += ROWS_PER_BATCH) {
+                bw.write(formatRows(getRows(theTableSource, r, (int) Math.min(ROWS_PER_BATCH, numRows - r)), delimit));
             }
-            bw.write("\n");
+            return;
         }
 
-    }
-
-    public static TableReport readDelimitedTableReport(String saveFile, String delimit) {
-        myLogger.info("readDelimitedTableReport: Reading: " + saveFile);
-        int numLines = Utils.getNumberLines(saveFile) - 1;
-        myLogger.info("readDelimitedTableReport: Num Lines (Not including header): " + numLines);
-
-        Pattern delimitPattern = Pattern.compile(delimit);
-        BufferedReader br = null;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
         try {
-            br = Utils.getBufferedReader(saveFile);
-            String[] columnHeaders = delimitPattern.split(br.readLine().trim());
-
-            int numThreads = Runtime.getRuntime().availableProcessors();
-            ExecutorService pool = Executors.newFixedThreadPool(numThreads);
-            String[][] data = new String[numLines][];
-            int maxNumLinesPerThread = 100000;
-            for (int i = 0; i < numLines; i = i + maxNumLinesPerThread) {
-                int numLinesForThread = Math.min(maxNumLinesPerThread, numLines - i);
-                String[] lines = new String[numLinesForThread];
-                for (int j = 0; j < numLinesForThread; j++) {
-                    lines[j] = br.readLine().trim();
+            ArrayDeque<Future<String>> futures = new ArrayDeque<>();
+            for (long r = 0; r < numRows; r += ROWS_PER_BATCH) {
+                Object[][] rows = getRows(theTableSource, r, (int) Math.min(ROWS_PER_BATCH, numRows - r));
+                futures.add(pool.submit(() -> formatRows(rows, delimit)));
+                if (futures.size() >= 2 * numThreads) {
+                    bw.write(futures.poll().get());
                 }
-                pool.execute(new SplitTableReportString(data, i, lines, delimitPattern));
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(6000, TimeUnit.SECONDS)) {
-                throw new IllegalStateException("TableReportUtils: readDelimitedTableReport: processing threads timed out.");
+            while (!futures.isEmpty()) {
+                bw.write(futures.poll().get());
             }
-            return new SimpleTableReport(saveFile, columnHeaders, data);
-        } catch (Exception e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("TableReportUtils: saveDelimitedTableReport: interrupted while formatting rows.");
+        } catch (ExecutionException e) {
             myLogger.debug(e.getMessage(), e);
-            throw new IllegalArgumentException("Problem creating TableReport: " + saveFile + ": " + ExceptionUtils.getExceptionCauses(e));
+            throw new IllegalStateException("TableReportUtils: saveDelimitedTableReport: problem formatting rows: " + e.getCause().getMessage());
         } finally {
-            try {
-                br.close();
-            } catch (Exception ex) {
-                myLogger.debug(ex.getMessage(), ex);
-            }
+            pool.shutdownNow();
         }
 
     }
 
-    private static class SplitTableReportString implements Runnable {
-
-        private final String[][] myData;
-        private int myLineNum;
-        private final String[] myLines;
-        private final Pattern myPattern;
-
-        public SplitTableReportString(String[][] data, int lineNum, String[] lines, Pattern pattern) {
-            myData = data;
-            myLineNum = lineNum;
-            myLines = lines;
-            myPattern = pattern;
+    private static Object[][] getRows(TableReport theTableSource, long firstRow, int numRows) {
+        Object[][] result = new Object[numRows][];
+        for (int i = 0; i < numRows; i++) {
+            result[i] = theTableSource.getRow(firstRow + i);
         }
+        return result;
+    }
 
-        @Override
-        public void run() {
-            for (int i = 0, n = myLines.length; i < n; i++) {
-                myData[myLineNum++] = myPattern.split(myLines[i]);
+    private static String formatRows(Object[][] rows, String delimit) {
+        StringBuilder builder = new StringBuilder(rows.length * 64);
+        for (Object[] theRow : rows) {
+            for (int i = 0; i < theRow.length; i++) {
+                if (i != 0) {
+                    builder.append(delimit);
+                }
+                if (theRow[i] == null) {
+                    // do nothing
+                } else if (theRow[i] instanceof Double) {
+                    DoubleFormat.format((Double) theRow[i], builder);
+                } else {
+                    builder.append(theRow[i].toString());
+                }
             }
+            builder.append('\n');
         }
+        return builder.toString();
+    }
+
+    /**
+     * Reads delimited file into a table report. Column types are inferred
+     * from the values, and integer and numeric columns are stored as
+     * primitive arrays (see ColumnarTableReport).
+     *
+     * @param saveFile file
+     * @param delimit delimiter
+     *
+     * @return table report
+     */
+    public static TableReport readDelimitedTableReport(String saveFile, String delimit) {
+        myLogger.info("readDelimitedTableReport: Reading: " + saveFile);
+        return ColumnarTableReport.readDelimited(saveFile, delimit, Runtime.getRuntime().availableProcessors());
     }
 
     public static Table<Integer, String, Object> convertTableReportToGuavaTable(TableReport tr) {
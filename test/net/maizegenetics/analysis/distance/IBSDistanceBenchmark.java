@@ -0,0 +1,143 @@
+/*
+ *  IBSDistanceBenchmark
+ */
+package net.maizegenetics.analysis.distance;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import net.maizegenetics.dna.snp.GenotypeTable;
+import net.maizegenetics.dna.snp.ImportUtils;
+import net.maizegenetics.taxa.distance.DistanceMatrix;
+import net.maizegenetics.taxa.distance.DistanceMatrixBuilder;
+
+import static net.maizegenetics.dna.WHICH_ALLELE.Major;
+import static net.maizegenetics.dna.WHICH_ALLELE.Minor;
+import static net.maizegenetics.dna.WHICH_ALLELE.Minor2;
+
+/**
+ * Compares run time and results of the IBS distance engines on a genotype
+ * file. Each engine is run for the given number of warmup iterations before
+ * being timed. For both two and three alleles, results are compared with the
+ * pairwise bit distances of IBSDistanceMatrix.
+ * <p></p>
+ * This is not part of the TASSEL build.
+ * <p></p>
+ * Usage: IBSDistanceBenchmark &lt;genotype file&gt; [iterations] [warmup]
+ *
+ * @author agent
+ */
+public class IBSDistanceBenchmark {
+
+    private IBSDistanceBenchmark() {
+        // utility
+    }
+
+    public static void main(String[] args) {
+
+        if (args.length < 1) {
+            System.out.println("Usage: IBSDistanceBenchmark <genotype file> [iterations] [warmup]");
+            return;
+        }
+
+        GenotypeTable genotype = ImportUtils.read(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        System.out.println("Taxa: " + genotype.numberOfTaxa() + "  Sites: " + genotype.numberOfSites());
+
+        Map<String, Function<GenotypeTable, DistanceMatrix>> twoAlleles = new LinkedHashMap<>();
+        twoAlleles.put("IBSDistanceMatrix pairwise (2 alleles)", g -> pairwiseDistances(g, false));
+        twoAlleles.put("IBSDistanceMatrix (2 alleles)", g -> IBSDistanceMatrix.getInstance(g, 0, false, null, false));
+        twoAlleles.put("IBSDistanceMatrix2Alleles", g -> IBSDistanceMatrix2Alleles.getInstance(g, 0, false, null));
+        twoAlleles.put("TiledIBSDistanceMatrix (2 alleles)", g -> TiledIBSDistanceMatrix.getInstance(g, 0, false, null, false));
+        run(genotype, twoAlleles, iterations, warmup);
+
+        Map<String, Function<GenotypeTable, DistanceMatrix>> threeAlleles = new LinkedHashMap<>();
+        threeAlleles.put("IBSDistanceMatrix pairwise (3 alleles)", g -> pairwiseDistances(g, true));
+        threeAlleles.put("IBSDistanceMatrix (3 alleles)", g -> IBSDistanceMatrix.getInstance(g, 0, false, null, true));
+        threeAlleles.put("IBSDistanceMatrix3Alleles", g -> IBSDistanceMatrix3Alleles.getInstance(g, 0, false, null));
+        threeAlleles.put("TiledIBSDistanceMatrix (3 alleles)", g -> TiledIBSDistanceMatrix.getInstance(g, 0, false, null, true));
+        run(genotype, threeAlleles, iterations, warmup);
+
+    }
+
+    //
+    // Times each engine. Every engine is compared with
+    // the first one, which is the reference.
+    //
+    private static void run(GenotypeTable genotype, Map<String, Function<GenotypeTable, DistanceMatrix>> engines, int iterations, int warmup) {
+
+        DistanceMatrix reference = null;
+        for (Map.Entry<String, Function<GenotypeTable, DistanceMatrix>> current : engines.entrySet()) {
+
+            for (int i = 0; i < warmup; i++) {
+                current.getValue().apply(genotype);
+            }
+
+            DistanceMatrix result = null;
+            long total = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                result = current.getValue().apply(genotype);
+                total += System.nanoTime() - start;
+            }
+
+            String difference = "";
+            if (reference == null) {
+                reference = result;
+            } else {
+                difference = "  max difference: " + maxDifference(reference, result);
+            }
+
+            System.out.println(current.getKey() + ": " + (total / iterations / 1000000) + " msec" + difference);
+
+        }
+
+    }
+
+    //
+    // Distances from IBSDistanceMatrix bit calculations
+    // for each pair of taxa.
+    //
+    private static DistanceMatrix pairwiseDistances(GenotypeTable genotype, boolean useThirdState) {
+        int numTaxa = genotype.numberOfTaxa();
+        DistanceMatrixBuilder builder = DistanceMatrixBuilder.getInstance(genotype.taxa());
+        for (int i = 0; i < numTaxa; i++) {
+            long[] iMj = genotype.allelePresenceForAllSites(i, Major).getBits();
+            long[] iMn = genotype.allelePresenceForAllSites(i, Minor).getBits();
+            long[] iMn2 = useThirdState ? genotype.allelePresenceForAllSites(i, Minor2).getBits() : null;
+            builder.set(i, i, 0);
+            for (int j = i + 1; j < numTaxa; j++) {
+                long[] jMj = genotype.allelePresenceForAllSites(j, Major).getBits();
+                long[] jMn = genotype.allelePresenceForAllSites(j, Minor).getBits();
+                double[] result;
+                if (useThirdState) {
+                    long[] jMn2 = genotype.allelePresenceForAllSites(j, Minor2).getBits();
+                    result = IBSDistanceMatrix.computeHetBitDistancesThirdState(iMj, iMn, iMn2, jMj, jMn, jMn2, 0);
+                } else {
+                    result = IBSDistanceMatrix.computeHetBitDistances(iMj, iMn, jMj, jMn, 0);
+                }
+                builder.set(i, j, result[0]);
+            }
+        }
+        return builder.build();
+    }
+
+    private static double maxDifference(DistanceMatrix first, DistanceMatrix second) {
+        double result = 0.0;
+        for (int i = 0, n = first.getSize(); i < n; i++) {
+            for (int j = i; j < n; j++) {
+                double a = first.getDistance(i, j);
+                double b = second.getDistance(i, j);
+                if (Double.isNaN(a) != Double.isNaN(b)) {
+                    return Double.NaN;
+                } else if (!Double.isNaN(a)) {
+                    result = Math.max(result, Math.abs(a - b));
+                }
+            }
+        }
+        return result;
+    }
+
+}